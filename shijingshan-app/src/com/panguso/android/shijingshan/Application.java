@@ -4,11 +4,16 @@ import java.util.List;
 import java.util.UUID;
 
 import com.panguso.android.shijingshan.column.ColumnPage;
+import com.panguso.android.shijingshan.column.ColumnPageActivity;
+import com.panguso.android.shijingshan.login.LoginActivity;
+import com.panguso.android.shijingshan.net.NetworkPolicy;
+import com.panguso.android.shijingshan.net.NetworkService;
 
 import android.app.ActivityManager;
 import android.app.ActivityManager.RunningTaskInfo;
 import android.content.ComponentName;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.provider.Settings.Secure;
 import android.telephony.TelephonyManager;
@@ -41,13 +46,38 @@ public class Application extends android.app.Application {
 	@Override
 	public void onCreate() {
 		super.onCreate();
+		MainThreadMonitor.install(this);
 		Resources resources = getResources();
+		StyleRegistry.initialize(resources);
 		/** Initialize {@link ColumnPage}'s parameters. */
 		ColumnPage.initialize(
 				resources.getDimension(R.dimen.column_offset_left),
 				resources.getDimension(R.dimen.column_offset_top),
 				resources.getDimension(R.dimen.column_margin),
 				resources.getDimension(R.dimen.column_size));
+		NetworkPolicy.update(this);
+		NetworkService.flushOutbox(this);
+		// Start loading the last accounts before the first activity reads them.
+		ColumnPageActivity.getKeyValueStore(this);
+		LoginActivity.getKeyValueStore(this);
+	}
+
+	@Override
+	public void onConfigurationChanged(Configuration newConfig) {
+		super.onConfigurationChanged(newConfig);
+		StyleRegistry.initialize(getResources());
+	}
+
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		MemoryCoordinator.getInstance().onTrimMemory(level);
+	}
+
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		MemoryCoordinator.getInstance().onLowMemory();
 	}
 
 	/**
@@ -61,7 +91,10 @@ public class Application extends android.app.Application {
 	public static boolean isForeground(Context context) {
 		ActivityManager am = (ActivityManager) context
 				.getSystemService(Context.ACTIVITY_SERVICE);
+		final long start = MainThreadMonitor.start();
 		List<RunningTaskInfo> tasks = am.getRunningTasks(1);
+		MainThreadMonitor.finish(MainThreadMonitor.Type.IPC,
+				"getRunningTasks", start);
 		if (!tasks.isEmpty()) {
 			ComponentName topActivity = tasks.get(0).topActivity;
 			if (topActivity.getPackageName().equals(context.getPackageName())) {
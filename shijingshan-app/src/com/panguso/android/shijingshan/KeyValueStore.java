@@ -0,0 +1,706 @@
+package com.panguso.android.shijingshan;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * A small key-value store to replace the {@link SharedPreferences} on the hot
+ * paths. The file is loaded on a background thread as soon as the store is
+ * got, and the changes are appended to a memory-mapped log on the same
+ * thread, which is compacted into a snapshot once the stale records pile up.
+ * The changes are visible to the reads at once, so a caller always reads its
+ * own writes. A read only waits if it comes before the file is loaded and the
+ * key has not been written since. The first load, when there is no file yet,
+ * migrates the values from the legacy {@link SharedPreferences} file. A
+ * corrupt file is moved aside, and the values before the corruption are kept.
+ * 
+ * @author Luo Yinzhuo
+ */
+public final class KeyValueStore {
+	/** The file magic, "SJKV". */
+	private static final int MAGIC = 0x534A4B56;
+	/** The file format version. */
+	private static final byte VERSION = 1;
+	/** The header size. */
+	private static final int HEADER_SIZE = 5;
+
+	/** The record to put a value, the log ends with a zero byte. */
+	private static final byte OP_PUT = 1;
+	/** The record to remove a value. */
+	private static final byte OP_REMOVE = 2;
+
+	/** The initial mapped size. */
+	private static final int INITIAL_SIZE = 4096;
+	/** The minimum record count to trigger a compaction. */
+	private static final int COMPACT_THRESHOLD = 64;
+	/** The time a read waits for the load before it's logged as slow. */
+	private static final long SLOW_READ_TIME = 16;
+
+	/** The store file suffix. */
+	private static final String FILE_SUFFIX = ".kv";
+	/** The suffix of a corrupt store file moved aside. */
+	private static final String CORRUPT_SUFFIX = ".corrupt";
+	/** The charset of the keys and the values. */
+	private static final String CHARSET = "UTF-8";
+
+	/** The executor to run all the file operations in order. */
+	private static final ExecutorService EXECUTOR = Executors
+			.newSingleThreadExecutor();
+	/** The stores indexed by name. */
+	private static final Map<String, KeyValueStore> STORES = new HashMap<String, KeyValueStore>();
+
+	/**
+	 * Get the {@link KeyValueStore} of a name, and start loading it in the
+	 * background if it's not loaded yet.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @param name
+	 *            The store name.
+	 * @param legacyName
+	 *            The name of the legacy {@link SharedPreferences} to migrate
+	 *            from, or null if there is none.
+	 * @return The {@link KeyValueStore}.
+	 * @author Luo Yinzhuo
+	 */
+	public static synchronized KeyValueStore getInstance(Context context,
+			String name, String legacyName) {
+		KeyValueStore store = STORES.get(name);
+		if (store == null) {
+			store = new KeyValueStore(context.getApplicationContext(), name,
+					legacyName);
+			STORES.put(name, store);
+			store.load();
+		}
+		return store;
+	}
+
+	/** The application context. */
+	private final Context mContext;
+	/** The store file. */
+	private final File mFile;
+	/** The legacy {@link SharedPreferences} name. */
+	private final String mLegacyName;
+
+	/** The values, guarded by the store. */
+	private final Map<String, String> mValues = new HashMap<String, String>();
+	/** The keys written before the load completes, guarded by the store. */
+	private final Set<String> mWrittenKeys = new HashSet<String>();
+	/** The flag to identify the file is loaded, guarded by the store. */
+	private boolean mLoaded = false;
+
+	/** The file, only accessed on the {@link #EXECUTOR}. */
+	private RandomAccessFile mRandomAccessFile;
+	/** The mapped file. */
+	private MappedByteBuffer mBuffer;
+	/** The end of the log. */
+	private int mEnd;
+	/** The record count in the log. */
+	private int mRecordCount;
+
+	/**
+	 * Construct a new instance.
+	 * 
+	 * @param context
+	 *            The application context.
+	 * @param name
+	 *            The store name.
+	 * @param legacyName
+	 *            The legacy {@link SharedPreferences} name.
+	 */
+	private KeyValueStore(Context context, String name, String legacyName) {
+		mContext = context;
+		mFile = new File(context.getFilesDir(), name + FILE_SUFFIX);
+		mLegacyName = legacyName;
+	}
+
+	/**
+	 * Get a string value.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @param defValue
+	 *            The value to return if there is none.
+	 * @return The value.
+	 * @author Luo Yinzhuo
+	 */
+	public String getString(String key, String defValue) {
+		final String value = get(key);
+		return value == null ? defValue : value;
+	}
+
+	/**
+	 * Get an int value.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @param defValue
+	 *            The value to return if there is none.
+	 * @return The value.
+	 * @author Luo Yinzhuo
+	 */
+	public int getInt(String key, int defValue) {
+		final String value = get(key);
+		if (value != null) {
+			try {
+				return Integer.parseInt(value);
+			} catch (NumberFormatException e) {
+				e.printStackTrace();
+			}
+		}
+		return defValue;
+	}
+
+	/**
+	 * Get a long value.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @param defValue
+	 *            The value to return if there is none.
+	 * @return The value.
+	 * @author Luo Yinzhuo
+	 */
+	public long getLong(String key, long defValue) {
+		final String value = get(key);
+		if (value != null) {
+			try {
+				return Long.parseLong(value);
+			} catch (NumberFormatException e) {
+				e.printStackTrace();
+			}
+		}
+		return defValue;
+	}
+
+	/**
+	 * Get a boolean value.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @param defValue
+	 *            The value to return if there is none.
+	 * @return The value.
+	 * @author Luo Yinzhuo
+	 */
+	public boolean getBoolean(String key, boolean defValue) {
+		final String value = get(key);
+		return value == null ? defValue : Boolean.parseBoolean(value);
+	}
+
+	/**
+	 * Start editing the values.
+	 * 
+	 * @return The {@link Editor}.
+	 * @author Luo Yinzhuo
+	 */
+	public Editor edit() {
+		return new Editor();
+	}
+
+	/**
+	 * Batch the changes to a {@link KeyValueStore}, which are applied
+	 * together by {@link #apply()}.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	public final class Editor {
+		/** The changed keys in order. */
+		private final List<String> mKeys = new ArrayList<String>();
+		/** The changed values, null to remove. */
+		private final List<String> mChangedValues = new ArrayList<String>();
+
+		/**
+		 * Construct a new instance.
+		 */
+		private Editor() {
+		}
+
+		/**
+		 * Put a string value.
+		 * 
+		 * @param key
+		 *            The key.
+		 * @param value
+		 *            The value, or null to remove it.
+		 * @return The {@link Editor}.
+		 * @author Luo Yinzhuo
+		 */
+		public Editor putString(String key, String value) {
+			mKeys.add(key);
+			mChangedValues.add(value);
+			return this;
+		}
+
+		/**
+		 * Put an int value.
+		 * 
+		 * @param key
+		 *            The key.
+		 * @param value
+		 *            The value.
+		 * @return The {@link Editor}.
+		 * @author Luo Yinzhuo
+		 */
+		public Editor putInt(String key, int value) {
+			return putString(key, String.valueOf(value));
+		}
+
+		/**
+		 * Put a long value.
+		 * 
+		 * @param key
+		 *            The key.
+		 * @param value
+		 *            The value.
+		 * @return The {@link Editor}.
+		 * @author Luo Yinzhuo
+		 */
+		public Editor putLong(String key, long value) {
+			return putString(key, String.valueOf(value));
+		}
+
+		/**
+		 * Put a boolean value.
+		 * 
+		 * @param key
+		 *            The key.
+		 * @param value
+		 *            The value.
+		 * @return The {@link Editor}.
+		 * @author Luo Yinzhuo
+		 */
+		public Editor putBoolean(String key, boolean value) {
+			return putString(key, String.valueOf(value));
+		}
+
+		/**
+		 * Remove a value.
+		 * 
+		 * @param key
+		 *            The key.
+		 * @return The {@link Editor}.
+		 * @author Luo Yinzhuo
+		 */
+		public Editor remove(String key) {
+			return putString(key, null);
+		}
+
+		/**
+		 * Apply the changes. They're visible to the reads at once, and
+		 * appended to the log in the background.
+		 * 
+		 * @author Luo Yinzhuo
+		 */
+		public void apply() {
+			if (mKeys.isEmpty()) {
+				return;
+			}
+
+			final List<String> keys = new ArrayList<String>(mKeys);
+			final List<String> values = new ArrayList<String>(mChangedValues);
+			synchronized (KeyValueStore.this) {
+				for (int i = 0; i < keys.size(); i++) {
+					final String key = keys.get(i);
+					final String value = values.get(i);
+					if (value == null) {
+						mValues.remove(key);
+					} else {
+						mValues.put(key, value);
+					}
+					if (!mLoaded) {
+						mWrittenKeys.add(key);
+					}
+				}
+			}
+
+			EXECUTOR.execute(new Runnable() {
+				@Override
+				public void run() {
+					append(keys, values);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Get a value, waiting for the load if the key has not been written.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @return The value, or null if there is none.
+	 * @author Luo Yinzhuo
+	 */
+	private synchronized String get(String key) {
+		if (!mLoaded && !mWrittenKeys.contains(key)) {
+			final long monitorStart = MainThreadMonitor.start();
+			final long start = System.currentTimeMillis();
+			boolean interrupted = false;
+			while (!mLoaded) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+
+			final long duration = System.currentTimeMillis() - start;
+			if (duration > SLOW_READ_TIME) {
+				Log.w("KeyValueStore", mFile.getName() + " read waited "
+						+ duration + "ms for the load");
+			}
+			MainThreadMonitor.finish(MainThreadMonitor.Type.DISK_READ,
+					mFile.getName() + " load", monitorStart);
+		}
+		return mValues.get(key);
+	}
+
+	/**
+	 * Load the file in the background.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void load() {
+		EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				Map<String, String> values = new HashMap<String, String>();
+				try {
+					if (!mFile.exists()) {
+						migrate(values);
+						compact(values);
+						clearLegacyPreferences();
+					} else if (!read(values)) {
+						// The legacy values are cleared once migrated, so never
+						// migrate again, keep what is readable instead.
+						moveAside(values.size());
+						compact(values);
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+
+				synchronized (KeyValueStore.this) {
+					for (Map.Entry<String, String> entry : values.entrySet()) {
+						if (!mWrittenKeys.contains(entry.getKey())) {
+							mValues.put(entry.getKey(), entry.getValue());
+						}
+					}
+					mWrittenKeys.clear();
+					mLoaded = true;
+					KeyValueStore.this.notifyAll();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Map the file and replay the log.
+	 * 
+	 * @param values
+	 *            The map to receive the values, up to the corruption if the
+	 *            file is corrupt.
+	 * @return True if the file is valid, otherwise false.
+	 * @throws IOException
+	 *             If error occurs when mapping the file.
+	 * @author Luo Yinzhuo
+	 */
+	private boolean read(Map<String, String> values) throws IOException {
+		map(Math.max(INITIAL_SIZE, (int) mFile.length()));
+		mBuffer.position(0);
+		if (mBuffer.getInt() != MAGIC || mBuffer.get() != VERSION) {
+			return false;
+		}
+
+		mRecordCount = 0;
+		mEnd = HEADER_SIZE;
+		try {
+			byte op;
+			while (mBuffer.hasRemaining() && (op = mBuffer.get()) != 0) {
+				final String key = readString(mBuffer.getShort() & 0xFFFF);
+				if (op == OP_PUT) {
+					values.put(key, readString(mBuffer.getInt()));
+				} else if (op == OP_REMOVE) {
+					values.remove(key);
+				} else {
+					return false;
+				}
+				mEnd = mBuffer.position();
+				mRecordCount++;
+			}
+		} catch (BufferUnderflowException e) {
+			return false;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+
+		// Clear the dropped tail so it's never replayed.
+		for (int i = mEnd; i < mBuffer.capacity(); i++) {
+			if (mBuffer.get(i) != 0) {
+				mBuffer.put(i, (byte) 0);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Read a string from the mapped file.
+	 * 
+	 * @param length
+	 *            The byte length.
+	 * @return The string.
+	 * @throws UnsupportedEncodingException
+	 *             If the charset is not supported.
+	 * @author Luo Yinzhuo
+	 */
+	private String readString(int length) throws UnsupportedEncodingException {
+		if (length < 0 || length > mBuffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		mBuffer.get(bytes);
+		return new String(bytes, CHARSET);
+	}
+
+	/**
+	 * Move the corrupt file aside, replacing the one moved before, so it can
+	 * be looked into while the store starts over from what is readable.
+	 * 
+	 * @param count
+	 *            The count of the values readable before the corruption.
+	 * @author Luo Yinzhuo
+	 */
+	private void moveAside(int count) {
+		close();
+		final File corruptFile = new File(mFile.getPath() + CORRUPT_SUFFIX);
+		corruptFile.delete();
+		if (!mFile.renameTo(corruptFile)) {
+			mFile.delete();
+		}
+		Log.w("KeyValueStore", mFile.getName() + " is corrupt, kept " + count
+				+ " values and moved it to " + corruptFile.getName());
+	}
+
+	/**
+	 * Migrate the values from the legacy {@link SharedPreferences}.
+	 * 
+	 * @param values
+	 *            The map to receive the values.
+	 * @author Luo Yinzhuo
+	 */
+	private void migrate(Map<String, String> values) {
+		if (mLegacyName == null) {
+			return;
+		}
+
+		SharedPreferences legacyPreferences = mContext.getSharedPreferences(
+				mLegacyName, Context.MODE_PRIVATE);
+		for (Map.Entry<String, ?> entry : legacyPreferences.getAll()
+				.entrySet()) {
+			if (entry.getValue() != null) {
+				values.put(entry.getKey(), String.valueOf(entry.getValue()));
+			}
+		}
+	}
+
+	/**
+	 * Append the changes to the log, and compact it if there are too many
+	 * stale records.
+	 * 
+	 * @param keys
+	 *            The changed keys.
+	 * @param values
+	 *            The changed values, null to remove.
+	 * @author Luo Yinzhuo
+	 */
+	private void append(List<String> keys, List<String> values) {
+		if (mBuffer == null) {
+			// The load failed, keep the changes in memory only.
+			return;
+		}
+
+		try {
+			for (int i = 0; i < keys.size(); i++) {
+				byte[] record = encode(keys.get(i), values.get(i));
+				// Keep a zero byte after the record to end the log.
+				if (mEnd + record.length >= mBuffer.capacity()) {
+					int size = mBuffer.capacity();
+					while (mEnd + record.length >= size) {
+						size *= 2;
+					}
+					map(size);
+				}
+				mBuffer.position(mEnd);
+				mBuffer.put(record);
+				mEnd += record.length;
+				mRecordCount++;
+			}
+
+			Map<String, String> snapshot;
+			synchronized (this) {
+				if (mRecordCount < COMPACT_THRESHOLD
+						|| mRecordCount < mValues.size() * 2) {
+					return;
+				}
+				snapshot = new HashMap<String, String>(mValues);
+			}
+			compact(snapshot);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Rewrite the file as a snapshot of the values. The snapshot is written to
+	 * a temporary file first, so a crash never loses the old file.
+	 * 
+	 * @param values
+	 *            The values.
+	 * @throws IOException
+	 *             If error occurs when writing the file.
+	 * @author Luo Yinzhuo
+	 */
+	private void compact(Map<String, String> values) throws IOException {
+		File temp = new File(mFile.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temp)));
+		int size = HEADER_SIZE;
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			for (Map.Entry<String, String> entry : values.entrySet()) {
+				byte[] record = encode(entry.getKey(), entry.getValue());
+				out.write(record);
+				size += record.length;
+			}
+		} finally {
+			out.close();
+		}
+
+		close();
+		if (!temp.renameTo(mFile)) {
+			temp.delete();
+			throw new IOException("Failed to rename " + temp);
+		}
+
+		int capacity = INITIAL_SIZE;
+		while (capacity <= size * 2) {
+			capacity *= 2;
+		}
+		map(capacity);
+		mEnd = size;
+		mRecordCount = values.size();
+	}
+
+	/**
+	 * Clear the legacy {@link SharedPreferences} once its values are written.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void clearLegacyPreferences() {
+		if (mLegacyName != null) {
+			mContext.getSharedPreferences(mLegacyName, Context.MODE_PRIVATE)
+					.edit().clear().commit();
+		}
+	}
+
+	/**
+	 * Map the file with the specified size, which grows the file with zeros.
+	 * 
+	 * @param size
+	 *            The mapped size.
+	 * @throws IOException
+	 *             If error occurs when mapping the file.
+	 * @author Luo Yinzhuo
+	 */
+	private void map(int size) throws IOException {
+		if (mRandomAccessFile == null) {
+			mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+		}
+		if (mRandomAccessFile.length() < size) {
+			mRandomAccessFile.setLength(size);
+		}
+		mBuffer = mRandomAccessFile.getChannel().map(
+				FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+
+	/**
+	 * Close the file.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void close() {
+		mBuffer = null;
+		if (mRandomAccessFile != null) {
+			try {
+				mRandomAccessFile.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			mRandomAccessFile = null;
+		}
+	}
+
+	/**
+	 * Encode a record.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @param value
+	 *            The value, or null to remove.
+	 * @return The record.
+	 * @throws UnsupportedEncodingException
+	 *             If the charset is not supported.
+	 * @author Luo Yinzhuo
+	 */
+	private static byte[] encode(String key, String value)
+			throws UnsupportedEncodingException {
+		final byte[] keyBytes = key.getBytes(CHARSET);
+		final byte[] valueBytes = value == null ? null : value
+				.getBytes(CHARSET);
+
+		int length = 1 + 2 + keyBytes.length;
+		if (valueBytes != null) {
+			length += 4 + valueBytes.length;
+		}
+		byte[] record = new byte[length];
+		int position = 0;
+		record[position++] = valueBytes == null ? OP_REMOVE : OP_PUT;
+		record[position++] = (byte) (keyBytes.length >>> 8);
+		record[position++] = (byte) keyBytes.length;
+		System.arraycopy(keyBytes, 0, record, position, keyBytes.length);
+		position += keyBytes.length;
+		if (valueBytes != null) {
+			record[position++] = (byte) (valueBytes.length >>> 24);
+			record[position++] = (byte) (valueBytes.length >>> 16);
+			record[position++] = (byte) (valueBytes.length >>> 8);
+			record[position++] = (byte) valueBytes.length;
+			System.arraycopy(valueBytes, 0, record, position,
+					valueBytes.length);
+		}
+		return record;
+	}
+}
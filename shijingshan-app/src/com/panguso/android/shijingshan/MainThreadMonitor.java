@@ -0,0 +1,345 @@
+package com.panguso.android.shijingshan;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.StrictMode;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Printer;
+
+/**
+ * Detect the disk, network and IPC work and the long operations on the UI
+ * thread of a debug build. The work is reported by its call sites through
+ * {@link #start()} and {@link #finish(Type, String, long)}, and the long
+ * operations are the UI thread messages taking more than
+ * {@link #SLOW_OPERATION_TIME}, whose stack is sampled when they pass the
+ * time. {@link StrictMode} logs the disk and network work of the call sites
+ * not reporting. The violations are kept with their stack traces and
+ * durations for the report screen. The test mode detects in any build, and
+ * the instrumentation tests check no work is reported on the UI thread while
+ * each of them runs. A violation is never thrown, since it's mostly detected on the UI
+ * thread, where an exception would kill the process instead of failing the
+ * test. Nothing is detected in a release build.
+ * 
+ * @author Luo Yinzhuo
+ */
+public final class MainThreadMonitor {
+	/** The log tag. */
+	private static final String TAG = "MainThreadMonitor";
+	/** The time a UI thread message takes to be a long operation. */
+	private static final long SLOW_OPERATION_TIME = 100;
+	/** The maximum count of the kept violations. */
+	private static final int MAX_VIOLATIONS = 100;
+
+	/**
+	 * The type of the work on the UI thread.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	public enum Type {
+		/** Reading the disk. */
+		DISK_READ,
+		/** Writing the disk. */
+		DISK_WRITE,
+		/** Talking to the network. */
+		NETWORK,
+		/** A blocking call to a system service. */
+		IPC,
+		/** A UI thread message taking too long. */
+		SLOW_OPERATION
+	}
+
+	/**
+	 * A violation detected on the UI thread.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	public static final class Violation {
+		/** The type. */
+		private final Type mType;
+		/** The operation. */
+		private final String mOperation;
+		/** The duration in milliseconds. */
+		private final long mDuration;
+		/** The wall time it's detected. */
+		private final long mTime = System.currentTimeMillis();
+		/** The stack trace, empty if not sampled. */
+		private final StackTraceElement[] mStackTrace;
+
+		/**
+		 * Construct a new instance.
+		 * 
+		 * @param type
+		 *            The type.
+		 * @param operation
+		 *            The operation.
+		 * @param duration
+		 *            The duration in milliseconds.
+		 * @param stackTrace
+		 *            The stack trace, empty if not sampled.
+		 */
+		private Violation(Type type, String operation, long duration,
+				StackTraceElement[] stackTrace) {
+			mType = type;
+			mOperation = operation;
+			mDuration = duration;
+			mStackTrace = stackTrace;
+		}
+
+		/**
+		 * Get the type.
+		 * 
+		 * @return The type.
+		 * @author Luo Yinzhuo
+		 */
+		public Type getType() {
+			return mType;
+		}
+
+		/**
+		 * Get the duration.
+		 * 
+		 * @return The duration in milliseconds.
+		 * @author Luo Yinzhuo
+		 */
+		public long getDuration() {
+			return mDuration;
+		}
+
+		/**
+		 * Get the wall time it's detected.
+		 * 
+		 * @return The time in milliseconds.
+		 * @author Luo Yinzhuo
+		 */
+		public long getTime() {
+			return mTime;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			builder.append(mType).append(' ').append(mOperation).append(' ')
+					.append(mDuration).append("ms");
+			for (StackTraceElement element : mStackTrace) {
+				builder.append("\n    at ").append(element);
+			}
+			return builder.toString();
+		}
+	}
+
+	/** The flag to identify the monitor is enabled. */
+	private static volatile boolean ENABLED = false;
+	/** The flag to identify the test mode. */
+	private static volatile boolean TEST_MODE = false;
+	/** The kept violations, from the oldest. */
+	private static final LinkedList<Violation> VIOLATIONS = new LinkedList<Violation>();
+
+	/**
+	 * Install the monitor if the application is a debug build. Must be
+	 * invoked on the UI thread.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @author Luo Yinzhuo
+	 */
+	public static void install(Context context) {
+		final int flags = context.getApplicationInfo().flags;
+		if (ENABLED || (flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0) {
+			return;
+		}
+
+		ENABLED = true;
+		Looper.getMainLooper().setMessageLogging(new SlowOperationPrinter());
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+			enableStrictMode();
+		}
+	}
+
+	/**
+	 * Log the disk and network work on the UI thread by {@link StrictMode},
+	 * which is since Android 2.3.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private static void enableStrictMode() {
+		StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+				.detectDiskReads().detectDiskWrites().detectNetwork()
+				.penaltyLog().build());
+	}
+
+	/**
+	 * Check if the monitor is enabled.
+	 * 
+	 * @return True if it's a debug build or the test mode, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	public static boolean isEnabled() {
+		return ENABLED || TEST_MODE;
+	}
+
+	/**
+	 * Set the test mode, which detects in any build. Instrumentation tests
+	 * turn it on in their set up, and check the violations in their tear
+	 * down.
+	 * 
+	 * @param testMode
+	 *            True to turn on the test mode, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	public static void setTestMode(boolean testMode) {
+		TEST_MODE = testMode;
+	}
+
+	/**
+	 * Start a piece of work which should not run on the UI thread. It could
+	 * be invoked on any thread.
+	 * 
+	 * @return The start time to pass to {@link #finish(Type, String, long)},
+	 *         or -1 if it's not monitored.
+	 * @author Luo Yinzhuo
+	 */
+	public static long start() {
+		if (!isEnabled() || Looper.myLooper() != Looper.getMainLooper()) {
+			return -1;
+		}
+		return SystemClock.uptimeMillis();
+	}
+
+	/**
+	 * Finish a piece of work started by {@link #start()}, and record a
+	 * violation if it runs on the UI thread.
+	 * 
+	 * @param type
+	 *            The type of the work.
+	 * @param operation
+	 *            The operation.
+	 * @param start
+	 *            The start time returned by {@link #start()}.
+	 * @author Luo Yinzhuo
+	 */
+	public static void finish(Type type, String operation, long start) {
+		if (start < 0) {
+			return;
+		}
+
+		final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+		final StackTraceElement[] caller = new StackTraceElement[Math.max(
+				stackTrace.length - 1, 0)];
+		System.arraycopy(stackTrace, stackTrace.length - caller.length,
+				caller, 0, caller.length);
+		record(new Violation(type, operation, SystemClock.uptimeMillis()
+				- start, caller));
+	}
+
+	/**
+	 * Record a violation.
+	 * 
+	 * @param violation
+	 *            The violation.
+	 * @author Luo Yinzhuo
+	 */
+	private static void record(Violation violation) {
+		synchronized (VIOLATIONS) {
+			VIOLATIONS.add(violation);
+			if (VIOLATIONS.size() > MAX_VIOLATIONS) {
+				VIOLATIONS.removeFirst();
+			}
+		}
+		Log.w(TAG, violation.toString());
+	}
+
+	/**
+	 * Get the kept violations.
+	 * 
+	 * @return The violations, from the latest.
+	 * @author Luo Yinzhuo
+	 */
+	public static List<Violation> getViolations() {
+		synchronized (VIOLATIONS) {
+			final List<Violation> violations = new ArrayList<Violation>(
+					VIOLATIONS.size());
+			for (int i = VIOLATIONS.size() - 1; i >= 0; i--) {
+				violations.add(VIOLATIONS.get(i));
+			}
+			return violations;
+		}
+	}
+
+	/**
+	 * Clear the kept violations.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	public static void clearViolations() {
+		synchronized (VIOLATIONS) {
+			VIOLATIONS.clear();
+		}
+	}
+
+	/**
+	 * Time the UI thread messages by the lines the {@link Looper} prints
+	 * before and after dispatching each one, and sample the stack of a
+	 * message passing {@link #SLOW_OPERATION_TIME} on a watchdog thread.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private static final class SlowOperationPrinter implements Printer {
+		/** The prefix of the line printed before dispatching. */
+		private static final String DISPATCHING = ">>>>> Dispatching";
+
+		/** The watchdog handler. */
+		private final Handler mWatchdog;
+		/** The UI thread. */
+		private final Thread mThread = Looper.getMainLooper().getThread();
+		/** The stack sampled from the current message, or null if none. */
+		private volatile StackTraceElement[] mStackTrace;
+		/** The description of the current message. */
+		private String mMessage;
+		/** The dispatch time of the current message. */
+		private long mStart;
+
+		/** Sample the stack of the current message. */
+		private final Runnable mSample = new Runnable() {
+			@Override
+			public void run() {
+				mStackTrace = mThread.getStackTrace();
+			}
+		};
+
+		/** Construct a new instance. */
+		private SlowOperationPrinter() {
+			HandlerThread thread = new HandlerThread(TAG);
+			thread.start();
+			mWatchdog = new Handler(thread.getLooper());
+		}
+
+		@Override
+		public void println(String x) {
+			if (x.startsWith(DISPATCHING)) {
+				mMessage = x.substring(DISPATCHING.length()).trim();
+				mStart = SystemClock.uptimeMillis();
+				mStackTrace = null;
+				mWatchdog.postDelayed(mSample, SLOW_OPERATION_TIME);
+				return;
+			}
+
+			mWatchdog.removeCallbacks(mSample);
+			final long duration = SystemClock.uptimeMillis() - mStart;
+			if (duration > SLOW_OPERATION_TIME) {
+				final StackTraceElement[] stackTrace = mStackTrace;
+				record(new Violation(Type.SLOW_OPERATION, mMessage, duration,
+						stackTrace != null ? stackTrace
+								: new StackTraceElement[0]));
+			}
+		}
+	}
+}
@@ -0,0 +1,308 @@
+package com.panguso.android.shijingshan;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+
+/**
+ * Coordinate the response of the caches to the memory pressure. Every cache
+ * registers with a {@link TrimPolicy}, which tells how much of it to keep at
+ * each trim level, and the {@link Application} forwards the trim callbacks.
+ * The caches are held weakly, so a cache owned by an activity or a view is
+ * released with its owner even if it's never unregistered, and the owner must
+ * hold its {@link Trimmable} itself. The reclaimed bytes are recorded per
+ * cache. All the trims are invoked on the UI thread.
+ * 
+ * @author Luo Yinzhuo
+ */
+public final class MemoryCoordinator {
+	/*
+	 * The levels of the running process, which are only defined in
+	 * ComponentCallbacks2 since API 16, beyond the build target. An older
+	 * platform never sends them.
+	 */
+	/** The level of the running process when the memory is getting low. */
+	static final int TRIM_MEMORY_RUNNING_MODERATE = 5;
+	/** The level of the running process when the memory is low. */
+	static final int TRIM_MEMORY_RUNNING_LOW = 10;
+	/** The level of the running process when the memory is critical. */
+	static final int TRIM_MEMORY_RUNNING_CRITICAL = 15;
+
+	/**
+	 * Interface definition for a cache to trim on memory pressure.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	public interface Trimmable {
+
+		/**
+		 * Called on the UI thread to trim the cache to a fraction of its
+		 * current size. A cache could round the fraction to what it's able to
+		 * release.
+		 * 
+		 * @param retain
+		 *            The fraction to keep, from 0 to release everything to
+		 *            less than 1.
+		 * @return The estimated byte count reclaimed.
+		 * @author Luo Yinzhuo
+		 */
+		public long trim(float retain);
+	}
+
+	/**
+	 * The fraction of a cache to keep at each trim level, from
+	 * {@link #TRIM_MEMORY_RUNNING_MODERATE} to
+	 * {@link ComponentCallbacks2#TRIM_MEMORY_COMPLETE}.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	public enum TrimPolicy {
+		/** A pool of reusable objects, the first to release. */
+		POOL(0.5f, 0f, 0f, 0f, 0f, 0f, 0f),
+		/** A cache of the data loaded again on a miss. */
+		CACHE(1f, 0.5f, 0.25f, 0.5f, 0.25f, 0f, 0f),
+		/**
+		 * The prepared state of a screen, which is costly to rebuild while the
+		 * screen is shown, so it's kept while the process is running fine.
+		 */
+		SCREEN(1f, 1f, 0.5f, 1f, 0.5f, 0f, 0f);
+
+		/** The fractions to keep by the level index. */
+		private final float[] mRetains;
+
+		/**
+		 * Construct a new instance.
+		 * 
+		 * @param retains
+		 *            The fractions to keep by the level index.
+		 */
+		private TrimPolicy(float... retains) {
+			mRetains = retains;
+		}
+
+		/**
+		 * Get the fraction to keep at a trim level.
+		 * 
+		 * @param level
+		 *            The trim level.
+		 * @return The fraction to keep, 1 if nothing is trimmed.
+		 * @author Luo Yinzhuo
+		 */
+		public float getRetain(int level) {
+			final int index = getLevelIndex(level);
+			return index < 0 ? 1f : mRetains[index];
+		}
+	}
+
+	/**
+	 * Get the index of a trim level in a {@link TrimPolicy}.
+	 * 
+	 * @param level
+	 *            The trim level.
+	 * @return The index, or -1 if the level trims nothing.
+	 * @author Luo Yinzhuo
+	 */
+	private static int getLevelIndex(int level) {
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+			return 6;
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+			return 5;
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+			return 4;
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+			return 3;
+		} else if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+			return 2;
+		} else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+			return 1;
+		} else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+			return 0;
+		} else {
+			return -1;
+		}
+	}
+
+	/**
+	 * A registered cache.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private static final class Registration {
+		/** The cache name in the records. */
+		private final String mName;
+		/** The cache. */
+		private final WeakReference<Trimmable> mTrimmable;
+		/** The trim policy. */
+		private final TrimPolicy mPolicy;
+
+		/**
+		 * Construct a new instance.
+		 * 
+		 * @param name
+		 *            The cache name in the records.
+		 * @param trimmable
+		 *            The cache.
+		 * @param policy
+		 *            The trim policy.
+		 */
+		private Registration(String name, Trimmable trimmable,
+				TrimPolicy policy) {
+			mName = name;
+			mTrimmable = new WeakReference<Trimmable>(trimmable);
+			mPolicy = policy;
+		}
+	}
+
+	/** The single instance. */
+	private static MemoryCoordinator SINGLE_INSTANCE;
+
+	/**
+	 * Get the single instance.
+	 * 
+	 * @return The single instance.
+	 * @author Luo Yinzhuo
+	 */
+	public static synchronized MemoryCoordinator getInstance() {
+		if (SINGLE_INSTANCE == null) {
+			SINGLE_INSTANCE = new MemoryCoordinator();
+		}
+		return SINGLE_INSTANCE;
+	}
+
+	/** The registered caches. */
+	private final List<Registration> mRegistrations = new ArrayList<Registration>();
+	/** The reclaimed byte count by the cache name. */
+	private final Map<String, Long> mReclaimedBytes = new HashMap<String, Long>();
+	/** The total reclaimed byte count. */
+	private long mTotalReclaimedBytes = 0;
+
+	/** Construct a new instance, only tests construct more than one. */
+	MemoryCoordinator() {
+	}
+
+	/**
+	 * Register a cache. It could be invoked on any thread.
+	 * 
+	 * @param name
+	 *            The cache name in the records.
+	 * @param trimmable
+	 *            The cache, which the caller must hold.
+	 * @param policy
+	 *            The trim policy.
+	 * @author Luo Yinzhuo
+	 */
+	public synchronized void register(String name, Trimmable trimmable,
+			TrimPolicy policy) {
+		mRegistrations.add(new Registration(name, trimmable, policy));
+	}
+
+	/**
+	 * Unregister a cache. It could be invoked on any thread.
+	 * 
+	 * @param trimmable
+	 *            The cache.
+	 * @author Luo Yinzhuo
+	 */
+	public synchronized void unregister(Trimmable trimmable) {
+		final Iterator<Registration> iterator = mRegistrations.iterator();
+		while (iterator.hasNext()) {
+			final Trimmable registered = iterator.next().mTrimmable.get();
+			if (registered == null || registered == trimmable) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Trim the caches by their policies at a trim level. Must be invoked on
+	 * the UI thread.
+	 * 
+	 * @param level
+	 *            The trim level.
+	 * @return The estimated byte count reclaimed.
+	 * @author Luo Yinzhuo
+	 */
+	public long onTrimMemory(int level) {
+		final List<Registration> registrations;
+		synchronized (this) {
+			registrations = new ArrayList<Registration>(mRegistrations);
+		}
+
+		long reclaimed = 0;
+		final StringBuilder builder = new StringBuilder();
+		for (Registration registration : registrations) {
+			final Trimmable trimmable = registration.mTrimmable.get();
+			if (trimmable == null) {
+				unregister(null);
+				continue;
+			}
+
+			final float retain = registration.mPolicy.getRetain(level);
+			if (retain < 1f) {
+				final long bytes = trimmable.trim(retain);
+				record(registration.mName, bytes);
+				reclaimed += bytes;
+				builder.append(", ").append(registration.mName).append(' ')
+						.append(bytes);
+			}
+		}
+		Log.i("MemoryCoordinator", "trim level " + level + " reclaimed "
+				+ reclaimed + " bytes" + builder);
+		return reclaimed;
+	}
+
+	/**
+	 * Trim the caches as the most severe trim level, when the system is low
+	 * on memory before Android 4.0. Must be invoked on the UI thread.
+	 * 
+	 * @return The estimated byte count reclaimed.
+	 * @author Luo Yinzhuo
+	 */
+	public long onLowMemory() {
+		return onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+	}
+
+	/**
+	 * Record the bytes a cache reclaimed.
+	 * 
+	 * @param name
+	 *            The cache name.
+	 * @param bytes
+	 *            The reclaimed byte count.
+	 * @author Luo Yinzhuo
+	 */
+	private synchronized void record(String name, long bytes) {
+		final Long total = mReclaimedBytes.get(name);
+		mReclaimedBytes.put(name, (total == null ? 0 : total) + bytes);
+		mTotalReclaimedBytes += bytes;
+	}
+
+	/**
+	 * Get the bytes a cache reclaimed since the process started.
+	 * 
+	 * @param name
+	 *            The cache name.
+	 * @return The reclaimed byte count.
+	 * @author Luo Yinzhuo
+	 */
+	public synchronized long getReclaimedBytes(String name) {
+		final Long total = mReclaimedBytes.get(name);
+		return total == null ? 0 : total;
+	}
+
+	/**
+	 * Get the bytes all the caches reclaimed since the process started.
+	 * 
+	 * @return The reclaimed byte count.
+	 * @author Luo Yinzhuo
+	 */
+	public synchronized long getReclaimedBytes() {
+		return mTotalReclaimedBytes;
+	}
+}
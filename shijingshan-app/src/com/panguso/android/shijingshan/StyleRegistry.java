@@ -0,0 +1,323 @@
+package com.panguso.android.shijingshan;
+
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.util.SparseArray;
+
+/**
+ * The process-wide registry of the styles shared by the columns and news
+ * tiles. All the values are looked up once in
+ * {@link #initialize(Resources)}, so constructing the tiles does no resource
+ * lookups. The registry is immutable and replaced as a whole when the
+ * configuration changes.
+ * 
+ * @author Luo Yinzhuo
+ */
+public final class StyleRegistry {
+	/** The drawables preloaded into the registry. */
+	private static final int[] PRELOADED_DRAWABLES = { R.drawable.column_zcfg,
+			R.drawable.column_ggl, R.drawable.column_hydt,
+			R.drawable.column_rcfw, R.drawable.column_tzxc,
+			R.drawable.column_cgzb, R.drawable.column_yjfk,
+			R.drawable.column_ldxx, R.drawable.column_bszn,
+			R.drawable.column_add, R.drawable.column_default,
+			R.drawable.delete_mark };
+
+	/** The single instance. */
+	private static volatile StyleRegistry SINGLE_INSTANCE;
+
+	/**
+	 * Load the registry from the resources. Should be invoked in
+	 * {@link Application#onCreate()} and when the configuration changes.
+	 * 
+	 * @param resources
+	 *            The resources.
+	 * @author Luo Yinzhuo
+	 */
+	public static void initialize(Resources resources) {
+		SINGLE_INSTANCE = new StyleRegistry(resources);
+	}
+
+	/**
+	 * Get the single {@link StyleRegistry} instance.
+	 * 
+	 * @return The single {@link StyleRegistry} instance.
+	 * @author Luo Yinzhuo
+	 */
+	public static StyleRegistry getInstance() {
+		return SINGLE_INSTANCE;
+	}
+
+	/** The drawable array indexed by the drawable resource id. */
+	private final SparseArray<Drawable> mDrawables = new SparseArray<Drawable>();
+
+	/** The column icon offset from bottom. */
+	private final float mColumnIconOffsetBottom;
+	/** The column text font size. */
+	private final float mColumnTextSize;
+	/** The column text offset from bottom. */
+	private final float mColumnTextOffsetBottom;
+	/** The subscribe column background color. */
+	private final int mColumnSubscribeColor;
+	/** The public column background color. */
+	private final int mColumnPublicColor;
+
+	/** The news horizontal margin. */
+	private final float mNewsMarginHorizontal;
+	/** The news vertical margin. */
+	private final float mNewsMarginVertical;
+	/** The text news title color. */
+	private final int mTextNewsTitleColor;
+	/** The text news time color. */
+	private final int mTextNewsTimeColor;
+	/** The text news time text size. */
+	private final float mTextNewsTimeTextSize;
+	/** The text news background color when pressing. */
+	private final int mTextNewsBackgroundPress;
+	/** The 1x1 cell text news title text size. */
+	private final float mOneCellTextNewsTitleTextSize;
+	/** The 1 line text news title text size. */
+	private final float mOneLineTextNewsTitleTextSize;
+	/** The image news title color. */
+	private final int mImageNewsTitleColor;
+	/** The image news title text size. */
+	private final float mImageNewsTitleTextSize;
+	/** The image news placeholder color. */
+	private final int mImageNewsPlaceholderColor;
+
+	/** The news page delimiter color. */
+	private final int mDelimiterColor;
+	/** The news page delimiter stroke width. */
+	private final float mDelimiterStrokeWidth;
+
+	/**
+	 * Construct a new instance.
+	 * 
+	 * @param resources
+	 *            The resources.
+	 */
+	private StyleRegistry(Resources resources) {
+		for (int id : PRELOADED_DRAWABLES) {
+			Drawable drawable = resources.getDrawable(id);
+			drawable.setBounds(0, 0, drawable.getIntrinsicWidth(),
+					drawable.getIntrinsicHeight());
+			mDrawables.put(id, drawable);
+		}
+
+		mColumnIconOffsetBottom = resources
+				.getDimension(R.dimen.column_icon_offset_bottom);
+		mColumnTextSize = resources.getDimension(R.dimen.column_font_size);
+		mColumnTextOffsetBottom = resources
+				.getDimension(R.dimen.column_font_offset_bottom);
+		mColumnSubscribeColor = resources.getColor(R.color.column_subscribe);
+		mColumnPublicColor = resources.getColor(R.color.column_public);
+
+		mNewsMarginHorizontal = resources
+				.getDimension(R.dimen.news_margin_horizontal);
+		mNewsMarginVertical = resources
+				.getDimension(R.dimen.news_margin_vertical);
+		mTextNewsTitleColor = resources.getColor(R.color.text_news_title);
+		mTextNewsTimeColor = resources.getColor(R.color.text_news_time);
+		mTextNewsTimeTextSize = resources.getDimension(R.dimen.text_news_time);
+		mTextNewsBackgroundPress = resources
+				.getColor(R.color.text_news_background_press);
+		mOneCellTextNewsTitleTextSize = resources
+				.getDimension(R.dimen.one_cell_text_news_title);
+		mOneLineTextNewsTitleTextSize = resources
+				.getDimension(R.dimen.one_line_text_news_title);
+		mImageNewsTitleColor = resources.getColor(R.color.image_news_title);
+		mImageNewsTitleTextSize = resources
+				.getDimension(R.dimen.image_news_title);
+		mImageNewsPlaceholderColor = resources
+				.getColor(R.color.image_news_placeholder);
+
+		mDelimiterColor = resources.getColor(R.color.delimiter);
+		mDelimiterStrokeWidth = resources.getDimension(R.dimen.delimiter);
+	}
+
+	/**
+	 * Get a preloaded drawable. The drawable is shared, so its bounds must not
+	 * be changed.
+	 * 
+	 * @param id
+	 *            The drawable resource id.
+	 * @return The drawable, or null if it is not preloaded.
+	 * @author Luo Yinzhuo
+	 */
+	public Drawable getDrawable(int id) {
+		return mDrawables.get(id);
+	}
+
+	/**
+	 * Get the column icon offset from bottom.
+	 * 
+	 * @return The column icon offset from bottom.
+	 * @author Luo Yinzhuo
+	 */
+	public float getColumnIconOffsetBottom() {
+		return mColumnIconOffsetBottom;
+	}
+
+	/**
+	 * Get the column text font size.
+	 * 
+	 * @return The column text font size.
+	 * @author Luo Yinzhuo
+	 */
+	public float getColumnTextSize() {
+		return mColumnTextSize;
+	}
+
+	/**
+	 * Get the column text offset from bottom.
+	 * 
+	 * @return The column text offset from bottom.
+	 * @author Luo Yinzhuo
+	 */
+	public float getColumnTextOffsetBottom() {
+		return mColumnTextOffsetBottom;
+	}
+
+	/**
+	 * Get the column background color.
+	 * 
+	 * @param subscribe
+	 *            True if the column need to be subscribed, otherwise false.
+	 * @return The column background color.
+	 * @author Luo Yinzhuo
+	 */
+	public int getColumnBackgroundColor(boolean subscribe) {
+		return subscribe ? mColumnSubscribeColor : mColumnPublicColor;
+	}
+
+	/**
+	 * Get the news horizontal margin.
+	 * 
+	 * @return The news horizontal margin.
+	 * @author Luo Yinzhuo
+	 */
+	public float getNewsMarginHorizontal() {
+		return mNewsMarginHorizontal;
+	}
+
+	/**
+	 * Get the news vertical margin.
+	 * 
+	 * @return The news vertical margin.
+	 * @author Luo Yinzhuo
+	 */
+	public float getNewsMarginVertical() {
+		return mNewsMarginVertical;
+	}
+
+	/**
+	 * Get the text news title color.
+	 * 
+	 * @return The text news title color.
+	 * @author Luo Yinzhuo
+	 */
+	public int getTextNewsTitleColor() {
+		return mTextNewsTitleColor;
+	}
+
+	/**
+	 * Get the text news time color.
+	 * 
+	 * @return The text news time color.
+	 * @author Luo Yinzhuo
+	 */
+	public int getTextNewsTimeColor() {
+		return mTextNewsTimeColor;
+	}
+
+	/**
+	 * Get the text news time text size.
+	 * 
+	 * @return The text news time text size.
+	 * @author Luo Yinzhuo
+	 */
+	public float getTextNewsTimeTextSize() {
+		return mTextNewsTimeTextSize;
+	}
+
+	/**
+	 * Get the text news background color when pressing.
+	 * 
+	 * @return The text news background color when pressing.
+	 * @author Luo Yinzhuo
+	 */
+	public int getTextNewsBackgroundPress() {
+		return mTextNewsBackgroundPress;
+	}
+
+	/**
+	 * Get the 1x1 cell text news title text size.
+	 * 
+	 * @return The 1x1 cell text news title text size.
+	 * @author Luo Yinzhuo
+	 */
+	public float getOneCellTextNewsTitleTextSize() {
+		return mOneCellTextNewsTitleTextSize;
+	}
+
+	/**
+	 * Get the 1 line text news title text size.
+	 * 
+	 * @return The 1 line text news title text size.
+	 * @author Luo Yinzhuo
+	 */
+	public float getOneLineTextNewsTitleTextSize() {
+		return mOneLineTextNewsTitleTextSize;
+	}
+
+	/**
+	 * Get the image news title color.
+	 * 
+	 * @return The image news title color.
+	 * @author Luo Yinzhuo
+	 */
+	public int getImageNewsTitleColor() {
+		return mImageNewsTitleColor;
+	}
+
+	/**
+	 * Get the image news title text size.
+	 * 
+	 * @return The image news title text size.
+	 * @author Luo Yinzhuo
+	 */
+	public float getImageNewsTitleTextSize() {
+		return mImageNewsTitleTextSize;
+	}
+
+	/**
+	 * Get the image news placeholder color, drawn before the image of the
+	 * news is known.
+	 * 
+	 * @return The image news placeholder color.
+	 * @author Luo Yinzhuo
+	 */
+	public int getImageNewsPlaceholderColor() {
+		return mImageNewsPlaceholderColor;
+	}
+
+	/**
+	 * Get the news page delimiter color.
+	 * 
+	 * @return The news page delimiter color.
+	 * @author Luo Yinzhuo
+	 */
+	public int getDelimiterColor() {
+		return mDelimiterColor;
+	}
+
+	/**
+	 * Get the news page delimiter stroke width.
+	 * 
+	 * @return The news page delimiter stroke width.
+	 * @author Luo Yinzhuo
+	 */
+	public float getDelimiterStrokeWidth() {
+		return mDelimiterStrokeWidth;
+	}
+}
@@ -0,0 +1,304 @@
+package com.panguso.android.shijingshan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.panguso.android.shijingshan.MemoryCoordinator.TrimPolicy;
+import com.panguso.android.shijingshan.MemoryCoordinator.Trimmable;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.MutableContextWrapper;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Looper;
+import android.os.MessageQueue.IdleHandler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.ViewGroup;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+/**
+ * Pool the {@link WebView}s of the article and notification screens. The
+ * first {@link WebView} of the process takes a long time to create, so one is
+ * created when the UI thread is idle after the startup, and the released ones
+ * are reset and reused. Every {@link WebView} handed out logs the time to its
+ * first paint with content and to the page load, so the cost could be
+ * compared with and without a pre-warmed instance. The pooled ones are
+ * destroyed on memory pressure. All the methods must be invoked on the UI
+ * thread.
+ * 
+ * @author Luo Yinzhuo
+ */
+public final class WebViewPool implements Trimmable {
+	/** The maximum count of the pooled {@link WebView}s. */
+	private static final int MAX_POOL_SIZE = 2;
+	/** The estimated byte count of an idle {@link WebView}. */
+	private static final long ESTIMATED_WEBVIEW_SIZE = 1024 * 1024;
+	/** The blank page to reset a {@link WebView}. */
+	private static final String BLANK_URL = "about:blank";
+
+	/** The single instance. */
+	private static WebViewPool SINGLE_INSTANCE;
+
+	/**
+	 * Interface definition for a callback to serve the requests of an
+	 * acquired {@link WebView} instead of the network. It's only called on
+	 * Android 3.0 and above.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	public interface RequestInterceptor {
+		/**
+		 * Called on a background thread when the {@link WebView} requests a
+		 * resource.
+		 * 
+		 * @param url
+		 *            The resource URL.
+		 * @return The response, or null to load the resource as usual.
+		 * @author Luo Yinzhuo
+		 */
+		public WebResourceResponse interceptRequest(String url);
+	}
+
+	/**
+	 * Get the single {@link WebViewPool} instance.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @return The single {@link WebViewPool} instance.
+	 * @author Luo Yinzhuo
+	 */
+	public static WebViewPool getInstance(Context context) {
+		if (SINGLE_INSTANCE == null) {
+			SINGLE_INSTANCE = new WebViewPool(context.getApplicationContext());
+		}
+		return SINGLE_INSTANCE;
+	}
+
+	/**
+	 * The pooled {@link WebView}, which logs its time to the first paint.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private static final class PooledWebView extends WebView {
+		/** The time it's acquired. */
+		private long mAcquireTime;
+		/** The flag to identify it's pre-warmed before being acquired. */
+		private boolean mPrewarmed;
+		/** The flag to identify the acquired page has started loading. */
+		private boolean mPageStarted;
+		/** The flag to identify the first paint is logged. */
+		private boolean mPainted = true;
+		/** The request interceptor, or null if none. */
+		private volatile RequestInterceptor mInterceptor;
+
+		/**
+		 * Construct a new instance.
+		 * 
+		 * @param context
+		 *            The context wrapper to switch the activity.
+		 */
+		private PooledWebView(MutableContextWrapper context) {
+			super(context);
+			setWebViewClient(new WebViewClient() {
+				@Override
+				public boolean shouldOverrideUrlLoading(WebView view,
+						String url) {
+					return false;
+				}
+
+				@Override
+				public WebResourceResponse shouldInterceptRequest(
+						WebView view, String url) {
+					final RequestInterceptor interceptor = mInterceptor;
+					return interceptor != null ? interceptor
+							.interceptRequest(url) : null;
+				}
+
+				@Override
+				public void onPageStarted(WebView view, String url,
+						Bitmap favicon) {
+					if (!BLANK_URL.equals(url)) {
+						mPageStarted = true;
+					}
+				}
+
+				@Override
+				public void onPageFinished(WebView view, String url) {
+					if (mPageStarted && !BLANK_URL.equals(url)) {
+						Log.i("WebViewPool", "page loaded "
+								+ (SystemClock.uptimeMillis() - mAcquireTime)
+								+ "ms, " + url);
+					}
+				}
+			});
+		}
+
+		/**
+		 * Start measuring a new page.
+		 * 
+		 * @param acquireTime
+		 *            The time it's acquired.
+		 * @param prewarmed
+		 *            True if it's pre-warmed, otherwise false.
+		 * @author Luo Yinzhuo
+		 */
+		private void startMeasuring(long acquireTime, boolean prewarmed) {
+			mAcquireTime = acquireTime;
+			mPrewarmed = prewarmed;
+			mPageStarted = false;
+			mPainted = false;
+		}
+
+		@Override
+		protected void onDraw(Canvas canvas) {
+			super.onDraw(canvas);
+
+			if (!mPainted && mPageStarted && getContentHeight() > 0) {
+				mPainted = true;
+				Log.i("WebViewPool", "first paint "
+						+ (SystemClock.uptimeMillis() - mAcquireTime) + "ms ("
+						+ (mPrewarmed ? "pre-warmed" : "created") + ")");
+			}
+		}
+	}
+
+	/** The application context. */
+	private final Context mContext;
+	/** The idle {@link WebView}s. */
+	private final List<PooledWebView> mWebViews = new ArrayList<PooledWebView>();
+	/** The flag to identify a pre-warm is waiting for the idle time. */
+	private boolean mPrewarmPending = false;
+
+	/**
+	 * Construct a new instance.
+	 * 
+	 * @param context
+	 *            The application context.
+	 */
+	private WebViewPool(Context context) {
+		mContext = context;
+		MemoryCoordinator.getInstance().register("web views", this,
+				TrimPolicy.POOL);
+	}
+
+	@Override
+	public long trim(float retain) {
+		final int size = (int) (mWebViews.size() * retain);
+		long reclaimed = 0;
+		while (mWebViews.size() > size) {
+			mWebViews.remove(mWebViews.size() - 1).destroy();
+			reclaimed += ESTIMATED_WEBVIEW_SIZE;
+		}
+		return reclaimed;
+	}
+
+	/**
+	 * Create a {@link WebView} when the UI thread is idle, unless one is
+	 * pooled already.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	public void prewarm() {
+		if (mPrewarmPending || !mWebViews.isEmpty()) {
+			return;
+		}
+
+		mPrewarmPending = true;
+		Looper.myQueue().addIdleHandler(new IdleHandler() {
+			@Override
+			public boolean queueIdle() {
+				mPrewarmPending = false;
+				if (mWebViews.isEmpty()) {
+					final long start = SystemClock.uptimeMillis();
+					mWebViews.add(create());
+					Log.i("WebViewPool", "pre-warmed "
+							+ (SystemClock.uptimeMillis() - start) + "ms");
+				}
+				return false;
+			}
+		});
+	}
+
+	/**
+	 * Acquire a {@link WebView} for an activity. It should be released when
+	 * the activity is destroyed.
+	 * 
+	 * @param activity
+	 *            The activity.
+	 * @return The {@link WebView}.
+	 * @author Luo Yinzhuo
+	 */
+	public WebView acquire(Activity activity) {
+		return acquire(activity, null);
+	}
+
+	/**
+	 * Acquire a {@link WebView} for an activity, whose requests are served by
+	 * an interceptor first. It should be released when the activity is
+	 * destroyed.
+	 * 
+	 * @param activity
+	 *            The activity.
+	 * @param interceptor
+	 *            The {@link RequestInterceptor}, or null if none.
+	 * @return The {@link WebView}.
+	 * @author Luo Yinzhuo
+	 */
+	public WebView acquire(Activity activity, RequestInterceptor interceptor) {
+		final long start = SystemClock.uptimeMillis();
+		final boolean prewarmed = !mWebViews.isEmpty();
+		PooledWebView webView = prewarmed ? mWebViews.remove(mWebViews
+				.size() - 1) : create();
+
+		((MutableContextWrapper) webView.getContext()).setBaseContext(activity);
+		webView.clearHistory();
+		webView.mInterceptor = interceptor;
+		webView.startMeasuring(start, prewarmed);
+		return webView;
+	}
+
+	/**
+	 * Release a {@link WebView} acquired from the pool. It's detached from
+	 * its parent and reset, then pooled or destroyed.
+	 * 
+	 * @param webView
+	 *            The {@link WebView}.
+	 * @author Luo Yinzhuo
+	 */
+	public void release(WebView webView) {
+		final PooledWebView pooledWebView = (PooledWebView) webView;
+		pooledWebView.stopLoading();
+		pooledWebView.mInterceptor = null;
+		final ViewGroup parent = (ViewGroup) pooledWebView.getParent();
+		if (parent != null) {
+			parent.removeView(pooledWebView);
+		}
+
+		if (mWebViews.size() >= MAX_POOL_SIZE) {
+			pooledWebView.destroy();
+			return;
+		}
+
+		pooledWebView.getSettings().setJavaScriptEnabled(false);
+		pooledWebView.setWebChromeClient(null);
+		pooledWebView.loadUrl(BLANK_URL);
+		((MutableContextWrapper) pooledWebView.getContext())
+				.setBaseContext(mContext);
+		mWebViews.add(pooledWebView);
+	}
+
+	/**
+	 * Create a {@link WebView} on the application context, which is switched
+	 * to the activity while it's acquired.
+	 * 
+	 * @return The {@link PooledWebView}.
+	 * @author Luo Yinzhuo
+	 */
+	private PooledWebView create() {
+		return new PooledWebView(new MutableContextWrapper(mContext));
+	}
+}
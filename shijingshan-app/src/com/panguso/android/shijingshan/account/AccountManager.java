@@ -1,28 +1,20 @@
 package com.panguso.android.shijingshan.account;
 
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import com.panguso.android.shijingshan.notification.NotificationBroadcastReceiver;
+import com.panguso.android.shijingshan.notification.NotificationSyncScheduler;
 
-import android.app.AlarmManager;
-import android.app.PendingIntent;
 import android.content.Context;
-import android.content.Intent;
 
 /**
- * Manage current {@link Account} state.
+ * Manage current {@link Account} state. The state is held as an immutable
+ * {@link Session} snapshot, so it could be read on any thread.
  * 
  * @author Luo Yinzhuo
  */
 public final class AccountManager {
-	/** Initialized account, because no account has logged in. */
-	private static Account ACCOUNT = NoAccount.getInstance();
-	/** The login time. */
-	private static long LOGIN_TIME = 0;
-
-	/** The request code for {@link NotificationBroadcastReceiver}. */
-	private static final int REQUEST_CODE_NOTIFICATION_BROADCAST_RECEIVER = 0;
+	/** The current session, no account has logged in initially. */
+	private static volatile Session SESSION = Session.NONE;
 
 	/**
 	 * A new account login.
@@ -39,19 +31,12 @@ public final class AccountManager {
 	 */
 	public static String login(Context context, String account, String password)
 			throws JSONException {
-		ACCOUNT = new Account(account, password);
-		LOGIN_TIME = System.currentTimeMillis();
-
-		PendingIntent pendingIntent = PendingIntent.getBroadcast(context,
-				REQUEST_CODE_NOTIFICATION_BROADCAST_RECEIVER, new Intent(
-						context, NotificationBroadcastReceiver.class),
-				PendingIntent.FLAG_UPDATE_CURRENT);
-		AlarmManager alarmManager = (AlarmManager) context
-				.getSystemService(Context.ALARM_SERVICE);
-		alarmManager.setRepeating(AlarmManager.RTC_WAKEUP,
-				System.currentTimeMillis(),
-				AlarmManager.INTERVAL_FIFTEEN_MINUTES, pendingIntent);
-		return ACCOUNT.getJson();
+		final Session session = new Session(new Account(account, password),
+				System.currentTimeMillis());
+		SESSION = session;
+		NotificationSyncScheduler.start(context);
+		SessionRenewer.getInstance(context).schedule();
+		return session.getAccount().getJson();
 	}
 
 	/**
@@ -60,14 +45,19 @@ public final class AccountManager {
 	 * @author Luo Yinzhuo
 	 */
 	public static void logout(Context context) {
-		PendingIntent pendingIntent = PendingIntent.getBroadcast(context,
-				REQUEST_CODE_NOTIFICATION_BROADCAST_RECEIVER, new Intent(
-						context, NotificationBroadcastReceiver.class),
-				PendingIntent.FLAG_UPDATE_CURRENT);
-		AlarmManager alarmManager = (AlarmManager) context
-				.getSystemService(Context.ALARM_SERVICE);
-		alarmManager.cancel(pendingIntent);
-		ACCOUNT = NoAccount.getInstance();
+		NotificationSyncScheduler.stop(context);
+		SESSION = Session.NONE;
+		SessionRenewer.getInstance(context).cancel();
+	}
+
+	/**
+	 * Get the current session.
+	 * 
+	 * @return The current {@link Session}.
+	 * @author Luo Yinzhuo
+	 */
+	public static Session getSession() {
+		return SESSION;
 	}
 
 	/**
@@ -77,7 +67,7 @@ public final class AccountManager {
 	 * @author Luo Yinzhuo
 	 */
 	public static boolean isLogin() {
-		return ACCOUNT != NoAccount.getInstance();
+		return SESSION.isLogin();
 	}
 
 	/**
@@ -87,7 +77,7 @@ public final class AccountManager {
 	 * @author Luo Yinzhuo
 	 */
 	public static String getAccount() {
-		return ACCOUNT.getAccount();
+		return SESSION.getAccount().getAccount();
 	}
 
 	/**
@@ -98,7 +88,7 @@ public final class AccountManager {
 	 * @author Luo Yinzhuo
 	 */
 	public static String getPassword() {
-		return ACCOUNT.getPassword();
+		return SESSION.getAccount().getPassword();
 	}
 
 	/**
@@ -108,16 +98,29 @@ public final class AccountManager {
 	 *            The current account's password.
 	 * @author Luo Yinzhuo
 	 */
-	public static void changePassword(String password) {
-		ACCOUNT = new Account(ACCOUNT.getAccount(), password);
+	public static synchronized void changePassword(String password) {
+		SESSION = SESSION.changePassword(password);
 	}
 
-	/** The key to store last login user's name. */
-	private static final String KEY_ACCOUNT = "name";
-	/** The key to store last login user's password. */
-	private static final String KEY_PASSWORD = "password";
-	/** The key to store last login user's time. */
-	private static final String KEY_LOGIN_TIME = "time";
+	/**
+	 * Replace the session with its renewed copy, unless it has been replaced
+	 * since it was read.
+	 * 
+	 * @param session
+	 *            The session read before the renewal.
+	 * @param loginTime
+	 *            The time the session is renewed.
+	 * @return The renewed {@link Session}, or null if the session has been
+	 *         replaced.
+	 * @author Luo Yinzhuo
+	 */
+	static synchronized Session renew(Session session, long loginTime) {
+		if (SESSION != session) {
+			return null;
+		}
+		SESSION = session.renew(loginTime);
+		return SESSION;
+	}
 
 	/**
 	 * Update manager from JSON format data.
@@ -130,13 +133,7 @@ public final class AccountManager {
 	 * @author Luo Yinzhuo
 	 */
 	public static void parse(String json) throws JSONException {
-		JSONObject accountManager = new JSONObject(json);
-		final String account = accountManager.getString(KEY_ACCOUNT);
-		if (account.length() > 0) {
-			ACCOUNT = new Account(account,
-					accountManager.getString(KEY_PASSWORD));
-			LOGIN_TIME = accountManager.getLong(KEY_LOGIN_TIME);
-		}
+		SESSION = Session.parse(json);
 	}
 
 	/**
@@ -149,25 +146,7 @@ public final class AccountManager {
 	 * @author Luo Yinzhuo
 	 */
 	public static String getJson() throws JSONException {
-		JSONObject accountManager = new JSONObject();
-		accountManager.put(KEY_ACCOUNT, ACCOUNT.getAccount());
-		accountManager.put(KEY_PASSWORD, ACCOUNT.getPassword());
-		accountManager.put(KEY_LOGIN_TIME, LOGIN_TIME);
-		return accountManager.toString();
-	}
-
-	/** The login time out. */
-	private static final long LOGIN_TIME_OUT = 24 * 60 * 60 * 1000;
-
-	/**
-	 * Check if it needs to re-login.
-	 * 
-	 * @return True if it needs, otherwise false.
-	 * 
-	 * @author Luo Yinzhuo
-	 */
-	public static boolean needReLogin() {
-		return System.currentTimeMillis() - LOGIN_TIME > LOGIN_TIME_OUT;
+		return SESSION.getJson();
 	}
 }
 
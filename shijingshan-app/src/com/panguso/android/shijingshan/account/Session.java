@@ -0,0 +1,151 @@
+package com.panguso.android.shijingshan.account;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * An immutable snapshot of the login session, which could be shared across the
+ * threads. A change to the session is made by replacing the snapshot.
+ * 
+ * @author Luo Yinzhuo
+ */
+public final class Session {
+	/** The session when no account has logged in. */
+	static final Session NONE = new Session(NoAccount.getInstance(), 0);
+
+	/**
+	 * The time a session should be renewed after the login, a while before it
+	 * expires in 24 hours.
+	 */
+	private static final long RENEW_TIME = 20 * 60 * 60 * 1000;
+
+	/** The key to store last login user's name. */
+	private static final String KEY_ACCOUNT = "name";
+	/** The key to store last login user's password. */
+	private static final String KEY_PASSWORD = "password";
+	/** The key to store last login user's time. */
+	private static final String KEY_LOGIN_TIME = "time";
+
+	/** The account. */
+	private final Account mAccount;
+	/** The login time. */
+	private final long mLoginTime;
+
+	/**
+	 * Construct a new instance.
+	 * 
+	 * @param account
+	 *            The account.
+	 * @param loginTime
+	 *            The login time.
+	 */
+	Session(Account account, long loginTime) {
+		mAccount = account;
+		mLoginTime = loginTime;
+	}
+
+	/**
+	 * Get the account.
+	 * 
+	 * @return The account.
+	 * @author Luo Yinzhuo
+	 */
+	public Account getAccount() {
+		return mAccount;
+	}
+
+	/**
+	 * Get the login time.
+	 * 
+	 * @return The login time.
+	 * @author Luo Yinzhuo
+	 */
+	public long getLoginTime() {
+		return mLoginTime;
+	}
+
+	/**
+	 * Check if an account has logged in.
+	 * 
+	 * @return True if an account has logged in, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	public boolean isLogin() {
+		return mAccount != NoAccount.getInstance();
+	}
+
+	/**
+	 * Get the time to renew the session, which is a while before it expires.
+	 * 
+	 * @return The time to renew the session.
+	 * @author Luo Yinzhuo
+	 */
+	public long getRenewTime() {
+		return mLoginTime + RENEW_TIME;
+	}
+
+	/**
+	 * Get a copy of the session with another password.
+	 * 
+	 * @param password
+	 *            The password.
+	 * @return The {@link Session}.
+	 * @author Luo Yinzhuo
+	 */
+	Session changePassword(String password) {
+		if (!isLogin()) {
+			return this;
+		}
+		return new Session(new Account(mAccount.getAccount(), password),
+				mLoginTime);
+	}
+
+	/**
+	 * Get a copy of the session renewed at a time.
+	 * 
+	 * @param loginTime
+	 *            The time the session is renewed.
+	 * @return The {@link Session}.
+	 * @author Luo Yinzhuo
+	 */
+	Session renew(long loginTime) {
+		return new Session(mAccount, loginTime);
+	}
+
+	/**
+	 * Get the session data in JSON format.
+	 * 
+	 * @return The session data in JSON format.
+	 * @throws JSONException
+	 *             If there are JSON format error occurs.
+	 * @author Luo Yinzhuo
+	 */
+	public String getJson() throws JSONException {
+		JSONObject session = new JSONObject();
+		session.put(KEY_ACCOUNT, mAccount.getAccount());
+		session.put(KEY_PASSWORD, mAccount.getPassword());
+		session.put(KEY_LOGIN_TIME, mLoginTime);
+		return session.toString();
+	}
+
+	/**
+	 * Construct a {@link Session} from its data in JSON format.
+	 * 
+	 * @param json
+	 *            The session data in JSON format.
+	 * @return The {@link Session}.
+	 * @throws JSONException
+	 *             If there are JSON format error in the session data.
+	 * @author Luo Yinzhuo
+	 */
+	static Session parse(String json) throws JSONException {
+		JSONObject session = new JSONObject(json);
+		final String account = session.getString(KEY_ACCOUNT);
+		if (account.length() == 0) {
+			return NONE;
+		}
+		return new Session(new Account(account,
+				session.getString(KEY_PASSWORD)),
+				session.getLong(KEY_LOGIN_TIME));
+	}
+}
@@ -0,0 +1,314 @@
+package com.panguso.android.shijingshan.account;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+
+import com.panguso.android.shijingshan.Application;
+import com.panguso.android.shijingshan.R;
+import com.panguso.android.shijingshan.column.ColumnPageActivity;
+import com.panguso.android.shijingshan.net.NetworkService;
+import com.panguso.android.shijingshan.net.NetworkService.LoginRequestListener;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Renew the {@link Session} in the background a while before it expires, by
+ * logging in again with the saved password. The current session keeps being
+ * used meanwhile, even if it has expired. A network or server error is
+ * retried later, only the renewal rejected by the server is reported so the
+ * account could log in again.
+ * 
+ * @author Luo Yinzhuo
+ */
+public final class SessionRenewer implements LoginRequestListener {
+
+	/**
+	 * Interface definition for a callback to be invoked when the server
+	 * rejects the session renewal.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	public interface OnSessionRenewalListener {
+		/**
+		 * Called on the UI thread when the server rejects the session renewal,
+		 * so the account has to log in again.
+		 * 
+		 * @param session
+		 *            The rejected {@link Session}, which is still the
+		 *            current one.
+		 * @author Luo Yinzhuo
+		 */
+		public void onSessionRenewalRejected(Session session);
+	}
+
+	/** The delay to retry a renewal failed by a network or server error. */
+	private static final long RETRY_DELAY = 5 * 60 * 1000;
+
+	/** The single instance. */
+	private static SessionRenewer SINGLE_INSTANCE;
+
+	/**
+	 * Get the single {@link SessionRenewer} instance.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @return The single {@link SessionRenewer} instance.
+	 * @author Luo Yinzhuo
+	 */
+	public static synchronized SessionRenewer getInstance(Context context) {
+		if (SINGLE_INSTANCE == null) {
+			SINGLE_INSTANCE = new SessionRenewer(
+					context.getApplicationContext());
+		}
+		return SINGLE_INSTANCE;
+	}
+
+	/** The application context. */
+	private final Context mContext;
+	/** The UI thread handler. */
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	/** The listeners, only accessed on the UI thread. */
+	private final List<OnSessionRenewalListener> mListeners = new ArrayList<OnSessionRenewalListener>();
+
+	/** The session being renewed, or null if no renewal is running. */
+	private Session mRenewingSession;
+	/** The rejected session not reported yet. */
+	private Session mRejectedSession;
+
+	/** Renew the current session. */
+	private final Runnable mRenew = new Runnable() {
+		@Override
+		public void run() {
+			renew();
+		}
+	};
+
+	/**
+	 * Construct a new instance.
+	 * 
+	 * @param context
+	 *            The application context.
+	 */
+	private SessionRenewer(Context context) {
+		mContext = context;
+	}
+
+	/**
+	 * Register a listener to detect the rejected renewal. A rejection reported
+	 * before any listener is registered is delivered to it.
+	 * 
+	 * @param listener
+	 *            The listener.
+	 * @author Luo Yinzhuo
+	 */
+	public void registerListener(final OnSessionRenewalListener listener) {
+		mListeners.add(listener);
+
+		final Session session = mRejectedSession;
+		mRejectedSession = null;
+		if (session != null && session == AccountManager.getSession()) {
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					if (mListeners.contains(listener)
+							&& session == AccountManager.getSession()) {
+						listener.onSessionRenewalRejected(session);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Unregister the listener from detecting the rejected renewal.
+	 * 
+	 * @param listener
+	 *            The listener.
+	 * @author Luo Yinzhuo
+	 */
+	public void unregisterListener(OnSessionRenewalListener listener) {
+		mListeners.remove(listener);
+	}
+
+	/**
+	 * Schedule the renewal of the current session at its renew time, or at
+	 * once if the time has passed. It could be invoked on any thread.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	public void schedule() {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				mHandler.removeCallbacks(mRenew);
+				final Session session = AccountManager.getSession();
+				if (session.isLogin()) {
+					mHandler.postDelayed(mRenew, Math.max(0,
+							session.getRenewTime() - System.currentTimeMillis()));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Cancel the scheduled renewal because the account logs out.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	void cancel() {
+		mHandler.removeCallbacks(mRenew);
+	}
+
+	/**
+	 * Renew the current session unless a renewal is running.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void renew() {
+		final Session session = AccountManager.getSession();
+		if (mRenewingSession != null || !session.isLogin()) {
+			return;
+		}
+
+		mRenewingSession = session;
+		NetworkService.login(mContext.getString(R.string.server_url), session
+				.getAccount().getAccount(), session.getAccount().getPassword(),
+				((Application) mContext).getUUID(), Build.MODEL, this);
+	}
+
+	/**
+	 * Called when the server accepts the renewal.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void onRenewed() {
+		final Session session = AccountManager.renew(mRenewingSession,
+				System.currentTimeMillis());
+		mRenewingSession = null;
+		if (session == null) {
+			// The account has changed meanwhile.
+			return;
+		}
+
+		try {
+			ColumnPageActivity.getKeyValueStore(mContext).edit()
+					.putString(ColumnPageActivity.KEY_LAST_ACCOUNT,
+							session.getJson()).apply();
+		} catch (JSONException e) {
+			e.printStackTrace();
+		}
+		schedule();
+	}
+
+	/**
+	 * Called when the renewal fails by a network or server error.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void onRenewFailed() {
+		final Session session = mRenewingSession;
+		mRenewingSession = null;
+		if (session == AccountManager.getSession()) {
+			mHandler.removeCallbacks(mRenew);
+			mHandler.postDelayed(mRenew, RETRY_DELAY);
+		}
+	}
+
+	/**
+	 * Called when the server rejects the renewal.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void onRejected() {
+		final Session session = mRenewingSession;
+		mRenewingSession = null;
+		if (session != AccountManager.getSession()) {
+			return;
+		}
+
+		if (mListeners.isEmpty()) {
+			mRejectedSession = session;
+			return;
+		}
+		for (OnSessionRenewalListener listener : new ArrayList<OnSessionRenewalListener>(
+				mListeners)) {
+			listener.onSessionRenewalRejected(session);
+		}
+	}
+
+	/** Called on the UI thread when the renewal fails by an error. */
+	private final Runnable mOnRenewFailed = new Runnable() {
+		@Override
+		public void run() {
+			onRenewFailed();
+		}
+	};
+
+	/** Called on the UI thread when the server rejects the renewal. */
+	private final Runnable mOnRejected = new Runnable() {
+		@Override
+		public void run() {
+			onRejected();
+		}
+	};
+
+	@Override
+	public void onLoginRequestFailed() {
+		mHandler.post(mOnRenewFailed);
+	}
+
+	@Override
+	public void onLoginResponseSuccess(String account, String password) {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				onRenewed();
+			}
+		});
+	}
+
+	@Override
+	public void onLoginResponseFailed() {
+		mHandler.post(mOnRenewFailed);
+	}
+
+	@Override
+	public void onLoginResponseAccountNotExist(String errorMessage) {
+		mHandler.post(mOnRejected);
+	}
+
+	@Override
+	public void onLoginResponseAccountCanceled(String errorMessage) {
+		mHandler.post(mOnRejected);
+	}
+
+	@Override
+	public void onLoginResponseAccountFrozen(String errorMessage) {
+		mHandler.post(mOnRejected);
+	}
+
+	@Override
+	public void onLoginResponseAccountNotActivated(String errorMessage) {
+		mHandler.post(mOnRejected);
+	}
+
+	@Override
+	public void onLoginResponseAccountPasswordNotMatch(String errorMessage) {
+		mHandler.post(mOnRejected);
+	}
+
+	@Override
+	public void onLoginResponseNoDataError(String errorMessage) {
+		mHandler.post(mOnRenewFailed);
+	}
+
+	@Override
+	public void onLoginResponseDatabaseError(String errorMessage) {
+		mHandler.post(mOnRenewFailed);
+	}
+}
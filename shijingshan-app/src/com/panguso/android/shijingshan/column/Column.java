@@ -13,11 +13,11 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.panguso.android.shijingshan.R;
+import com.panguso.android.shijingshan.StyleRegistry;
 import com.panguso.android.shijingshan.news.NewsPageActivity;
 
 import android.content.Context;
 import android.content.Intent;
-import android.content.res.Resources;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -69,16 +69,10 @@ public class Column {
 	private final String mName;
 	/** The subscribe flag. */
 	private final boolean mSubscribe;
-	/** The text font size. */
-	private final float mTextSize;
-	/** The text offset from bottom. */
-	private final float mTextOffsetBottom;
 	/** The background color. */
 	private final int mBackgroundColor;
 	/** The column's icon. */
 	private final Drawable mIcon;
-	/** The column's icon offset from bottom. */
-	private final float mIconOffsetBottom;
 	/** The delete mark. */
 	private final Drawable mDelete;
 
@@ -112,52 +106,31 @@ public class Column {
 	/** The key to store subscribe flag. */
 	public static final String KEY_SUBSCRIBE = "subscribe";
 
-	/**
-	 * Get the column's data in JSON format.
-	 * 
-	 * @return The column's data in JSON format.
-	 * @throws JSONException
-	 *             If error occurs in JSON format.
-	 * @author Luo Yinzhuo
-	 */
-	public final String getJson() throws JSONException {
-		JSONObject column = new JSONObject();
-		column.put(KEY_ID, mId);
-		column.put(KEY_NAME, mName);
-		column.put(KEY_SUBSCRIBE, mSubscribe);
-		return column.toString();
-	}
-
 	/**
 	 * Construct a {@link Column} from its data in JSON format.
 	 * 
-	 * @param context
-	 *            The context.
-	 * @param json
+	 * @param column
 	 *            The JSON format data.
 	 * @return The {@link Column}.
 	 * @throws JSONException
 	 *             If error occurs in JSON format.
 	 * @author Luo Yinzhuo
 	 */
-	public static Column parse(Context context, String json)
-			throws JSONException {
-		JSONObject column = new JSONObject(json);
+	static Column parse(JSONObject column) throws JSONException {
 		final int id = column.getInt(KEY_ID);
 
 		if (id == AddColumn.ID) {
-			return AddColumn.getInstance(context);
+			return AddColumn.getInstance();
 		} else {
-			return new Column(context, id, column.getString(KEY_NAME),
+			return new Column(id, column.getString(KEY_NAME),
 					column.getBoolean(KEY_SUBSCRIBE));
 		}
 	}
 
 	/**
-	 * Construct a new instance.
+	 * Construct a new instance. The styles are shared from the
+	 * {@link StyleRegistry}, so no resource is looked up here.
 	 * 
-	 * @param context
-	 *            The context,
 	 * @param id
 	 *            The column id.
 	 * @param name
@@ -165,47 +138,51 @@ public class Column {
 	 * @param subscribe
 	 *            True if the column need to be subscribed, otherwise false.
 	 */
-	Column(Context context, int id, String name, boolean subscribe) {
+	Column(int id, String name, boolean subscribe) {
 		mId = id;
 		mName = name;
 		mSubscribe = subscribe;
 
-		Resources resources = context.getResources();
-		mIconOffsetBottom = resources
-				.getDimension(R.dimen.column_icon_offset_bottom);
-
-		mTextSize = resources.getDimension(R.dimen.column_font_size);
-		mTextOffsetBottom = resources
-				.getDimension(R.dimen.column_font_offset_bottom);
-
-		if (mSubscribe) {
-			mBackgroundColor = resources.getColor(R.color.column_subscribe);
-			if (mId != AddColumn.ID) {
-				mDelete = resources.getDrawable(R.drawable.delete_mark);
-				mDelete.setBounds(0, 0, mDelete.getIntrinsicWidth(),
-						mDelete.getIntrinsicHeight());
-			} else {
-				mDelete = null;
-			}
+		StyleRegistry style = StyleRegistry.getInstance();
+		mBackgroundColor = style.getColumnBackgroundColor(mSubscribe);
+		if (mSubscribe && mId != AddColumn.ID) {
+			mDelete = style.getDrawable(R.drawable.delete_mark);
 		} else {
-			mBackgroundColor = resources.getColor(R.color.column_public);
 			mDelete = null;
 		}
 
-		int icon = COLUMN_ICON_ARRAY.get(mId);
-		if (icon == 0) {
-			mIcon = resources.getDrawable(R.drawable.column_default);
+		Drawable icon = style.getDrawable(COLUMN_ICON_ARRAY.get(mId));
+		if (icon == null) {
+			mIcon = style.getDrawable(R.drawable.column_default);
 		} else {
-			mIcon = resources.getDrawable(icon);
+			mIcon = icon;
 		}
-		mIcon.setBounds(0, 0, mIcon.getIntrinsicWidth(),
-				mIcon.getIntrinsicHeight());
+	}
+
+	/**
+	 * Get the column id.
+	 * 
+	 * @return The column id.
+	 * @author Luo Yinzhuo
+	 */
+	public int getId() {
+		return mId;
 	}
 
 	public String getName() {
 		return mName;
 	}
 
+	/**
+	 * Check if the column need to be subscribed.
+	 * 
+	 * @return True if the column need to be subscribed, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	public boolean isSubscribe() {
+		return mSubscribe;
+	}
+
 	/** The column is idle. */
 	private static final int STATE_IDLE = 0;
 	/** The column is being pressed. */
@@ -227,6 +204,7 @@ public class Column {
 	 *            The canvas rotation before drawing.
 	 */
 	public final void draw(Canvas canvas, RectF rect, float rotation) {
+		final StyleRegistry style = StyleRegistry.getInstance();
 		canvas.save();
 		canvas.rotate(rotation, rect.centerX(), rect.centerY());
 
@@ -239,7 +217,7 @@ public class Column {
 			canvas.save();
 			canvas.translate(rect.centerX() - mIcon.getIntrinsicWidth() / 2,
 					rect.centerY() - mIcon.getIntrinsicHeight() / 2
-							- mIconOffsetBottom);
+							- style.getColumnIconOffsetBottom());
 			mIcon.draw(canvas);
 			canvas.restore();
 		}
@@ -247,9 +225,9 @@ public class Column {
 		// Draw the text.
 		if (mName != null) {
 			PAINT.setColor(Color.WHITE);
-			PAINT.setTextSize(mTextSize);
+			PAINT.setTextSize(style.getColumnTextSize());
 			float textX = rect.centerX() - PAINT.measureText(mName) / 2;
-			float textY = rect.bottom - mTextOffsetBottom;
+			float textY = rect.bottom - style.getColumnTextOffsetBottom();
 			canvas.drawText(mName, textX, textY, PAINT);
 		}
 
@@ -316,25 +294,20 @@ final class AddColumn extends Column {
 
 	/**
 	 * Construct a new instance.
-	 * 
-	 * @param context
-	 *            The context.
 	 */
-	private AddColumn(Context context) {
-		super(context, ID, "", true);
+	private AddColumn() {
+		super(ID, "", true);
 	}
 
 	/**
 	 * Get the single {@link AddColumn} instance.
 	 * 
-	 * @param context
-	 *            The {@link Context}.
 	 * @return The single {@link AddColumn} instance.
 	 * @author Luo Yinzhuo
 	 */
-	public synchronized static AddColumn getInstance(Context context) {
+	public synchronized static AddColumn getInstance() {
 		if (SINGLE_INSTANCE == null) {
-			SINGLE_INSTANCE = new AddColumn(context);
+			SINGLE_INSTANCE = new AddColumn();
 		}
 		return SINGLE_INSTANCE;
 	}
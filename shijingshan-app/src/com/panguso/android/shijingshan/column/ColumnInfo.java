@@ -3,8 +3,6 @@ package com.panguso.android.shijingshan.column;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.content.Context;
-
 /**
  * Specific for store a {@link Column}'s information.
  * 
@@ -37,13 +35,11 @@ public final class ColumnInfo {
 	/**
 	 * Get the {@link Column} based on the {@link ColumnInfo}.
 	 * 
-	 * @param context
-	 *            The system context.
 	 * @return The {@link Column}.
 	 * @author Luo Yinzhuo
 	 */
-	public final Column getColumn(Context context) {
-		return new Column(context, mId, mName, mSubscribe);
+	public final Column getColumn() {
+		return new Column(mId, mName, mSubscribe);
 	}
 
 	/** The key to get column ID. */
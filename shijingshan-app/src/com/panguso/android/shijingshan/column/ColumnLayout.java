@@ -0,0 +1,56 @@
+package com.panguso.android.shijingshan.column;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable snapshot of the {@link ColumnPage}s displayed by the
+ * {@link ColumnPageView}. It only holds the immutable part of the
+ * {@link Column}s, so it could be handed to a background thread.
+ * 
+ * @author Luo Yinzhuo
+ */
+final class ColumnLayout {
+	/** The column page position. */
+	private final int mPosition;
+	/** The column pages. */
+	private final List<List<Column>> mPages;
+
+	/**
+	 * Construct a new instance.
+	 * 
+	 * @param position
+	 *            The column page position.
+	 * @param pages
+	 *            The columns of each page, copied by the new instance.
+	 */
+	ColumnLayout(int position, List<List<Column>> pages) {
+		mPosition = position;
+		List<List<Column>> copy = new ArrayList<List<Column>>(pages.size());
+		for (List<Column> page : pages) {
+			copy.add(Collections.unmodifiableList(new ArrayList<Column>(page)));
+		}
+		mPages = Collections.unmodifiableList(copy);
+	}
+
+	/**
+	 * Get the column page position.
+	 * 
+	 * @return The column page position.
+	 * @author Luo Yinzhuo
+	 */
+	int getPosition() {
+		return mPosition;
+	}
+
+	/**
+	 * Get the columns of each page.
+	 * 
+	 * @return The unmodifiable columns of each page.
+	 * @author Luo Yinzhuo
+	 */
+	List<List<Column>> getPages() {
+		return mPages;
+	}
+}
@@ -0,0 +1,587 @@
+package com.panguso.android.shijingshan.column;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.panguso.android.shijingshan.KeyValueStore;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.util.SparseBooleanArray;
+
+/**
+ * Persist the {@link ColumnLayout} of an account in a compact binary file.
+ * The file starts with a versioned snapshot followed by the delta records
+ * appended by every {@link #save(ColumnLayout)}, and is compacted back into a
+ * single snapshot when the records pile up. All the file operations run on a
+ * single background thread.
+ * 
+ * @author Luo Yinzhuo
+ */
+final class ColumnLayoutStore {
+	/** The file magic, "SJCL". */
+	private static final int MAGIC = 0x534A434C;
+	/** The file format version. */
+	private static final byte VERSION = 1;
+
+	/** The record to put a column at a position, either an add or a move. */
+	private static final byte OP_PUT = 1;
+	/** The record to delete a column. */
+	private static final byte OP_DELETE = 2;
+	/** The record to change the page count. */
+	private static final byte OP_PAGE_COUNT = 3;
+	/** The record to change the column page position. */
+	private static final byte OP_POSITION = 4;
+
+	/** The record count to trigger a compaction. */
+	private static final int COMPACT_THRESHOLD = 64;
+
+	/** The layout file suffix. */
+	private static final String FILE_SUFFIX = "_column_page.dat";
+	/** The key suffix of the legacy JSON format layout. */
+	private static final String KEY_LEGACY_COLUMN_PAGES = "_column_page";
+	/** The legacy key to store current column page position. */
+	private static final String KEY_LEGACY_POSITION = "column_page_position";
+	/** The legacy key to store current column pages. */
+	private static final String KEY_LEGACY_PAGES = "column_pages";
+
+	/** The executor to run all the file operations in order. */
+	private static final ExecutorService EXECUTOR = Executors
+			.newSingleThreadExecutor();
+	/** The stores indexed by account. */
+	private static final Map<String, ColumnLayoutStore> STORES = new HashMap<String, ColumnLayoutStore>();
+
+	/**
+	 * Get the {@link ColumnLayoutStore} of an account.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @param legacyStore
+	 *            The store which holds the legacy JSON format layout.
+	 * @param account
+	 *            The account.
+	 * @return The {@link ColumnLayoutStore}.
+	 * @author Luo Yinzhuo
+	 */
+	static synchronized ColumnLayoutStore getInstance(Context context,
+			KeyValueStore legacyStore, String account) {
+		ColumnLayoutStore store = STORES.get(account);
+		if (store == null) {
+			store = new ColumnLayoutStore(new File(context.getFilesDir(),
+					account + FILE_SUFFIX), legacyStore, account);
+			STORES.put(account, store);
+		}
+		return store;
+	}
+
+	/** The layout file. */
+	private final File mFile;
+	/** The store which holds the legacy JSON format layout. */
+	private final KeyValueStore mLegacyStore;
+	/** The account. */
+	private final String mAccount;
+
+	/** The persisted column pages, only accessed on the {@link #EXECUTOR}. */
+	private List<List<Column>> mPages;
+	/** The persisted column page position. */
+	private int mPosition;
+	/** The delta record count after the snapshot. */
+	private int mRecordCount;
+	/** The flag to identify the file need to be rewritten. */
+	private boolean mCompactPending;
+
+	/**
+	 * Construct a new instance.
+	 * 
+	 * @param file
+	 *            The layout file.
+	 * @param legacyStore
+	 *            The store which holds the legacy JSON format layout.
+	 * @param account
+	 *            The account.
+	 */
+	private ColumnLayoutStore(File file, KeyValueStore legacyStore,
+			String account) {
+		mFile = file;
+		mLegacyStore = legacyStore;
+		mAccount = account;
+	}
+
+	/**
+	 * Load the persisted {@link ColumnLayout}. It waits for the pending saves,
+	 * so it should not be invoked on the UI thread.
+	 * 
+	 * @return The {@link ColumnLayout}, or null if nothing is persisted.
+	 * @author Luo Yinzhuo
+	 */
+	ColumnLayout load() {
+		try {
+			return EXECUTOR.submit(new Callable<ColumnLayout>() {
+				@Override
+				public ColumnLayout call() {
+					return doLoad();
+				}
+			}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Save the {@link ColumnLayout} asynchronously. Only the difference from
+	 * the persisted layout is appended to the file.
+	 * 
+	 * @param layout
+	 *            The {@link ColumnLayout}.
+	 * @author Luo Yinzhuo
+	 */
+	void save(final ColumnLayout layout) {
+		EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					doSave(layout);
+				} catch (IOException e) {
+					e.printStackTrace();
+					// Rewrite the whole file on the next save.
+					mCompactPending = true;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Load the layout from the file, or migrate it from the legacy JSON
+	 * format.
+	 * 
+	 * @return The {@link ColumnLayout}, or null if nothing is persisted.
+	 * @author Luo Yinzhuo
+	 */
+	private ColumnLayout doLoad() {
+		mPages = new ArrayList<List<Column>>();
+		mPosition = 0;
+		mRecordCount = 0;
+		mCompactPending = false;
+
+		if (mFile.exists()) {
+			if (read()) {
+				return new ColumnLayout(mPosition, mPages);
+			}
+			mPages.clear();
+			mPosition = 0;
+			mFile.delete();
+		} else if (migrate()) {
+			return new ColumnLayout(mPosition, mPages);
+		}
+		return null;
+	}
+
+	/**
+	 * Read the snapshot and replay the delta records.
+	 * 
+	 * @return True if the snapshot is read, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	private boolean read() {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(mFile)));
+			if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+				close(in);
+				return false;
+			}
+
+			mPosition = in.readInt();
+			final int pageCount = in.readInt();
+			for (int i = 0; i < pageCount; i++) {
+				final int columnCount = in.readInt();
+				List<Column> columns = new ArrayList<Column>(columnCount);
+				for (int j = 0; j < columnCount; j++) {
+					columns.add(readColumn(in));
+				}
+				mPages.add(columns);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			close(in);
+			return false;
+		}
+
+		try {
+			int op;
+			while ((op = in.read()) != -1) {
+				if (!replay(in, op)) {
+					// Unknown record, drop the rest of the file.
+					mCompactPending = true;
+					break;
+				}
+				mRecordCount++;
+			}
+		} catch (EOFException e) {
+			// The last record is torn, drop it.
+			mCompactPending = true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			mCompactPending = true;
+		} finally {
+			close(in);
+		}
+		return true;
+	}
+
+	/**
+	 * Replay a delta record.
+	 * 
+	 * @param in
+	 *            The input stream.
+	 * @param op
+	 *            The record operation.
+	 * @return True if the record is replayed, otherwise false.
+	 * @throws IOException
+	 *             If error occurs when reading the record.
+	 * @author Luo Yinzhuo
+	 */
+	private boolean replay(DataInputStream in, int op) throws IOException {
+		switch (op) {
+		case OP_PUT:
+			final Column column = readColumn(in);
+			final int page = in.readInt();
+			final int index = in.readInt();
+			put(column, page, index);
+			return true;
+		case OP_DELETE:
+			delete(in.readInt());
+			return true;
+		case OP_PAGE_COUNT:
+			setPageCount(in.readInt());
+			return true;
+		case OP_POSITION:
+			mPosition = in.readInt();
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Migrate the layout from the legacy JSON format in the store.
+	 * 
+	 * @return True if a legacy layout is migrated, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	private boolean migrate() {
+		final String key = mAccount + KEY_LEGACY_COLUMN_PAGES;
+		final String json = mLegacyStore.getString(key, "");
+		if (json.length() == 0) {
+			return false;
+		}
+
+		try {
+			JSONObject root = new JSONObject(json);
+			JSONArray pages = root.getJSONArray(KEY_LEGACY_PAGES);
+			for (int i = 0; i < pages.length(); i++) {
+				JSONArray page = pages.getJSONArray(i);
+				List<Column> columns = new ArrayList<Column>(page.length());
+				for (int j = 0; j < page.length(); j++) {
+					columns.add(Column.parse(page.getJSONObject(j)));
+				}
+				mPages.add(columns);
+			}
+			mPosition = root.getInt(KEY_LEGACY_POSITION);
+		} catch (JSONException e) {
+			e.printStackTrace();
+			mPages.clear();
+			mPosition = 0;
+			return false;
+		}
+
+		try {
+			compact();
+			mLegacyStore.edit().remove(key).apply();
+		} catch (IOException e) {
+			// Keep the legacy layout to migrate again next time.
+			e.printStackTrace();
+			mCompactPending = true;
+		}
+		return true;
+	}
+
+	/**
+	 * Append the difference between the persisted layout and the specified
+	 * one as delta records, or compact the file if there are too many records.
+	 * 
+	 * @param layout
+	 *            The {@link ColumnLayout}.
+	 * @throws IOException
+	 *             If error occurs when writing the file.
+	 * @author Luo Yinzhuo
+	 */
+	private void doSave(ColumnLayout layout) throws IOException {
+		final List<List<Column>> pages = layout.getPages();
+		if (mPages == null) {
+			// Never loaded, write the layout as a new snapshot.
+			mPages = new ArrayList<List<Column>>();
+			for (List<Column> page : pages) {
+				mPages.add(new ArrayList<Column>(page));
+			}
+			mPosition = layout.getPosition();
+			compact();
+			return;
+		}
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(buffer);
+		int records = 0;
+
+		// Delete the columns which no longer exist.
+		SparseBooleanArray ids = new SparseBooleanArray();
+		for (List<Column> page : pages) {
+			for (Column column : page) {
+				ids.put(column.getId(), true);
+			}
+		}
+		for (List<Column> page : mPages) {
+			for (int i = 0; i < page.size(); i++) {
+				final int id = page.get(i).getId();
+				if (!ids.get(id)) {
+					out.writeByte(OP_DELETE);
+					out.writeInt(id);
+					page.remove(i);
+					i--;
+					records++;
+				}
+			}
+		}
+
+		// Put the columns whose position changed. Every position before the
+		// current one already matches the layout, so a put only moves the
+		// column from a later position.
+		for (int i = 0; i < pages.size(); i++) {
+			List<Column> page = pages.get(i);
+			for (int j = 0; j < page.size(); j++) {
+				final Column column = page.get(j);
+				if (i < mPages.size() && j < mPages.get(i).size()
+						&& isSame(mPages.get(i).get(j), column)) {
+					continue;
+				}
+				out.writeByte(OP_PUT);
+				writeColumn(out, column);
+				out.writeInt(i);
+				out.writeInt(j);
+				put(column, i, j);
+				records++;
+			}
+		}
+
+		if (mPages.size() != pages.size()) {
+			out.writeByte(OP_PAGE_COUNT);
+			out.writeInt(pages.size());
+			setPageCount(pages.size());
+			records++;
+		}
+
+		if (mPosition != layout.getPosition()) {
+			out.writeByte(OP_POSITION);
+			out.writeInt(layout.getPosition());
+			mPosition = layout.getPosition();
+			records++;
+		}
+
+		if (mCompactPending || mRecordCount + records > COMPACT_THRESHOLD) {
+			compact();
+		} else if (records > 0) {
+			FileOutputStream file = new FileOutputStream(mFile, true);
+			try {
+				buffer.writeTo(file);
+			} finally {
+				file.close();
+			}
+			mRecordCount += records;
+		}
+	}
+
+	/**
+	 * Rewrite the persisted layout as a single snapshot. The snapshot is
+	 * written to a temporary file first, so a crash never loses the old file.
+	 * 
+	 * @throws IOException
+	 *             If error occurs when writing the file.
+	 * @author Luo Yinzhuo
+	 */
+	private void compact() throws IOException {
+		File temp = new File(mFile.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeInt(mPosition);
+			out.writeInt(mPages.size());
+			for (List<Column> page : mPages) {
+				out.writeInt(page.size());
+				for (Column column : page) {
+					writeColumn(out, column);
+				}
+			}
+		} finally {
+			out.close();
+		}
+
+		if (!temp.renameTo(mFile)) {
+			temp.delete();
+			throw new IOException("Failed to rename " + temp);
+		}
+		mRecordCount = 0;
+		mCompactPending = false;
+	}
+
+	/**
+	 * Put a {@link Column} at the specified position. The {@link Column} is
+	 * removed from its old position first.
+	 * 
+	 * @param column
+	 *            The {@link Column}.
+	 * @param page
+	 *            The page index.
+	 * @param index
+	 *            The index in the page.
+	 * @author Luo Yinzhuo
+	 */
+	private void put(Column column, int page, int index) {
+		delete(column.getId());
+		while (mPages.size() <= page) {
+			mPages.add(new ArrayList<Column>());
+		}
+		List<Column> columns = mPages.get(page);
+		columns.add(Math.min(index, columns.size()), column);
+	}
+
+	/**
+	 * Delete a {@link Column}.
+	 * 
+	 * @param id
+	 *            The {@link Column} id.
+	 * @author Luo Yinzhuo
+	 */
+	private void delete(int id) {
+		for (List<Column> page : mPages) {
+			for (int i = 0; i < page.size(); i++) {
+				if (page.get(i).getId() == id) {
+					page.remove(i);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Set the page count, removing the trailing pages or adding empty ones.
+	 * 
+	 * @param count
+	 *            The page count.
+	 * @author Luo Yinzhuo
+	 */
+	private void setPageCount(int count) {
+		while (mPages.size() > count) {
+			mPages.remove(mPages.size() - 1);
+		}
+		while (mPages.size() < count) {
+			mPages.add(new ArrayList<Column>());
+		}
+	}
+
+	/**
+	 * Check if two {@link Column}s are persisted the same way.
+	 * 
+	 * @param a
+	 *            The one {@link Column}.
+	 * @param b
+	 *            The other {@link Column}.
+	 * @return True if they are the same, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	private static boolean isSame(Column a, Column b) {
+		return a.getId() == b.getId() && a.isSubscribe() == b.isSubscribe()
+				&& TextUtils.equals(a.getName(), b.getName());
+	}
+
+	/**
+	 * Write a {@link Column}.
+	 * 
+	 * @param out
+	 *            The output stream.
+	 * @param column
+	 *            The {@link Column}.
+	 * @throws IOException
+	 *             If error occurs when writing.
+	 * @author Luo Yinzhuo
+	 */
+	private static void writeColumn(DataOutputStream out, Column column)
+			throws IOException {
+		out.writeInt(column.getId());
+		out.writeUTF(column.getName());
+		out.writeBoolean(column.isSubscribe());
+	}
+
+	/**
+	 * Read a {@link Column}.
+	 * 
+	 * @param in
+	 *            The input stream.
+	 * @return The {@link Column}.
+	 * @throws IOException
+	 *             If error occurs when reading.
+	 * @author Luo Yinzhuo
+	 */
+	private static Column readColumn(DataInputStream in) throws IOException {
+		final int id = in.readInt();
+		final String name = in.readUTF();
+		final boolean subscribe = in.readBoolean();
+		if (id == AddColumn.ID) {
+			return AddColumn.getInstance();
+		} else {
+			return new Column(id, name, subscribe);
+		}
+	}
+
+	/**
+	 * Close the input stream quietly.
+	 * 
+	 * @param in
+	 *            The input stream.
+	 * @author Luo Yinzhuo
+	 */
+	private static void close(DataInputStream in) {
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -12,16 +12,12 @@ package com.panguso.android.shijingshan.column;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import com.panguso.android.shijingshan.column.ColumnPageView.OnPressDownColumnListener;
 
-import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.RectF;
 import android.util.SparseArray;
+import android.util.SparseIntArray;
 import android.view.MotionEvent;
 
 /**
@@ -61,6 +57,8 @@ public final class ColumnPage {
 
 	/** The page's column. */
 	private final List<Column> mColumns = new ArrayList<Column>(MAX_COLUMN_SIZE);
+	/** The positions of the page's columns indexed by id. */
+	private final SparseIntArray mPositions = new SparseIntArray(MAX_COLUMN_SIZE);
 
 	/**
 	 * Check if the rectangle releases the column's position.
@@ -98,73 +96,99 @@ public final class ColumnPage {
 	}
 
 	/**
-	 * Get the column page's data in JSON format.
+	 * Get the columns of the page.
 	 * 
-	 * @return The column page's data in JSON format.
-	 * @throws JSONException
-	 *             If error occurs in JSON format.
+	 * @return The columns of the page.
 	 * @author Luo Yinzhuo
 	 */
-	public String getJson() throws JSONException {
-		JSONArray page = new JSONArray();
-		for (Column column : mColumns) {
-			page.put(new JSONObject(column.getJson()));
-		}
-		return page.toString();
+	List<Column> getColumns() {
+		return mColumns;
 	}
 
 	/**
-	 * Construct a {@link ColumnPage} from its data in JSON format.
+	 * Get the position of a {@link Column} on the page.
 	 * 
-	 * @param context
-	 *            The context.
-	 * @param json
-	 *            The JSON format data.
-	 * @return The {@link ColumnPage}.
-	 * @throws JSONException
-	 *             If error occurs in JSON format.
+	 * @param id
+	 *            The {@link Column}'s id.
+	 * @return The position, or -1 if it's not on the page.
 	 * @author Luo Yinzhuo
 	 */
-	public static ColumnPage parse(Context context, String json)
-			throws JSONException {
-		JSONArray columns = new JSONArray(json);
-		ColumnPage page = new ColumnPage();
-		for (int i = 0; i < columns.length(); i++) {
-			page.addColumn(Column.parse(context, columns.get(i).toString()));
-		}
-		return page;
+	public int indexOf(int id) {
+		return mPositions.get(id, -1);
 	}
 
 	/**
-	 * Filter the {@link Column}s which this {@link ColumnPage} contains to
-	 * remove the {@link Column}s which not exist in the specified
-	 * {@link Column} list.
+	 * Replace the {@link Column} at a position by one of the same id, to pick
+	 * up its new name.
 	 * 
-	 * @param columns The columns.
+	 * @param index
+	 *            The position.
+	 * @param column
+	 *            The new {@link Column}.
+	 * @return The replaced {@link Column}.
+	 * @author Luo Yinzhuo
+	 */
+	public Column replaceColumn(int index, Column column) {
+		return mColumns.set(index, column);
+	}
+
+	/**
+	 * Retain the {@link Column}s listed by the specified filter pass in a
+	 * single pass. Only the {@link Column}s shifted by a removal are animated
+	 * to their new positions.
 	 * 
+	 * @param passes
+	 *            The last filter pass listing the {@link Column}s indexed by
+	 *            id.
+	 * @param pass
+	 *            The filter pass.
+	 * @return The removed {@link Column}s.
 	 * @author Luo Yinzhuo
 	 */
-	public void filter(List<Column> columns) {
+	public List<Column> retain(SparseIntArray passes, int pass) {
+		final List<Column> removed = new ArrayList<Column>();
+		final long time = System.currentTimeMillis();
+		boolean shifted = false;
+		int count = 0;
 		for (int i = 0; i < mColumns.size(); i++) {
-			Column column = mColumns.get(i);
-			if (!columns.contains(column)) {
-				mColumns.remove(column);
-				i--;
+			final Column column = mColumns.get(i);
+			if (passes.get(column.getId()) != pass) {
+				mPositions.delete(column.getId());
+				removed.add(column);
+				continue;
 			}
+
+			if (count != i) {
+				if (!shifted) {
+					// The running animations are indexed by the old positions.
+					mColumnAnimationArray.clear();
+					shifted = true;
+				}
+				mColumnAnimationArray.put(count, new ColumnAnimation(
+						COLUMN_RECTS.get(i), time, COLUMN_RECTS.get(count)));
+			}
+			mPositions.put(column.getId(), count);
+			mColumns.set(count++, column);
+		}
+
+		while (mColumns.size() > count) {
+			mColumns.remove(mColumns.size() - 1);
 		}
+		return removed;
 	}
 
 	/**
-	 * Exclude the {@link Column}s which this {@link ColumnPage} contains from
-	 * the specified {@link Column} list.
-	 * 
-	 * @param columns
-	 *            The columns.
+	 * Update the positions of the {@link Column}s from the specified index to
+	 * the end of the page.
 	 * 
+	 * @param index
+	 *            The first changed position.
 	 * @author Luo Yinzhuo
 	 */
-	public void exclude(List<Column> columns) {
-		columns.removeAll(mColumns);
+	private void updatePositions(int index) {
+		for (int i = index; i < mColumns.size(); i++) {
+			mPositions.put(mColumns.get(i).getId(), i);
+		}
 	}
 
 	/**
@@ -196,6 +220,7 @@ public final class ColumnPage {
 	 * @author Luo Yinzhuo
 	 */
 	public void addColumn(Column column) {
+		mPositions.put(column.getId(), mColumns.size());
 		mColumns.add(column);
 	}
 
@@ -211,8 +236,9 @@ public final class ColumnPage {
 	public void addColumn(int index, Column column) {
 		if (index < mColumns.size()) {
 			mColumns.add(index, column);
+			updatePositions(index);
 		} else {
-			mColumns.add(column);
+			addColumn(column);
 		}
 	}
 
@@ -232,9 +258,10 @@ public final class ColumnPage {
 		int position = index;
 		if (index < mColumns.size()) {
 			mColumns.add(index, column);
+			updatePositions(index);
 		} else {
-			mColumns.add(column);
-			position = mColumns.size() - 1;
+			position = mColumns.size();
+			addColumn(column);
 		}
 
 		RectF targetRectF = COLUMN_RECTS.get(position);
@@ -244,6 +271,24 @@ public final class ColumnPage {
 		}
 	}
 
+	/**
+	 * Add a column to the page with the specific index, sliding in from the
+	 * right side of the page.
+	 * 
+	 * @param index
+	 *            The index.
+	 * @param column
+	 *            The column.
+	 * @param width
+	 *            The {@link ColumnPageView}'s width.
+	 * @author Luo Yinzhuo
+	 */
+	public void slideInColumn(int index, Column column, int width) {
+		RectF startRectF = new RectF(COLUMN_RECTS.get(0));
+		startRectF.offset(width, 0);
+		addColumn(index, column, startRectF);
+	}
+
 	/**
 	 * Remove the excess column.
 	 * 
@@ -251,7 +296,9 @@ public final class ColumnPage {
 	 * @author Luo Yinzhuo
 	 */
 	public Column removeExcessColumn() {
-		return mColumns.remove(MAX_COLUMN_SIZE - 1);
+		final Column column = mColumns.remove(MAX_COLUMN_SIZE - 1);
+		mPositions.delete(column.getId());
+		return column;
 	}
 
 	/**
@@ -311,6 +358,8 @@ public final class ColumnPage {
 			RectF rectF = COLUMN_RECTS.get(i);
 			if (rectF.contains(e.getX(), e.getY())) {
 				Column column = mColumns.remove(i);
+				mPositions.delete(column.getId());
+				updatePositions(i);
 				listener.onDown(e, column, this, i, new RectF(rectF));
 			}
 		}
@@ -5,26 +5,35 @@ import java.util.List;
 
 import org.json.JSONException;
 
+import com.panguso.android.shijingshan.KeyValueStore;
 import com.panguso.android.shijingshan.R;
+import com.panguso.android.shijingshan.WebViewPool;
 import com.panguso.android.shijingshan.account.AccountManager;
+import com.panguso.android.shijingshan.account.Session;
+import com.panguso.android.shijingshan.account.SessionRenewer;
+import com.panguso.android.shijingshan.account.SessionRenewer.OnSessionRenewalListener;
+import com.panguso.android.shijingshan.column.ColumnPageView.OnFirstDrawListener;
+import com.panguso.android.shijingshan.column.StartupPipeline.OnStartupListener;
 import com.panguso.android.shijingshan.dialog.MessageDialog;
 import com.panguso.android.shijingshan.dialog.MessageDialog.OnMessageDialogListener;
 import com.panguso.android.shijingshan.dialog.WaitingDialog;
 import com.panguso.android.shijingshan.login.LoginActivity;
 import com.panguso.android.shijingshan.net.NetworkService;
-import com.panguso.android.shijingshan.net.NetworkService.ColumnInfoListRequestListener;
 import com.panguso.android.shijingshan.notification.NotificationListActivity;
 import com.panguso.android.shijingshan.setting.SettingActivity;
 import com.panguso.android.shijingshan.subscribe.SubscribeActivity;
+import com.panguso.android.shijingshan.subscribe.SubscribeInfo;
+import com.panguso.android.shijingshan.subscribe.SubscriptionEditor;
+import com.panguso.android.shijingshan.subscribe.SubscriptionEditor.OnSubscriptionChangeListener;
 
 import android.app.Activity;
 import android.app.Dialog;
+import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.util.SparseArray;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.ImageButton;
@@ -37,9 +46,17 @@ import android.widget.RelativeLayout;
  * @date 2013-8-7
  */
 public class ColumnPageActivity extends Activity implements
-		ColumnInfoListRequestListener, OnClickListener, OnMessageDialogListener {
+		OnStartupListener, OnFirstDrawListener, OnClickListener,
+		OnMessageDialogListener, OnSubscriptionChangeListener,
+		OnSessionRenewalListener {
 	/** The initialize flag. */
 	private boolean mInitialized = false;
+	/** The startup pipeline. */
+	private StartupPipeline mStartupPipeline;
+	/** The columns from the server. */
+	private List<Column> mColumns = new ArrayList<Column>();
+	/** The subscription state not applied yet, or null if there is none. */
+	private List<SubscribeInfo> mPendingSubscribeInfos;
 	/** The waiting dialog. */
 	private WaitingDialog mWaitingDialog;
 	/** The retry dialog. */
@@ -86,8 +103,24 @@ public class ColumnPageActivity extends Activity implements
 
 	/** The key to get last account data. */
 	public static final String KEY_LAST_ACCOUNT = "last_account";
-	/** The key to get the last displayed {@link ColumnPage}'s data. */
-	private static final String KEY_COLUMN_PAGES = "_column_page";
+	/** The {@link KeyValueStore} name. */
+	private static final String STORE_NAME = "column_page";
+	/** The legacy preferences name of the activity. */
+	private static final String LEGACY_PREFERENCES_NAME = "column.ColumnPageActivity";
+
+	/**
+	 * Get the {@link KeyValueStore} which holds the last account and the
+	 * legacy layouts. Getting it early starts loading it in the background.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @return The {@link KeyValueStore}.
+	 * @author Luo Yinzhuo
+	 */
+	public static KeyValueStore getKeyValueStore(Context context) {
+		return KeyValueStore.getInstance(context, STORE_NAME,
+				LEGACY_PREFERENCES_NAME);
+	}
 
 	/** The start view. */
 	private RelativeLayout mStart;
@@ -103,7 +136,7 @@ public class ColumnPageActivity extends Activity implements
 	private ImageButton mNotification;
 
 	private static final int MESSAGE_START_TIMEOUT = 0;
-	/** The start dialog timeout. */
+	/** The start dialog timeout if no column is drawn before it. */
 	private static final int START_TIMEOUT = 5000;
 
 	/** The start dialog handler. */
@@ -142,59 +175,108 @@ public class ColumnPageActivity extends Activity implements
 		mNotification.setOnClickListener(this);
 
 		mColumnPageView = (ColumnPageView) findViewById(R.id.column_page);
+		mColumnPageView.setOnFirstDrawListener(this);
+		SubscriptionEditor.getInstance(this).registerListener(this);
+		SessionRenewer.getInstance(this).registerListener(this);
 
-		SharedPreferences sharedPreferences = getPreferences(MODE_PRIVATE);
-		String lastAccount = sharedPreferences.getString(KEY_LAST_ACCOUNT, "");
-
-		if (lastAccount.length() > 0) {
-			try {
-				AccountManager.parse(lastAccount);
-				if (AccountManager.needReLogin()) {
-					Intent intent = new Intent(this, LoginActivity.class);
-					intent.putExtra(LoginActivity.KEY_ACCOUNT,
-							AccountManager.getAccount());
-					intent.putExtra(LoginActivity.KEY_PASSWORD,
-							AccountManager.getPassword());
-					AccountManager.logout(this);
-					startActivityForResult(intent, REQUEST_CODE_LOGIN);
-					return;
-				}
-			} catch (JSONException e) {
-				e.printStackTrace();
-			}
-		}
+		mStartupPipeline = new StartupPipeline(this, this);
+		mStartupPipeline.start();
+	}
 
-		NetworkService.getColumnInfoList(getString(R.string.server_url),
-				AccountManager.getAccount(), this);
+	@Override
+	public void onSessionRenewalRejected(Session session) {
+		saveColumnPages();
+		AccountManager.logout(this);
+		saveLastAccount();
+		mInitialized = false;
+		// The login form is filled with the last login account.
+		startActivityForResult(new Intent(this, LoginActivity.class),
+				REQUEST_CODE_LOGIN);
 	}
 
 	@Override
-	protected void onDestroy() {
+	public void onLayoutLoaded(String account, ColumnLayout layout) {
+		// Ignore the layout of the account logged out meanwhile.
+		if (!account.equals(AccountManager.getAccount())) {
+			return;
+		}
+
 		if (mInitialized) {
-			try {
-				String columnPage = mColumnPageView.getJson();
-				Editor editor = getPreferences(MODE_PRIVATE).edit();
-				editor.putString(
-						AccountManager.getAccount() + KEY_COLUMN_PAGES,
-						columnPage);
-				editor.commit();
-			} catch (JSONException e) {
-				e.printStackTrace();
-			}
+			displayColumnPages(new ArrayList<Column>(mColumns), layout);
+		} else {
+			// Draw the last-known layout until the columns are fetched.
+			displayAccount();
+			mColumnPageView.initialize(layout);
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public void onFirstDraw() {
+		mStartupPipeline.onFirstDraw();
+		mStartHandler.removeMessages(MESSAGE_START_TIMEOUT);
+		mStart.setVisibility(View.GONE);
+		if (mWaitingDialog != null && mWaitingDialog.isShowing()) {
+			dismissDialog(DIALOG_WAITING);
 		}
+		WebViewPool.getInstance(this).prewarm();
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+		applySubscription();
+	}
+
+	@Override
+	protected void onDestroy() {
+		SubscriptionEditor.getInstance(this).unregisterListener(this);
+		SessionRenewer.getInstance(this).unregisterListener(this);
+		saveColumnPages();
 		super.onDestroy();
 	}
 
+	/**
+	 * Get the {@link ColumnLayoutStore} of the current account.
+	 * 
+	 * @return The {@link ColumnLayoutStore}.
+	 * @author Luo Yinzhuo
+	 */
+	private ColumnLayoutStore getColumnLayoutStore() {
+		return ColumnLayoutStore.getInstance(this, getKeyValueStore(this),
+				AccountManager.getAccount());
+	}
+
 	/**
 	 * Display column pages.
 	 * 
 	 * @param columns
 	 *            The columns.
+	 * @param layout
+	 *            The persisted {@link ColumnLayout}, or null if there is
+	 *            none.
+	 * @author Luo Yinzhuo
+	 */
+	private void displayColumnPages(List<Column> columns, ColumnLayout layout) {
+		if (AccountManager.isLogin()) {
+			columns.add(AddColumn.getInstance());
+		}
+		displayAccount();
+
+		if (layout != null) {
+			mColumnPageView.initialize(layout);
+		}
+		mColumnPageView.filter(columns);
+		onInitialized();
+	}
+
+	/**
+	 * Display the buttons of the current account.
+	 * 
 	 * @author Luo Yinzhuo
 	 */
-	private void displayColumnPages(List<Column> columns) {
+	private void displayAccount() {
 		if (AccountManager.isLogin()) {
-			columns.add(AddColumn.getInstance(this));
 			mLog.setImageResource(R.drawable.login);
 			mSubscribe.setVisibility(View.VISIBLE);
 			mNotification.setVisibility(View.VISIBLE);
@@ -203,38 +285,32 @@ public class ColumnPageActivity extends Activity implements
 			mSubscribe.setVisibility(View.INVISIBLE);
 			mNotification.setVisibility(View.INVISIBLE);
 		}
-
-		SharedPreferences sharedPreferences = getPreferences(MODE_PRIVATE);
-		String columnPages = sharedPreferences.getString(
-				AccountManager.getAccount() + KEY_COLUMN_PAGES, "");
-		if (columnPages.length() > 0) {
-			try {
-				mColumnPageView.initialize(columnPages);
-			} catch (JSONException e) {
-				e.printStackTrace();
-			}
-		}
-		mColumnPageView.filter(columns);
-		onInitialized();
 	}
 
 	/**
-	 * Save column pages.
+	 * Save column pages. Only the snapshot is taken on the UI thread, the file
+	 * is written in the background.
 	 * 
 	 * @author Luo Yinzhuo
 	 */
 	private void saveColumnPages() {
 		if (mInitialized) {
-			try {
-				String columnPage = mColumnPageView.getJson();
-				Editor editor = getPreferences(MODE_PRIVATE).edit();
-				editor.putString(
-						AccountManager.getAccount() + KEY_COLUMN_PAGES,
-						columnPage);
-				editor.commit();
-			} catch (JSONException e) {
-				e.printStackTrace();
-			}
+			getColumnLayoutStore().save(mColumnPageView.getLayout());
+		}
+	}
+
+	/**
+	 * Save the current account as the last account.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void saveLastAccount() {
+		try {
+			getKeyValueStore(this).edit()
+					.putString(KEY_LAST_ACCOUNT, AccountManager.getJson())
+					.apply();
+		} catch (JSONException e) {
+			e.printStackTrace();
 		}
 	}
 
@@ -270,9 +346,12 @@ public class ColumnPageActivity extends Activity implements
 			public void run() {
 				List<Column> columns = new ArrayList<Column>();
 				for (ColumnInfo columnInfo : columnInfos) {
-					columns.add(columnInfo.getColumn(ColumnPageActivity.this));
+					columns.add(columnInfo.getColumn());
 				}
-				displayColumnPages(columns);
+				mColumns = columns;
+				mPendingSubscribeInfos = null;
+				// The layout is loaded by the startup pipeline meanwhile.
+				displayColumnPages(new ArrayList<Column>(columns), null);
 			}
 		});
 	}
@@ -288,18 +367,58 @@ public class ColumnPageActivity extends Activity implements
 		});
 	}
 
+	@Override
+	public void onSubscriptionChanged(List<SubscribeInfo> subscribeInfos) {
+		mPendingSubscribeInfos = subscribeInfos;
+	}
+
+	/**
+	 * Apply the pending subscription state to the displayed columns. The
+	 * unsubscribed columns are dropped and the subscribed ones are appended,
+	 * the others keep their positions.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void applySubscription() {
+		if (mPendingSubscribeInfos == null || !mInitialized) {
+			return;
+		}
+
+		SparseArray<Column> subscribed = new SparseArray<Column>();
+		for (Column column : mColumns) {
+			if (column.isSubscribe()) {
+				subscribed.put(column.getId(), column);
+			}
+		}
+
+		List<Column> columns = new ArrayList<Column>();
+		for (Column column : mColumns) {
+			if (!column.isSubscribe()) {
+				columns.add(column);
+			}
+		}
+		for (SubscribeInfo subscribeInfo : mPendingSubscribeInfos) {
+			if (subscribeInfo.isSubscribe()) {
+				final int id = subscribeInfo.getId();
+				Column column = subscribed.get(id);
+				columns.add(column != null ? column : new Column(id,
+						subscribeInfo.getName(), true));
+			}
+		}
+		mPendingSubscribeInfos = null;
+		mColumns = columns;
+		displayColumnPages(new ArrayList<Column>(columns), null);
+	}
+
 	/** Login activity request code. */
 	private static final int REQUEST_CODE_LOGIN = 1;
-	/** Subscribe activity request code. */
-	static final int REQUEST_CODE_SUBSCRIBE = 2;
 
 	/**
 	 * Subscribe.
 	 */
 	void subscribe() {
 		saveColumnPages();
-		startActivityForResult(new Intent(this, SubscribeActivity.class),
-				REQUEST_CODE_SUBSCRIBE);
+		startActivity(new Intent(this, SubscribeActivity.class));
 	}
 
 	@SuppressWarnings("deprecation")
@@ -336,32 +455,15 @@ public class ColumnPageActivity extends Activity implements
 		case REQUEST_CODE_LOGIN:
 			if (resultCode == RESULT_OK) {
 				saveColumnPages();
-
-				Editor editor = getPreferences(MODE_PRIVATE).edit();
-				try {
-					editor.putString(KEY_LAST_ACCOUNT, AccountManager.getJson());
-				} catch (JSONException e) {
-					e.printStackTrace();
-				}
-				editor.commit();
-
+				saveLastAccount();
 				mInitialized = false;
 			}
 
 			if (!mInitialized) {
 				showDialog(DIALOG_WAITING);
-				NetworkService.getColumnInfoList(
-						getString(R.string.server_url),
-						AccountManager.getAccount(), this);
+				mStartupPipeline.loadColumns();
 			}
 			break;
-		case REQUEST_CODE_SUBSCRIBE:
-			showDialog(DIALOG_WAITING);
-			mInitialized = false;
-			NetworkService.getColumnInfoList(
-					getResources().getString(R.string.server_url),
-					AccountManager.getAccount(), this);
-			break;
 		}
 	}
 
@@ -405,18 +507,10 @@ public class ColumnPageActivity extends Activity implements
 		case DIALOG_LOGOUT:
 			saveColumnPages();
 			AccountManager.logout(this);
+			saveLastAccount();
 
-			Editor editor = getPreferences(MODE_PRIVATE).edit();
-			try {
-				editor.putString(KEY_LAST_ACCOUNT, AccountManager.getJson());
-			} catch (JSONException e) {
-				e.printStackTrace();
-			}
-			editor.commit();
-
-			NetworkService.getColumnInfoList(
-					getResources().getString(R.string.server_url),
-					AccountManager.getAccount(), this);
+			mInitialized = false;
+			mStartupPipeline.loadColumns();
 			showDialog(DIALOG_WAITING);
 			dismissDialog(DIALOG_LOGOUT);
 			break;
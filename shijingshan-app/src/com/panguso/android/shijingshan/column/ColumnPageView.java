@@ -3,14 +3,12 @@ package com.panguso.android.shijingshan.column;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.RectF;
 import android.util.AttributeSet;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
 import android.view.GestureDetector;
 import android.view.GestureDetector.OnGestureListener;
 import android.view.MotionEvent;
@@ -26,6 +24,8 @@ public class ColumnPageView extends View {
 	private final ColumnPageManager mColumnPageManager;
 	/** The gesture detector. */
 	private final GestureDetector mGestureDetector;
+	/** The listener to be notified when the first column is drawn. */
+	private OnFirstDrawListener mOnFirstDrawListener;
 
 	/**
 	 * Construct a new instance.
@@ -44,14 +44,12 @@ public class ColumnPageView extends View {
 	/**
 	 * Initialize the {@link ColumnPageManager}.
 	 * 
-	 * @param json
-	 *            The column pages data in JSON format.
-	 * @throws JSONException
-	 *             If error occurs in JSON format.
+	 * @param layout
+	 *            The persisted {@link ColumnLayout}.
 	 * @author Luo Yinzhuo
 	 */
-	public void initialize(String json) throws JSONException {
-		mColumnPageManager.initialize(json);
+	void initialize(ColumnLayout layout) {
+		mColumnPageManager.initialize(layout);
 		invalidate();
 	}
 
@@ -79,20 +77,41 @@ public class ColumnPageView extends View {
 	}
 
 	/**
-	 * Get the column page view's data in JSON format.
+	 * Get the snapshot of the column pages to persist.
 	 * 
-	 * @return The column page view's data in JSON format.
-	 * @throws JSONException
-	 *             If error occurs in JSON format.
+	 * @return The {@link ColumnLayout}.
 	 * @author Luo Yinzhuo
 	 */
-	public String getJson() throws JSONException {
-		return mColumnPageManager.getJson();
+	ColumnLayout getLayout() {
+		return mColumnPageManager.getLayout();
+	}
+
+	/**
+	 * Set the listener to be notified once when the first column is drawn.
+	 * 
+	 * @param listener
+	 *            The listener.
+	 * @author Luo Yinzhuo
+	 */
+	void setOnFirstDrawListener(OnFirstDrawListener listener) {
+		mOnFirstDrawListener = listener;
 	}
 
 	@Override
 	protected void onDraw(Canvas canvas) {
 		mColumnPageManager.draw(canvas);
+
+		if (mOnFirstDrawListener != null && mColumnPageManager.hasColumns()) {
+			final OnFirstDrawListener listener = mOnFirstDrawListener;
+			mOnFirstDrawListener = null;
+			// Notify after the frame is posted.
+			post(new Runnable() {
+				@Override
+				public void run() {
+					listener.onFirstDraw();
+				}
+			});
+		}
 	}
 
 	@Override
@@ -101,6 +120,21 @@ public class ColumnPageView extends View {
 				|| mColumnPageManager.onTouchEvent(event);
 	}
 
+	/**
+	 * Interface definition for a callback to be invoked when the first column
+	 * is drawn.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	interface OnFirstDrawListener {
+		/**
+		 * Called when the first column is drawn.
+		 * 
+		 * @author Luo Yinzhuo
+		 */
+		public void onFirstDraw();
+	}
+
 	/**
 	 * Listen to the press down column relative event.
 	 * 
@@ -140,89 +174,190 @@ public class ColumnPageView extends View {
 		private final ColumnPagePositionManager mColumnPagePositionManager = new ColumnPagePositionManager();
 		/** The press down column. */
 		private final PressDownColumn mPressDownColumn = new PressDownColumn();
+		/**
+		 * The {@link ColumnPage}s holding the {@link Column}s indexed by id,
+		 * updated whenever a {@link Column} is placed or removed.
+		 */
+		private final SparseArray<ColumnPage> mColumnIndex = new SparseArray<ColumnPage>();
+		/** The last filter pass listing the {@link Column}s indexed by id. */
+		private final SparseIntArray mListedPasses = new SparseIntArray();
+		/** The filter pass count. */
+		private int mPass = 0;
 
 		/**
 		 * Filter the {@link ColumnPage}s to show and only show the specified
-		 * {@link Column}s.
+		 * {@link Column}s. The list is applied as a diff against the current
+		 * layout through the index by id: the remaining {@link Column}s keep
+		 * the positions the user arranged and pick up their new names, the
+		 * removed ones are dropped, and the new ones are placed in the order
+		 * of the list, right after the {@link Column} before them. Only the
+		 * changed tiles are animated.
 		 * 
 		 * @param columns
 		 *            The list of {@link Column}s.
 		 * @author Luo Yinzhuo
 		 */
 		public void filter(List<Column> columns) {
-			for (ColumnPage columnPage : mColumnPages) {
-				columnPage.filter(columns);
+			if (!mPressDownColumn.isEmpty()) {
+				mPressDownColumn.release();
+			}
+
+			// Animate the new columns only if there is a layout already.
+			final boolean animate = mColumnIndex.size() > 0;
+			final int pass = ++mPass;
+			int retained = 0;
+			for (Column column : columns) {
+				final int id = column.getId();
+				final ColumnPage columnPage = mColumnIndex.get(id);
+				if (columnPage != null && mListedPasses.get(id) != pass) {
+					mListedPasses.put(id, pass);
+					columnPage.replaceColumn(columnPage.indexOf(id), column);
+					retained++;
+				}
 			}
 
-			List<Column> remainColumns = new ArrayList<Column>(columns);
-			if (!mColumnPages.isEmpty()) {
+			// Only a removal needs a pass over the layout.
+			if (retained < mColumnIndex.size()) {
 				for (ColumnPage columnPage : mColumnPages) {
-					columnPage.exclude(remainColumns);
+					for (Column column : columnPage.retain(mListedPasses, pass)) {
+						mColumnIndex.delete(column.getId());
+						mListedPasses.delete(column.getId());
+					}
 				}
-			} else {
-				mColumnPages.add(new ColumnPage());
 			}
 
-			if (!remainColumns.isEmpty()) {
-				int columnPagePosition = (int) mColumnPagePositionManager
-						.getColumnPagePosition();
-				ColumnPage columnPage = mColumnPages.get(columnPagePosition);
-				for (int i = 0; i < remainColumns.size(); i++) {
-					Column column = remainColumns.get(i);
+			ColumnPage lastPage = null;
+			int lastPageIndex = 0;
+			for (int i = 0; i < columns.size(); i++) {
+				final Column column = columns.get(i);
+				if (mColumnIndex.get(column.getId()) != null) {
+					continue;
+				}
 
-					if (!columnPage.isFull()) {
-						columnPage.addColumn(column);
-					} else {
-						columnPagePosition++;
-						if (columnPagePosition < mColumnPages.size()) {
-							columnPage = mColumnPages.get(columnPagePosition);
-						} else {
-							columnPage = new ColumnPage();
-							mColumnPages.add(columnPage);
-						}
-						i--;
+				int pageIndex = 0;
+				int index = 0;
+				if (i > 0) {
+					final int previousId = columns.get(i - 1).getId();
+					final ColumnPage previousPage = mColumnIndex
+							.get(previousId);
+					if (previousPage != lastPage) {
+						lastPage = previousPage;
+						lastPageIndex = mColumnPages.indexOf(previousPage);
+					}
+					pageIndex = lastPageIndex;
+					index = previousPage.indexOf(previousId) + 1;
+					if (index == ColumnPage.MAX_COLUMN_SIZE) {
+						pageIndex++;
+						index = 0;
 					}
 				}
-			}
+				if (pageIndex == mColumnPages.size()) {
+					mColumnPages.add(new ColumnPage());
+				}
+				makeRoom(pageIndex);
 
-			for (int i = 0; i < mColumnPages.size(); i++) {
-				ColumnPage columnPage = mColumnPages.get(i);
-				if (columnPage.isEmpty()) {
-					mColumnPages.remove(columnPage);
-					mColumnPagePositionManager.onRemovePage(i);
-					i--;
+				final ColumnPage columnPage = mColumnPages.get(pageIndex);
+				if (animate) {
+					columnPage.slideInColumn(index, column, getWidth());
+				} else {
+					columnPage.addColumn(index, column);
 				}
+				mColumnIndex.put(column.getId(), columnPage);
+				mListedPasses.put(column.getId(), pass);
+				// The next new column mostly follows this one.
+				lastPage = columnPage;
+				lastPageIndex = pageIndex;
 			}
 
+			removeEmptyPages(mColumnPages.size());
 			mMode = MODE_EXPLORE;
 		}
 
-		/** The key to store current column page position. */
-		private static final String KEY_COLUMN_PAGE_POSITION = "column_page_position";
-		/** The key to store current column pages. */
-		private static final String KEY_COLUMN_PAGES = "column_pages";
+		/**
+		 * Make room on a full {@link ColumnPage} by moving its last
+		 * {@link Column} to the start of the next page, which cascades through
+		 * the following full pages. A page is added at the end if needed.
+		 * 
+		 * @param pageIndex
+		 *            The index of the page to make room on.
+		 * @author Luo Yinzhuo
+		 */
+		private void makeRoom(int pageIndex) {
+			ColumnPage columnPage = mColumnPages.get(pageIndex);
+			if (!columnPage.isFull()) {
+				return;
+			}
+
+			Column excess = columnPage.removeExcessColumn();
+			while (excess != null) {
+				if (++pageIndex == mColumnPages.size()) {
+					mColumnPages.add(new ColumnPage());
+				}
+				columnPage = mColumnPages.get(pageIndex);
+				final Column next = columnPage.isFull() ? columnPage
+						.removeExcessColumn() : null;
+				columnPage.addColumn(0, excess);
+				mColumnIndex.put(excess.getId(), columnPage);
+				excess = next;
+			}
+		}
+
+		/**
+		 * Remove the empty {@link ColumnPage}s among the first specified
+		 * count of pages.
+		 * 
+		 * @param count
+		 *            The count of pages to check.
+		 * @author Luo Yinzhuo
+		 */
+		private void removeEmptyPages(int count) {
+			for (int i = count - 1; i >= 0; i--) {
+				if (mColumnPages.get(i).isEmpty()) {
+					mColumnPages.remove(i);
+					mColumnPagePositionManager.onRemovePage(i);
+				}
+			}
+		}
+
+		/**
+		 * Check if there is any {@link Column} to draw.
+		 * 
+		 * @return True if there is, otherwise false.
+		 * @author Luo Yinzhuo
+		 */
+		public boolean hasColumns() {
+			for (ColumnPage columnPage : mColumnPages) {
+				if (!columnPage.isEmpty()) {
+					return true;
+				}
+			}
+			return false;
+		}
 
 		/**
-		 * Initialize itself from a JSON format data.
+		 * Initialize itself from a persisted {@link ColumnLayout}.
 		 * 
-		 * @param json
-		 *            The JSON format data.
-		 * @throws JSONException
-		 *             If error occurs in JSON format.
+		 * @param layout
+		 *            The {@link ColumnLayout}.
 		 * @author Luo Yinzhuo
 		 */
-		public void initialize(String json) throws JSONException {
+		public void initialize(ColumnLayout layout) {
 			mColumnPages.clear();
-			Context context = getContext();
+			mColumnIndex.clear();
+			mListedPasses.clear();
 
-			JSONObject root = new JSONObject(json);
-			JSONArray columnPages = root.getJSONArray(KEY_COLUMN_PAGES);
-			for (int i = 0; i < columnPages.length(); i++) {
-				mColumnPages.add(ColumnPage.parse(context, columnPages.get(i)
-						.toString()));
+			for (List<Column> columns : layout.getPages()) {
+				ColumnPage columnPage = new ColumnPage();
+				for (Column column : columns) {
+					if (mColumnIndex.get(column.getId()) == null) {
+						columnPage.addColumn(column);
+						mColumnIndex.put(column.getId(), columnPage);
+					}
+				}
+				mColumnPages.add(columnPage);
 			}
-			mColumnPagePositionManager.setColumnPagePosition(root
-					.getInt(KEY_COLUMN_PAGE_POSITION));
+			mColumnPagePositionManager.setColumnPagePosition(layout
+					.getPosition());
 			mMode = MODE_EXPLORE;
 		}
 
@@ -239,14 +374,7 @@ public class ColumnPageView extends View {
 
 			// Second, change the mode back to explore mode.
 			if (mMode == MODE_EDIT) {
-				for (int i = 0; i < mColumnPages.size(); i++) {
-					ColumnPage page = mColumnPages.get(i);
-					if (page.isEmpty()) {
-						mColumnPages.remove(page);
-						mColumnPagePositionManager.onRemovePage(i);
-						i--;
-					}
-				}
+				removeEmptyPages(mColumnPages.size());
 			}
 
 			// Third, check the column page position.
@@ -266,27 +394,22 @@ public class ColumnPageView extends View {
 		}
 
 		/**
-		 * Get the column page view's data in JSON format.
+		 * Get the snapshot of the column pages to persist.
 		 * 
-		 * @return The column page view's data in JSON format.
-		 * @throws JSONException
-		 *             If error occurs in JSON format.
+		 * @return The {@link ColumnLayout}.
 		 * @author Luo Yinzhuo
 		 */
-		public String getJson() throws JSONException {
+		public ColumnLayout getLayout() {
 			explore();
 
-			JSONObject root = new JSONObject();
-			root.put(KEY_COLUMN_PAGE_POSITION,
-					mColumnPagePositionManager.getColumnPagePosition());
-
-			JSONArray columnPages = new JSONArray();
+			List<List<Column>> pages = new ArrayList<List<Column>>(
+					mColumnPages.size());
 			for (ColumnPage page : mColumnPages) {
-				columnPages.put(new JSONArray(page.getJson()));
+				pages.add(page.getColumns());
 			}
-			root.put(KEY_COLUMN_PAGES, columnPages);
-
-			return root.toString();
+			return new ColumnLayout(
+					(int) mColumnPagePositionManager.getColumnPagePosition(),
+					pages);
 		}
 
 		/** The explore mode. */
@@ -324,6 +447,7 @@ public class ColumnPageView extends View {
 				mRotation = 0;
 			}
 
+			boolean columnAnimation = false;
 			if (mColumnPages.size() > 0) {
 				final int left = (int) Math.floor(columnPagePosition);
 				float offsetX = (left - columnPagePosition) * width;
@@ -333,6 +457,7 @@ public class ColumnPageView extends View {
 				if (left >= 0 && left < mColumnPages.size()) {
 					ColumnPage leftPage = mColumnPages.get(left);
 					leftPage.draw(canvas, offsetX, width, jumpIndex, mRotation);
+					columnAnimation |= leftPage.hasColumnAnimation();
 				}
 
 				final int right = left + 1;
@@ -341,6 +466,7 @@ public class ColumnPageView extends View {
 					canvas.translate(width, 0);
 					rightPage.draw(canvas, offsetX + width, width, jumpIndex,
 							mRotation);
+					columnAnimation |= rightPage.hasColumnAnimation();
 				}
 				canvas.restore();
 			}
@@ -349,7 +475,8 @@ public class ColumnPageView extends View {
 				mPressDownColumn.draw(canvas);
 			}
 
-			if (mMode == MODE_EDIT || mColumnPagePositionManager.hasAnimation()) {
+			if (mMode == MODE_EDIT || columnAnimation
+					|| mColumnPagePositionManager.hasAnimation()) {
 				postInvalidateDelayed(DRAW_INTERVAL);
 			}
 		}
@@ -378,14 +505,7 @@ public class ColumnPageView extends View {
 
 				if (mMode == MODE_EDIT) {
 					// Remove the empty column page.
-					for (int i = 0; i < mColumnPages.size() - 1; i++) {
-						ColumnPage page = mColumnPages.get(i);
-						if (page.isEmpty()) {
-							mColumnPages.remove(page);
-							mColumnPagePositionManager.onRemovePage(i);
-							i--;
-						}
-					}
+					removeEmptyPages(mColumnPages.size() - 1);
 
 					// Add an extra empty column page at the end.
 					if (!mColumnPages.get(mColumnPages.size() - 1).isEmpty()) {
@@ -753,6 +873,8 @@ public class ColumnPageView extends View {
 			private Column mColumn;
 			/** The current column page. */
 			private ColumnPage mColumnPage;
+			/** The current column page index. */
+			private int mColumnPageIndex;
 			/** The current taking position. */
 			private int mTakePosition;
 			/** The current taking area. */
@@ -767,6 +889,8 @@ public class ColumnPageView extends View {
 			 *            The column.
 			 * @param page
 			 *            The column page.
+			 * @param pageIndex
+			 *            The column page index.
 			 * @param takePosition
 			 *            The taking position.
 			 * @param rectF
@@ -774,10 +898,11 @@ public class ColumnPageView extends View {
 			 * 
 			 * @author Luo Yinzhuo
 			 */
-			public void extract(Column column, ColumnPage page,
+			public void extract(Column column, ColumnPage page, int pageIndex,
 					int takePosition, RectF rectF) {
 				mColumn = column;
 				mColumnPage = page;
+				mColumnPageIndex = pageIndex;
 				mTakePosition = takePosition;
 				mRectF = rectF;
 				mLongPress = false;
@@ -789,21 +914,9 @@ public class ColumnPageView extends View {
 			 * @author Luo Yinzhuo
 			 */
 			public void release() {
-				if (mColumnPage.isFull()) {
-					Column excess = mColumnPage.removeExcessColumn();
-					ColumnPage nextPage = mColumnPages.get(mColumnPages
-							.indexOf(mColumnPage) + 1);
-					while (nextPage.isFull()) {
-						Column temp = nextPage.removeExcessColumn();
-						nextPage.addColumn(0, excess);
-						nextPage = mColumnPages.get(mColumnPages
-								.indexOf(nextPage) + 1);
-						excess = temp;
-					}
-					nextPage.addColumn(0, excess);
-				}
-
+				makeRoom(mColumnPageIndex);
 				mColumnPage.addColumn(mTakePosition, mColumn, mRectF);
+				mColumnIndex.put(mColumn.getId(), mColumnPage);
 				mColumn = null;
 			}
 
@@ -945,11 +1058,12 @@ public class ColumnPageView extends View {
 						return true;
 					}
 
-					final int leftPage = mColumnPages.indexOf(mColumnPage) - 1;
+					final int leftPage = mColumnPageIndex - 1;
 					if (leftPage >= 0) {
 						mColumnPage
 								.onReleasePosition(mTakePosition, getWidth());
 						mColumnPage = mColumnPages.get(leftPage);
+						mColumnPageIndex = leftPage;
 						mTakePosition = ColumnPage.MAX_COLUMN_SIZE - 1;
 						mColumnPage.onTakePosition(mTakePosition, getWidth());
 						mColumnPagePositionManager.animate(true, false);
@@ -965,11 +1079,12 @@ public class ColumnPageView extends View {
 						return true;
 					}
 
-					final int rightPage = mColumnPages.indexOf(mColumnPage) + 1;
+					final int rightPage = mColumnPageIndex + 1;
 					if (rightPage < mColumnPages.size()) {
 						mColumnPage
 								.onReleasePosition(mTakePosition, getWidth());
 						mColumnPage = mColumnPages.get(rightPage);
+						mColumnPageIndex = rightPage;
 						mTakePosition = ColumnPage.MAX_COLUMN_SIZE - 1;
 						mColumnPage.onTakePosition(mTakePosition, getWidth());
 						mColumnPagePositionManager.animate(false, false);
@@ -987,6 +1102,8 @@ public class ColumnPageView extends View {
 		 * during the last down event.
 		 */
 		private boolean mDeleteColumn = false;
+		/** The index of the {@link ColumnPage} receiving the down event. */
+		private int mDownPageIndex;
 
 		@Override
 		public void onDown(MotionEvent event, Column column, ColumnPage page,
@@ -995,9 +1112,11 @@ public class ColumnPageView extends View {
 			final float relativeY = event.getY() - rectF.top;
 
 			if (mMode == MODE_EDIT && column.isDelete(relativeX, relativeY)) {
+				mColumnIndex.delete(column.getId());
+				mListedPasses.delete(column.getId());
 				if (page.isEmpty()) {
-					int pageIndex = mColumnPages.indexOf(page);
-					mColumnPages.remove(page);
+					final int pageIndex = mDownPageIndex;
+					mColumnPages.remove(pageIndex);
 					mColumnPagePositionManager.onRemovePage(pageIndex);
 
 					if (pageIndex == 0) {
@@ -1010,7 +1129,8 @@ public class ColumnPageView extends View {
 				}
 				mDeleteColumn = true;
 			} else {
-				mPressDownColumn.extract(column, page, takePosition, rectF);
+				mPressDownColumn.extract(column, page, mDownPageIndex,
+						takePosition, rectF);
 			}
 			invalidate();
 		}
@@ -1026,6 +1146,7 @@ public class ColumnPageView extends View {
 						.getColumnPagePosition();
 				final int page = (int) Math.floor(columnPagePosition + 0.5f);
 				if (!mColumnPages.isEmpty()) {
+					mDownPageIndex = page;
 					mColumnPages.get(page).onDown(e, this);
 				}
 			}
@@ -1073,14 +1194,7 @@ public class ColumnPageView extends View {
 			}
 
 			if (mMode == MODE_EDIT && !mDeleteColumn) {
-				for (int i = 0; i < mColumnPages.size(); i++) {
-					ColumnPage page = mColumnPages.get(i);
-					if (page.isEmpty()) {
-						mColumnPages.remove(page);
-						mColumnPagePositionManager.onRemovePage(i);
-						i--;
-					}
-				}
+				removeEmptyPages(mColumnPages.size());
 				mMode = MODE_EXPLORE;
 				redraw = true;
 			}
@@ -0,0 +1,244 @@
+package com.panguso.android.shijingshan.column;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.json.JSONException;
+
+import com.panguso.android.shijingshan.R;
+import com.panguso.android.shijingshan.account.AccountManager;
+import com.panguso.android.shijingshan.account.SessionRenewer;
+import com.panguso.android.shijingshan.net.NetworkService;
+import com.panguso.android.shijingshan.net.NetworkService.ColumnInfoListRequestListener;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Orchestrate the cold start of the {@link ColumnPageActivity}. The last
+ * account is loaded while the network is warmed up, then the persisted
+ * {@link ColumnLayout} is loaded while the column info list is fetched, so
+ * the last-known layout could be drawn before the server responds. The time
+ * of every phase is logged once the first column is drawn and all the phases
+ * finish.
+ * 
+ * @author Luo Yinzhuo
+ */
+final class StartupPipeline implements ColumnInfoListRequestListener {
+
+	/**
+	 * Interface definition for a callback to be invoked when a startup phase
+	 * finishes. The {@link ColumnInfoListRequestListener} methods are called
+	 * on the network thread as usual.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	interface OnStartupListener extends ColumnInfoListRequestListener {
+		/**
+		 * Called on the UI thread when the persisted {@link ColumnLayout} is
+		 * loaded.
+		 * 
+		 * @param account
+		 *            The account of the layout.
+		 * @param layout
+		 *            The {@link ColumnLayout}.
+		 * @author Luo Yinzhuo
+		 */
+		public void onLayoutLoaded(String account, ColumnLayout layout);
+	}
+
+	/** The phase to load the last account. */
+	private static final int PHASE_PREFERENCES = 0;
+	/** The phase to warm up the network. */
+	private static final int PHASE_WARM_UP = 1;
+	/** The phase to load the persisted layout. */
+	private static final int PHASE_LAYOUT = 2;
+	/** The phase to fetch the column info list. */
+	private static final int PHASE_FETCH = 3;
+	/** The phase to draw the first column. */
+	private static final int PHASE_FIRST_DRAW = 4;
+	/** The phase names. */
+	private static final String[] PHASE_NAMES = { "preferences", "warm-up",
+			"layout", "fetch", "first draw" };
+
+	/** The executor to run the phases in parallel. */
+	private static final ExecutorService EXECUTOR = Executors
+			.newFixedThreadPool(2);
+
+	/** The application context. */
+	private final Context mContext;
+	/** The listener. */
+	private final OnStartupListener mListener;
+	/** The UI thread handler. */
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	/** The start time. */
+	private final long mStartTime = SystemClock.elapsedRealtime();
+	/** The start time of every phase, -1 if not started. */
+	private final long[] mPhaseStarts = new long[PHASE_NAMES.length];
+	/** The end time of every phase, -1 if not finished. */
+	private final long[] mPhaseEnds = new long[PHASE_NAMES.length];
+	/** The flag to identify the timings are reported. */
+	private boolean mReported = false;
+
+	/**
+	 * Construct a new instance.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @param listener
+	 *            The listener.
+	 */
+	StartupPipeline(Context context, OnStartupListener listener) {
+		mContext = context.getApplicationContext();
+		mListener = listener;
+		Arrays.fill(mPhaseStarts, -1);
+		Arrays.fill(mPhaseEnds, -1);
+	}
+
+	/**
+	 * Start the pipeline.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	void start() {
+		begin(PHASE_WARM_UP);
+		EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				NetworkService.warmUp(mContext.getString(R.string.server_url));
+				end(PHASE_WARM_UP);
+			}
+		});
+
+		begin(PHASE_PREFERENCES);
+		EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				final String lastAccount = ColumnPageActivity.getKeyValueStore(
+						mContext).getString(ColumnPageActivity.KEY_LAST_ACCOUNT,
+						"");
+				if (lastAccount.length() > 0) {
+					try {
+						AccountManager.parse(lastAccount);
+					} catch (JSONException e) {
+						e.printStackTrace();
+					}
+				}
+				end(PHASE_PREFERENCES);
+
+				// Serve the cached session while it's renewed if it's due.
+				SessionRenewer.getInstance(mContext).schedule();
+				loadColumns();
+			}
+		});
+	}
+
+	/**
+	 * Fetch the column info list of the current account, and load its
+	 * persisted {@link ColumnLayout} meanwhile.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	void loadColumns() {
+		final String account = AccountManager.getAccount();
+		begin(PHASE_FETCH);
+		NetworkService.getColumnInfoList(
+				mContext.getString(R.string.server_url), account, this);
+
+		begin(PHASE_LAYOUT);
+		EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				final ColumnLayout layout = ColumnLayoutStore.getInstance(
+						mContext,
+						ColumnPageActivity.getKeyValueStore(mContext), account)
+						.load();
+				end(PHASE_LAYOUT);
+
+				if (layout != null) {
+					mHandler.post(new Runnable() {
+						@Override
+						public void run() {
+							mListener.onLayoutLoaded(account, layout);
+						}
+					});
+				}
+			}
+		});
+	}
+
+	/**
+	 * Called when the first column is drawn.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	void onFirstDraw() {
+		begin(PHASE_FIRST_DRAW);
+		end(PHASE_FIRST_DRAW);
+	}
+
+	/**
+	 * Record the start of a phase. Only the first run of a phase is recorded.
+	 * 
+	 * @param phase
+	 *            The phase.
+	 * @author Luo Yinzhuo
+	 */
+	private synchronized void begin(int phase) {
+		if (!mReported && mPhaseStarts[phase] < 0) {
+			mPhaseStarts[phase] = SystemClock.elapsedRealtime() - mStartTime;
+		}
+	}
+
+	/**
+	 * Record the end of a phase, and report the timings if all the phases
+	 * finish.
+	 * 
+	 * @param phase
+	 *            The phase.
+	 * @author Luo Yinzhuo
+	 */
+	private synchronized void end(int phase) {
+		if (mReported || mPhaseStarts[phase] < 0 || mPhaseEnds[phase] >= 0) {
+			return;
+		}
+		mPhaseEnds[phase] = SystemClock.elapsedRealtime() - mStartTime;
+
+		StringBuilder report = new StringBuilder();
+		for (int i = 0; i < PHASE_NAMES.length; i++) {
+			if (mPhaseEnds[i] < 0) {
+				return;
+			}
+			if (report.length() > 0) {
+				report.append(", ");
+			}
+			report.append(PHASE_NAMES[i]).append(' ').append(mPhaseStarts[i])
+					.append('-').append(mPhaseEnds[i]).append("ms");
+		}
+		mReported = true;
+		Log.i("StartupPipeline", report.toString());
+	}
+
+	@Override
+	public void onColumnInfoListRequestFailed() {
+		end(PHASE_FETCH);
+		mListener.onColumnInfoListRequestFailed();
+	}
+
+	@Override
+	public void onColumnInfoListResponseSuccess(List<ColumnInfo> columnInfos) {
+		end(PHASE_FETCH);
+		mListener.onColumnInfoListResponseSuccess(columnInfos);
+	}
+
+	@Override
+	public void onColumnInfoListResponseFailed() {
+		end(PHASE_FETCH);
+		mListener.onColumnInfoListResponseFailed();
+	}
+}
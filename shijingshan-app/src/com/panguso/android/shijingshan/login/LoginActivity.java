@@ -3,6 +3,7 @@ package com.panguso.android.shijingshan.login;
 import org.json.JSONException;
 
 import com.panguso.android.shijingshan.Application;
+import com.panguso.android.shijingshan.KeyValueStore;
 import com.panguso.android.shijingshan.R;
 import com.panguso.android.shijingshan.account.Account;
 import com.panguso.android.shijingshan.account.AccountManager;
@@ -18,9 +19,8 @@ import com.panguso.android.shijingshan.widget.UnderlineButton;
 
 import android.app.Activity;
 import android.app.Dialog;
+import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
 import android.content.res.Resources;
 import android.os.Build;
 import android.os.Bundle;
@@ -121,6 +121,10 @@ public class LoginActivity extends Activity implements OnBackListener,
 
 	/** The key to get last login account data. */
 	private static final String KEY_LAST_LOGIN_ACCOUNT = "last_login_account";
+	/** The {@link KeyValueStore} name. */
+	private static final String STORE_NAME = "login";
+	/** The legacy preferences name of the activity. */
+	private static final String LEGACY_PREFERENCES_NAME = "login.LoginActivity";
 
 	/** The title bar. */
 	private BlueTitleBar mTitleBar;
@@ -170,8 +174,7 @@ public class LoginActivity extends Activity implements OnBackListener,
 			mLogin.setEnabled(true);
 			login();
 		} else {
-			SharedPreferences sharedPreferences = getPreferences(MODE_PRIVATE);
-			String lastLoginAccount = sharedPreferences.getString(
+			String lastLoginAccount = getKeyValueStore(this).getString(
 					KEY_LAST_LOGIN_ACCOUNT, "");
 			if (lastLoginAccount.length() > 0) {
 				try {
@@ -242,6 +245,20 @@ public class LoginActivity extends Activity implements OnBackListener,
 				((Application) getApplication()).getUUID(), Build.MODEL, this);
 	}
 
+	/**
+	 * Get the {@link KeyValueStore} which holds the last login account.
+	 * Getting it early starts loading it in the background.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @return The {@link KeyValueStore}.
+	 * @author Luo Yinzhuo
+	 */
+	public static KeyValueStore getKeyValueStore(Context context) {
+		return KeyValueStore.getInstance(context, STORE_NAME,
+				LEGACY_PREFERENCES_NAME);
+	}
+
 	/** Register activity request code. */
 	private static final int REQUEST_CODE_REGISTER = 1;
 
@@ -305,10 +322,9 @@ public class LoginActivity extends Activity implements OnBackListener,
 				try {
 					String jsonAccount = AccountManager
 							.login(LoginActivity.this, account, password);
-					SharedPreferences sharedPreferences = getPreferences(MODE_PRIVATE);
-					Editor editor = sharedPreferences.edit();
-					editor.putString(KEY_LAST_LOGIN_ACCOUNT, jsonAccount);
-					editor.commit();
+					getKeyValueStore(LoginActivity.this).edit()
+							.putString(KEY_LAST_LOGIN_ACCOUNT, jsonAccount)
+							.apply();
 				} catch (JSONException e) {
 					e.printStackTrace();
 				}
@@ -0,0 +1,89 @@
+package com.panguso.android.shijingshan.net;
+
+import android.os.SystemClock;
+
+/**
+ * Estimate the throughput of the active network from the recent transfers,
+ * timed from their requests. The estimate is an exponentially weighted moving
+ * average, so it follows a network getting slower or faster within a few
+ * transfers. A tiny transfer is ignored, since its time is all the latency.
+ * The estimate expires when no transfer is sampled for a while, so it's
+ * measured again rather than kept from a network that has since changed, and
+ * it's reset when the active network changes.
+ * 
+ * @author Luo Yinzhuo
+ */
+final class BandwidthEstimator {
+	/** The minimum byte count of a transfer counted as a sample. */
+	private static final long MIN_SAMPLE_BYTES = 4 * 1024;
+	/** The minimum sample count before the estimate is trusted. */
+	private static final int MIN_SAMPLE_COUNT = 3;
+	/** The weight of a new sample in the average. */
+	private static final double SAMPLE_WEIGHT = 0.3;
+	/** The time the estimate expires after the last sample in milliseconds. */
+	private static final long SAMPLE_EXPIRED = 60 * 1000;
+
+	/** The sample count since the last reset. */
+	private int mSampleCount = 0;
+	/** The estimated throughput in kilobits per second. */
+	private double mKbps = 0;
+	/** The time of the last sample, in the uptime milliseconds. */
+	private long mSampleTime = 0;
+
+	/**
+	 * Add a transfer as a sample.
+	 * 
+	 * @param bytes
+	 *            The byte count transferred.
+	 * @param millis
+	 *            The time from the request to the end of the transfer in
+	 *            milliseconds.
+	 * @author Luo Yinzhuo
+	 */
+	synchronized void addSample(long bytes, long millis) {
+		if (bytes < MIN_SAMPLE_BYTES || millis <= 0) {
+			return;
+		}
+
+		expire();
+		mSampleTime = SystemClock.uptimeMillis();
+		final double kbps = bytes * 8.0 / millis;
+		mKbps = mSampleCount == 0 ? kbps : mKbps * (1 - SAMPLE_WEIGHT)
+				+ kbps * SAMPLE_WEIGHT;
+		mSampleCount++;
+	}
+
+	/**
+	 * Get the estimated throughput.
+	 * 
+	 * @return The estimated throughput in kilobits per second, or -1 if there
+	 *         are not enough recent samples.
+	 * @author Luo Yinzhuo
+	 */
+	synchronized int getKbps() {
+		expire();
+		return mSampleCount < MIN_SAMPLE_COUNT ? -1 : (int) mKbps;
+	}
+
+	/**
+	 * Forget the samples if the last one has expired.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void expire() {
+		if (mSampleCount > 0
+				&& SystemClock.uptimeMillis() - mSampleTime > SAMPLE_EXPIRED) {
+			reset();
+		}
+	}
+
+	/**
+	 * Forget the samples, when the active network changes.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	synchronized void reset() {
+		mSampleCount = 0;
+		mKbps = 0;
+	}
+}
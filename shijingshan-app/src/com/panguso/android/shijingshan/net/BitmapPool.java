@@ -0,0 +1,231 @@
+package com.panguso.android.shijingshan.net;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import com.panguso.android.shijingshan.MemoryCoordinator.Trimmable;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Pool the bitmaps evicted from the bitmap cache, so the decodes reuse their
+ * memory through {@link BitmapFactory.Options#inBitmap} instead of allocating
+ * new bitmaps. The platform before Android 3.0 has no reuse, and the one
+ * before Android 4.4 only reuses a bitmap of the same size, so the bitmaps are
+ * keyed by size and config. The least recently pooled bitmaps are recycled
+ * when the pool exceeds {@link #MAX_SIZE}.
+ * 
+ * @author Luo Yinzhuo
+ */
+final class BitmapPool implements Trimmable {
+	/** The maximum total byte count of the pooled bitmaps. */
+	private static final int MAX_SIZE = 4 * 1024 * 1024;
+
+	/** The UI thread handler. */
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	/** The pooled bitmaps by size and config. */
+	private final Map<String, List<Bitmap>> mBitmaps = new HashMap<String, List<Bitmap>>();
+	/** The pooled bitmaps in the order they are pooled. */
+	private final LinkedList<Bitmap> mOrder = new LinkedList<Bitmap>();
+	/** The total byte count of the pooled bitmaps. */
+	private int mSize = 0;
+
+	/**
+	 * Check if the platform supports reusing a bitmap for a decode.
+	 * 
+	 * @return True if the platform supports reusing a bitmap, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	private static boolean isReuseSupported() {
+		return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+	}
+
+	/**
+	 * Get the key of a bitmap size and config.
+	 * 
+	 * @param width
+	 *            The width.
+	 * @param height
+	 *            The height.
+	 * @param config
+	 *            The config.
+	 * @return The key.
+	 * @author Luo Yinzhuo
+	 */
+	private static String getKey(int width, int height, Bitmap.Config config) {
+		return width + "x" + height + ":" + config;
+	}
+
+	/**
+	 * Decode an image, reusing a pooled bitmap of the same size if there is
+	 * one. An image at least twice as large as the required size is
+	 * subsampled, which is never decoded into a pooled bitmap.
+	 * 
+	 * @param data
+	 *            The image data.
+	 * @param width
+	 *            The required width, 0 if unknown.
+	 * @param height
+	 *            The required height, 0 if unknown.
+	 * @return The bitmap, or null if the data could not be decoded.
+	 * @author Luo Yinzhuo
+	 */
+	Bitmap decodeByteArray(byte[] data, int width, int height) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			return null;
+		}
+
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = 1;
+		if (width > 0 && height > 0) {
+			while (options.outWidth / (options.inSampleSize * 2) >= width
+					&& options.outHeight / (options.inSampleSize * 2) >= height) {
+				options.inSampleSize *= 2;
+			}
+		}
+		if (!isReuseSupported()) {
+			return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		}
+
+		options.inMutable = true;
+		if (options.inSampleSize == 1) {
+			options.inBitmap = get(options.outWidth, options.outHeight,
+					Bitmap.Config.ARGB_8888);
+		}
+		if (options.inBitmap != null) {
+			try {
+				return BitmapFactory.decodeByteArray(data, 0, data.length,
+						options);
+			} catch (IllegalArgumentException e) {
+				// The format could not be decoded into a reused bitmap.
+				options.inBitmap.recycle();
+				options.inBitmap = null;
+			}
+		}
+		return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+	}
+
+	/**
+	 * Take a pooled bitmap of a size and config out of the pool.
+	 * 
+	 * @param width
+	 *            The width.
+	 * @param height
+	 *            The height.
+	 * @param config
+	 *            The config.
+	 * @return The bitmap, or null if none is pooled.
+	 * @author Luo Yinzhuo
+	 */
+	private synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+		final List<Bitmap> bitmaps = mBitmaps.get(getKey(width, height, config));
+		if (bitmaps == null || bitmaps.isEmpty()) {
+			return null;
+		}
+
+		final Bitmap bitmap = bitmaps.remove(bitmaps.size() - 1);
+		mOrder.remove(bitmap);
+		mSize -= bitmap.getRowBytes() * bitmap.getHeight();
+		return bitmap;
+	}
+
+	/**
+	 * Release a bitmap evicted from the cache. It's pooled on the next loop of
+	 * the UI thread, when the frame that may still draw it has finished. It
+	 * could be invoked on any thread.
+	 * 
+	 * @param bitmap
+	 *            The bitmap.
+	 * @author Luo Yinzhuo
+	 */
+	void release(final Bitmap bitmap) {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				put(bitmap);
+			}
+		});
+	}
+
+	/**
+	 * Put a bitmap into the pool, or recycle it if it could not be reused.
+	 * 
+	 * @param bitmap
+	 *            The bitmap.
+	 * @author Luo Yinzhuo
+	 */
+	private synchronized void put(Bitmap bitmap) {
+		final int size = bitmap.getRowBytes() * bitmap.getHeight();
+		if (!isReuseSupported() || bitmap.isRecycled() || !bitmap.isMutable()
+				|| size > MAX_SIZE) {
+			bitmap.recycle();
+			return;
+		}
+
+		final String key = getKey(bitmap.getWidth(), bitmap.getHeight(),
+				bitmap.getConfig());
+		List<Bitmap> bitmaps = mBitmaps.get(key);
+		if (bitmaps == null) {
+			bitmaps = new LinkedList<Bitmap>();
+			mBitmaps.put(key, bitmaps);
+		}
+		bitmaps.add(bitmap);
+		mOrder.add(bitmap);
+		mSize += size;
+
+		trimToSize(MAX_SIZE);
+	}
+
+	/**
+	 * Recycle the least recently pooled bitmaps until the total byte count is
+	 * within a size.
+	 * 
+	 * @param size
+	 *            The size.
+	 * @return The recycled byte count.
+	 * @author Luo Yinzhuo
+	 */
+	private synchronized long trimToSize(int size) {
+		long recycled = 0;
+		while (mSize > size) {
+			final Bitmap eldest = mOrder.removeFirst();
+			mBitmaps.get(
+					getKey(eldest.getWidth(), eldest.getHeight(),
+							eldest.getConfig())).remove(eldest);
+			final int byteCount = eldest.getRowBytes() * eldest.getHeight();
+			mSize -= byteCount;
+			recycled += byteCount;
+			eldest.recycle();
+		}
+		return recycled;
+	}
+
+	@Override
+	public long trim(float retain) {
+		final int size;
+		final long recycled;
+		synchronized (this) {
+			size = (int) (mSize * retain);
+			recycled = trimToSize(size);
+		}
+
+		// The bitmaps evicted from the caches by the same trim are pooled on
+		// the next loop, trim the pool to the same size again then.
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				trimToSize(size);
+			}
+		});
+		return recycled;
+	}
+}
@@ -0,0 +1,23 @@
+package com.panguso.android.shijingshan.net;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * The connectivity broadcast receiver, which updates the {@link NetworkPolicy}
+ * for the new network, and flushes the outbox when the network is available
+ * again.
+ * 
+ * @author Luo Yinzhuo
+ */
+public class ConnectivityBroadcastReceiver extends BroadcastReceiver {
+
+	@Override
+	public void onReceive(Context context, Intent intent) {
+		NetworkPolicy.update(context);
+		if (NetworkService.isOnline(context)) {
+			NetworkService.flushOutbox(context);
+		}
+	}
+}
@@ -0,0 +1,535 @@
+package com.panguso.android.shijingshan.net;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.os.Environment;
+import android.util.Log;
+
+/**
+ * An append-only pack file of the small images on the external storage, so
+ * reading one costs no directory lookup, open or stat. The pack is mapped into
+ * memory with an index of the image offsets built when it's opened, and a read
+ * only copies the image out of the mapped buffer. The stale and expired images
+ * are dropped by a compaction in the background once they take more space
+ * than the live ones. It's opened on the first access while the external
+ * storage is mounted, and all the methods could be invoked on any thread.
+ * 
+ * @author Luo Yinzhuo
+ */
+final class ImagePack {
+	/** The file magic, "SJIP". */
+	private static final int MAGIC = 0x534A4950;
+	/** The file format version. */
+	private static final byte VERSION = 1;
+	/** The header size. */
+	private static final int HEADER_SIZE = 5;
+	/** The record to put an image, the pack ends with a zero byte. */
+	private static final byte OP_PUT = 1;
+
+	/** The maximum size of an image stored in the pack. */
+	static final int MAX_IMAGE_SIZE = 64 * 1024;
+	/** The initial mapped size. */
+	private static final int INITIAL_SIZE = 256 * 1024;
+	/** The minimum stale size to trigger a compaction. */
+	private static final int COMPACT_THRESHOLD = 1024 * 1024;
+
+	/** The pack file name. */
+	private static final String FILE_NAME = "images.pack";
+	/** The charset of the URLs. */
+	private static final String CHARSET = "UTF-8";
+
+	/** The executor to compact the pack in the background. */
+	private static final ExecutorService COMPACT_EXECUTOR = Executors
+			.newSingleThreadExecutor();
+
+	/**
+	 * The location of an image in the pack.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private static final class Entry {
+		/** The offset of the record. */
+		private final int mRecordOffset;
+		/** The offset of the image data. */
+		private final int mOffset;
+		/** The image size. */
+		private final int mLength;
+		/** The time the image is stored. */
+		private final long mTime;
+
+		/**
+		 * Construct a new instance.
+		 * 
+		 * @param recordOffset
+		 *            The offset of the record.
+		 * @param offset
+		 *            The offset of the image data.
+		 * @param length
+		 *            The image size.
+		 * @param time
+		 *            The time the image is stored.
+		 */
+		private Entry(int recordOffset, int offset, int length, long time) {
+			mRecordOffset = recordOffset;
+			mOffset = offset;
+			mLength = length;
+			mTime = time;
+		}
+	}
+
+	/** The pack file. */
+	private final File mFile;
+	/** The time an image expires. */
+	private final long mExpired;
+	/** The images indexed by URL. */
+	private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+
+	/** The random access file, or null if the pack is not open. */
+	private RandomAccessFile mRandomAccessFile;
+	/** The mapped buffer, or null if the pack is not open. */
+	private MappedByteBuffer mBuffer;
+	/** The end of the records. */
+	private int mEnd;
+	/** The size of the stale and expired records. */
+	private int mStaleSize;
+	/** The flag to identify a compaction is running. */
+	private boolean mCompacting = false;
+	/** The generation, increased when the pack is closed. */
+	private int mGeneration = 0;
+
+	/**
+	 * Construct a new instance.
+	 * 
+	 * @param folder
+	 *            The folder of the pack file.
+	 * @param expired
+	 *            The time an image expires.
+	 */
+	ImagePack(File folder, long expired) {
+		mFile = new File(folder, FILE_NAME);
+		mExpired = expired;
+	}
+
+	/**
+	 * Get an image.
+	 * 
+	 * @param url
+	 *            The image URL.
+	 * @return The image data, or null if it's not in the pack or expired.
+	 * @author Luo Yinzhuo
+	 */
+	synchronized byte[] get(String url) {
+		if (!open()) {
+			return null;
+		}
+
+		final Entry entry = mEntries.get(url);
+		if (entry == null
+				|| System.currentTimeMillis() - entry.mTime >= mExpired) {
+			return null;
+		}
+
+		final byte[] data = new byte[entry.mLength];
+		final ByteBuffer buffer = mBuffer.duplicate();
+		buffer.position(entry.mOffset);
+		buffer.get(data);
+		return data;
+	}
+
+	/**
+	 * Put an image no larger than {@link #MAX_IMAGE_SIZE}.
+	 * 
+	 * @param url
+	 *            The image URL.
+	 * @param data
+	 *            The image data.
+	 * @param time
+	 *            The time the image is stored.
+	 * @return True if the image is stored, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	synchronized boolean put(String url, byte[] data, long time) {
+		if (data.length > MAX_IMAGE_SIZE || !open()) {
+			return false;
+		}
+
+		try {
+			final byte[] record = encode(url, data, time);
+			// Keep a zero byte after the record to end the pack.
+			if (mEnd + record.length >= mBuffer.capacity()) {
+				int size = mBuffer.capacity();
+				while (mEnd + record.length >= size) {
+					size *= 2;
+				}
+				map(size);
+			}
+			mBuffer.position(mEnd);
+			mBuffer.put(record);
+
+			final Entry entry = new Entry(mEnd, mEnd + record.length
+					- data.length, data.length, time);
+			final Entry oldEntry = mEntries.put(url, entry);
+			if (oldEntry != null) {
+				mStaleSize += oldEntry.mOffset + oldEntry.mLength
+						- oldEntry.mRecordOffset;
+			}
+			mEnd += record.length;
+			scheduleCompaction();
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			close();
+			return false;
+		}
+	}
+
+	/**
+	 * Close the pack and delete its file.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	synchronized void clear() {
+		close();
+		mFile.delete();
+	}
+
+	/**
+	 * Open the pack if it's not open and the external storage is mounted.
+	 * Must be invoked with the lock held.
+	 * 
+	 * @return True if the pack is open, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	private boolean open() {
+		if (!Environment.MEDIA_MOUNTED.equals(Environment
+				.getExternalStorageState())) {
+			close();
+			return false;
+		}
+		if (mBuffer != null) {
+			return true;
+		}
+
+		final long start = System.currentTimeMillis();
+		try {
+			if (!mFile.exists() || !read()) {
+				close();
+				final File folder = mFile.getParentFile();
+				if (!folder.exists() && !folder.mkdirs()) {
+					return false;
+				}
+				mFile.delete();
+				map(INITIAL_SIZE);
+				mBuffer.position(0);
+				mBuffer.putInt(MAGIC);
+				mBuffer.put(VERSION);
+				mEntries.clear();
+				mEnd = HEADER_SIZE;
+				mStaleSize = 0;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			close();
+			return false;
+		}
+
+		Log.i("ImagePack", "opened " + mEntries.size() + " images in "
+				+ (System.currentTimeMillis() - start) + "ms");
+		scheduleCompaction();
+		return true;
+	}
+
+	/**
+	 * Map the pack file and index its records.
+	 * 
+	 * @return True if the file is valid, otherwise false.
+	 * @throws IOException
+	 *             If error occurs when mapping the file.
+	 * @author Luo Yinzhuo
+	 */
+	private boolean read() throws IOException {
+		map(Math.max(INITIAL_SIZE, (int) mFile.length()));
+		mBuffer.position(0);
+		if (mBuffer.getInt() != MAGIC || mBuffer.get() != VERSION) {
+			return false;
+		}
+
+		mEntries.clear();
+		mEnd = HEADER_SIZE;
+		mStaleSize = 0;
+		try {
+			while (mBuffer.hasRemaining() && mBuffer.get() == OP_PUT) {
+				final byte[] urlBytes = new byte[mBuffer.getShort() & 0xFFFF];
+				mBuffer.get(urlBytes);
+				final long time = mBuffer.getLong();
+				final int length = mBuffer.getInt();
+				if (length < 0 || length > mBuffer.remaining()) {
+					break;
+				}
+
+				final Entry entry = new Entry(mEnd, mBuffer.position(), length,
+						time);
+				mBuffer.position(entry.mOffset + length);
+				final Entry oldEntry = mEntries.put(new String(urlBytes,
+						CHARSET), entry);
+				if (oldEntry != null) {
+					mStaleSize += oldEntry.mOffset + oldEntry.mLength
+							- oldEntry.mRecordOffset;
+				}
+				mEnd = mBuffer.position();
+			}
+		} catch (BufferUnderflowException e) {
+			// The last record is torn, drop it.
+		}
+
+		final long now = System.currentTimeMillis();
+		for (Entry entry : mEntries.values()) {
+			if (now - entry.mTime >= mExpired) {
+				mStaleSize += entry.mOffset + entry.mLength
+						- entry.mRecordOffset;
+			}
+		}
+
+		// Clear the dropped tail so it's never indexed.
+		for (int i = mEnd; i < mBuffer.capacity(); i++) {
+			if (mBuffer.get(i) != 0) {
+				mBuffer.put(i, (byte) 0);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compact the pack in the background if the stale records take more space
+	 * than the live ones. Must be invoked with the lock held.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void scheduleCompaction() {
+		if (mCompacting || mStaleSize < COMPACT_THRESHOLD
+				|| mStaleSize * 2 < mEnd) {
+			return;
+		}
+
+		mCompacting = true;
+		COMPACT_EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					compact();
+				} catch (IOException e) {
+					e.printStackTrace();
+				} finally {
+					synchronized (ImagePack.this) {
+						mCompacting = false;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Rewrite the live images to a temporary file, and replace the pack with
+	 * it. The images are copied without the lock held, only the ones put
+	 * meanwhile are copied with the lock held.
+	 * 
+	 * @throws IOException
+	 *             If error occurs when writing the file.
+	 * @author Luo Yinzhuo
+	 */
+	private void compact() throws IOException {
+		final int generation;
+		final int end;
+		final ByteBuffer buffer;
+		final Map<String, Entry> entries;
+		synchronized (this) {
+			if (mBuffer == null) {
+				return;
+			}
+			generation = mGeneration;
+			end = mEnd;
+			buffer = mBuffer.duplicate();
+			entries = new HashMap<String, Entry>(mEntries);
+		}
+
+		final long start = System.currentTimeMillis();
+		final File temp = new File(mFile.getPath() + ".tmp");
+		final Map<String, Entry> compacted = new HashMap<String, Entry>();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				write(out, buffer, entry.getKey(), entry.getValue(), compacted,
+						start);
+			}
+
+			synchronized (this) {
+				if (generation != mGeneration) {
+					// The pack is closed or cleared meanwhile.
+					out.close();
+					out = null;
+					temp.delete();
+					return;
+				}
+
+				// Copy the images put meanwhile, which replace the old ones.
+				for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+					if (entry.getValue().mRecordOffset >= end) {
+						write(out, mBuffer.duplicate(), entry.getKey(),
+								entry.getValue(), compacted, start);
+					}
+				}
+				final int size = out.size();
+				out.close();
+				out = null;
+
+				final int oldEnd = mEnd;
+				close();
+				if (!temp.renameTo(mFile)) {
+					temp.delete();
+					throw new IOException("Failed to rename " + temp);
+				}
+
+				int capacity = INITIAL_SIZE;
+				while (capacity <= size) {
+					capacity *= 2;
+				}
+				map(capacity);
+				mEntries.putAll(compacted);
+				mEnd = size;
+				mStaleSize = 0;
+				Log.i("ImagePack", "compacted " + oldEnd + " to " + mEnd
+						+ " bytes in " + (System.currentTimeMillis() - start)
+						+ "ms");
+			}
+		} finally {
+			if (out != null) {
+				out.close();
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Write a live image to the compacted file, and index it.
+	 * 
+	 * @param out
+	 *            The compacted file.
+	 * @param buffer
+	 *            The buffer to read the image from.
+	 * @param url
+	 *            The image URL.
+	 * @param entry
+	 *            The {@link Entry} in the buffer.
+	 * @param compacted
+	 *            The map to receive the {@link Entry} in the compacted file.
+	 * @param now
+	 *            The current time.
+	 * @throws IOException
+	 *             If error occurs when writing the file.
+	 * @author Luo Yinzhuo
+	 */
+	private void write(DataOutputStream out, ByteBuffer buffer, String url,
+			Entry entry, Map<String, Entry> compacted, long now)
+			throws IOException {
+		if (now - entry.mTime >= mExpired) {
+			return;
+		}
+
+		final byte[] data = new byte[entry.mLength];
+		buffer.position(entry.mOffset);
+		buffer.get(data);
+		final byte[] record = encode(url, data, entry.mTime);
+		final int recordOffset = out.size();
+		out.write(record);
+		compacted.put(url, new Entry(recordOffset, recordOffset
+				+ record.length - data.length, data.length, entry.mTime));
+	}
+
+	/**
+	 * Map the file with the specified size, which grows the file with zeros.
+	 * 
+	 * @param size
+	 *            The mapped size.
+	 * @throws IOException
+	 *             If error occurs when mapping the file.
+	 * @author Luo Yinzhuo
+	 */
+	private void map(int size) throws IOException {
+		if (mRandomAccessFile == null) {
+			mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+		}
+		if (mRandomAccessFile.length() < size) {
+			mRandomAccessFile.setLength(size);
+		}
+		mBuffer = mRandomAccessFile.getChannel().map(
+				FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+
+	/**
+	 * Close the pack and drop its index.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void close() {
+		if (mBuffer == null && mRandomAccessFile == null) {
+			return;
+		}
+
+		mBuffer = null;
+		mEntries.clear();
+		mGeneration++;
+		if (mRandomAccessFile != null) {
+			try {
+				mRandomAccessFile.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			mRandomAccessFile = null;
+		}
+	}
+
+	/**
+	 * Encode a record.
+	 * 
+	 * @param url
+	 *            The image URL.
+	 * @param data
+	 *            The image data.
+	 * @param time
+	 *            The time the image is stored.
+	 * @return The record.
+	 * @throws UnsupportedEncodingException
+	 *             If the charset is not supported.
+	 * @author Luo Yinzhuo
+	 */
+	private static byte[] encode(String url, byte[] data, long time)
+			throws UnsupportedEncodingException {
+		final byte[] urlBytes = url.getBytes(CHARSET);
+		final ByteBuffer record = ByteBuffer.allocate(1 + 2 + urlBytes.length
+				+ 8 + 4 + data.length);
+		record.put(OP_PUT);
+		record.putShort((short) urlBytes.length);
+		record.put(urlBytes);
+		record.putLong(time);
+		record.putInt(data.length);
+		record.put(data);
+		return record.array();
+	}
+}
@@ -0,0 +1,175 @@
+package com.panguso.android.shijingshan.net;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.http.client.methods.HttpGet;
+
+import android.net.Uri;
+import android.os.Build;
+
+/**
+ * A variant of a news image sized for the cell it's drawn in, and encoded in
+ * WebP where the device decodes it. The variant is asked from the image server
+ * by the size and format query parameters and the Accept header. A host
+ * rejecting the parameters is remembered, and its original images are
+ * downloaded and scaled down on the device instead. The caches are keyed by
+ * {@link #getKey()}, so the variants of an image never mix.
+ * 
+ * @author Luo Yinzhuo
+ */
+final class ImageVariant {
+	/** The query parameter of the width. */
+	private static final String PARAM_WIDTH = "width";
+	/** The query parameter of the height. */
+	private static final String PARAM_HEIGHT = "height";
+	/** The query parameter of the format. */
+	private static final String PARAM_FORMAT = "format";
+	/** The WebP format. */
+	private static final String FORMAT_WEBP = "webp";
+	/** The Accept header preferring WebP. */
+	private static final String ACCEPT_WEBP = "image/webp,image/*;q=0.8";
+
+	/** The hosts rejecting the variant parameters. */
+	private static final Set<String> UNSIZED_HOSTS = new HashSet<String>();
+
+	/** The original image URL. */
+	private final String mImageURL;
+	/** The width, 0 if unknown. */
+	private final int mWidth;
+	/** The height, 0 if unknown. */
+	private final int mHeight;
+	/** The flag to identify WebP is asked. */
+	private final boolean mWebP;
+
+	/**
+	 * Construct a new instance.
+	 * 
+	 * @param imageURL
+	 *            The original image URL.
+	 * @param width
+	 *            The width, 0 if unknown.
+	 * @param height
+	 *            The height, 0 if unknown.
+	 */
+	ImageVariant(String imageURL, int width, int height) {
+		mImageURL = imageURL;
+		mWidth = Math.max(width, 0);
+		mHeight = Math.max(height, 0);
+		mWebP = isWebPSupported();
+	}
+
+	/**
+	 * Check if the device decodes WebP, which is since Android 4.0.
+	 * 
+	 * @return True if the device decodes WebP, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	private static boolean isWebPSupported() {
+		return Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH;
+	}
+
+	/**
+	 * Get the original image URL.
+	 * 
+	 * @return The original image URL.
+	 * @author Luo Yinzhuo
+	 */
+	String getImageURL() {
+		return mImageURL;
+	}
+
+	/**
+	 * Get the width.
+	 * 
+	 * @return The width, 0 if unknown.
+	 * @author Luo Yinzhuo
+	 */
+	int getWidth() {
+		return mWidth;
+	}
+
+	/**
+	 * Get the height.
+	 * 
+	 * @return The height, 0 if unknown.
+	 * @author Luo Yinzhuo
+	 */
+	int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * Get the key of the variant in the caches.
+	 * 
+	 * @return The key.
+	 * @author Luo Yinzhuo
+	 */
+	String getKey() {
+		if (mWidth == 0 || mHeight == 0) {
+			return mImageURL;
+		}
+		return mImageURL + "#" + mWidth + "x" + mHeight
+				+ (mWebP ? "." + FORMAT_WEBP : "");
+	}
+
+	/**
+	 * Get the URL to request the variant, which is the original one if the
+	 * size is unknown or the host rejects the variant parameters.
+	 * 
+	 * @return The request URL.
+	 * @author Luo Yinzhuo
+	 */
+	String getRequestURL() {
+		if (mWidth == 0 || mHeight == 0) {
+			return mImageURL;
+		}
+
+		final Uri uri = Uri.parse(mImageURL);
+		synchronized (UNSIZED_HOSTS) {
+			if (uri.getHost() == null || UNSIZED_HOSTS.contains(uri.getHost())) {
+				return mImageURL;
+			}
+		}
+
+		Uri.Builder builder = uri.buildUpon()
+				.appendQueryParameter(PARAM_WIDTH, String.valueOf(mWidth))
+				.appendQueryParameter(PARAM_HEIGHT, String.valueOf(mHeight));
+		if (mWebP) {
+			builder.appendQueryParameter(PARAM_FORMAT, FORMAT_WEBP);
+		}
+		return builder.build().toString();
+	}
+
+	/**
+	 * Create the request of a URL got from {@link #getRequestURL()}.
+	 * 
+	 * @param url
+	 *            The request URL.
+	 * @return The request.
+	 * @author Luo Yinzhuo
+	 */
+	HttpGet createRequest(String url) {
+		HttpGet request = new HttpGet(url);
+		NetworkPolicy.setTimeout(request);
+		if (mWebP) {
+			request.addHeader("Accept", ACCEPT_WEBP);
+		}
+		return request;
+	}
+
+	/**
+	 * Remember the host rejects the variant parameters, so its original
+	 * images are requested from now on.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	void onRejected() {
+		final String host = Uri.parse(mImageURL).getHost();
+		if (host != null) {
+			synchronized (UNSIZED_HOSTS) {
+				UNSIZED_HOSTS.add(host);
+			}
+		}
+	}
+}
@@ -0,0 +1,398 @@
+package com.panguso.android.shijingshan.net;
+
+import org.apache.http.HttpRequest;
+import org.apache.http.params.HttpConnectionParams;
+
+import com.panguso.android.shijingshan.KeyValueStore;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.SystemClock;
+import android.telephony.TelephonyManager;
+
+/**
+ * Decide how the images and articles are fetched on the active network. The
+ * network is classified by its type, and by the throughput measured from the
+ * recent image and article downloads once there are enough of them, since a
+ * crowded Wi-Fi could be slower than a good cellular network. The measured
+ * class changes only when the throughput leaves the current class's range by a
+ * margin, and not sooner than a while after the last change, so a throughput
+ * near a threshold doesn't flip the image sizes back and forth. Each class has
+ * its image size, prefetch depth, image download concurrency and timeouts. The
+ * user could force a class from the setting screen instead.
+ * 
+ * @author Luo Yinzhuo
+ */
+public final class NetworkPolicy {
+
+	/**
+	 * The network class, with the way to fetch on it.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	public enum NetworkClass {
+		/** 2G, or a measured throughput below 150 kbps. */
+		SLOW(0.5f, 0, 1, 30000),
+		/** 3G, or a measured throughput below 1000 kbps. */
+		MODERATE(0.75f, 1, 2, 20000),
+		/** Wi-Fi, 4G, or a measured throughput above 1000 kbps. */
+		FAST(1.0f, 2, 3, 10000);
+
+		/** The scale of the image size requested to the drawn size. */
+		private final float mImageScale;
+		/** The count of the pages to prefetch the articles of. */
+		private final int mPrefetchPages;
+		/** The count of the image downloads at the same time. */
+		private final int mImageThreads;
+		/** The connection and socket timeout in milliseconds. */
+		private final int mTimeout;
+
+		/**
+		 * Construct a new instance.
+		 * 
+		 * @param imageScale
+		 *            The scale of the image size requested to the drawn size.
+		 * @param prefetchPages
+		 *            The count of the pages to prefetch the articles of.
+		 * @param imageThreads
+		 *            The count of the image downloads at the same time.
+		 * @param timeout
+		 *            The connection and socket timeout in milliseconds.
+		 */
+		private NetworkClass(float imageScale, int prefetchPages,
+				int imageThreads, int timeout) {
+			mImageScale = imageScale;
+			mPrefetchPages = prefetchPages;
+			mImageThreads = imageThreads;
+			mTimeout = timeout;
+		}
+
+		/**
+		 * Get the scale of the image size requested to the drawn size.
+		 * 
+		 * @return The scale.
+		 * @author Luo Yinzhuo
+		 */
+		public float getImageScale() {
+			return mImageScale;
+		}
+
+		/**
+		 * Get the count of the pages to prefetch the articles of, from the
+		 * current page on.
+		 * 
+		 * @return The page count, 0 if nothing is prefetched.
+		 * @author Luo Yinzhuo
+		 */
+		public int getPrefetchPages() {
+			return mPrefetchPages;
+		}
+
+		/**
+		 * Get the count of the image downloads at the same time.
+		 * 
+		 * @return The count.
+		 * @author Luo Yinzhuo
+		 */
+		public int getImageThreads() {
+			return mImageThreads;
+		}
+
+		/**
+		 * Get the connection and socket timeout.
+		 * 
+		 * @return The timeout in milliseconds.
+		 * @author Luo Yinzhuo
+		 */
+		public int getTimeout() {
+			return mTimeout;
+		}
+	}
+
+	/**
+	 * The mode chosen on the setting screen.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	public enum Mode {
+		/** Classify the active network. */
+		AUTO,
+		/** Fetch as on a slow network to save data. */
+		ECONOMY,
+		/** Fetch as on a fast network for the best images. */
+		FULL
+	}
+
+	/** The measured throughput below which the network is slow. */
+	private static final int SLOW_KBPS = 150;
+	/** The measured throughput above which the network is fast. */
+	private static final int FAST_KBPS = 1000;
+	/**
+	 * The margin in percent the throughput has to leave the current class's
+	 * range by to change the class.
+	 */
+	private static final int HYSTERESIS_PERCENT = 25;
+	/** The minimum time between two class changes in milliseconds. */
+	private static final long MIN_CLASS_DWELL = 30 * 1000;
+
+	/** The {@link KeyValueStore} name. */
+	private static final String STORE_NAME = "network_policy";
+	/** The key to get the mode. */
+	private static final String KEY_MODE = "mode";
+
+	/** The throughput estimator of the active network. */
+	private static final BandwidthEstimator ESTIMATOR = new BandwidthEstimator();
+
+	/** The mode, or null if not read yet. */
+	private static volatile Mode MODE;
+	/** The type of the active network, -1 if none. */
+	private static volatile int NETWORK_TYPE = -1;
+	/** The class of the active network by its type. */
+	private static volatile NetworkClass TYPE_CLASS = NetworkClass.MODERATE;
+	/** The class of the active network in the auto mode, null if not chosen. */
+	private static NetworkClass AUTO_CLASS;
+	/** The time the auto mode class changes, in the uptime milliseconds. */
+	private static long AUTO_CLASS_TIME;
+	/** The class applied to the image downloads. */
+	private static NetworkClass APPLIED_CLASS;
+
+	/**
+	 * Get the {@link KeyValueStore} of the policy.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @return The {@link KeyValueStore}.
+	 * @author Luo Yinzhuo
+	 */
+	private static KeyValueStore getKeyValueStore(Context context) {
+		return KeyValueStore.getInstance(context, STORE_NAME, null);
+	}
+
+	/**
+	 * Update the policy for the active network, when the application starts
+	 * and whenever the connectivity changes. The throughput samples and the
+	 * class of the previous network are dropped.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @author Luo Yinzhuo
+	 */
+	public static void update(Context context) {
+		if (MODE == null) {
+			MODE = readMode(context);
+		}
+
+		ConnectivityManager connectivityManager = (ConnectivityManager) context
+				.getSystemService(Context.CONNECTIVITY_SERVICE);
+		NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+		if (networkInfo != null && networkInfo.isConnected()) {
+			final int type = networkInfo.getType() << 16
+					| networkInfo.getSubtype();
+			if (type != NETWORK_TYPE) {
+				NETWORK_TYPE = type;
+				TYPE_CLASS = classify(networkInfo);
+				ESTIMATOR.reset();
+				synchronized (NetworkPolicy.class) {
+					AUTO_CLASS = null;
+				}
+			}
+		} else {
+			NETWORK_TYPE = -1;
+		}
+		apply();
+	}
+
+	/**
+	 * Read the mode from the {@link KeyValueStore}.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @return The mode, {@link Mode#AUTO} if never chosen.
+	 * @author Luo Yinzhuo
+	 */
+	private static Mode readMode(Context context) {
+		try {
+			return Mode.valueOf(getKeyValueStore(context).getString(KEY_MODE,
+					Mode.AUTO.name()));
+		} catch (IllegalArgumentException e) {
+			return Mode.AUTO;
+		}
+	}
+
+	/**
+	 * Classify a network by its type.
+	 * 
+	 * @param networkInfo
+	 *            The connected network.
+	 * @return The network class.
+	 * @author Luo Yinzhuo
+	 */
+	private static NetworkClass classify(NetworkInfo networkInfo) {
+		if (networkInfo.getType() != ConnectivityManager.TYPE_MOBILE) {
+			return NetworkClass.FAST;
+		}
+
+		switch (networkInfo.getSubtype()) {
+		case TelephonyManager.NETWORK_TYPE_GPRS:
+		case TelephonyManager.NETWORK_TYPE_EDGE:
+		case TelephonyManager.NETWORK_TYPE_CDMA:
+		case TelephonyManager.NETWORK_TYPE_1xRTT:
+		case TelephonyManager.NETWORK_TYPE_IDEN:
+			return NetworkClass.SLOW;
+		case TelephonyManager.NETWORK_TYPE_LTE:
+		case TelephonyManager.NETWORK_TYPE_HSPAP:
+			return NetworkClass.FAST;
+		default:
+			return NetworkClass.MODERATE;
+		}
+	}
+
+	/**
+	 * Classify a network by its measured throughput, keeping the current class
+	 * while the throughput is within its range widened by
+	 * {@link #HYSTERESIS_PERCENT}.
+	 * 
+	 * @param kbps
+	 *            The measured throughput in kilobits per second.
+	 * @param current
+	 *            The current class, or null if none.
+	 * @return The network class.
+	 * @author Luo Yinzhuo
+	 */
+	private static NetworkClass classify(int kbps, NetworkClass current) {
+		final int slowAbove = SLOW_KBPS * (100 + HYSTERESIS_PERCENT) / 100;
+		final int slowBelow = SLOW_KBPS * (100 - HYSTERESIS_PERCENT) / 100;
+		final int fastAbove = FAST_KBPS * (100 + HYSTERESIS_PERCENT) / 100;
+		final int fastBelow = FAST_KBPS * (100 - HYSTERESIS_PERCENT) / 100;
+		if (current == NetworkClass.SLOW && kbps < slowAbove
+				|| current == NetworkClass.MODERATE && kbps >= slowBelow
+				&& kbps < fastAbove || current == NetworkClass.FAST
+				&& kbps >= fastBelow) {
+			return current;
+		}
+
+		if (kbps < SLOW_KBPS) {
+			return NetworkClass.SLOW;
+		} else if (kbps < FAST_KBPS) {
+			return NetworkClass.MODERATE;
+		} else {
+			return NetworkClass.FAST;
+		}
+	}
+
+	/**
+	 * Get the class of the active network in the auto mode. It follows the
+	 * measured throughput with the hysteresis, or the network type while the
+	 * throughput is unknown, but stays at least {@link #MIN_CLASS_DWELL} after
+	 * a change.
+	 * 
+	 * @return The network class.
+	 * @author Luo Yinzhuo
+	 */
+	private static synchronized NetworkClass getAutoClass() {
+		final int kbps = ESTIMATOR.getKbps();
+		final NetworkClass networkClass = kbps < 0 ? TYPE_CLASS : classify(
+				kbps, AUTO_CLASS);
+		if (networkClass != AUTO_CLASS) {
+			final long now = SystemClock.uptimeMillis();
+			if (AUTO_CLASS == null || now - AUTO_CLASS_TIME >= MIN_CLASS_DWELL) {
+				AUTO_CLASS = networkClass;
+				AUTO_CLASS_TIME = now;
+			}
+		}
+		return AUTO_CLASS;
+	}
+
+	/**
+	 * Get the mode chosen on the setting screen.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @return The mode.
+	 * @author Luo Yinzhuo
+	 */
+	public static Mode getMode(Context context) {
+		if (MODE == null) {
+			MODE = readMode(context);
+		}
+		return MODE;
+	}
+
+	/**
+	 * Choose the mode on the setting screen.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @param mode
+	 *            The mode.
+	 * @author Luo Yinzhuo
+	 */
+	public static void setMode(Context context, Mode mode) {
+		MODE = mode;
+		getKeyValueStore(context).edit().putString(KEY_MODE, mode.name())
+				.apply();
+		apply();
+	}
+
+	/**
+	 * Get the class to fetch on.
+	 * 
+	 * @return The class forced by the mode if any, otherwise the class by the
+	 *         measured throughput if there are enough recent samples, otherwise
+	 *         the class by the type of the active network.
+	 * @author Luo Yinzhuo
+	 */
+	public static NetworkClass getNetworkClass() {
+		final Mode mode = MODE;
+		if (mode == Mode.ECONOMY) {
+			return NetworkClass.SLOW;
+		} else if (mode == Mode.FULL) {
+			return NetworkClass.FAST;
+		}
+		return getAutoClass();
+	}
+
+	/**
+	 * Set the timeouts of the current class to a fetch request.
+	 * 
+	 * @param request
+	 *            The request.
+	 * @author Luo Yinzhuo
+	 */
+	static void setTimeout(HttpRequest request) {
+		final int timeout = getNetworkClass().getTimeout();
+		HttpConnectionParams.setConnectionTimeout(request.getParams(), timeout);
+		HttpConnectionParams.setSoTimeout(request.getParams(), timeout);
+	}
+
+	/**
+	 * Add a finished download as a throughput sample. It could be invoked on
+	 * any thread.
+	 * 
+	 * @param bytes
+	 *            The byte count downloaded.
+	 * @param millis
+	 *            The time from the request to the end of the download in
+	 *            milliseconds.
+	 * @author Luo Yinzhuo
+	 */
+	public static void addSample(long bytes, long millis) {
+		ESTIMATOR.addSample(bytes, millis);
+		apply();
+	}
+
+	/**
+	 * Apply the image download concurrency of the current class, if it has
+	 * changed.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private static synchronized void apply() {
+		final NetworkClass networkClass = getNetworkClass();
+		if (networkClass != APPLIED_CLASS) {
+			APPLIED_CLASS = networkClass;
+			NetworkService.setImageThreads(networkClass.getImageThreads());
+		}
+	}
+}
@@ -3,6 +3,7 @@ package com.panguso.android.shijingshan.net;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -10,6 +11,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -17,11 +22,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.HttpVersion;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
@@ -50,9 +61,17 @@ import org.json.JSONObject;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.panguso.android.shijingshan.MainThreadMonitor;
+import com.panguso.android.shijingshan.MemoryCoordinator;
+import com.panguso.android.shijingshan.MemoryCoordinator.TrimPolicy;
+import com.panguso.android.shijingshan.MemoryCoordinator.Trimmable;
 import com.panguso.android.shijingshan.R;
 import com.panguso.android.shijingshan.account.AccountManager;
 import com.panguso.android.shijingshan.column.ColumnInfo;
@@ -137,6 +156,57 @@ public final class NetworkService {
 	private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
 			2, 2, 15 * 60, TimeUnit.SECONDS, COMMANDS);
 
+	/**
+	 * Warm up the network by resolving the server's host, so the first
+	 * request does not wait for the DNS lookup. It blocks until the host is
+	 * resolved, so it should not be invoked on the UI thread.
+	 * 
+	 * @param serverURL
+	 *            The server URL.
+	 * @author Luo Yinzhuo
+	 */
+	public static void warmUp(String serverURL) {
+		final long start = MainThreadMonitor.start();
+		try {
+			InetAddress.getByName(new URL(serverURL).getHost());
+		} catch (MalformedURLException e) {
+			e.printStackTrace();
+		} catch (UnknownHostException e) {
+			e.printStackTrace();
+		}
+		MainThreadMonitor.finish(MainThreadMonitor.Type.NETWORK, "resolve "
+				+ serverURL, start);
+	}
+
+	/**
+	 * Execute a GET request with the shared client and the timeouts of the
+	 * {@link NetworkPolicy}. It blocks until the response arrives, so it
+	 * should not be invoked on the UI thread. The caller must consume the
+	 * response's entity to release the connection.
+	 * 
+	 * @param url
+	 *            The URL.
+	 * @return The HTTP response.
+	 * @throws IOException
+	 *             If the request fails.
+	 * @author Luo Yinzhuo
+	 */
+	public static HttpResponse get(String url) throws IOException {
+		try {
+			final HttpGet request = new HttpGet(url);
+			NetworkPolicy.setTimeout(request);
+			final long start = MainThreadMonitor.start();
+			try {
+				return HTTP_CLIENT.execute(request);
+			} finally {
+				MainThreadMonitor.finish(MainThreadMonitor.Type.NETWORK,
+						"get " + url, start);
+			}
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid URL " + url);
+		}
+	}
+
 	/**
 	 * Read the HTTP response's content.
 	 * 
@@ -1380,6 +1450,10 @@ public final class NetworkService {
 		private final String mServerURL;
 		/** The column ID. */
 		private final int mColumnID;
+		/** The offset of the first news. */
+		private final int mOffset;
+		/** The maximum news count. */
+		private final int mCount;
 		/** The request listener. */
 		private final NewsListRequestListener mListener;
 
@@ -1390,13 +1464,19 @@ public final class NetworkService {
 		 *            The server URL.
 		 * @param columnID
 		 *            The column ID.
+		 * @param offset
+		 *            The offset of the first news.
+		 * @param count
+		 *            The maximum news count, or 0 for the whole column.
 		 * @param listener
 		 *            The request listener.
 		 */
-		private NewsListCommand(String serverURL, int columnID,
-				NewsListRequestListener listener) {
+		private NewsListCommand(String serverURL, int columnID, int offset,
+				int count, NewsListRequestListener listener) {
 			mServerURL = serverURL;
 			mColumnID = columnID;
+			mOffset = offset;
+			mCount = count;
 			mListener = listener;
 		}
 
@@ -1412,7 +1492,7 @@ public final class NetworkService {
 			HttpPost request;
 			try {
 				request = RequestFactory.createNewsInfoListRequest(mServerURL,
-						mColumnID);
+						mColumnID, mOffset, mCount);
 			} catch (Exception e) {
 				e.printStackTrace();
 				mListener.onNewsListRequestFailed();
@@ -1480,7 +1560,28 @@ public final class NetworkService {
 	 */
 	public static void getNewsList(String serverURL, int columnID,
 			NewsListRequestListener listener) {
-		EXECUTOR.execute(new NewsListCommand(serverURL, columnID, listener));
+		getNewsList(serverURL, columnID, 0, 0, listener);
+	}
+
+	/**
+	 * Get a chunk of the news list.
+	 * 
+	 * @param serverURL
+	 *            The server URL.
+	 * @param columnID
+	 *            The column's ID.
+	 * @param offset
+	 *            The offset of the first news in the column.
+	 * @param count
+	 *            The maximum news count, or 0 to get the whole column.
+	 * @param listener
+	 *            The request listener.
+	 * @author Luo Yinzhuo
+	 */
+	public static void getNewsList(String serverURL, int columnID, int offset,
+			int count, NewsListRequestListener listener) {
+		EXECUTOR.execute(new NewsListCommand(serverURL, columnID, offset,
+				count, listener));
 	}
 
 	/**
@@ -1757,137 +1858,368 @@ public final class NetworkService {
 				listener));
 	}
 
+	/** The outbox executor, which keeps the recorded requests in order. */
+	private static final ScheduledExecutorService OUTBOX_EXECUTOR = Executors
+			.newSingleThreadScheduledExecutor();
+	/** The maximum request count sent in a flush round. */
+	private static final int OUTBOX_FLUSH_COUNT = 50;
+	/** The delay of the first retry after a flush fails to reach the server. */
+	private static final long OUTBOX_RETRY_DELAY = 30 * 1000L;
+	/** The maximum delay of a retry. */
+	private static final long OUTBOX_MAX_RETRY_DELAY = 30 * 60 * 1000L;
+	/** The count of the retries since the last flush reaching the server. */
+	private static int OUTBOX_RETRY_COUNT = 0;
+	/** The scheduled retry, or null if none. Only used on the outbox thread. */
+	private static ScheduledFuture<?> OUTBOX_RETRY;
+
+	/** The outbox request is answered by the server. */
+	private static final int OUTBOX_RESULT_ANSWERED = 0;
+	/** The outbox request is refused by the server and should be set aside. */
+	private static final int OUTBOX_RESULT_REJECTED = 1;
 	/**
-	 * Interface definition for a callback to be invoked when a suggestion
-	 * request is executed.
+	 * The outbox request failed to reach the server, or got no answer of the
+	 * server, and should be retried.
+	 */
+	private static final int OUTBOX_RESULT_RETRY = 2;
+	/** The status code of too many requests, not defined by HttpStatus. */
+	private static final int SC_TOO_MANY_REQUESTS = 429;
+
+	/**
+	 * Specified for record a request into the {@link Outbox}.
 	 * 
 	 * @author Luo Yinzhuo
 	 */
-	public interface SuggestionRequestListener {
-
-		/**
-		 * Called when the suggestion request creation is failed.
-		 * 
-		 * @author Luo Yinzhuo
-		 */
-		public void onSuggestionRequestFailed();
+	private static class OutboxRecordCommand implements Runnable {
+		/** The context. */
+		private final Context mContext;
+		/** The account. */
+		private final String mAccount;
+		/** The request type. */
+		private final int mType;
+		/** The request payload. */
+		private final String mPayload;
 
 		/**
-		 * Called when the suggestion request execution is successful.
+		 * Construct a new instance.
 		 * 
-		 * @author Luo Yinzhuo
+		 * @param context
+		 *            The context.
+		 * @param account
+		 *            The account.
+		 * @param type
+		 *            The request type.
+		 * @param payload
+		 *            The request payload.
 		 */
-		public void onSuggestionResponseSuccess();
+		private OutboxRecordCommand(Context context, String account, int type,
+				String payload) {
+			mContext = context.getApplicationContext();
+			mAccount = account;
+			mType = type;
+			mPayload = payload;
+		}
 
-		/**
-		 * Called when the suggestion request execution is failed.
-		 * 
-		 * @author Luo Yinzhuo
-		 */
-		public void onSuggestionResponseFailed();
+		@Override
+		public void run() {
+			Outbox.getInstance(mContext).add(mAccount, mType, mPayload);
+			new OutboxFlushCommand(mContext).run();
+		}
 	}
 
 	/**
-	 * Specified for execute suggestion request.
+	 * Specified for send the requests recorded in the {@link Outbox}. The
+	 * requests of an account are sent in the recording order, and stop at the
+	 * first one failing to reach the server, in which case another flush is
+	 * scheduled with an exponential back off. The acknowledge notification
+	 * requests of an account are coalesced into one request. The requests the
+	 * server rejects are kept in the {@link Outbox}'s rejected table.
 	 * 
 	 * @author Luo Yinzhuo
 	 */
-	private static class SuggestionCommand implements Runnable {
-		/** The server URL. */
-		private final String mServerURL;
-		/** The account. */
-		private final String mAccount;
-		/** The contact. */
-		private final String mContact;
-		/** The content. */
-		private final String mContent;
-		/** The request listener. */
-		private final SuggestionRequestListener mListener;
+	private static class OutboxFlushCommand implements Runnable {
+		/** The context. */
+		private final Context mContext;
 
 		/**
 		 * Construct a new instance.
 		 * 
-		 * @param serverURL
-		 *            The server URL.
-		 * @param account
-		 *            The account.
-		 * @param contact
-		 *            The contact information.
-		 * @param content
-		 *            The suggestion content.
-		 * @param listener
-		 *            The request listener.
+		 * @param context
+		 *            The context.
 		 */
-		private SuggestionCommand(String serverURL, String account,
-				String contact, String content,
-				SuggestionRequestListener listener) {
-			mServerURL = serverURL;
-			mAccount = account;
-			mContact = contact;
-			mContent = content;
-			mListener = listener;
+		private OutboxFlushCommand(Context context) {
+			mContext = context.getApplicationContext();
 		}
 
 		/** The key to get xCode. */
 		private static final String KEY_XCODE = "xCode";
 
+		/** The reason of the last rejected batch. */
+		private String mRejectReason;
+
 		@Override
 		public void run() {
+			Outbox outbox = Outbox.getInstance(mContext);
+			final String serverURL = mContext.getString(R.string.server_url);
+
+			boolean retry = false;
+			List<Outbox.Record> records = outbox.query(OUTBOX_FLUSH_COUNT);
+			while (!records.isEmpty() && !retry && isOnline(mContext)) {
+				Set<String> blockedAccounts = new HashSet<String>();
+				Set<Outbox.Record> sentRecords = new HashSet<Outbox.Record>();
+				for (int i = 0; i < records.size(); i++) {
+					Outbox.Record record = records.get(i);
+					if (blockedAccounts.contains(record.mAccount)
+							|| sentRecords.contains(record)) {
+						continue;
+					}
+
+					List<Outbox.Record> batch = new ArrayList<Outbox.Record>();
+					batch.add(record);
+					if (record.mType == Outbox.TYPE_ACKNOWLEDGE_NOTIFICATION) {
+						for (int j = i + 1; j < records.size(); j++) {
+							Outbox.Record other = records.get(j);
+							if (other.mType == record.mType
+									&& other.mAccount.equals(record.mAccount)) {
+								batch.add(other);
+							}
+						}
+					}
+
+					final int result = send(serverURL, batch);
+					if (result == OUTBOX_RESULT_RETRY) {
+						blockedAccounts.add(record.mAccount);
+						retry = true;
+					} else {
+						if (result == OUTBOX_RESULT_REJECTED) {
+							outbox.reject(batch, mRejectReason);
+							Log.w("OutboxFlushCommand", "rejected "
+									+ batch.size() + " of type " + record.mType
+									+ ", " + outbox.getRejectedCount()
+									+ " kept: " + mRejectReason);
+						} else {
+							outbox.remove(batch);
+						}
+						sentRecords.addAll(batch);
+					}
+				}
+
+				if (records.size() < OUTBOX_FLUSH_COUNT) {
+					break;
+				}
+				records = outbox.query(OUTBOX_FLUSH_COUNT);
+			}
+			scheduleRetry(retry);
+		}
+
+		/**
+		 * Schedule the next flush with an exponential back off if this one
+		 * failed to reach the server, otherwise cancel the scheduled one. It's
+		 * only invoked on the outbox thread.
+		 * 
+		 * @param retry
+		 *            True if the flush failed to reach the server.
+		 * @author Luo Yinzhuo
+		 */
+		private void scheduleRetry(boolean retry) {
+			if (OUTBOX_RETRY != null) {
+				OUTBOX_RETRY.cancel(false);
+				OUTBOX_RETRY = null;
+			}
+
+			if (!retry) {
+				OUTBOX_RETRY_COUNT = 0;
+				return;
+			}
+
+			final long delay = Math.min(OUTBOX_RETRY_DELAY
+					<< Math.min(OUTBOX_RETRY_COUNT, 16), OUTBOX_MAX_RETRY_DELAY);
+			OUTBOX_RETRY_COUNT++;
+			OUTBOX_RETRY = OUTBOX_EXECUTOR.schedule(new OutboxFlushCommand(
+					mContext), delay, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Send a batch of requests of the same type and account.
+		 * 
+		 * @param serverURL
+		 *            The server URL.
+		 * @param batch
+		 *            The {@link Outbox.Record} list.
+		 * @return The send result. It's rejected only by a JSON answer of the
+		 *         server refusing the request. An error page of the server or
+		 *         a proxy, or a busy server, is retried.
+		 * @author Luo Yinzhuo
+		 */
+		private int send(String serverURL, List<Outbox.Record> batch) {
+			final Outbox.Record first = batch.get(0);
 			HttpPost request;
 			try {
-				request = RequestFactory.createSuggestionRequest(mServerURL,
-						mAccount, mContact, mContent);
+				switch (first.mType) {
+				case Outbox.TYPE_ACKNOWLEDGE_NOTIFICATION:
+					List<String> ids = new ArrayList<String>();
+					for (Outbox.Record record : batch) {
+						ids.add(record.mPayload);
+					}
+					request = RequestFactory
+							.createAcknowledgeNotificationRequest(serverURL,
+									first.mAccount, ids, first.mRequestId);
+					break;
+				case Outbox.TYPE_SUGGESTION:
+					JSONObject suggestion = new JSONObject(first.mPayload);
+					request = RequestFactory.createSuggestionRequest(serverURL,
+							first.mAccount, suggestion.getString(KEY_CONTACT),
+							suggestion.getString(KEY_CONTENT),
+							first.mRequestId);
+					break;
+				default:
+					mRejectReason = "unknown type";
+					return OUTBOX_RESULT_REJECTED;
+				}
 			} catch (Exception e) {
 				e.printStackTrace();
-				mListener.onSuggestionRequestFailed();
-				return;
+				mRejectReason = e.toString();
+				return OUTBOX_RESULT_REJECTED;
 			}
 
+			final int statusCode;
 			String content;
 			try {
 				HttpResponse response = HTTP_CLIENT.execute(request);
+				statusCode = response.getStatusLine().getStatusCode();
 				content = NetworkService.getContent(response);
 			} catch (IOException e) {
 				e.printStackTrace();
-				mListener.onSuggestionRequestFailed();
-				return;
+				return OUTBOX_RESULT_RETRY;
+			}
+
+			if (statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR
+					|| statusCode == HttpStatus.SC_REQUEST_TIMEOUT
+					|| statusCode == SC_TOO_MANY_REQUESTS
+					|| content.length() == 0) {
+				Log.w("OutboxFlushCommand", "retry on status " + statusCode);
+				return OUTBOX_RESULT_RETRY;
 			}
 
+			final int xCode;
 			try {
-				JSONObject jsonResponse = new JSONObject(content);
-				int xCode = jsonResponse.getInt(KEY_XCODE);
-				switch (xCode) {
-				case XCODE_SUCCESS:
-					mListener.onSuggestionResponseSuccess();
-					return;
-				}
+				xCode = new JSONObject(content).getInt(KEY_XCODE);
 			} catch (JSONException e) {
-				e.printStackTrace();
+				// Not an answer of the server, like a captive portal page.
+				Log.w("OutboxFlushCommand", "retry on status " + statusCode
+						+ ", not an answer: " + e);
+				return OUTBOX_RESULT_RETRY;
 			}
-			Log.e("SuggestionCommand", content);
-			mListener.onSuggestionResponseFailed();
+			if (xCode == XCODE_SUCCESS) {
+				return OUTBOX_RESULT_ANSWERED;
+			}
+			mRejectReason = content;
+			return OUTBOX_RESULT_REJECTED;
 		}
 	}
 
 	/**
-	 * Suggestion.
+	 * Send the requests recorded in the outbox, for example when the network
+	 * is available again.
 	 * 
-	 * @param serverURL
-	 *            The server URL.
+	 * @param context
+	 *            The context.
+	 * @author Luo Yinzhuo
+	 */
+	public static void flushOutbox(Context context) {
+		OUTBOX_EXECUTOR.execute(new OutboxFlushCommand(context));
+	}
+
+	/**
+	 * Check if there's an available network.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @return True if there's an available network, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	public static boolean isOnline(Context context) {
+		ConnectivityManager connectivityManager = (ConnectivityManager) context
+				.getSystemService(Context.CONNECTIVITY_SERVICE);
+		NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+		return networkInfo != null && networkInfo.isConnected();
+	}
+
+	/**
+	 * Check if the active network is Wi-Fi.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @return True if the active network is a connected Wi-Fi, otherwise
+	 *         false.
+	 * @author Luo Yinzhuo
+	 */
+	public static boolean isWifi(Context context) {
+		ConnectivityManager connectivityManager = (ConnectivityManager) context
+				.getSystemService(Context.CONNECTIVITY_SERVICE);
+		NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+		return networkInfo != null && networkInfo.isConnected()
+				&& networkInfo.getType() == ConnectivityManager.TYPE_WIFI;
+	}
+
+	/** The key to get the suggestion contact. */
+	private static final String KEY_CONTACT = "contact";
+	/** The key to get the suggestion content. */
+	private static final String KEY_CONTENT = "content";
+
+	/**
+	 * Suggestion. The suggestion is recorded in the outbox and sent when the
+	 * network is available.
+	 * 
+	 * @param context
+	 *            The context.
 	 * @param account
 	 *            The account name.
 	 * @param contact
 	 *            The contact information.
 	 * @param content
 	 *            The suggestion content.
-	 * @param listener
-	 *            The request listener.
 	 * @author Luo Yinzhuo
 	 */
-	public static void suggestion(String serverURL, String account,
-			String contact, String content, SuggestionRequestListener listener) {
-		EXECUTOR.execute(new SuggestionCommand(serverURL, account, contact,
-				content, listener));
+	public static void suggestion(Context context, String account,
+			String contact, String content) {
+		JSONObject suggestion = new JSONObject();
+		try {
+			suggestion.put(KEY_CONTACT, contact);
+			suggestion.put(KEY_CONTENT, content);
+		} catch (JSONException e) {
+			e.printStackTrace();
+			return;
+		}
+		OUTBOX_EXECUTOR.execute(new OutboxRecordCommand(context, account,
+				Outbox.TYPE_SUGGESTION, suggestion.toString()));
+	}
+
+	/**
+	 * Interface definition for a callback to be invoked when a notification
+	 * info list request is executed. It is invoked on the network thread.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	public interface NotificationInfoListRequestListener {
+		/**
+		 * Called when the notification info list request execution is
+		 * successful.
+		 * 
+		 * @param newCount
+		 *            The count of the notifications not received before.
+		 * @param contentLength
+		 *            The length of the response content.
+		 * @author Luo Yinzhuo
+		 */
+		public void onNotificationInfoListResponseSuccess(int newCount,
+				int contentLength);
+
+		/**
+		 * Called when the notification info list request execution is failed.
+		 * 
+		 * @author Luo Yinzhuo
+		 */
+		public void onNotificationInfoListResponseFailed();
 	}
 
 	/**
@@ -1900,16 +2232,28 @@ public final class NetworkService {
 		private final Context mContext;
 		/** The account. */
 		private final String mAccount;
+		/** The add time of the newest notification already received. */
+		private final String mSince;
+		/** The request listener. */
+		private final NotificationInfoListRequestListener mListener;
 
 		/**
 		 * Construct a new instance.
 		 * 
 		 * @param context
 		 *            The context.
+		 * @param since
+		 *            The add time of the newest notification already
+		 *            received, or null to request all the notifications.
+		 * @param listener
+		 *            The request listener.
 		 */
-		private NotificationInfoListCommand(Context context) {
+		private NotificationInfoListCommand(Context context, String since,
+				NotificationInfoListRequestListener listener) {
 			mContext = context;
 			mAccount = AccountManager.getAccount();
+			mSince = since;
+			mListener = listener;
 		}
 
 		/** The key to get xCode. */
@@ -1923,17 +2267,24 @@ public final class NetworkService {
 				HttpPost request = RequestFactory
 						.createNotificationInfoListRequest(
 								mContext.getString(R.string.server_url),
-								mAccount);
+								mAccount, mSince);
 				HttpResponse response = HTTP_CLIENT.execute(request);
 				String content = NetworkService.getContent(response);
 				Log.d("NotificationInfoListCommand", content);
 
 				if (!mAccount.equals(AccountManager.getAccount())) {
+					mListener.onNotificationInfoListResponseSuccess(0,
+							content.length());
 					return;
 				}
 
 				JSONObject jsonResponse = new JSONObject(content);
-				if (jsonResponse.getInt(KEY_XCODE) == XCODE_SUCCESS) {
+				final int xCode = jsonResponse.getInt(KEY_XCODE);
+				if (xCode == XCODE_NO_DATA) {
+					mListener.onNotificationInfoListResponseSuccess(0,
+							content.length());
+					return;
+				} else if (xCode == XCODE_SUCCESS) {
 					JSONArray jsonNotificationsInfo = jsonResponse
 							.getJSONArray(KEY_XDATA);
 					List<NotificationInfo> notificationInfos = new ArrayList<NotificationInfo>();
@@ -1946,12 +2297,16 @@ public final class NetworkService {
 									.parse(notificationInfo));
 						}
 					}
-					NotificationInfoManager.onNotification(mContext,
-							notificationInfos);
+					final int newCount = NotificationInfoManager.onNotification(
+							mContext, notificationInfos);
+					mListener.onNotificationInfoListResponseSuccess(newCount,
+							content.length());
+					return;
 				}
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
+			mListener.onNotificationInfoListResponseFailed();
 		}
 	}
 
@@ -1960,74 +2315,42 @@ public final class NetworkService {
 	 * 
 	 * @param context
 	 *            The context.
-	 * 
-	 * @author Luo Yinzhuo
-	 */
-	public static void getNotificationInfoList(Context context) {
-		EXECUTOR.execute(new NotificationInfoListCommand(context));
-	}
-
-	/**
-	 * Specified for execute acknowledge notification request.
-	 * 
+	 * @param since
+	 *            The add time of the newest notification already received, or
+	 *            null to request all the notifications.
+	 * @param listener
+	 *            The request listener.
 	 * @author Luo Yinzhuo
 	 */
-	private static class AcknowledgeNotificationCommand implements Runnable {
-		/** The server URL. */
-		private final String mServerURL;
-		/** The account. */
-		private final String mAccount;
-		/** The notification id. */
-		private final String mId;
-
-		/**
-		 * Construct a new instance.
-		 * 
-		 * @param serverURL
-		 *            The server URL.
-		 * @param account
-		 *            The account.
-		 * @param id
-		 *            The notification id.
-		 */
-		private AcknowledgeNotificationCommand(String serverURL,
-				String account, String id) {
-			mServerURL = serverURL;
-			mAccount = account;
-			mId = id;
-		}
-
-		@Override
-		public void run() {
-			try {
-				HttpPost request = RequestFactory
-						.createAcknowledgeNotificationRequest(mServerURL,
-								mAccount, mId);
-				HTTP_CLIENT.execute(request);
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		}
+	public static void getNotificationInfoList(Context context, String since,
+			NotificationInfoListRequestListener listener) {
+		EXECUTOR.execute(new NotificationInfoListCommand(context, since,
+				listener));
 	}
 
 	/**
-	 * Get notification.
+	 * Acknowledge the notification. The acknowledgement is recorded in the
+	 * outbox and sent with the other pending ones when the network is
+	 * available.
 	 * 
-	 * @param serverURL
-	 *            The server URL.
+	 * @param context
+	 *            The context.
 	 * @param account
 	 *            The account name.
 	 * @param id
 	 *            The notification id.
 	 * @author Luo Yinzhuo
 	 */
-	public static void acknowledgeNotification(String serverURL,
+	public static void acknowledgeNotification(Context context,
 			String account, String id) {
-		EXECUTOR.execute(new AcknowledgeNotificationCommand(serverURL, account,
-				id));
+		OUTBOX_EXECUTOR.execute(new OutboxRecordCommand(context, account,
+				Outbox.TYPE_ACKNOWLEDGE_NOTIFICATION, id));
 	}
 
-	/** The image LRU cache. */
+	/** The pool of the bitmaps evicted from the {@link #BITMAP_LRU_CACHE}. */
+	private static final BitmapPool BITMAP_POOL = new BitmapPool();
+
+	/** The image LRU cache, whose evicted bitmaps go to the pool. */
 	private static final Map<String, Bitmap> BITMAP_LRU_CACHE = new LinkedHashMap<String, Bitmap>(
 			8, 0.75f, true) {
 		/** The serial id. */
@@ -2036,22 +2359,54 @@ public final class NetworkService {
 		@Override
 		protected boolean removeEldestEntry(Entry<String, Bitmap> eldest) {
 			if (size() >= 6) {
+				BITMAP_POOL.release(eldest.getValue());
 				return true;
 			} else {
 				return false;
 			}
 		}
+	};
+
+	/** The LRU cache of the previews decoded from the partial images. */
+	private static final Map<String, Bitmap> PREVIEW_LRU_CACHE = new LinkedHashMap<String, Bitmap>(
+			16, 0.75f, true) {
+		/** The serial id. */
+		private static final long serialVersionUID = -2034561298745603115L;
 
 		@Override
-		public Bitmap remove(Object key) {
-			Bitmap bitmap = super.remove(key);
-			synchronized (bitmap) {
-				bitmap.recycle();
+		protected boolean removeEldestEntry(Map.Entry<String, Bitmap> eldest) {
+			if (size() > 12) {
+				BITMAP_POOL.release(eldest.getValue());
+				return true;
+			} else {
+				return false;
 			}
-			return bitmap;
+		}
+	};
+
+	/** The LRU cache of the average colors of the decoded images. */
+	private static final Map<String, Integer> IMAGE_COLOR_LRU_CACHE = new LinkedHashMap<String, Integer>(
+			64, 0.75f, true) {
+		/** The serial id. */
+		private static final long serialVersionUID = 6106217318466358813L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, Integer> eldest) {
+			return size() > 256;
 		}
 	};
 
+	/**
+	 * The downloaded size to decode a preview, which is about the data a slow
+	 * link delivers in the first round trip.
+	 */
+	private static final int PREVIEW_SIZE = 12 * 1024;
+	/** The sample size to decode a preview. */
+	private static final int PREVIEW_SAMPLE_SIZE = 4;
+	/** The number of pixels sampled on each side to average an image color. */
+	private static final int COLOR_SAMPLES = 8;
+
 	/**
 	 * Used to record the accepted image request to prevent re-accept same image
 	 * request.
@@ -2076,6 +2431,18 @@ public final class NetworkService {
 		 */
 		public void onNewsImageResponseSuccess(int page);
 
+		/**
+		 * Called when a preview of the news image is decoded from the part
+		 * downloaded so far. The full image follows with
+		 * {@link #onNewsImageResponseSuccess(int)} or
+		 * {@link #onNewsImageResponseFailed(int, String)}.
+		 * 
+		 * @param page
+		 *            The {@link NewsPage} index.
+		 * @author Luo Yinzhuo
+		 */
+		public void onNewsImagePreviewSuccess(int page);
+
 		/**
 		 * Called when the image request execution is failed.
 		 * 
@@ -2089,76 +2456,424 @@ public final class NetworkService {
 	}
 
 	/**
-	 * Specified for execute news image request.
+	 * The initial I/O thread count of the image pipeline, which the
+	 * {@link NetworkPolicy} adjusts to the network.
+	 */
+	private static final int IMAGE_IO_THREADS = 3;
+	/** The decode thread count of the image pipeline. */
+	private static final int IMAGE_DECODE_THREADS = Math.max(1, Runtime
+			.getRuntime().availableProcessors());
+
+	/**
+	 * Block the stage submitting to a full queue until the queue has room, so
+	 * a slow stage holds back the stage feeding it instead of piling up work.
+	 */
+	private static final RejectedExecutionHandler BLOCKING_POLICY = new RejectedExecutionHandler() {
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+			try {
+				executor.getQueue().put(r);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	};
+
+	/**
+	 * The image I/O stage, which reads the external storage and downloads.
+	 * A request is rejected when its queue is full, so the UI thread never
+	 * blocks.
+	 */
+	private static final ThreadPoolExecutor IMAGE_IO_EXECUTOR = new ThreadPoolExecutor(
+			IMAGE_IO_THREADS, IMAGE_IO_THREADS, 60, TimeUnit.SECONDS,
+			new ArrayBlockingQueue<Runnable>(64));
+	/**
+	 * Set the I/O thread count of the image pipeline, which is the count of
+	 * the image downloads at the same time.
+	 * 
+	 * @param threads
+	 *            The thread count.
+	 * @author Luo Yinzhuo
+	 */
+	static void setImageThreads(int threads) {
+		// The core size must never exceed the maximum size.
+		if (threads > IMAGE_IO_EXECUTOR.getMaximumPoolSize()) {
+			IMAGE_IO_EXECUTOR.setMaximumPoolSize(threads);
+			IMAGE_IO_EXECUTOR.setCorePoolSize(threads);
+		} else {
+			IMAGE_IO_EXECUTOR.setCorePoolSize(threads);
+			IMAGE_IO_EXECUTOR.setMaximumPoolSize(threads);
+		}
+	}
+
+	/** The image decode stage, sized to the CPU count. */
+	private static final ThreadPoolExecutor IMAGE_DECODE_EXECUTOR = new ThreadPoolExecutor(
+			IMAGE_DECODE_THREADS, IMAGE_DECODE_THREADS, 60, TimeUnit.SECONDS,
+			new ArrayBlockingQueue<Runnable>(IMAGE_DECODE_THREADS * 2),
+			BLOCKING_POLICY);
+	/** The write-behind stage to store the downloaded images. */
+	private static final ThreadPoolExecutor IMAGE_WRITE_EXECUTOR = new ThreadPoolExecutor(
+			1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(16),
+			BLOCKING_POLICY);
+
+	/** The estimated byte count of an entry in a string keyed cache. */
+	private static final int ESTIMATED_ENTRY_SIZE = 48;
+
+	/**
+	 * Trim the decoded images and previews from the least recently used, and
+	 * the average colors when all of them are released. The evicted bitmaps
+	 * are released to the pool, which trims them by its own policy.
+	 */
+	private static final Trimmable IMAGE_CACHE_TRIMMABLE = new Trimmable() {
+		@Override
+		public long trim(float retain) {
+			long reclaimed = 0;
+			synchronized (BITMAP_LRU_CACHE) {
+				for (String key : getEldestKeys(BITMAP_LRU_CACHE, retain)) {
+					final Bitmap bitmap = BITMAP_LRU_CACHE.remove(key);
+					reclaimed += bitmap.getRowBytes() * bitmap.getHeight();
+					BITMAP_POOL.release(bitmap);
+				}
+				for (String key : getEldestKeys(PREVIEW_LRU_CACHE, retain)) {
+					final Bitmap preview = PREVIEW_LRU_CACHE.remove(key);
+					reclaimed += preview.getRowBytes() * preview.getHeight();
+					BITMAP_POOL.release(preview);
+				}
+			}
+
+			if (retain == 0) {
+				synchronized (IMAGE_COLOR_LRU_CACHE) {
+					for (String imageURL : IMAGE_COLOR_LRU_CACHE.keySet()) {
+						reclaimed += imageURL.length() * 2
+								+ ESTIMATED_ENTRY_SIZE;
+					}
+					IMAGE_COLOR_LRU_CACHE.clear();
+				}
+			}
+			return reclaimed;
+		}
+	};
+
+	static {
+		// The waiting image requests are not trimmed, since they hold little
+		// memory and failing them makes their pages redraw to request again.
+		final MemoryCoordinator coordinator = MemoryCoordinator.getInstance();
+		coordinator.register("news images", IMAGE_CACHE_TRIMMABLE,
+				TrimPolicy.CACHE);
+		// The bitmaps released by the caches are pooled on the next loop, the
+		// pool trims to the same size again then.
+		coordinator.register("bitmap pool", BITMAP_POOL, TrimPolicy.POOL);
+	}
+
+	/**
+	 * Average the color of a bitmap over a grid of {@link #COLOR_SAMPLES} by
+	 * {@link #COLOR_SAMPLES} pixels spread evenly on it, and cache it for the
+	 * image unless a color is cached for it already and not to be replaced.
+	 * 
+	 * @param imageURL
+	 *            The image URL.
+	 * @param bitmap
+	 *            The decoded image.
+	 * @param replace
+	 *            True to replace the color cached before, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	private static void cacheImageColor(String imageURL, Bitmap bitmap,
+			boolean replace) {
+		if (!replace) {
+			synchronized (IMAGE_COLOR_LRU_CACHE) {
+				if (IMAGE_COLOR_LRU_CACHE.containsKey(imageURL)) {
+					return;
+				}
+			}
+		}
+
+		final int width = bitmap.getWidth();
+		final int height = bitmap.getHeight();
+		int red = 0;
+		int green = 0;
+		int blue = 0;
+		for (int i = 0; i < COLOR_SAMPLES; i++) {
+			final int y = (2 * i + 1) * height / (2 * COLOR_SAMPLES);
+			for (int j = 0; j < COLOR_SAMPLES; j++) {
+				final int x = (2 * j + 1) * width / (2 * COLOR_SAMPLES);
+				final int pixel = bitmap.getPixel(x, y);
+				red += Color.red(pixel);
+				green += Color.green(pixel);
+				blue += Color.blue(pixel);
+			}
+		}
+		final int count = COLOR_SAMPLES * COLOR_SAMPLES;
+		final int color = Color.rgb(red / count, green / count, blue / count);
+		synchronized (IMAGE_COLOR_LRU_CACHE) {
+			IMAGE_COLOR_LRU_CACHE.put(imageURL, color);
+		}
+	}
+
+	/**
+	 * Get the least recently used keys of a cache beyond a fraction of it.
+	 * 
+	 * @param cache
+	 *            The access ordered cache.
+	 * @param retain
+	 *            The fraction to keep.
+	 * @return The keys to evict, from the least recently used.
+	 * @author Luo Yinzhuo
+	 */
+	private static List<String> getEldestKeys(Map<String, ?> cache,
+			float retain) {
+		final List<String> keys = new ArrayList<String>(cache.keySet());
+		return keys.subList(0, keys.size() - (int) (keys.size() * retain));
+	}
+
+	/**
+	 * The I/O stage of a news image request, which reads the image variant
+	 * from the external storage or downloads it, then passes it to the decode
+	 * stage.
 	 * 
 	 * @author Luo Yinzhuo
 	 */
 	private static class NewsImageCommand implements Runnable {
 		/** The {@link NewsPage} index. */
 		private final int mPage;
-		/** The image URL. */
-		private final String mImageURL;
+		/** The image variant. */
+		private final ImageVariant mVariant;
 		/** The request listener. */
 		private final NewsImageRequestListener mListener;
+		/** The status code of the last response, 0 if none. */
+		private int mStatusCode;
 
 		/**
 		 * Construct a new instance.
 		 * 
 		 * @param page
 		 *            The {@link NewsPage} index.
-		 * @param imageURL
-		 *            The image URL.
+		 * @param variant
+		 *            The image variant.
 		 * @param listener
 		 *            The request listener.
 		 */
-		private NewsImageCommand(int page, String imageURL,
+		private NewsImageCommand(int page, ImageVariant variant,
 				NewsImageRequestListener listener) {
 			mPage = page;
-			mImageURL = imageURL;
+			mVariant = variant;
 			mListener = listener;
 		}
 
 		@Override
 		public void run() {
-			ByteArrayBuffer byteArrayBuffer = readImageFromExternalStorage(mImageURL);
+			byte[] data = readImageFromExternalStorage(mVariant.getKey());
+			boolean downloaded = false;
+
+			if (data == null) {
+				final String requestURL = mVariant.getRequestURL();
+				data = download(requestURL);
+				if (data == null && mStatusCode != 0
+						&& !requestURL.equals(mVariant.getImageURL())) {
+					// The server rejects the variant, fall back to the original.
+					data = download(mVariant.getImageURL());
+					if (data != null) {
+						mVariant.onRejected();
+					}
+				}
+				downloaded = data != null;
+			}
 
-			if (byteArrayBuffer == null) {
-				HttpGet request = new HttpGet(mImageURL);
+			if (data != null) {
+				IMAGE_DECODE_EXECUTOR.execute(new NewsImageDecodeCommand(
+						mPage, mVariant, mListener, data, downloaded));
+			} else {
+				finishImageRequest(mVariant.getKey());
+				mListener.onNewsImageResponseFailed(mPage,
+						mVariant.getImageURL());
+			}
+		}
 
-				try {
-					HttpResponse response = HTTP_CLIENT.execute(request);
-					byteArrayBuffer = readImageFromHttpResponse(response);
-				} catch (ClientProtocolException e) {
-					e.printStackTrace();
-				} catch (IOException e) {
-					e.printStackTrace();
+		/**
+		 * Download the image.
+		 * 
+		 * @param url
+		 *            The request URL.
+		 * @return The image data, or null if it fails.
+		 * @author Luo Yinzhuo
+		 */
+		private byte[] download(String url) {
+			mStatusCode = 0;
+			try {
+				final long start = SystemClock.uptimeMillis();
+				HttpResponse response = HTTP_CLIENT.execute(mVariant
+						.createRequest(url));
+				mStatusCode = response.getStatusLine().getStatusCode();
+				if (mStatusCode != HttpStatus.SC_OK) {
+					if (response.getEntity() != null) {
+						response.getEntity().consumeContent();
+					}
+					return null;
 				}
+
+				ByteArrayBuffer byteArrayBuffer = readImageFromHttpResponse(
+						response, this, start);
+				if (byteArrayBuffer != null) {
+					return byteArrayBuffer.toByteArray();
+				}
+			} catch (ClientProtocolException e) {
+				e.printStackTrace();
+			} catch (IOException e) {
+				e.printStackTrace();
+			} catch (IllegalArgumentException e) {
+				e.printStackTrace();
 			}
+			return null;
+		}
 
-			if (byteArrayBuffer != null) {
-				Bitmap bitmap = BitmapFactory.decodeByteArray(
-						byteArrayBuffer.toByteArray(), 0,
-						byteArrayBuffer.length());
-				if (bitmap != null) {
-					writeImageToExternalStorage(mImageURL,
-							byteArrayBuffer.toByteArray());
+		/**
+		 * Decode a preview from the part downloaded so far, unless the decode
+		 * stage is busy.
+		 * 
+		 * @param data
+		 *            The partial image data.
+		 * @author Luo Yinzhuo
+		 */
+		private void preview(final byte[] data) {
+			if (IMAGE_DECODE_EXECUTOR.getQueue().remainingCapacity() == 0) {
+				return;
+			}
 
-					BITMAP_LRU_CACHE.put(mImageURL, bitmap);
-					mListener.onNewsImageResponseSuccess(mPage);
-					IMAGE_REQUEST_SET.remove(mImageURL);
-					return;
+			IMAGE_DECODE_EXECUTOR.execute(new Runnable() {
+				@Override
+				public void run() {
+					BitmapFactory.Options options = new BitmapFactory.Options();
+					options.inSampleSize = PREVIEW_SAMPLE_SIZE;
+					Bitmap preview = BitmapFactory.decodeByteArray(data, 0,
+							data.length, options);
+					if (preview == null) {
+						return;
+					}
+
+					// A rough color until the full image replaces it.
+					cacheImageColor(mVariant.getImageURL(), preview, false);
+
+					final String key = mVariant.getKey();
+					synchronized (BITMAP_LRU_CACHE) {
+						if (BITMAP_LRU_CACHE.containsKey(key)) {
+							// The full image is decoded first.
+							BITMAP_POOL.release(preview);
+							return;
+						}
+						PREVIEW_LRU_CACHE.put(key, preview);
+					}
+					mListener.onNewsImagePreviewSuccess(mPage);
+				}
+			});
+		}
+	}
+
+	/**
+	 * The decode stage of a news image request, which decodes and caches the
+	 * image, calls back at once and leaves the write to the write-behind
+	 * stage.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private static class NewsImageDecodeCommand implements Runnable {
+		/** The {@link NewsPage} index. */
+		private final int mPage;
+		/** The image variant. */
+		private final ImageVariant mVariant;
+		/** The request listener. */
+		private final NewsImageRequestListener mListener;
+		/** The image data. */
+		private final byte[] mData;
+		/** The flag to identify the image is downloaded. */
+		private final boolean mDownloaded;
+
+		/**
+		 * Construct a new instance.
+		 * 
+		 * @param page
+		 *            The {@link NewsPage} index.
+		 * @param variant
+		 *            The image variant.
+		 * @param listener
+		 *            The request listener.
+		 * @param data
+		 *            The image data.
+		 * @param downloaded
+		 *            True if the image is downloaded, otherwise false.
+		 */
+		private NewsImageDecodeCommand(int page, ImageVariant variant,
+				NewsImageRequestListener listener, byte[] data,
+				boolean downloaded) {
+			mPage = page;
+			mVariant = variant;
+			mListener = listener;
+			mData = data;
+			mDownloaded = downloaded;
+		}
+
+		@Override
+		public void run() {
+			final String key = mVariant.getKey();
+			Bitmap bitmap = BITMAP_POOL.decodeByteArray(mData,
+					mVariant.getWidth(), mVariant.getHeight());
+			if (bitmap == null) {
+				finishImageRequest(key);
+				mListener.onNewsImageResponseFailed(mPage,
+						mVariant.getImageURL());
+				return;
+			}
+
+			cacheImageColor(mVariant.getImageURL(), bitmap, true);
+
+			synchronized (BITMAP_LRU_CACHE) {
+				BITMAP_LRU_CACHE.put(key, bitmap);
+				Bitmap preview = PREVIEW_LRU_CACHE.remove(key);
+				if (preview != null) {
+					BITMAP_POOL.release(preview);
 				}
 			}
-			IMAGE_REQUEST_SET.remove(mImageURL);
-			mListener.onNewsImageResponseFailed(mPage, mImageURL);
+			finishImageRequest(key);
+			mListener.onNewsImageResponseSuccess(mPage);
+
+			if (mDownloaded) {
+				IMAGE_WRITE_EXECUTOR.execute(new Runnable() {
+					@Override
+					public void run() {
+						writeImageToExternalStorage(key, mData);
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Mark an image request as finished, so it could be accepted again.
+	 * 
+	 * @param key
+	 *            The key of the image variant.
+	 * @author Luo Yinzhuo
+	 */
+	private static void finishImageRequest(String key) {
+		synchronized (IMAGE_REQUEST_SET) {
+			IMAGE_REQUEST_SET.remove(key);
 		}
 	}
 
 	/** The external storage folder to store downloaded images. */
 	private static final String EXTERNAL_STORAGE_FOLDER = "Shijingshan";
 
+	/** The image file expired time. */
+	private static final long IMAGE_EXPIRED = 7 * 24 * 60 * 60 * 1000;
+
+	/** The pack of the small images in the external storage folder. */
+	private static final ImagePack IMAGE_PACK = new ImagePack(new File(
+			Environment.getExternalStorageDirectory(),
+			EXTERNAL_STORAGE_FOLDER), IMAGE_EXPIRED);
+
 	/**
-	 * Write the image to external storage for reuse.
+	 * Write the image to external storage for reuse. The small image is
+	 * appended to the {@link #IMAGE_PACK}, the others are written to their own
+	 * files.
 	 * 
 	 * @param imageURL
 	 *            The image URL.
@@ -2168,6 +2883,10 @@ public final class NetworkService {
 	 * @author Luo Yinzhuo
 	 */
 	private static void writeImageToExternalStorage(String imageURL, byte[] data) {
+		if (IMAGE_PACK.put(imageURL, data, System.currentTimeMillis())) {
+			return;
+		}
+
 		if (Environment.MEDIA_MOUNTED.equals(Environment
 				.getExternalStorageState())) {
 			File externalStorage = new File(
@@ -2210,11 +2929,10 @@ public final class NetworkService {
 		}
 	}
 
-	/** The image file expired time. */
-	private static final long IMAGE_EXPIRED = 7 * 24 * 60 * 60 * 1000;
-
 	/**
-	 * Read the image from external storage.
+	 * Read the image from external storage. The {@link #IMAGE_PACK} is looked
+	 * up first, then the image's own file. A small image file written before
+	 * the pack is moved into it.
 	 * 
 	 * @param imageURL
 	 *            The image URL.
@@ -2222,7 +2940,12 @@ public final class NetworkService {
 	 * 
 	 * @author Luo Yinzhuo
 	 */
-	private static ByteArrayBuffer readImageFromExternalStorage(String imageURL) {
+	private static byte[] readImageFromExternalStorage(String imageURL) {
+		byte[] data = IMAGE_PACK.get(imageURL);
+		if (data != null) {
+			return data;
+		}
+
 		String externalStorageState = Environment.getExternalStorageState();
 		if (Environment.MEDIA_MOUNTED.equals(externalStorageState)
 				|| Environment.MEDIA_MOUNTED_READ_ONLY
@@ -2239,62 +2962,80 @@ public final class NetworkService {
 
 			File image = new File(externalStorage, Integer.toHexString(imageURL
 					.hashCode()) + suffix);
-			if (image.exists()
-					&& System.currentTimeMillis() - image.lastModified() < IMAGE_EXPIRED) {
+			final long lastModified = image.lastModified();
+			if (lastModified > 0
+					&& System.currentTimeMillis() - lastModified < IMAGE_EXPIRED) {
 
-				BufferedInputStream bufferedInputStream = null;
+				DataInputStream dataInputStream = null;
 				try {
-					bufferedInputStream = new BufferedInputStream(
-							new FileInputStream(image));
-
-					ByteArrayBuffer byteArrayBuffer = new ByteArrayBuffer(1024);
-					int current = bufferedInputStream.read();
-					while (current != -1) {
-						byteArrayBuffer.append(current);
-						current = bufferedInputStream.read();
-					}
-					return byteArrayBuffer;
-
+					dataInputStream = new DataInputStream(new FileInputStream(
+							image));
+					data = new byte[(int) image.length()];
+					dataInputStream.readFully(data);
 				} catch (FileNotFoundException e) {
 					e.printStackTrace();
+					data = null;
 				} catch (IOException e) {
 					e.printStackTrace();
+					data = null;
 				} finally {
-					if (bufferedInputStream != null) {
+					if (dataInputStream != null) {
 						try {
-							bufferedInputStream.close();
+							dataInputStream.close();
 						} catch (IOException e) {
 							e.printStackTrace();
 						}
 					}
 				}
+
+				if (data != null
+						&& IMAGE_PACK.put(imageURL, data, lastModified)) {
+					image.delete();
+				}
+				return data;
 			}
 		}
 		return null;
 	}
 
 	/**
-	 * Read the image data from HTTP response.
+	 * Read the image data from HTTP response. A preview is requested once the
+	 * first {@link #PREVIEW_SIZE} bytes of a larger image arrive.
 	 * 
 	 * @param response
 	 *            The HTTP response.
+	 * @param command
+	 *            The {@link NewsImageCommand} to decode the preview.
+	 * @param start
+	 *            The time the request starts, in the uptime milliseconds.
 	 * @return The image data if exist, otherwise null.
 	 * 
 	 * @author Luo Yinzhuo
 	 */
 	private static ByteArrayBuffer readImageFromHttpResponse(
-			HttpResponse response) {
+			HttpResponse response, NewsImageCommand command, long start) {
 		BufferedInputStream bufferedInputStream = null;
 		try {
+			final long contentLength = response.getEntity().getContentLength();
+			boolean previewed = contentLength >= 0
+					&& contentLength < PREVIEW_SIZE * 2;
 			bufferedInputStream = new BufferedInputStream(response.getEntity()
 					.getContent());
 
-			ByteArrayBuffer byteArrayBuffer = new ByteArrayBuffer(1024);
-			int current = bufferedInputStream.read();
-			while (current != -1) {
-				byteArrayBuffer.append(current);
-				current = bufferedInputStream.read();
+			ByteArrayBuffer byteArrayBuffer = new ByteArrayBuffer(
+					contentLength > 0 ? (int) contentLength : 4096);
+			byte[] buffer = new byte[4096];
+			int count = bufferedInputStream.read(buffer);
+			while (count != -1) {
+				byteArrayBuffer.append(buffer, 0, count);
+				if (!previewed && byteArrayBuffer.length() >= PREVIEW_SIZE) {
+					previewed = true;
+					command.preview(byteArrayBuffer.toByteArray());
+				}
+				count = bufferedInputStream.read(buffer);
 			}
+			NetworkPolicy.addSample(byteArrayBuffer.length(),
+					SystemClock.uptimeMillis() - start);
 			return byteArrayBuffer;
 
 		} catch (IllegalStateException e) {
@@ -2314,25 +3055,122 @@ public final class NetworkService {
 	}
 
 	/**
-	 * Get the news image.
+	 * Get the cached variant of an image nearest to a width, which is the
+	 * narrowest one at least as wide, otherwise the widest one. The caller
+	 * must hold the lock of the {@link #BITMAP_LRU_CACHE}.
+	 * 
+	 * @param imageURL
+	 *            The image URL.
+	 * @param width
+	 *            The width wanted.
+	 * @return The nearest variant, or null if none is cached.
+	 * @author Luo Yinzhuo
+	 */
+	private static Bitmap getNearestNewsImage(String imageURL, int width) {
+		final String prefix = imageURL + "#";
+		Bitmap nearest = null;
+		for (Map.Entry<String, Bitmap> entry : BITMAP_LRU_CACHE.entrySet()) {
+			final String key = entry.getKey();
+			if (!key.equals(imageURL) && !key.startsWith(prefix)) {
+				continue;
+			}
+
+			final Bitmap bitmap = entry.getValue();
+			if (nearest == null) {
+				nearest = bitmap;
+			} else if (nearest.getWidth() < width) {
+				if (bitmap.getWidth() > nearest.getWidth()) {
+					nearest = bitmap;
+				}
+			} else if (bitmap.getWidth() >= width
+					&& bitmap.getWidth() < nearest.getWidth()) {
+				nearest = bitmap;
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Get the news image, or its preview while the full image is loading.
 	 * 
 	 * @param page
 	 *            The {@link NewsPage} index.
 	 * @param imageURL
 	 *            The image URL.
+	 * @param width
+	 *            The width the image is drawn in.
+	 * @param height
+	 *            The height the image is drawn in.
 	 * @param listener
 	 *            The request listener.
-	 * @return The bitmap requested if exist in the cache, otherwise null.
+	 * @return The bitmap requested if exist in the cache, or another variant
+	 *         of the image at least as wide, otherwise a narrower variant or
+	 *         the preview while the bitmap is loading, otherwise null. It's
+	 *         scaled down on a slow network by the {@link NetworkPolicy}.
+	 * @author Luo Yinzhuo
+	 */
+	public static Bitmap getNewsImage(int page, String imageURL, int width,
+			int height, NewsImageRequestListener listener) {
+		final float scale = NetworkPolicy.getNetworkClass().getImageScale();
+		final ImageVariant variant = new ImageVariant(imageURL,
+				Math.round(width * scale), Math.round(height * scale));
+		final String key = variant.getKey();
+		Bitmap bitmap;
+		Bitmap preview;
+		synchronized (BITMAP_LRU_CACHE) {
+			bitmap = BITMAP_LRU_CACHE.get(key);
+			preview = null;
+			if (bitmap == null) {
+				// A change of the network class changes the size, so reuse the
+				// variant of the previous class rather than download again.
+				bitmap = getNearestNewsImage(imageURL, variant.getWidth());
+				if (bitmap != null
+						&& (variant.getWidth() == 0 || bitmap.getWidth() < variant
+								.getWidth())) {
+					preview = bitmap;
+					bitmap = null;
+				}
+			}
+			if (bitmap == null && PREVIEW_LRU_CACHE.containsKey(key)) {
+				preview = PREVIEW_LRU_CACHE.get(key);
+			}
+		}
+		if (bitmap != null) {
+			return bitmap;
+		}
+
+		synchronized (IMAGE_REQUEST_SET) {
+			if (!IMAGE_REQUEST_SET.add(key)) {
+				return preview;
+			}
+		}
+		try {
+			IMAGE_IO_EXECUTOR.execute(new NewsImageCommand(page, variant,
+					listener));
+		} catch (RejectedExecutionException e) {
+			// The pipeline is full, the image is requested again on redraw.
+			finishImageRequest(key);
+		}
+		return preview;
+	}
+
+	/**
+	 * Get the average color of a news image decoded before, to draw in place
+	 * of the image while it's loading.
+	 * 
+	 * @param imageURL
+	 *            The image URL.
+	 * @param defaultColor
+	 *            The color returned if the image is not decoded before.
+	 * @return The average color of the image if known, otherwise the default
+	 *         color.
 	 * @author Luo Yinzhuo
 	 */
-	public static Bitmap getNewsImage(int page, String imageURL,
-			NewsImageRequestListener listener) {
-		Bitmap bitmap = BITMAP_LRU_CACHE.get(imageURL);
-		if (bitmap == null && !IMAGE_REQUEST_SET.contains(imageURL)) {
-			IMAGE_REQUEST_SET.add(imageURL);
-			EXECUTOR.execute(new NewsImageCommand(page, imageURL, listener));
+	public static int getNewsImageColor(String imageURL, int defaultColor) {
+		synchronized (IMAGE_COLOR_LRU_CACHE) {
+			Integer color = IMAGE_COLOR_LRU_CACHE.get(imageURL);
+			return color != null ? color : defaultColor;
 		}
-		return bitmap;
 	}
 
 	/**
@@ -2342,6 +3180,8 @@ public final class NetworkService {
 	 * @author Luo Yinzhuo
 	 */
 	public static long getExternalStorageUsedSpace() {
+		final long start = MainThreadMonitor.start();
+		long usedSpace = -1;
 		String externalStorageState = Environment.getExternalStorageState();
 		if (Environment.MEDIA_MOUNTED.equals(externalStorageState)
 				|| Environment.MEDIA_MOUNTED_READ_ONLY
@@ -2352,14 +3192,15 @@ public final class NetworkService {
 
 			if (externalStorage.exists()) {
 				File[] files = externalStorage.listFiles();
-				long usedSpace = 0;
+				usedSpace = 0;
 				for (File file : files) {
 					usedSpace += file.length();
 				}
-				return usedSpace;
 			}
 		}
-		return -1;
+		MainThreadMonitor.finish(MainThreadMonitor.Type.DISK_READ,
+				"external storage used space", start);
+		return usedSpace;
 	}
 
 	/**
@@ -2368,6 +3209,8 @@ public final class NetworkService {
 	 * @author Luo Yinzhuo
 	 */
 	public static void clearExternalStorage() {
+		final long start = MainThreadMonitor.start();
+		IMAGE_PACK.clear();
 		if (Environment.MEDIA_MOUNTED.equals(Environment
 				.getExternalStorageState())) {
 			File externalStorage = new File(
@@ -2381,6 +3224,8 @@ public final class NetworkService {
 				}
 			}
 		}
+		MainThreadMonitor.finish(MainThreadMonitor.Type.DISK_WRITE,
+				"clear external storage", start);
 	}
 
 }
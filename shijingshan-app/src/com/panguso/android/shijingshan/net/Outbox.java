@@ -0,0 +1,277 @@
+package com.panguso.android.shijingshan.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * The persistent outbox of the mutating requests. A request is recorded with
+ * an idempotency key before it is sent, and only deleted once the server has
+ * answered it, so it survives network failures and process deaths. A request
+ * the server rejects is moved to the rejected table with the server's answer,
+ * which keeps the latest {@link #MAX_REJECTED} of them for diagnosis.
+ * 
+ * @author Luo Yinzhuo
+ */
+final class Outbox extends SQLiteOpenHelper {
+	/** The type of an acknowledge notification request. */
+	static final int TYPE_ACKNOWLEDGE_NOTIFICATION = 0;
+	/** The type of a suggestion request. */
+	static final int TYPE_SUGGESTION = 1;
+
+	/** The database name. */
+	private static final String DATABASE_NAME = "outbox.db";
+	/** The database version. */
+	private static final int DATABASE_VERSION = 2;
+
+	/** The outbox table. */
+	private static final String TABLE = "outbox";
+	/** The rejected request table. */
+	private static final String TABLE_REJECTED = "rejected";
+	/** The sequence column, which keeps the recording order. */
+	private static final String COLUMN_SEQUENCE = "sequence";
+	/** The account column. */
+	private static final String COLUMN_ACCOUNT = "account";
+	/** The type column. */
+	private static final String COLUMN_TYPE = "type";
+	/** The idempotency key column. */
+	private static final String COLUMN_REQUEST_ID = "request_id";
+	/** The payload column. */
+	private static final String COLUMN_PAYLOAD = "payload";
+	/** The server answer column of a rejected request. */
+	private static final String COLUMN_REASON = "reason";
+	/** The rejecting time column of a rejected request. */
+	private static final String COLUMN_TIME = "time";
+
+	/** The maximum rejected request count kept. */
+	private static final int MAX_REJECTED = 100;
+
+	/**
+	 * A request recorded in the {@link Outbox}.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	static final class Record {
+		/** The sequence. */
+		final long mSequence;
+		/** The account. */
+		final String mAccount;
+		/** The type. */
+		final int mType;
+		/** The idempotency key. */
+		final String mRequestId;
+		/** The payload. */
+		final String mPayload;
+
+		/**
+		 * Construct a new instance.
+		 * 
+		 * @param sequence
+		 *            The sequence.
+		 * @param account
+		 *            The account.
+		 * @param type
+		 *            The type.
+		 * @param requestId
+		 *            The idempotency key.
+		 * @param payload
+		 *            The payload.
+		 */
+		private Record(long sequence, String account, int type,
+				String requestId, String payload) {
+			mSequence = sequence;
+			mAccount = account;
+			mType = type;
+			mRequestId = requestId;
+			mPayload = payload;
+		}
+	}
+
+	/** The single instance. */
+	private static Outbox SINGLE_INSTANCE;
+
+	/**
+	 * Get the single {@link Outbox} instance.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @return The single {@link Outbox} instance.
+	 * @author Luo Yinzhuo
+	 */
+	static synchronized Outbox getInstance(Context context) {
+		if (SINGLE_INSTANCE == null) {
+			SINGLE_INSTANCE = new Outbox(context.getApplicationContext());
+		}
+		return SINGLE_INSTANCE;
+	}
+
+	/**
+	 * Construct a new instance.
+	 * 
+	 * @param context
+	 *            The application context.
+	 */
+	private Outbox(Context context) {
+		super(context, DATABASE_NAME, null, DATABASE_VERSION);
+	}
+
+	@Override
+	public void onCreate(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + TABLE + " (" + COLUMN_SEQUENCE
+				+ " INTEGER PRIMARY KEY AUTOINCREMENT, " + COLUMN_ACCOUNT
+				+ " TEXT NOT NULL, " + COLUMN_TYPE + " INTEGER NOT NULL, "
+				+ COLUMN_REQUEST_ID + " TEXT NOT NULL, " + COLUMN_PAYLOAD
+				+ " TEXT NOT NULL)");
+		createRejectedTable(db);
+	}
+
+	@Override
+	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		if (oldVersion < 2) {
+			createRejectedTable(db);
+		}
+	}
+
+	/**
+	 * Create the rejected request table.
+	 * 
+	 * @param db
+	 *            The database.
+	 * @author Luo Yinzhuo
+	 */
+	private static void createRejectedTable(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + TABLE_REJECTED + " (" + COLUMN_SEQUENCE
+				+ " INTEGER PRIMARY KEY, " + COLUMN_ACCOUNT + " TEXT NOT NULL, "
+				+ COLUMN_TYPE + " INTEGER NOT NULL, " + COLUMN_REQUEST_ID
+				+ " TEXT NOT NULL, " + COLUMN_PAYLOAD + " TEXT NOT NULL, "
+				+ COLUMN_REASON + " TEXT, " + COLUMN_TIME + " INTEGER NOT NULL)");
+	}
+
+	/**
+	 * Record a request with a new idempotency key.
+	 * 
+	 * @param account
+	 *            The account.
+	 * @param type
+	 *            The type.
+	 * @param payload
+	 *            The payload.
+	 * @author Luo Yinzhuo
+	 */
+	void add(String account, int type, String payload) {
+		ContentValues values = new ContentValues();
+		values.put(COLUMN_ACCOUNT, account);
+		values.put(COLUMN_TYPE, type);
+		values.put(COLUMN_REQUEST_ID, UUID.randomUUID().toString());
+		values.put(COLUMN_PAYLOAD, payload);
+		getWritableDatabase().insert(TABLE, null, values);
+	}
+
+	/**
+	 * Query the oldest recorded requests.
+	 * 
+	 * @param count
+	 *            The maximum request count.
+	 * @return The {@link Record} list in the recording order.
+	 * @author Luo Yinzhuo
+	 */
+	List<Record> query(int count) {
+		List<Record> records = new ArrayList<Record>();
+		Cursor cursor = getReadableDatabase().query(
+				TABLE,
+				new String[] { COLUMN_SEQUENCE, COLUMN_ACCOUNT, COLUMN_TYPE,
+						COLUMN_REQUEST_ID, COLUMN_PAYLOAD }, null, null, null,
+				null, COLUMN_SEQUENCE, String.valueOf(count));
+		try {
+			while (cursor.moveToNext()) {
+				records.add(new Record(cursor.getLong(0), cursor.getString(1),
+						cursor.getInt(2), cursor.getString(3), cursor
+								.getString(4)));
+			}
+		} finally {
+			cursor.close();
+		}
+		return records;
+	}
+
+	/**
+	 * Move the rejected requests to the rejected table, and drop the oldest
+	 * ones beyond {@link #MAX_REJECTED}.
+	 * 
+	 * @param records
+	 *            The {@link Record} list.
+	 * @param reason
+	 *            The server's answer, or the error building the request.
+	 * @author Luo Yinzhuo
+	 */
+	void reject(List<Record> records, String reason) {
+		SQLiteDatabase db = getWritableDatabase();
+		db.beginTransaction();
+		try {
+			final long time = System.currentTimeMillis();
+			for (Record record : records) {
+				ContentValues values = new ContentValues();
+				values.put(COLUMN_SEQUENCE, record.mSequence);
+				values.put(COLUMN_ACCOUNT, record.mAccount);
+				values.put(COLUMN_TYPE, record.mType);
+				values.put(COLUMN_REQUEST_ID, record.mRequestId);
+				values.put(COLUMN_PAYLOAD, record.mPayload);
+				values.put(COLUMN_REASON, reason);
+				values.put(COLUMN_TIME, time);
+				db.replace(TABLE_REJECTED, null, values);
+				db.delete(TABLE, COLUMN_SEQUENCE + " = ?",
+						new String[] { String.valueOf(record.mSequence) });
+			}
+			db.execSQL("DELETE FROM " + TABLE_REJECTED + " WHERE "
+					+ COLUMN_SEQUENCE + " NOT IN (SELECT " + COLUMN_SEQUENCE
+					+ " FROM " + TABLE_REJECTED + " ORDER BY " + COLUMN_SEQUENCE
+					+ " DESC LIMIT " + MAX_REJECTED + ")");
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * Count the rejected requests kept.
+	 * 
+	 * @return The rejected request count.
+	 * @author Luo Yinzhuo
+	 */
+	int getRejectedCount() {
+		Cursor cursor = getReadableDatabase().rawQuery(
+				"SELECT COUNT(*) FROM " + TABLE_REJECTED, null);
+		try {
+			return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Delete the answered requests.
+	 * 
+	 * @param records
+	 *            The {@link Record} list.
+	 * @author Luo Yinzhuo
+	 */
+	void remove(List<Record> records) {
+		SQLiteDatabase db = getWritableDatabase();
+		db.beginTransaction();
+		try {
+			for (Record record : records) {
+				db.delete(TABLE, COLUMN_SEQUENCE + " = ?",
+						new String[] { String.valueOf(record.mSequence) });
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+}
@@ -277,11 +277,44 @@ public final class RequestFactory {
 	 */
 	static HttpPost createNewsInfoListRequest(String serverURL, int columnID)
 			throws UnsupportedEncodingException, JSONException {
+		return createNewsInfoListRequest(serverURL, columnID, 0, 0);
+	}
+
+	/** The offset of the first news. */
+	private static final String OFFSET = "offset";
+	/** The maximum news count. */
+	private static final String COUNT = "count";
+
+	/**
+	 * Create a news info list request for a chunk of the specified column.
+	 * 
+	 * @param serverURL
+	 *            The server URL.
+	 * @param columnID
+	 *            The column ID.
+	 * @param offset
+	 *            The offset of the first news in the column.
+	 * @param count
+	 *            The maximum news count, or 0 to request the whole column.
+	 * @return The news list request.
+	 * @throws UnsupportedEncodingException
+	 *             If device doesn't support UTF-8 encode.
+	 * @throws JSONException
+	 *             If an error occurs when create JSON parameters.
+	 * @author Luo Yinzhuo
+	 */
+	static HttpPost createNewsInfoListRequest(String serverURL, int columnID,
+			int offset, int count) throws UnsupportedEncodingException,
+			JSONException {
 		HttpPost post = new HttpPost(serverURL);
 		List<NameValuePair> params = new ArrayList<NameValuePair>();
 		params.add(new BasicNameValuePair(TRANS_CODE, "202"));
 		JSONObject param = new JSONObject();
 		param.put(COLUMN_ID, columnID);
+		if (count > 0) {
+			param.put(OFFSET, offset);
+			param.put(COUNT, count);
+		}
 		params.add(new BasicNameValuePair(PARAM, param.toString()));
 		post.setEntity(new UrlEncodedFormEntity(params, HTTP.UTF_8));
 		return post;
@@ -383,6 +416,36 @@ public final class RequestFactory {
 	static HttpPost createSuggestionRequest(String serverURL, String account,
 			String contact, String content) throws JSONException,
 			UnsupportedEncodingException {
+		return createSuggestionRequest(serverURL, account, contact, content,
+				null);
+	}
+
+	/** The idempotency key of the request. */
+	private static final String REQUEST_ID = "requestId";
+
+	/**
+	 * Create a suggestion request with an idempotency key.
+	 * 
+	 * @param serverURL
+	 *            The server URL.
+	 * @param account
+	 *            The account name.
+	 * @param contact
+	 *            The contact information.
+	 * @param content
+	 *            The suggestion content.
+	 * @param requestId
+	 *            The idempotency key, or null if the request is not retried.
+	 * @return The suggestion request.
+	 * @throws JSONException
+	 *             If an error occurs when create JSON parameters.
+	 * @throws UnsupportedEncodingException
+	 *             If device doesn't support UTF-8 encode.
+	 * @author Luo Yinzhuo
+	 */
+	static HttpPost createSuggestionRequest(String serverURL, String account,
+			String contact, String content, String requestId)
+			throws JSONException, UnsupportedEncodingException {
 		HttpPost post = new HttpPost(serverURL);
 		List<NameValuePair> params = new ArrayList<NameValuePair>();
 		params.add(new BasicNameValuePair(TRANS_CODE, "301"));
@@ -390,6 +453,9 @@ public final class RequestFactory {
 		param.put(ACCOUNT, account);
 		param.put(CONTACT, contact);
 		param.put(CONTENT, content);
+		if (requestId != null) {
+			param.put(REQUEST_ID, requestId);
+		}
 		params.add(new BasicNameValuePair(PARAM, param.toString()));
 		post.setEntity(new UrlEncodedFormEntity(params, HTTP.UTF_8));
 		return post;
@@ -411,11 +477,41 @@ public final class RequestFactory {
 	 */
 	public static HttpPost createNotificationInfoListRequest(String serverURL,
 			String account) throws JSONException, UnsupportedEncodingException {
+		return createNotificationInfoListRequest(serverURL, account, null);
+	}
+
+	/** The add time of the newest notification already received. */
+	private static final String SINCE = "since";
+
+	/**
+	 * Create a notification request for the notifications added after the
+	 * specified time.
+	 * 
+	 * @param serverURL
+	 *            The server URL.
+	 * @param account
+	 *            The account name.
+	 * @param since
+	 *            The add time of the newest notification already received,
+	 *            or null to request all the notifications.
+	 * @return The notification request.
+	 * @throws JSONException
+	 *             If an error occurs when create JSON parameters.
+	 * @throws UnsupportedEncodingException
+	 *             If device doesn't support UTF-8 encode.
+	 * @author Luo Yinzhuo
+	 */
+	static HttpPost createNotificationInfoListRequest(String serverURL,
+			String account, String since) throws JSONException,
+			UnsupportedEncodingException {
 		HttpPost post = new HttpPost(serverURL);
 		List<NameValuePair> params = new ArrayList<NameValuePair>();
 		params.add(new BasicNameValuePair(TRANS_CODE, "501"));
 		JSONObject param = new JSONObject();
 		param.put(ACCOUNT, account);
+		if (since != null) {
+			param.put(SINCE, since);
+		}
 		params.add(new BasicNameValuePair(PARAM, param.toString()));
 		post.setEntity(new UrlEncodedFormEntity(params, HTTP.UTF_8));
 		return post;
@@ -443,12 +539,50 @@ public final class RequestFactory {
 	public static HttpPost createAcknowledgeNotificationRequest(
 			String serverURL, String account, String id) throws JSONException,
 			UnsupportedEncodingException {
+		List<String> ids = new ArrayList<String>();
+		ids.add(id);
+		return createAcknowledgeNotificationRequest(serverURL, account, ids,
+				null);
+	}
+
+	/**
+	 * Create a request acknowledging several notifications at once.
+	 * 
+	 * @param serverURL
+	 *            The server URL.
+	 * @param account
+	 *            The account name.
+	 * @param ids
+	 *            The notification id list.
+	 * @param requestId
+	 *            The idempotency key, or null if the request is not retried.
+	 * @return The notification request.
+	 * @throws JSONException
+	 *             If an error occurs when create JSON parameters.
+	 * @throws UnsupportedEncodingException
+	 *             If device doesn't support UTF-8 encode.
+	 * @author Luo Yinzhuo
+	 */
+	static HttpPost createAcknowledgeNotificationRequest(String serverURL,
+			String account, List<String> ids, String requestId)
+			throws JSONException, UnsupportedEncodingException {
 		HttpPost post = new HttpPost(serverURL);
 		List<NameValuePair> params = new ArrayList<NameValuePair>();
 		params.add(new BasicNameValuePair(TRANS_CODE, "503"));
 		JSONObject param = new JSONObject();
 		param.put(ACCOUNT, account);
-		param.put(NOTIFICATION_ID, id);
+
+		StringBuilder notificationIds = new StringBuilder();
+		for (String id : ids) {
+			if (notificationIds.length() > 0) {
+				notificationIds.append(COLUMN_DELIMETER);
+			}
+			notificationIds.append(id);
+		}
+		param.put(NOTIFICATION_ID, notificationIds.toString());
+		if (requestId != null) {
+			param.put(REQUEST_ID, requestId);
+		}
 		params.add(new BasicNameValuePair(PARAM, param.toString()));
 		post.setEntity(new UrlEncodedFormEntity(params, HTTP.UTF_8));
 		return post;
@@ -0,0 +1,564 @@
+package com.panguso.android.shijingshan.news;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.util.EntityUtils;
+
+import com.panguso.android.shijingshan.WebViewPool.RequestInterceptor;
+import com.panguso.android.shijingshan.net.NetworkPolicy;
+import com.panguso.android.shijingshan.net.NetworkService;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import android.webkit.WebResourceResponse;
+
+/**
+ * Store the articles for the {@link NewsActivity}, so they load fast on a
+ * slow network and could be read offline. An article's HTML and the images,
+ * scripts and style sheets it refers to are saved as separate resources in the
+ * internal cache folder, and evicted in the least recently used order when the
+ * total size exceeds {@link #MAX_SIZE}. The {@link NewsActivity} is served
+ * from the store by intercepting its requests; a resource is fetched from the
+ * network as usual if it's not stored, or if it's expired and the network is
+ * available.
+ * 
+ * @author Luo Yinzhuo
+ */
+final class ArticleStore implements RequestInterceptor {
+	/** The folder of the stored resources. */
+	private static final String FOLDER = "articles";
+	/** The suffix of a resource being written. */
+	private static final String TEMP_SUFFIX = ".tmp";
+	/** The maximum total size of the stored resources. */
+	private static final long MAX_SIZE = 8 * 1024 * 1024;
+	/** The maximum size of a single resource. */
+	private static final int MAX_RESOURCE_SIZE = 1024 * 1024;
+	/** The maximum count of the subresources stored with an article. */
+	private static final int MAX_SUBRESOURCES = 32;
+	/** The time a stored resource expires. */
+	private static final long EXPIRED = 24 * 60 * 60 * 1000;
+	/** The MIME type of the unknown resource. */
+	private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+
+	/** The pattern to find a tag referring to a subresource. */
+	private static final Pattern TAG = Pattern.compile(
+			"<(img|script|link)\\b[^>]*>", Pattern.CASE_INSENSITIVE);
+	/** The pattern to find a subresource URL in a tag. */
+	private static final Pattern ATTRIBUTE = Pattern.compile(
+			"\\b(?:src|href)\\s*=\\s*[\"']?([^\"'\\s>#]+)",
+			Pattern.CASE_INSENSITIVE);
+	/** The pattern to find a style sheet link. */
+	private static final Pattern STYLESHEET = Pattern.compile(
+			"\\brel\\s*=\\s*[\"']?stylesheet", Pattern.CASE_INSENSITIVE);
+
+	/** The executor to prefetch the articles one by one. */
+	private static final ExecutorService EXECUTOR = Executors
+			.newSingleThreadExecutor();
+
+	/** The single instance. */
+	private static ArticleStore SINGLE_INSTANCE;
+
+	/**
+	 * Get the single {@link ArticleStore} instance.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @return The single {@link ArticleStore} instance.
+	 * @author Luo Yinzhuo
+	 */
+	static synchronized ArticleStore getInstance(Context context) {
+		if (SINGLE_INSTANCE == null) {
+			SINGLE_INSTANCE = new ArticleStore(context.getApplicationContext());
+		}
+		return SINGLE_INSTANCE;
+	}
+
+	/**
+	 * A resource downloaded from the network.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private static final class Resource {
+		/** The MIME type. */
+		private final String mMimeType;
+		/** The encoding, empty if unknown. */
+		private final String mEncoding;
+		/** The data. */
+		private final byte[] mData;
+
+		/**
+		 * Construct a new instance.
+		 * 
+		 * @param mimeType
+		 *            The MIME type.
+		 * @param encoding
+		 *            The encoding, empty if unknown.
+		 * @param data
+		 *            The data.
+		 */
+		private Resource(String mimeType, String encoding, byte[] data) {
+			mMimeType = mimeType;
+			mEncoding = encoding;
+			mData = data;
+		}
+	}
+
+	/** The application context. */
+	private final Context mContext;
+	/** The folder of the stored resources. */
+	private final File mFolder;
+	/**
+	 * The stored resources' sizes by their file names, in the least recently
+	 * used order. Null until it's loaded.
+	 */
+	private LinkedHashMap<String, Long> mEntries;
+	/** The total size of the stored resources. */
+	private long mSize = 0;
+	/** The articles waiting to be prefetched. */
+	private final Set<String> mPending = new HashSet<String>();
+
+	/**
+	 * Construct a new instance.
+	 * 
+	 * @param context
+	 *            The application context.
+	 */
+	private ArticleStore(Context context) {
+		mContext = context;
+		mFolder = new File(context.getCacheDir(), FOLDER);
+	}
+
+	/**
+	 * Prefetch the articles not stored yet. It could be invoked on any thread.
+	 * 
+	 * @param articleURLs
+	 *            The article URLs.
+	 * @author Luo Yinzhuo
+	 */
+	void prefetch(List<String> articleURLs) {
+		for (final String articleURL : articleURLs) {
+			if (articleURL == null || articleURL.length() == 0) {
+				continue;
+			}
+			synchronized (this) {
+				if (!mPending.add(articleURL)) {
+					continue;
+				}
+			}
+
+			EXECUTOR.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						save(articleURL);
+					} finally {
+						synchronized (ArticleStore.this) {
+							mPending.remove(articleURL);
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Save an article and its subresources unless they are stored and fresh.
+	 * 
+	 * @param articleURL
+	 *            The article URL.
+	 * @author Luo Yinzhuo
+	 */
+	private void save(String articleURL) {
+		if (isFresh(articleURL) || !NetworkService.isOnline(mContext)) {
+			return;
+		}
+
+		final Resource article = download(articleURL);
+		if (article == null) {
+			return;
+		}
+		put(articleURL, article);
+
+		int count = 0;
+		long size = article.mData.length;
+		for (String subresourceURL : findSubresources(articleURL, article)) {
+			if (!isFresh(subresourceURL)) {
+				final Resource subresource = download(subresourceURL);
+				if (subresource != null) {
+					put(subresourceURL, subresource);
+					count++;
+					size += subresource.mData.length;
+				}
+			}
+		}
+		Log.i("ArticleStore", "prefetched " + articleURL + " with " + count
+				+ " subresources, " + size + " bytes");
+	}
+
+	/**
+	 * Find the images, scripts and style sheets an HTML article refers to.
+	 * 
+	 * @param articleURL
+	 *            The article URL to resolve the relative URLs.
+	 * @param article
+	 *            The article.
+	 * @return The absolute subresource URLs.
+	 * @author Luo Yinzhuo
+	 */
+	private static Set<String> findSubresources(String articleURL,
+			Resource article) {
+		final Set<String> subresourceURLs = new LinkedHashSet<String>();
+		if (!article.mMimeType.startsWith("text/html")) {
+			return subresourceURLs;
+		}
+
+		final String html;
+		try {
+			html = new String(article.mData,
+					article.mEncoding.length() > 0 ? article.mEncoding
+							: "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+			return subresourceURLs;
+		}
+
+		final URL base;
+		try {
+			base = new URL(articleURL);
+		} catch (MalformedURLException e) {
+			return subresourceURLs;
+		}
+
+		Matcher tag = TAG.matcher(html);
+		while (tag.find() && subresourceURLs.size() < MAX_SUBRESOURCES) {
+			if (tag.group(1).equalsIgnoreCase("link")
+					&& !STYLESHEET.matcher(tag.group()).find()) {
+				continue;
+			}
+
+			Matcher attribute = ATTRIBUTE.matcher(tag.group());
+			if (attribute.find()) {
+				try {
+					URL url = new URL(base, attribute.group(1).replace("&amp;",
+							"&"));
+					if (url.getProtocol().startsWith("http")) {
+						subresourceURLs.add(url.toString());
+					}
+				} catch (MalformedURLException e) {
+					// Skip the URL of an unknown protocol.
+				}
+			}
+		}
+		return subresourceURLs;
+	}
+
+	/**
+	 * Download a resource no larger than {@link #MAX_RESOURCE_SIZE}, as a
+	 * throughput sample of the {@link NetworkPolicy}.
+	 * 
+	 * @param url
+	 *            The resource URL.
+	 * @return The {@link Resource}, or null if it fails.
+	 * @author Luo Yinzhuo
+	 */
+	private static Resource download(String url) {
+		try {
+			final long start = SystemClock.uptimeMillis();
+			HttpResponse response = NetworkService.get(url);
+			HttpEntity entity = response.getEntity();
+			if (entity == null) {
+				return null;
+			}
+			if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK
+					|| entity.getContentLength() > MAX_RESOURCE_SIZE) {
+				entity.consumeContent();
+				return null;
+			}
+
+			final byte[] data = EntityUtils.toByteArray(entity);
+			NetworkPolicy.addSample(data.length, SystemClock.uptimeMillis()
+					- start);
+			if (data.length > MAX_RESOURCE_SIZE) {
+				return null;
+			}
+
+			String mimeType = null;
+			Header contentType = entity.getContentType();
+			if (contentType != null) {
+				mimeType = contentType.getValue().split(";")[0].trim();
+			}
+			if (mimeType == null || mimeType.length() == 0) {
+				mimeType = URLConnection.guessContentTypeFromName(url);
+			}
+			final String encoding = EntityUtils.getContentCharSet(entity);
+			return new Resource(mimeType != null ? mimeType
+					: DEFAULT_MIME_TYPE, encoding != null ? encoding : "", data);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Get the file of a resource.
+	 * 
+	 * @param url
+	 *            The resource URL.
+	 * @return The file.
+	 * @author Luo Yinzhuo
+	 */
+	private File getFile(String url) {
+		return new File(mFolder, Integer.toHexString(url.hashCode()));
+	}
+
+	/**
+	 * Check if a resource is stored and not expired.
+	 * 
+	 * @param url
+	 *            The resource URL.
+	 * @return True if the resource is stored and not expired, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	private boolean isFresh(String url) {
+		DataInputStream input = open(url);
+		if (input == null) {
+			return false;
+		}
+
+		try {
+			input.readUTF();
+			input.readUTF();
+			return System.currentTimeMillis() - input.readLong() < EXPIRED;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			try {
+				input.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Open a stored resource, and skip its URL.
+	 * 
+	 * @param url
+	 *            The resource URL.
+	 * @return The input positioned at the MIME type, or null if the resource
+	 *         is not stored.
+	 * @author Luo Yinzhuo
+	 */
+	private DataInputStream open(String url) {
+		final File file = getFile(url);
+		if (!file.exists()) {
+			return null;
+		}
+
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			if (url.equals(input.readUTF())) {
+				return input;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		// Another URL of the same hash code, or a broken file.
+		if (input != null) {
+			try {
+				input.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Store a resource, and evict the least recently used ones if the total
+	 * size exceeds {@link #MAX_SIZE}.
+	 * 
+	 * @param url
+	 *            The resource URL.
+	 * @param resource
+	 *            The {@link Resource}.
+	 * @author Luo Yinzhuo
+	 */
+	private void put(String url, Resource resource) {
+		if (!mFolder.exists() && !mFolder.mkdirs()) {
+			return;
+		}
+
+		final File file = getFile(url);
+		final File temp = new File(mFolder, file.getName() + TEMP_SUFFIX);
+		DataOutputStream output = null;
+		try {
+			output = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(temp)));
+			output.writeUTF(url);
+			output.writeUTF(resource.mMimeType);
+			output.writeUTF(resource.mEncoding);
+			output.writeLong(System.currentTimeMillis());
+			output.write(resource.mData);
+			output.close();
+			output = null;
+		} catch (IOException e) {
+			e.printStackTrace();
+			temp.delete();
+			return;
+		} finally {
+			if (output != null) {
+				try {
+					output.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		synchronized (this) {
+			loadEntries();
+			if (!temp.renameTo(file)) {
+				temp.delete();
+				return;
+			}
+
+			final Long oldSize = mEntries.put(file.getName(), file.length());
+			mSize += file.length() - (oldSize != null ? oldSize : 0);
+			trim();
+		}
+	}
+
+	/**
+	 * Load the stored resources in the least recently used order, which is
+	 * kept by their last modified time. Must be invoked with the lock held.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void loadEntries() {
+		if (mEntries != null) {
+			return;
+		}
+
+		mEntries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		final File[] files = mFolder.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				final long lhsTime = lhs.lastModified();
+				final long rhsTime = rhs.lastModified();
+				return lhsTime < rhsTime ? -1 : (lhsTime == rhsTime ? 0 : 1);
+			}
+		});
+		for (File file : files) {
+			if (file.getName().endsWith(TEMP_SUFFIX)) {
+				// Left by a write interrupted by the process death.
+				file.delete();
+			} else {
+				mEntries.put(file.getName(), file.length());
+				mSize += file.length();
+			}
+		}
+	}
+
+	/**
+	 * Evict the least recently used resources until the total size is no more
+	 * than {@link #MAX_SIZE}. Must be invoked with the lock held.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void trim() {
+		final Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet()
+				.iterator();
+		while (mSize > MAX_SIZE && iterator.hasNext()) {
+			final Map.Entry<String, Long> entry = iterator.next();
+			new File(mFolder, entry.getKey()).delete();
+			mSize -= entry.getValue();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Mark a resource as the most recently used one.
+	 * 
+	 * @param url
+	 *            The resource URL.
+	 * @author Luo Yinzhuo
+	 */
+	private synchronized void touch(String url) {
+		loadEntries();
+		final File file = getFile(url);
+		if (mEntries.get(file.getName()) != null) {
+			file.setLastModified(System.currentTimeMillis());
+		}
+	}
+
+	@Override
+	public WebResourceResponse interceptRequest(String url) {
+		final DataInputStream input = open(url);
+		if (input == null) {
+			return null;
+		}
+
+		try {
+			final String mimeType = input.readUTF();
+			final String encoding = input.readUTF();
+			final long time = input.readLong();
+			if (System.currentTimeMillis() - time >= EXPIRED
+					&& NetworkService.isOnline(mContext)) {
+				// Fetch the latest one, the expired one is only for offline.
+				input.close();
+				return null;
+			}
+
+			touch(url);
+			// The web view reads the data from the input and closes it.
+			return new WebResourceResponse(mimeType,
+					encoding.length() > 0 ? encoding : null, input);
+		} catch (IOException e) {
+			e.printStackTrace();
+			try {
+				input.close();
+			} catch (IOException e1) {
+				e1.printStackTrace();
+			}
+			return null;
+		}
+	}
+}
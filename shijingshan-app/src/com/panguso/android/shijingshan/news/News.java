@@ -1,12 +1,11 @@
 package com.panguso.android.shijingshan.news;
 
-import com.panguso.android.shijingshan.R;
+import com.panguso.android.shijingshan.StyleRegistry;
 import com.panguso.android.shijingshan.net.NetworkService;
 import com.panguso.android.shijingshan.net.NetworkService.NewsImageRequestListener;
 
 import android.content.Context;
 import android.content.Intent;
-import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
@@ -35,10 +34,11 @@ abstract class News {
 	 * @param newsURL
 	 *            The news URL.
 	 */
-	protected News(String newsURL, float marginHorizontal, float marginVertical) {
+	protected News(String newsURL) {
 		mNewsURL = newsURL;
-		mMarginHorizontal = marginHorizontal;
-		mMarginVertical = marginVertical;
+		StyleRegistry style = StyleRegistry.getInstance();
+		mMarginHorizontal = style.getNewsMarginHorizontal();
+		mMarginVertical = style.getNewsMarginVertical();
 	}
 
 	/**
@@ -65,6 +65,16 @@ abstract class News {
 		mStatus = status;
 	}
 
+	/**
+	 * Get the news URL.
+	 * 
+	 * @return The news URL.
+	 * @author Luo Yinzhuo
+	 */
+	final String getNewsURL() {
+		return mNewsURL;
+	}
+
 	/**
 	 * Invoked when a single tap occurs on the {@link News}.
 	 * 
@@ -136,8 +146,6 @@ abstract class TextNews extends News {
 	/**
 	 * Construct a new instance.
 	 * 
-	 * @param resources
-	 *            The {@link Resources}.
 	 * @param title
 	 *            The news title.
 	 * @param time
@@ -147,21 +155,20 @@ abstract class TextNews extends News {
 	 * @param titleTextSize
 	 *            The title text size.
 	 */
-	protected TextNews(Resources resources, String title, String time,
-			String newsURL, float titleTextSize) {
-		super(newsURL, resources.getDimension(R.dimen.news_margin_horizontal),
-				resources.getDimension(R.dimen.news_margin_vertical));
+	protected TextNews(String title, String time, String newsURL,
+			float titleTextSize) {
+		super(newsURL);
 		mTitle = title;
 		mTime = time.substring(0, time.indexOf(" "));
 		mTitleTextSize = titleTextSize;
 
-		mTitleColor = resources.getColor(R.color.text_news_title);
+		StyleRegistry style = StyleRegistry.getInstance();
+		mTitleColor = style.getTextNewsTitleColor();
 
-		mTimeColor = resources.getColor(R.color.text_news_time);
-		mTimeTextSize = resources.getDimension(R.dimen.text_news_time);
+		mTimeColor = style.getTextNewsTimeColor();
+		mTimeTextSize = style.getTextNewsTimeTextSize();
 
-		mBackgroundPress = resources
-				.getColor(R.color.text_news_background_press);
+		mBackgroundPress = style.getTextNewsBackgroundPress();
 	}
 
 	@Override
@@ -235,8 +242,6 @@ final class OneCellTextNews extends TextNews {
 	/**
 	 * Construct a new instance.
 	 * 
-	 * @param resources
-	 *            The resources.
 	 * @param title
 	 *            The news title.
 	 * @param time
@@ -244,10 +249,9 @@ final class OneCellTextNews extends TextNews {
 	 * @param newsURL
 	 *            The news URL.
 	 */
-	OneCellTextNews(Resources resources, String title, String time,
-			String newsURL) {
-		super(resources, title, time, newsURL, resources
-				.getDimension(R.dimen.one_cell_text_news_title));
+	OneCellTextNews(String title, String time, String newsURL) {
+		super(title, time, newsURL, StyleRegistry.getInstance()
+				.getOneCellTextNewsTitleTextSize());
 	}
 }
 
@@ -261,8 +265,6 @@ final class OneLineTextNews extends TextNews {
 	/**
 	 * Construct a new instance.
 	 * 
-	 * @param resources
-	 *            The resources.
 	 * @param title
 	 *            The news title.
 	 * @param time
@@ -270,10 +272,9 @@ final class OneLineTextNews extends TextNews {
 	 * @param newsURL
 	 *            The news URL.
 	 */
-	OneLineTextNews(Resources resources, String title, String time,
-			String newsURL) {
-		super(resources, title, time, newsURL, resources
-				.getDimension(R.dimen.one_line_text_news_title));
+	OneLineTextNews(String title, String time, String newsURL) {
+		super(title, time, newsURL, StyleRegistry.getInstance()
+				.getOneLineTextNewsTitleTextSize());
 	}
 }
 
@@ -291,12 +292,16 @@ final class ImageNews extends News {
 	private final float mTitleTextSize;
 	/** The image URL. */
 	private final String mImageURL;
+	/** The placeholder color. */
+	private final int mPlaceholderColor;
+
+	/** The paint to scale the image and its low resolution preview smoothly. */
+	private static final Paint BITMAP_PAINT = new Paint(
+			Paint.FILTER_BITMAP_FLAG);
 
 	/**
 	 * Construct a new instance.
 	 * 
-	 * @param resources
-	 *            The resources.
 	 * @param title
 	 *            The news title.
 	 * @param imageURL
@@ -304,14 +309,15 @@ final class ImageNews extends News {
 	 * @param newsURL
 	 *            The news URL.
 	 */
-	ImageNews(Resources resources, String title, String imageURL, String newsURL) {
-		super(newsURL, resources.getDimension(R.dimen.news_margin_horizontal),
-				resources.getDimension(R.dimen.news_margin_vertical));
+	ImageNews(String title, String imageURL, String newsURL) {
+		super(newsURL);
 		mTitle = title;
 		mImageURL = imageURL;
 
-		mTitleColor = resources.getColor(R.color.image_news_title);
-		mTitleTextSize = resources.getDimension(R.dimen.image_news_title);
+		StyleRegistry style = StyleRegistry.getInstance();
+		mTitleColor = style.getImageNewsTitleColor();
+		mTitleTextSize = style.getImageNewsTitleTextSize();
+		mPlaceholderColor = style.getImageNewsPlaceholderColor();
 	}
 
 	@Override
@@ -322,14 +328,23 @@ final class ImageNews extends News {
 	@Override
 	void draw(Canvas canvas, Rect rect, int page,
 			NewsImageRequestListener listener) {
-		Bitmap bitmap = NetworkService.getNewsImage(page, mImageURL, listener);
+		Bitmap bitmap = NetworkService.getNewsImage(page, mImageURL,
+				rect.width(), rect.height(), listener);
+		boolean drawn = false;
 		if (bitmap != null) {
 			synchronized (bitmap) {
 				if (!bitmap.isRecycled()) {
-					canvas.drawBitmap(bitmap, null, rect, null);
+					canvas.drawBitmap(bitmap, null, rect, BITMAP_PAINT);
+					drawn = true;
 				}
 			}
 		}
+		if (!drawn) {
+			// Hold the place with the image's color until it's loaded.
+			PAINT.setColor(NetworkService.getNewsImageColor(mImageURL,
+					mPlaceholderColor));
+			canvas.drawRect(rect, PAINT);
+		}
 
 		PAINT.setColor(mTitleColor);
 		PAINT.setTextSize(mTitleTextSize);
@@ -3,6 +3,8 @@
  */
 package com.panguso.android.shijingshan.news;
 
+import com.panguso.android.shijingshan.WebViewPool;
+
 import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
@@ -15,6 +17,8 @@ import android.webkit.WebView;
  * 
  */
 public class NewsActivity extends Activity {
+	/** The content. */
+	private WebView mContent;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -23,11 +27,18 @@ public class NewsActivity extends Activity {
 		Intent intent = getIntent();
 		String newsURL = intent.getStringExtra(News.KEY_NEWS_URL);
 		
-		WebView view = new WebView(this);
-		setContentView(view);
+		mContent = WebViewPool.getInstance(this).acquire(this,
+				ArticleStore.getInstance(this));
+		setContentView(mContent);
 		
-		view.getSettings().setJavaScriptEnabled(true);
-		view.loadUrl(newsURL);
+		mContent.getSettings().setJavaScriptEnabled(true);
+		mContent.loadUrl(newsURL);
+	}
+
+	@Override
+	protected void onDestroy() {
+		WebViewPool.getInstance(this).release(mContent);
+		super.onDestroy();
 	}
 
 }
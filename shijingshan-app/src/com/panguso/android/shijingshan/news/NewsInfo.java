@@ -3,8 +3,6 @@ package com.panguso.android.shijingshan.news;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.content.res.Resources;
-
 /**
  * Specific for store a {@link News}'s information.
  * 
@@ -100,16 +98,14 @@ public class NewsInfo {
 	/**
 	 * Get the {@link News} based on the {@link NewsInfo}.
 	 * 
-	 * @param resources
-	 *            The resources.
 	 * @return The {@link News}.
 	 * @author Luo Yinzhuo
 	 */
-	public News getNews(Resources resources) {
+	public News getNews() {
 		if (mImageURL.length() > 0) {
-			return new ImageNews(resources, mTitle, mImageURL, mNewsURL);
+			return new ImageNews(mTitle, mImageURL, mNewsURL);
 		} else {
-			return new OneCellTextNews(resources, mTitle, mTime, mNewsURL);
+			return new OneCellTextNews(mTitle, mTime, mNewsURL);
 		}
 	}
 
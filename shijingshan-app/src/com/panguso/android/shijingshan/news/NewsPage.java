@@ -1,145 +1,53 @@
 package com.panguso.android.shijingshan.news;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-import com.panguso.android.shijingshan.R;
+import com.panguso.android.shijingshan.StyleRegistry;
 import com.panguso.android.shijingshan.net.NetworkService.NewsImageRequestListener;
 
-import android.content.res.Resources;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.view.MotionEvent;
 
 /**
- * Represent a single page of articles.
+ * Represent a single page of articles. The page is an immutable layout
+ * snapshot built by the {@link NewsPagePacker}, so drawing it never changes
+ * the layout.
  * 
  * @author Luo Yinzhuo
  */
-public class NewsPage {
+public final class NewsPage {
 	/** The column count. */
-	private static final int COLUMN_COUNT = 2;
+	static final int COLUMN_COUNT = 2;
 	/** The row count. */
-	private static final int ROW_COUNT = 5;
+	static final int ROW_COUNT = 5;
 
-	/** The cell width. */
-	private static int CELL_WIDTH;
-	/** The cell height. */
-	private static int CELL_HEIGHT;
-
-	/**
-	 * Set the news cell width and height.
-	 * 
-	 * @param width
-	 *            The {@link NewsPageView} width.
-	 * @param height
-	 *            The {@link NewsPageView} height.
-	 * @author Luo Yinzhuo
-	 */
-	public static void setSize(int width, int height) {
-		CELL_WIDTH = width / COLUMN_COUNT;
-		CELL_HEIGHT = height / ROW_COUNT;
-	}
-
-	/** The cells. */
-	private final int[][] mCells = new int[ROW_COUNT][COLUMN_COUNT];
-	/** The delimiter color. */
-	private final int mDelimiterColor;
-	/** The delimiter stroke width. */
-	private final float mDelimiterStrokeWidth;
+	/** The news array. */
+	private final News[] mNews;
+	/** The rectangle array. */
+	private final Rect[] mRects;
+	/** The delimiter segments, four coordinates per line. */
+	private final float[] mDelimiters;
+	/** The estimated byte count of a rectangle. */
+	private static final int ESTIMATED_RECT_SIZE = 32;
 
 	/**
 	 * Construct a new instance.
 	 * 
-	 * @param Resources
-	 *            The resources.
-	 */
-	public NewsPage(Resources resources) {
-		for (int row = 0; row < ROW_COUNT; row++) {
-			for (int column = 0; column < COLUMN_COUNT; column++) {
-				mCells[row][column] = -1;
-			}
-		}
-
-		mDelimiterColor = resources.getColor(R.color.delimiter);
-		mDelimiterStrokeWidth = resources.getDimension(R.dimen.delimiter);
-	}
-
-	/** The news list. */
-	private final List<News> mNews = new ArrayList<News>();
-	/** The rectangle list. */
-	private final List<Rect> mRects = new ArrayList<Rect>();
-
-	/**
-	 * Add a {@link News} to this {@link NewsPage}.
-	 * 
 	 * @param news
-	 *            The {@link News}.
-	 * @return True if the {@link News} is added, otherwise false.
+	 *            The {@link News} list.
+	 * @param rects
+	 *            The rectangle list.
+	 * @param delimiters
+	 *            The delimiter segments, owned by the new instance.
 	 */
-	public boolean addNews(News news) {
-		int row = 0;
-		int column = 0;
-
-		if (news.hasImage()) {
-			// A news with image need 2x2 cells.
-			while (mCells[row][column] != -1
-					|| mCells[row + 1][column + 1] != -1) {
-				if (column >= COLUMN_COUNT - 2) {
-					row++;
-					column = 0;
-				} else {
-					column++;
-				}
-
-				if (row >= ROW_COUNT - 1) {
-					return false;
-				}
-			}
-
-			// Re-expand the top left news above this news to take one line
-			// area.
-			if (row > 0 && mCells[row - 1][column + 1] == -1) {
-				final int index = mCells[row - 1][column];
-				mCells[row - 1][column + 1] = index;
-				Rect rect = mRects.get(index);
-				rect.right += CELL_WIDTH;
-			}
-
-			final int index = mNews.size();
-			mCells[row][column] = index;
-			mCells[row][column + 1] = index;
-			mCells[row + 1][column] = index;
-			mCells[row + 1][column + 1] = index;
-			Rect rect = new Rect(column * CELL_WIDTH, row * CELL_HEIGHT,
-					(column + 2) * CELL_WIDTH, (row + 2) * CELL_HEIGHT);
-			mNews.add(news);
-			mRects.add(rect);
-			return true;
-		} else {
-			// A news without image only need 1x1 cell;
-			while (mCells[row][column] != -1) {
-				if (column >= COLUMN_COUNT - 1) {
-					row++;
-					column = 0;
-				} else {
-					column++;
-				}
-
-				if (row >= ROW_COUNT) {
-					return false;
-				}
-			}
-
-			final int index = mNews.size();
-			mCells[row][column] = index;
-			Rect rect = new Rect(column * CELL_WIDTH, row * CELL_HEIGHT,
-					(column + 1) * CELL_WIDTH, (row + 1) * CELL_HEIGHT);
-			mNews.add(news);
-			mRects.add(rect);
-			return true;
-		}
+	NewsPage(List<News> news, List<Rect> rects, float[] delimiters) {
+		mNews = news.toArray(new News[news.size()]);
+		mRects = rects.toArray(new Rect[rects.size()]);
+		mDelimiters = delimiters;
 	}
 
 	/** The paint shared by all the news pages. */
@@ -158,50 +66,49 @@ public class NewsPage {
 	 * @author Luo Yinzhuo
 	 */
 	public void draw(Canvas canvas, int page, NewsImageRequestListener listener) {
-		// Check whether the last news complete a single line.
-		final int count = mNews.size();
-		if (count > 0) {
-			Rect rect = mRects.get(count - 1);
-			if (rect.right < CELL_WIDTH * COLUMN_COUNT) {
-				int row_start = rect.top / CELL_HEIGHT;
-				int row_end = rect.bottom / CELL_HEIGHT;
-				int column_start = rect.right / CELL_WIDTH;
-				for (int i = row_start; i < row_end; i++) {
-					for (int j = column_start; j < COLUMN_COUNT; j++) {
-						mCells[i][j] = count - 1;
-					}
-				}
+		StyleRegistry style = StyleRegistry.getInstance();
+		PAINT.setColor(style.getDelimiterColor());
+		PAINT.setStrokeWidth(style.getDelimiterStrokeWidth());
+		canvas.drawLines(mDelimiters, PAINT);
 
-				rect.right = CELL_WIDTH * COLUMN_COUNT;
-			}
+		for (int i = 0; i < mNews.length; i++) {
+			mNews[i].draw(canvas, mRects[i], page, listener);
 		}
+	}
 
-		PAINT.setColor(mDelimiterColor);
-		PAINT.setStrokeWidth(mDelimiterStrokeWidth);
-
-		// Draw horizontal delimiters.
-		for (int i = 1; i < ROW_COUNT; i++) {
-			for (int j = 0; j < COLUMN_COUNT; j++) {
-				if (mCells[i - 1][j] != mCells[i][j]) {
-					canvas.drawLine(j * CELL_WIDTH, i * CELL_HEIGHT, (j + 1)
-							* CELL_WIDTH, i * CELL_HEIGHT, PAINT);
-				}
-			}
+	/**
+	 * Get the URLs of the articles on the page.
+	 * 
+	 * @return The article URL list.
+	 * @author Luo Yinzhuo
+	 */
+	List<String> getNewsURLs() {
+		List<String> newsURLs = new ArrayList<String>(mNews.length);
+		for (News news : mNews) {
+			newsURLs.add(news.getNewsURL());
 		}
+		return newsURLs;
+	}
 
-		// Draw vertical delimiters.
-		for (int j = 1; j < COLUMN_COUNT; j++) {
-			for (int i = 0; i < ROW_COUNT; i++) {
-				if (mCells[i][j - 1] != mCells[i][j]) {
-					canvas.drawLine(j * CELL_WIDTH, i * CELL_HEIGHT, j
-							* CELL_WIDTH, (i + 1) * CELL_HEIGHT, PAINT);
-				}
-			}
-		}
+	/**
+	 * Get the {@link News} on the page.
+	 * 
+	 * @return The {@link News} list in the order they are packed.
+	 * @author Luo Yinzhuo
+	 */
+	List<News> getNews() {
+		return Arrays.asList(mNews);
+	}
 
-		for (int i = 0; i < count; i++) {
-			mNews.get(i).draw(canvas, mRects.get(i), page, listener);
-		}
+	/**
+	 * Get the estimated byte count of the layout, without the {@link News}.
+	 * 
+	 * @return The byte count.
+	 * @author Luo Yinzhuo
+	 */
+	int getByteCount() {
+		return (mNews.length + mRects.length + mDelimiters.length) * 4
+				+ mRects.length * ESTIMATED_RECT_SIZE;
 	}
 
 	/**
@@ -212,9 +119,9 @@ public class NewsPage {
 	 * @author Luo Yinzhuo
 	 */
 	public News onDown(MotionEvent e) {
-		for (int i = 0; i < mRects.size(); i++) {
-			if (mRects.get(i).contains((int) e.getX(), (int) e.getY())) {
-				return mNews.get(i);
+		for (int i = 0; i < mRects.length; i++) {
+			if (mRects[i].contains((int) e.getX(), (int) e.getY())) {
+				return mNews[i];
 			}
 		}
 		return null;
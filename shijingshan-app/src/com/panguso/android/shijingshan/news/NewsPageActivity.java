@@ -1,7 +1,9 @@
 package com.panguso.android.shijingshan.news;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import com.panguso.android.shijingshan.R;
 import com.panguso.android.shijingshan.column.ColumnInfo;
@@ -12,6 +14,7 @@ import com.panguso.android.shijingshan.dialog.WaitingDialog;
 import com.panguso.android.shijingshan.net.NetworkService;
 import com.panguso.android.shijingshan.net.NetworkService.NewsListRequestListener;
 import com.panguso.android.shijingshan.news.NewsPageTitleBar.OnBackListener;
+import com.panguso.android.shijingshan.news.NewsPageView.OnLoadMoreListener;
 
 import android.app.Activity;
 import android.app.Dialog;
@@ -24,7 +27,7 @@ import android.os.Bundle;
  * @author Luo Yinzhuo
  */
 public class NewsPageActivity extends Activity implements OnBackListener,
-		NewsListRequestListener, OnMessageDialogListener {
+		NewsListRequestListener, OnMessageDialogListener, OnLoadMoreListener {
 	/** The waiting dialog ID. */
 	private static final int DIALOG_WAITING = 0;
 	/** The retry dialog ID. */
@@ -51,6 +54,15 @@ public class NewsPageActivity extends Activity implements OnBackListener,
 	private NewsPageView mNewsPageView;
 	/** The column id. */
 	private int mColumnId;
+	/** The {@link News} count requested per chunk. */
+	private static final int NEWS_CHUNK_SIZE = 20;
+	/** The offset of the next chunk to request. */
+	private int mNewsOffset = 0;
+	/**
+	 * The ids of the {@link News} shown, to drop the ones a chunk repeats if
+	 * the server ignores the offset.
+	 */
+	private final Set<String> mNewsIds = new HashSet<String>();
 
 	@SuppressWarnings("deprecation")
 	@Override
@@ -66,10 +78,26 @@ public class NewsPageActivity extends Activity implements OnBackListener,
 		mTitleBar.setTitle(intent.getStringExtra(Column.KEY_NAME));
 
 		mNewsPageView = (NewsPageView) findViewById(R.id.news_page);
+		mNewsPageView.setOnLoadMoreListener(this);
 
 		mColumnId = intent.getIntExtra(Column.KEY_ID, 0);
-		NetworkService.getNewsList(getResources()
-				.getString(R.string.server_url), mColumnId, this);
+		requestNewsChunk();
+	}
+
+	/**
+	 * Request the next chunk of {@link News} list from the server.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void requestNewsChunk() {
+		NetworkService.getNewsList(
+				getResources().getString(R.string.server_url), mColumnId,
+				mNewsOffset, NEWS_CHUNK_SIZE, this);
+	}
+
+	@Override
+	public void onLoadMore() {
+		requestNewsChunk();
 	}
 
 	@Override
@@ -84,17 +112,37 @@ public class NewsPageActivity extends Activity implements OnBackListener,
 	@Override
 	public void onNewsListResponseSuccess(List<NewsInfo> newsInfos,
 			List<ColumnInfo> childColumnInfos) {
-		final List<News> newses = new ArrayList<News>();
+		final List<String> ids = new ArrayList<String>(newsInfos.size());
+		final List<News> chunk = new ArrayList<News>(newsInfos.size());
 		for (NewsInfo newsInfo : newsInfos) {
-			newses.add(newsInfo.getNews(getResources()));
+			ids.add(newsInfo.getId());
+			chunk.add(newsInfo.getNews());
 		}
 
+		final int count = newsInfos.size();
 		runOnUiThread(new Runnable() {
 			@SuppressWarnings("deprecation")
 			@Override
 			public void run() {
-				mNewsPageView.initialize(newses);
-				dismissDialog(DIALOG_WAITING);
+				final List<News> newses = new ArrayList<News>(count);
+				for (int i = 0; i < count; i++) {
+					final String id = ids.get(i);
+					if (id == null || mNewsIds.add(id)) {
+						newses.add(chunk.get(i));
+					}
+				}
+
+				// A chunk adding nothing new means the server has no more, or
+				// it ignores the offset and returns the whole list again.
+				final boolean hasMore = count >= NEWS_CHUNK_SIZE
+						&& !newses.isEmpty();
+				if (mNewsOffset == 0) {
+					mNewsPageView.initialize(newses, hasMore);
+					dismissDialog(DIALOG_WAITING);
+				} else {
+					mNewsPageView.append(newses, hasMore);
+				}
+				mNewsOffset += count;
 			}
 		});
 	}
@@ -105,8 +153,12 @@ public class NewsPageActivity extends Activity implements OnBackListener,
 			@SuppressWarnings("deprecation")
 			@Override
 			public void run() {
-				dismissDialog(DIALOG_WAITING);
-				showDialog(DIALOG_RETRY);
+				if (mNewsOffset == 0) {
+					dismissDialog(DIALOG_WAITING);
+					showDialog(DIALOG_RETRY);
+				} else {
+					mNewsPageView.onLoadMoreFailed();
+				}
 			}
 		});
 	}
@@ -123,9 +175,7 @@ public class NewsPageActivity extends Activity implements OnBackListener,
 		case DIALOG_RETRY:
 			dismissDialog(DIALOG_RETRY);
 			showDialog(DIALOG_WAITING);
-			NetworkService.getNewsList(
-					getResources().getString(R.string.server_url), mColumnId,
-					this);
+			requestNewsChunk();
 			break;
 		}
 	}
@@ -0,0 +1,200 @@
+package com.panguso.android.shijingshan.news;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Rect;
+
+/**
+ * Pack {@link News} into the cells of a single {@link NewsPage}. The packer is
+ * confined to the thread which creates it, and produces the immutable
+ * {@link NewsPage} by {@link #build()}.
+ * 
+ * @author Luo Yinzhuo
+ */
+final class NewsPagePacker {
+	/** The column count. */
+	private static final int COLUMN_COUNT = NewsPage.COLUMN_COUNT;
+	/** The row count. */
+	private static final int ROW_COUNT = NewsPage.ROW_COUNT;
+
+	/** The cell width. */
+	private final int mCellWidth;
+	/** The cell height. */
+	private final int mCellHeight;
+
+	/** The cells. */
+	private final int[][] mCells = new int[ROW_COUNT][COLUMN_COUNT];
+	/** The news list. */
+	private final List<News> mNews = new ArrayList<News>();
+	/** The rectangle list. */
+	private final List<Rect> mRects = new ArrayList<Rect>();
+
+	/**
+	 * Construct a new instance.
+	 * 
+	 * @param cellWidth
+	 *            The cell width.
+	 * @param cellHeight
+	 *            The cell height.
+	 */
+	NewsPagePacker(int cellWidth, int cellHeight) {
+		mCellWidth = cellWidth;
+		mCellHeight = cellHeight;
+
+		for (int row = 0; row < ROW_COUNT; row++) {
+			for (int column = 0; column < COLUMN_COUNT; column++) {
+				mCells[row][column] = -1;
+			}
+		}
+	}
+
+	/**
+	 * Add a {@link News} to the page.
+	 * 
+	 * @param news
+	 *            The {@link News}.
+	 * @return True if the {@link News} is added, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	boolean addNews(News news) {
+		int row = 0;
+		int column = 0;
+
+		if (news.hasImage()) {
+			// A news with image need 2x2 cells.
+			while (mCells[row][column] != -1
+					|| mCells[row + 1][column + 1] != -1) {
+				if (column >= COLUMN_COUNT - 2) {
+					row++;
+					column = 0;
+				} else {
+					column++;
+				}
+
+				if (row >= ROW_COUNT - 1) {
+					return false;
+				}
+			}
+
+			// Re-expand the top left news above this news to take one line
+			// area.
+			if (row > 0 && mCells[row - 1][column + 1] == -1) {
+				final int index = mCells[row - 1][column];
+				mCells[row - 1][column + 1] = index;
+				Rect rect = mRects.get(index);
+				rect.right += mCellWidth;
+			}
+
+			final int index = mNews.size();
+			mCells[row][column] = index;
+			mCells[row][column + 1] = index;
+			mCells[row + 1][column] = index;
+			mCells[row + 1][column + 1] = index;
+			Rect rect = new Rect(column * mCellWidth, row * mCellHeight,
+					(column + 2) * mCellWidth, (row + 2) * mCellHeight);
+			mNews.add(news);
+			mRects.add(rect);
+			return true;
+		} else {
+			// A news without image only need 1x1 cell;
+			while (mCells[row][column] != -1) {
+				if (column >= COLUMN_COUNT - 1) {
+					row++;
+					column = 0;
+				} else {
+					column++;
+				}
+
+				if (row >= ROW_COUNT) {
+					return false;
+				}
+			}
+
+			final int index = mNews.size();
+			mCells[row][column] = index;
+			Rect rect = new Rect(column * mCellWidth, row * mCellHeight,
+					(column + 1) * mCellWidth, (row + 1) * mCellHeight);
+			mNews.add(news);
+			mRects.add(rect);
+			return true;
+		}
+	}
+
+	/**
+	 * Build the immutable {@link NewsPage}. No more {@link News} should be
+	 * added after this call.
+	 * 
+	 * @return The {@link NewsPage}.
+	 * @author Luo Yinzhuo
+	 */
+	NewsPage build() {
+		// Check whether the last news complete a single line.
+		final int count = mNews.size();
+		if (count > 0) {
+			Rect rect = mRects.get(count - 1);
+			if (rect.right < mCellWidth * COLUMN_COUNT) {
+				int row_start = rect.top / mCellHeight;
+				int row_end = rect.bottom / mCellHeight;
+				int column_start = rect.right / mCellWidth;
+				for (int i = row_start; i < row_end; i++) {
+					for (int j = column_start; j < COLUMN_COUNT; j++) {
+						mCells[i][j] = count - 1;
+					}
+				}
+
+				rect.right = mCellWidth * COLUMN_COUNT;
+			}
+		}
+
+		List<Float> delimiters = new ArrayList<Float>();
+		// Horizontal delimiters.
+		for (int i = 1; i < ROW_COUNT; i++) {
+			for (int j = 0; j < COLUMN_COUNT; j++) {
+				if (mCells[i - 1][j] != mCells[i][j]) {
+					addDelimiter(delimiters, j * mCellWidth, i * mCellHeight,
+							(j + 1) * mCellWidth, i * mCellHeight);
+				}
+			}
+		}
+
+		// Vertical delimiters.
+		for (int j = 1; j < COLUMN_COUNT; j++) {
+			for (int i = 0; i < ROW_COUNT; i++) {
+				if (mCells[i][j - 1] != mCells[i][j]) {
+					addDelimiter(delimiters, j * mCellWidth, i * mCellHeight,
+							j * mCellWidth, (i + 1) * mCellHeight);
+				}
+			}
+		}
+
+		float[] segments = new float[delimiters.size()];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = delimiters.get(i);
+		}
+		return new NewsPage(mNews, mRects, segments);
+	}
+
+	/**
+	 * Add a delimiter segment.
+	 * 
+	 * @param delimiters
+	 *            The delimiter coordinate list.
+	 * @param startX
+	 *            The start x.
+	 * @param startY
+	 *            The start y.
+	 * @param stopX
+	 *            The stop x.
+	 * @param stopY
+	 *            The stop y.
+	 * @author Luo Yinzhuo
+	 */
+	private static void addDelimiter(List<Float> delimiters, float startX,
+			float startY, float stopX, float stopY) {
+		delimiters.add(startX);
+		delimiters.add(startY);
+		delimiters.add(stopX);
+		delimiters.add(stopY);
+	}
+}
@@ -2,13 +2,18 @@ package com.panguso.android.shijingshan.news;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import com.panguso.android.shijingshan.MemoryCoordinator;
+import com.panguso.android.shijingshan.MemoryCoordinator.TrimPolicy;
+import com.panguso.android.shijingshan.MemoryCoordinator.Trimmable;
+import com.panguso.android.shijingshan.net.NetworkPolicy;
 import com.panguso.android.shijingshan.net.NetworkService;
 import com.panguso.android.shijingshan.net.NetworkService.NewsImageRequestListener;
 import com.panguso.android.shijingshan.news.News.Status;
 
 import android.content.Context;
-import android.content.res.Resources;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.util.AttributeSet;
@@ -23,7 +28,7 @@ import android.view.View;
  * @author Luo Yinzhuo
  */
 public class NewsPageView extends View implements NewsImageRequestListener,
-		OnGestureListener {
+		OnGestureListener, Trimmable {
 	/** The gesture detector. */
 	private final GestureDetector mGestureDetector;
 
@@ -41,50 +46,267 @@ public class NewsPageView extends View implements NewsImageRequestListener,
 		mGestureDetector.setIsLongpressEnabled(false);
 	}
 
+	/** The cell width. */
+	private int mCellWidth;
+	/** The cell height. */
+	private int mCellHeight;
+
 	@Override
 	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
-		NewsPage.setSize(w, h);
-		if (mNewsPages.size() > 0) {
-			invalidate();
-		}
+		mCellWidth = w / NewsPage.COLUMN_COUNT;
+		mCellHeight = h / NewsPage.ROW_COUNT;
+		layoutNewsPages();
+	}
+
+	/**
+	 * Interface definition for a callback to be invoked when the
+	 * {@link NewsPageView} runs out of {@link News} to lay out.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	public interface OnLoadMoreListener {
+		/**
+		 * Called when the next chunk of {@link News} is needed.
+		 * 
+		 * @author Luo Yinzhuo
+		 */
+		public void onLoadMore();
 	}
 
 	/** The {@link NewsPage} list. */
 	private final List<NewsPage> mNewsPages = new ArrayList<NewsPage>();
+	/** The {@link News} list not laid out into {@link NewsPage} yet. */
+	private final List<News> mPendingNews = new ArrayList<News>();
 	/** The news page position. */
 	private float mNewsPagePosition = 0.0f;
+	/** The {@link NewsPage} count laid out ahead of the current one. */
+	private static final int PRELOAD_PAGES = 2;
+	/** The maximum {@link NewsPage} count kept behind the current one. */
+	private static final int MAX_PAGES_BEHIND = 5;
+	/** The {@link News} of the {@link NewsPage}s recycled from the front. */
+	private final List<List<News>> mRecycledNews = new ArrayList<List<News>>();
+	/** The flag to identify the server has more {@link News}. */
+	private boolean mHasMore = false;
+	/** The flag to identify the next chunk is being loaded. */
+	private boolean mLoading = false;
+	/** The load more listener. */
+	private OnLoadMoreListener mOnLoadMoreListener;
+
+	/** The executor to pack {@link NewsPage} off the UI thread. */
+	private static final ExecutorService LAYOUT_EXECUTOR = Executors
+			.newSingleThreadExecutor();
+	/** The flag to identify a layout task is running. */
+	private boolean mLayingOut = false;
+	/** The layout generation, to drop the results of a stale layout task. */
+	private int mLayoutGeneration = 0;
+
+	/**
+	 * Set the {@link OnLoadMoreListener}.
+	 * 
+	 * @param listener
+	 *            The {@link OnLoadMoreListener}.
+	 * @author Luo Yinzhuo
+	 */
+	public void setOnLoadMoreListener(OnLoadMoreListener listener) {
+		mOnLoadMoreListener = listener;
+	}
 
 	/**
 	 * Initialization.
 	 * 
 	 * @param newses
-	 *            The {@link News} list.
-	 * 
+	 *            The first chunk of {@link News} list.
+	 * @param hasMore
+	 *            True if the server has more {@link News}, otherwise false.
 	 * @author Luo Yinzhuo
 	 */
-	public void initialize(List<News> newses) {
+	public void initialize(List<News> newses, boolean hasMore) {
 		mNewsPages.clear();
+		mPendingNews.clear();
 		mNewsPagePosition = 0;
+		mRecycledNews.clear();
+		mLoading = false;
+		mLayingOut = false;
+		mLayoutGeneration++;
+		append(newses, hasMore);
+	}
 
-		Resources resources = getResources();
-		NewsPage page = new NewsPage(resources);
-		mNewsPages.add(page);
-		for (int i = 0; i < newses.size(); i++) {
-			News news = newses.get(i);
+	/**
+	 * Append the next chunk of {@link News} list.
+	 * 
+	 * @param newses
+	 *            The {@link News} list.
+	 * @param hasMore
+	 *            True if the server has more {@link News}, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	public void append(List<News> newses, boolean hasMore) {
+		mPendingNews.addAll(newses);
+		mHasMore = hasMore;
+		mLoading = false;
+		layoutNewsPages();
+		invalidate();
+	}
 
-			if (!page.addNews(news)) {
-				page = new NewsPage(resources);
-				mNewsPages.add(page);
-				page.addNews(news);
-			}
+	/**
+	 * Invoked when the next chunk of {@link News} list failed to load. It will
+	 * be requested again when the page position changes.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	public void onLoadMoreFailed() {
+		mLoading = false;
+	}
+
+	/**
+	 * Lay out the pending {@link News} into {@link NewsPage}s on the
+	 * {@link #LAYOUT_EXECUTOR} until there are {@link #PRELOAD_PAGES} pages
+	 * ahead of the current one, and ask for the next chunk when the pending
+	 * {@link News} run out. Must be invoked on the UI thread.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void layoutNewsPages() {
+		if (mLayingOut || mCellWidth == 0 || mCellHeight == 0) {
+			return;
+		}
+
+		final int pageCount = (int) Math.floor(Math.max(mNewsPagePosition, 0))
+				+ 1 + PRELOAD_PAGES - mNewsPages.size();
+		if (pageCount <= 0) {
+			return;
 		}
+
+		if (!mPendingNews.isEmpty()) {
+			mLayingOut = true;
+			LAYOUT_EXECUTOR.execute(new LayoutTask(mLayoutGeneration,
+					new ArrayList<News>(mPendingNews), mHasMore, pageCount));
+		} else if (mHasMore && !mLoading && mOnLoadMoreListener != null) {
+			mLoading = true;
+			mOnLoadMoreListener.onLoadMore();
+		}
+	}
+
+	/**
+	 * Invoked on the UI thread when a {@link LayoutTask} completes.
+	 * 
+	 * @param generation
+	 *            The layout generation of the task.
+	 * @param pages
+	 *            The packed {@link NewsPage} list.
+	 * @param consumed
+	 *            The count of pending {@link News} packed into the pages.
+	 * @param pending
+	 *            The count of pending {@link News} the task started with.
+	 * @param more
+	 *            The flag of the server having more {@link News} the task
+	 *            started with.
+	 * @author Luo Yinzhuo
+	 */
+	private void onLayoutComplete(int generation, List<NewsPage> pages,
+			int consumed, int pending, boolean more) {
+		if (generation != mLayoutGeneration) {
+			return;
+		}
+
+		mLayingOut = false;
+		mNewsPages.addAll(pages);
+		mPendingNews.subList(0, consumed).clear();
 		invalidate();
+		schedulePrefetch();
+
+		if (pages.isEmpty()) {
+			if (more != mHasMore || mPendingNews.size() > pending) {
+				// A chunk arrived while the task was running, lay it out.
+				layoutNewsPages();
+			} else if (mHasMore && !mLoading && mOnLoadMoreListener != null) {
+				// The pending news could not fill a page, wait for more news.
+				mLoading = true;
+				mOnLoadMoreListener.onLoadMore();
+			}
+		} else {
+			layoutNewsPages();
+		}
+	}
+
+	/**
+	 * The task to pack {@link NewsPage}s off the UI thread. It only reads its
+	 * own copy of the pending {@link News} list.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private final class LayoutTask implements Runnable {
+		/** The layout generation. */
+		private final int mGeneration;
+		/** The pending {@link News} list. */
+		private final List<News> mNews;
+		/** The flag to identify the server has more {@link News}. */
+		private final boolean mMore;
+		/** The maximum {@link NewsPage} count to pack. */
+		private final int mPageCount;
+		/** The cell width. */
+		private final int mWidth = mCellWidth;
+		/** The cell height. */
+		private final int mHeight = mCellHeight;
+
+		/**
+		 * Construct a new instance.
+		 * 
+		 * @param generation
+		 *            The layout generation.
+		 * @param news
+		 *            The pending {@link News} list.
+		 * @param more
+		 *            True if the server has more {@link News}, otherwise
+		 *            false.
+		 * @param pageCount
+		 *            The maximum {@link NewsPage} count to pack.
+		 */
+		private LayoutTask(int generation, List<News> news, boolean more,
+				int pageCount) {
+			mGeneration = generation;
+			mNews = news;
+			mMore = more;
+			mPageCount = pageCount;
+		}
+
+		@Override
+		public void run() {
+			final List<NewsPage> pages = new ArrayList<NewsPage>();
+			int consumed = 0;
+			while (pages.size() < mPageCount && consumed < mNews.size()) {
+				NewsPagePacker packer = new NewsPagePacker(mWidth, mHeight);
+				int count = consumed;
+				while (count < mNews.size()
+						&& packer.addNews(mNews.get(count))) {
+					count++;
+				}
+
+				if (count == mNews.size() && mMore) {
+					// The page could take more news, wait for the next chunk.
+					break;
+				}
+				pages.add(packer.build());
+				consumed = count;
+			}
+
+			final int packed = consumed;
+			post(new Runnable() {
+				@Override
+				public void run() {
+					onLayoutComplete(mGeneration, pages, packed, mNews.size(),
+							mMore);
+				}
+			});
+		}
 	}
 
 	/** The invalidate interval. */
 	private static final int INVALIDATE_INTERVAL = 50;
 	/** The animation. */
 	private NewsPageAnimation mNewsPageAnimation;
+	/** The benchmark of the swipes. */
+	private final SwipeBenchmark mSwipeBenchmark = new SwipeBenchmark();
 
 	@Override
 	protected void onDraw(Canvas canvas) {
@@ -94,6 +316,10 @@ public class NewsPageView extends View implements NewsImageRequestListener,
 			mNewsPagePosition = mNewsPageAnimation.getPagePosition();
 			if (mNewsPageAnimation.mComplete) {
 				mNewsPageAnimation = null;
+				recycleNewsPages();
+				layoutNewsPages();
+				schedulePrefetch();
+				mSwipeBenchmark.stop();
 			} else {
 				postInvalidateDelayed(INVALIDATE_INTERVAL);
 			}
@@ -108,31 +334,197 @@ public class NewsPageView extends View implements NewsImageRequestListener,
 
 			if (left >= 0 && left < this.mNewsPages.size()) {
 				NewsPage leftPage = this.mNewsPages.get(left);
-				leftPage.draw(canvas, left, this);
+				leftPage.draw(canvas, mRecycledNews.size() + left, this);
 			}
 
 			final int right = left + 1;
 			if (right < this.mNewsPages.size()) {
 				NewsPage rightPage = this.mNewsPages.get(right);
 				canvas.translate(NewsPageView.this.getWidth(), 0);
-				rightPage.draw(canvas, right, this);
+				rightPage.draw(canvas, mRecycledNews.size() + right, this);
 			}
 
 			canvas.restore();
 		}
 	}
 
+	/**
+	 * Recycle the layouts of the {@link NewsPage}s more than
+	 * {@link #MAX_PAGES_BEHIND} behind the settled current page, so the memory
+	 * of a long reading stays bounded, and lay them out again from their
+	 * {@link News} when the current page moves back. The page indexes passed
+	 * to the image requests keep counting from the first page, so the
+	 * callbacks of the requests in flight still match.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void recycleNewsPages() {
+		final int behind = (int) Math.floor(mNewsPagePosition);
+		if (behind > MAX_PAGES_BEHIND) {
+			final List<NewsPage> recycled = mNewsPages.subList(0, behind
+					- MAX_PAGES_BEHIND);
+			for (NewsPage page : recycled) {
+				mRecycledNews.add(page.getNews());
+			}
+			mNewsPagePosition -= recycled.size();
+			recycled.clear();
+		} else if (behind < MAX_PAGES_BEHIND && !mRecycledNews.isEmpty()) {
+			// Packing is only the grid arithmetic, so the few pages are packed
+			// on the UI thread before the next swipe could reach them.
+			final List<NewsPage> restored = new ArrayList<NewsPage>();
+			while (behind + restored.size() < MAX_PAGES_BEHIND
+					&& !mRecycledNews.isEmpty()) {
+				restored.addAll(0, packNewsPages(mRecycledNews
+						.remove(mRecycledNews.size() - 1)));
+			}
+			mNewsPages.addAll(0, restored);
+			mNewsPagePosition += restored.size();
+		}
+	}
+
+	/**
+	 * Pack the {@link News} of a recycled {@link NewsPage} again.
+	 * 
+	 * @param news
+	 *            The {@link News} of the page.
+	 * @return The packed {@link NewsPage} list, a single page unless the cell
+	 *         size has changed since.
+	 * @author Luo Yinzhuo
+	 */
+	private List<NewsPage> packNewsPages(List<News> news) {
+		final List<NewsPage> pages = new ArrayList<NewsPage>();
+		int packed = 0;
+		while (packed < news.size()) {
+			NewsPagePacker packer = new NewsPagePacker(mCellWidth, mCellHeight);
+			int count = packed;
+			while (count < news.size() && packer.addNews(news.get(count))) {
+				count++;
+			}
+			if (count == packed) {
+				break;
+			}
+			pages.add(packer.build());
+			packed = count;
+		}
+		return pages;
+	}
+
+	/**
+	 * Check if a page index passed to the image requests is shown.
+	 * 
+	 * @param page
+	 *            The page index counting from the first page.
+	 * @return True if the page is shown, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	private boolean isPageShown(int page) {
+		return Math.abs(mNewsPagePosition + mRecycledNews.size() - page) < 1;
+	}
+
+	/** The delay to prefetch the articles of a settled page on Wi-Fi. */
+	private static final long PREFETCH_DELAY_WIFI = 1000L;
+	/** The delay to prefetch the articles of an idle page on other networks. */
+	private static final long PREFETCH_DELAY_IDLE = 15 * 1000L;
+
+	/**
+	 * Prefetch the articles of the current page and the pages after it, as
+	 * many as the {@link NetworkPolicy} allows.
+	 */
+	private final Runnable mPrefetch = new Runnable() {
+		@Override
+		public void run() {
+			final int page = Math.round(mNewsPagePosition);
+			final int end = Math.min(page
+					+ NetworkPolicy.getNetworkClass().getPrefetchPages(),
+					mNewsPages.size());
+			for (int i = Math.max(page, 0); i < end; i++) {
+				ArticleStore.getInstance(getContext()).prefetch(
+						mNewsPages.get(i).getNewsURLs());
+			}
+		}
+	};
+
+	/**
+	 * Schedule to prefetch the articles if the current page has settled, soon
+	 * on Wi-Fi or after it stays idle for a while on other networks. It's
+	 * canceled when the page is touched again, and never scheduled if the
+	 * {@link NetworkPolicy} allows no prefetch.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void schedulePrefetch() {
+		removeCallbacks(mPrefetch);
+		final int page = Math.round(mNewsPagePosition);
+		if (NetworkPolicy.getNetworkClass().getPrefetchPages() > 0
+				&& mNewsPageAnimation == null
+				&& Math.abs(mNewsPagePosition - page) < 1E-6 && page >= 0
+				&& page < mNewsPages.size()) {
+			postDelayed(mPrefetch,
+					NetworkService.isWifi(getContext()) ? PREFETCH_DELAY_WIFI
+							: PREFETCH_DELAY_IDLE);
+		}
+	}
+
+	@Override
+	protected void onAttachedToWindow() {
+		super.onAttachedToWindow();
+		MemoryCoordinator.getInstance().register("news pages", this,
+				TrimPolicy.SCREEN);
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		removeCallbacks(mPrefetch);
+		MemoryCoordinator.getInstance().unregister(this);
+		super.onDetachedFromWindow();
+	}
+
+	@Override
+	public long trim(float retain) {
+		// Drop the pages laid out ahead except the next one shown by a swipe,
+		// their news are laid out again when the page position moves on.
+		final int current = (int) Math.floor(Math.max(mNewsPagePosition, 0));
+		final int ahead = mNewsPages.size() - current - 2;
+		if (ahead <= 0 || mNewsPageAnimation != null) {
+			return 0;
+		}
+
+		final List<NewsPage> dropped = mNewsPages.subList(current + 2
+				+ (int) (ahead * retain), mNewsPages.size());
+		final List<News> news = new ArrayList<News>();
+		long reclaimed = 0;
+		for (NewsPage page : dropped) {
+			news.addAll(page.getNews());
+			reclaimed += page.getByteCount();
+		}
+		dropped.clear();
+		mPendingNews.addAll(0, news);
+
+		// A running layout task packs the news after the dropped ones.
+		mLayingOut = false;
+		mLayoutGeneration++;
+		return reclaimed;
+	}
+
 	@Override
 	public void onNewsImageResponseSuccess(int page) {
-		if (Math.abs(mNewsPagePosition - page) < 1) {
+		if (isPageShown(page)) {
+			postInvalidate();
+		}
+	}
+
+	@Override
+	public void onNewsImagePreviewSuccess(int page) {
+		if (isPageShown(page)) {
 			postInvalidate();
 		}
 	}
 
 	@Override
 	public void onNewsImageResponseFailed(int page, String imageURL) {
-		if (Math.abs(mNewsPagePosition - page) < 1) {
-			NetworkService.getNewsImage(page, imageURL, this);
+		if (isPageShown(page)) {
+			// Request it again at the size of its cell on the next draw.
+			postInvalidate();
 		}
 	}
 
@@ -148,6 +540,7 @@ public class NewsPageView extends View implements NewsImageRequestListener,
 
 	@Override
 	public boolean onDown(MotionEvent e) {
+		removeCallbacks(mPrefetch);
 		if (mNewsPageAnimation != null) {
 			mNewsPagePosition = mNewsPageAnimation.getPagePosition();
 			mNewsPageAnimation = null;
@@ -189,6 +582,7 @@ public class NewsPageView extends View implements NewsImageRequestListener,
 			mPressingNews.setStatus(Status.NORMAL);
 			mPressingNews = null;
 		}
+		mSwipeBenchmark.start();
 
 		final float leftEdge = 0;
 		final float rightEdge = mNewsPages.size() > 0 ? mNewsPages.size() - 1
@@ -213,6 +607,7 @@ public class NewsPageView extends View implements NewsImageRequestListener,
 			mNewsPagePosition = Math.min(estimateColumnPagePosition,
 					rightBorder);
 		}
+		layoutNewsPages();
 		invalidate();
 		return true;
 	}
@@ -0,0 +1,130 @@
+package com.panguso.android.shijingshan.news;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Measure the garbage collections during the swipes of the
+ * {@link NewsPageView}. The collection count comes from the allocation
+ * counters, and the pause time is the time a watchdog thread oversleeps,
+ * since a collection on Dalvik suspends all the threads. It's enabled by
+ * "adb shell setprop log.tag.SwipeBenchmark DEBUG", and reports every swipe
+ * and the running totals to the log. All the methods must be invoked on the
+ * UI thread.
+ * 
+ * @author Luo Yinzhuo
+ */
+final class SwipeBenchmark {
+	/** The log tag. */
+	private static final String TAG = "SwipeBenchmark";
+	/** The time the watchdog thread sleeps. */
+	private static final long TICK = 2;
+	/** The minimum oversleep counted as a pause. */
+	private static final long PAUSE_THRESHOLD = 5;
+
+	/** The running watchdog, or null if no swipe is measured. */
+	private Watchdog mWatchdog;
+	/** The swipe count. */
+	private int mSwipeCount = 0;
+	/** The total collection count. */
+	private int mTotalGcCount = 0;
+	/** The total pause time. */
+	private long mTotalPauseTime = 0;
+
+	/**
+	 * The thread to detect the pauses by oversleeping.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private static final class Watchdog extends Thread {
+		/** The flag to identify it should stop. */
+		private volatile boolean mStopped = false;
+		/** The total pause time. */
+		private long mPauseTime = 0;
+		/** The longest pause time. */
+		private long mMaxPauseTime = 0;
+
+		/** Construct a new instance. */
+		private Watchdog() {
+			super(TAG);
+		}
+
+		@Override
+		public void run() {
+			while (!mStopped) {
+				final long start = SystemClock.uptimeMillis();
+				try {
+					Thread.sleep(TICK);
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				final long oversleep = SystemClock.uptimeMillis() - start
+						- TICK;
+				if (oversleep >= PAUSE_THRESHOLD) {
+					mPauseTime += oversleep;
+					mMaxPauseTime = Math.max(mMaxPauseTime, oversleep);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check if the benchmark is enabled.
+	 * 
+	 * @return True if the benchmark is enabled, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	private static boolean isEnabled() {
+		return Log.isLoggable(TAG, Log.DEBUG);
+	}
+
+	/**
+	 * Start measuring a swipe, unless one is being measured.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	@SuppressWarnings("deprecation")
+	void start() {
+		if (mWatchdog != null || !isEnabled()) {
+			return;
+		}
+
+		Debug.resetGlobalGcInvocationCount();
+		Debug.startAllocCounting();
+		mWatchdog = new Watchdog();
+		mWatchdog.start();
+	}
+
+	/**
+	 * Stop measuring the swipe when the page settles, and report it.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	@SuppressWarnings("deprecation")
+	void stop() {
+		if (mWatchdog == null) {
+			return;
+		}
+
+		final Watchdog watchdog = mWatchdog;
+		mWatchdog = null;
+		watchdog.mStopped = true;
+		try {
+			watchdog.join(TICK * 2);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		Debug.stopAllocCounting();
+		final int gcCount = Debug.getGlobalGcInvocationCount();
+
+		mSwipeCount++;
+		mTotalGcCount += gcCount;
+		mTotalPauseTime += watchdog.mPauseTime;
+		Log.d(TAG, "swipe " + mSwipeCount + ": gc count " + gcCount
+				+ ", pause " + watchdog.mPauseTime + "ms (max "
+				+ watchdog.mMaxPauseTime + "ms); total gc count "
+				+ mTotalGcCount + ", pause " + mTotalPauseTime + "ms");
+	}
+}
@@ -1,6 +1,7 @@
 package com.panguso.android.shijingshan.notification;
 
 import com.panguso.android.shijingshan.R;
+import com.panguso.android.shijingshan.WebViewPool;
 import com.panguso.android.shijingshan.account.AccountManager;
 import com.panguso.android.shijingshan.net.NetworkService;
 import com.panguso.android.shijingshan.widget.BlueTitleBar;
@@ -11,7 +12,9 @@ import android.app.NotificationManager;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
+import android.view.ViewGroup.LayoutParams;
 import android.webkit.WebView;
+import android.widget.FrameLayout;
 
 /**
  * The notification activity.
@@ -35,7 +38,10 @@ public class NotificationActivity extends Activity implements OnBackListener {
 		mTitleBar.setTitle(getString(R.string.notification_title));
 		mTitleBar.setOnBackListener(this);
 
-		mContent = (WebView) findViewById(R.id.notification_content);
+		mContent = WebViewPool.getInstance(this).acquire(this);
+		((FrameLayout) findViewById(R.id.notification_content)).addView(
+				mContent, new FrameLayout.LayoutParams(
+						LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
 
 		Intent intent = getIntent();
 		String id = intent.getStringExtra(NotificationInfo.KEY_ID);
@@ -44,11 +50,17 @@ public class NotificationActivity extends Activity implements OnBackListener {
 		NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
 		notificationManager.cancel(id.hashCode());
 
-		NetworkService.acknowledgeNotification(getString(R.string.server_url),
+		NetworkService.acknowledgeNotification(this,
 				AccountManager.getAccount(), id);
 		mContent.loadUrl(url);
 	}
 
+	@Override
+	protected void onDestroy() {
+		WebViewPool.getInstance(this).release(mContent);
+		super.onDestroy();
+	}
+
 	@Override
 	public void onBack() {
 		finish();
@@ -1,20 +1,21 @@
 package com.panguso.android.shijingshan.notification;
 
-import com.panguso.android.shijingshan.net.NetworkService;
-
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.support.v4.content.WakefulBroadcastReceiver;
 
 /**
- * The notification broadcast receiver.
+ * The notification broadcast receiver. The alarm is handed to the
+ * {@link NotificationSyncService}, so no disk or IPC work runs on the main
+ * thread.
  * 
  * @author Luo Yinzhuo
  */
-public class NotificationBroadcastReceiver extends BroadcastReceiver {
+public class NotificationBroadcastReceiver extends WakefulBroadcastReceiver {
 
 	@Override
 	public void onReceive(Context context, Intent intent) {
-		NetworkService.getNotificationInfoList(context);
+		startWakefulService(context, new Intent(context,
+				NotificationSyncService.class));
 	}
 }
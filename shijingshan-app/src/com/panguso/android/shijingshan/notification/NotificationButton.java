@@ -51,30 +51,39 @@ public class NotificationButton extends RelativeLayout implements
 	 * 
 	 * @param context
 	 *            The context.
-	 * @param id
-	 *            The notification id.
-	 * @param title
-	 *            The notification title.
-	 * @param addTime
-	 *            The notification add time.
-	 * @param url
-	 *            The notification URL.
 	 */
-	NotificationButton(Context context, String id, String title,
-			String addTime, String url) {
+	NotificationButton(Context context) {
 		super(context);
 		LayoutInflater inflater = (LayoutInflater) context
 				.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
 		inflater.inflate(R.layout.notification_button_widget, this);
 
-		mId = id;
-		mURL = url;
-
 		mButton = (NotificationTitleButton) findViewById(R.id.button);
-		mButton.setTitle(title);
-		mButton.setTime(addTime.substring(0, addTime.indexOf(" ")));
 		mButton.setOnClickListener(this);
+	}
+
+	/**
+	 * Bind the {@link NotificationInfo} to the button, so a recycled button
+	 * could display another notification. Binding the same notification
+	 * again does nothing.
+	 * 
+	 * @param notificationInfo
+	 *            The {@link NotificationInfo}.
+	 * @author Luo Yinzhuo
+	 */
+	void bind(NotificationInfo notificationInfo) {
+		if (notificationInfo.getId().equals(mId)) {
+			return;
+		}
+
+		mId = notificationInfo.getId();
+		mURL = notificationInfo.getURL();
 
+		final String addTime = notificationInfo.getAddTime();
+		final int index = addTime.indexOf(" ");
+		mButton.setTitle(notificationInfo.getTitle());
+		mButton.setTime(index < 0 ? addTime : addTime.substring(0, index));
+		mButton.invalidate();
 	}
 
 	/**
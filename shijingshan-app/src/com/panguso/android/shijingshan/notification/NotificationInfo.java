@@ -3,8 +3,6 @@ package com.panguso.android.shijingshan.notification;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.content.Context;
-
 /**
  * Specific for store a notification's information.
  * 
@@ -36,7 +34,7 @@ public final class NotificationInfo {
 	 * @param url
 	 *            The notification url.
 	 */
-	private NotificationInfo(String id, String title, String addTime,
+	NotificationInfo(String id, String title, String addTime,
 			String summary, String url) {
 		mId = id;
 		mTitle = title;
@@ -65,6 +63,16 @@ public final class NotificationInfo {
 		return mTitle;
 	}
 
+	/**
+	 * Get the notification add time.
+	 * 
+	 * @return The notification add time.
+	 * @author Luo Yinzhuo
+	 */
+	public String getAddTime() {
+		return mAddTime;
+	}
+
 	/**
 	 * Get the notification summary.
 	 * 
@@ -85,18 +93,6 @@ public final class NotificationInfo {
 		return mURL;
 	}
 
-	/**
-	 * Get the {@link NotificationButton} based on itself.
-	 * 
-	 * @param context
-	 *            The context.
-	 * @return The {@link NotificationButton}.
-	 * @author Luo Yinzhuo
-	 */
-	public NotificationButton getNotificationButton(Context context) {
-		return new NotificationButton(context, mId, mTitle, mAddTime, mURL);
-	}
-
 	/**
 	 * Get the notification info in JSON format.
 	 * 
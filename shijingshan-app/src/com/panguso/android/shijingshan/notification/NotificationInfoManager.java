@@ -2,19 +2,13 @@ package com.panguso.android.shijingshan.notification;
 
 import java.util.ArrayList;
 import java.util.List;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
-import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 
 import com.panguso.android.shijingshan.R;
 import com.panguso.android.shijingshan.account.AccountManager;
@@ -25,13 +19,30 @@ import com.panguso.android.shijingshan.account.AccountManager;
  * @author Luo Yinzhuo
  */
 public class NotificationInfoManager {
-	/** The shared preferences name. */
-	private static final String SHARED_PREFERENCES_NAME = "NotificationInfoManager";
+	/**
+	 * Interface definition for a callback to be invoked when the stored
+	 * {@link NotificationInfo}s change. It may be invoked on a background
+	 * thread.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	public interface OnNotificationChangeListener {
+		/**
+		 * Called when the stored {@link NotificationInfo}s change.
+		 * 
+		 * @param insertedNotificationInfos
+		 *            The newly stored {@link NotificationInfo} list.
+		 * @param removedIds
+		 *            The ids of the notifications no longer stored.
+		 * @author Luo Yinzhuo
+		 */
+		public void onNotificationChanged(
+				List<NotificationInfo> insertedNotificationInfos,
+				List<String> removedIds);
+	}
 
-	/** The key to get notifications data. */
-	private static final String KEY_NOTIFICATIONS = "_notifications";
-	/** The key to get notification data. */
-	private static final String KEY_NOTIFICATION = "_notification";
+	/** The registered listeners. */
+	private static final List<OnNotificationChangeListener> LISTENERS = new CopyOnWriteArrayList<OnNotificationChangeListener>();
 
 	/**
 	 * Called when {@link NotificationBroadcastReceiver} execute.
@@ -40,56 +51,30 @@ public class NotificationInfoManager {
 	 *            The context.
 	 * @param notificationInfos
 	 *            The {@link NotificationInfo} list.
+	 * @return The count of the notifications not received before.
 	 * @author Luo Yinzhuo
 	 */
-	public static void onNotification(Context context,
+	public static int onNotification(Context context,
 			List<NotificationInfo> notificationInfos) {
-		SharedPreferences sharedPreferences = context.getSharedPreferences(
-				SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
-
-		// First check if there's new notification and get one of the newest to
-		// build a {@link Notification}.
-		final String oldNotificationIds = sharedPreferences.getString(
-				AccountManager.getAccount() + KEY_NOTIFICATIONS, "");
-		List<NotificationInfo> newNotificationInfos = new ArrayList<NotificationInfo>();
-		boolean newNotification = false;
-		for (NotificationInfo notificationInfo : notificationInfos) {
-			final String notificationId = notificationInfo.getId();
-			if (!oldNotificationIds.contains(notificationId)) {
-				newNotificationInfos.add(notificationInfo);
-
-				if (!newNotification) {
-					newNotification = true;
-					buildNotification(context, notificationId,
-							notificationInfo.getTitle(),
-							notificationInfo.getSummary(),
-							notificationInfo.getURL());
-				}
-			}
+		// Only the new notifications are inserted, and one of the newest is
+		// used to build a {@link Notification}.
+		List<String> removedIds = new ArrayList<String>();
+		List<NotificationInfo> newNotificationInfos = NotificationStore
+				.getInstance(context).insert(AccountManager.getAccount(),
+						notificationInfos, removedIds);
+		if (newNotificationInfos.isEmpty()) {
+			return 0;
 		}
 
-		// Second save the new notifications into the {@link SharedPrefereces}.
-		try {
-			JSONArray notificationIds;
-			if (oldNotificationIds.length() > 0) {
-				notificationIds = new JSONArray(oldNotificationIds);
-			} else {
-				notificationIds = new JSONArray();
-			}
-
-			Editor editor = sharedPreferences.edit();
-			for (NotificationInfo notificationInfo : newNotificationInfos) {
-				final String notificationId = notificationInfo.getId();
-				notificationIds.put(notificationId);
-				editor.putString(notificationId + KEY_NOTIFICATION,
-						notificationInfo.getJson());
-			}
-			editor.putString(AccountManager.getAccount() + KEY_NOTIFICATIONS,
-					notificationIds.toString());
-			editor.commit();
-		} catch (JSONException e) {
-			e.printStackTrace();
+		NotificationInfo notificationInfo = newNotificationInfos.get(0);
+		buildNotification(context, notificationInfo.getId(),
+				notificationInfo.getTitle(), notificationInfo.getSummary(),
+				notificationInfo.getURL());
+
+		for (OnNotificationChangeListener listener : LISTENERS) {
+			listener.onNotificationChanged(newNotificationInfos, removedIds);
 		}
+		return newNotificationInfos.size();
 	}
 
 	/**
@@ -129,67 +114,68 @@ public class NotificationInfoManager {
 	/**
 	 * Register a listener to detect the {@link NotificationInfo} changes.
 	 * 
-	 * @param context
-	 *            The context.
 	 * @param listener
 	 *            The listener.
 	 * @author Luo Yinzhuo
 	 */
-	public static void registerListener(Context context,
-			OnSharedPreferenceChangeListener listener) {
-		SharedPreferences sharedPreferences = context.getSharedPreferences(
-				SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
-		sharedPreferences.registerOnSharedPreferenceChangeListener(listener);
+	public static void registerListener(OnNotificationChangeListener listener) {
+		LISTENERS.add(listener);
 	}
 
 	/**
-	 * Unregister the listener from detecting the [@link NotificationInfo}
+	 * Unregister the listener from detecting the {@link NotificationInfo}
 	 * changes.
 	 * 
-	 * @param context
-	 *            The context.
 	 * @param listener
 	 *            The listener.
 	 * @author Luo Yinzhuo
 	 */
-	public static void unregisterListener(Context context,
-			OnSharedPreferenceChangeListener listener) {
-		SharedPreferences sharedPreferences = context.getSharedPreferences(
-				SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
-		sharedPreferences.unregisterOnSharedPreferenceChangeListener(listener);
+	public static void unregisterListener(OnNotificationChangeListener listener) {
+		LISTENERS.remove(listener);
 	}
 
 	/**
-	 * Get current account's {@link NotificationInfo} list.
+	 * Get a page of current account's {@link NotificationInfo} list, the
+	 * newest first.
 	 * 
 	 * @param context
 	 *            The context.
+	 * @param offset
+	 *            The offset of the first {@link NotificationInfo}.
+	 * @param count
+	 *            The maximum {@link NotificationInfo} count.
 	 * @return The current account's {@link NotificationInfo} list.
 	 * @author Luo Yinzhuo
 	 */
-	public static List<NotificationInfo> getNotificationInfos(Context context) {
-		SharedPreferences sharedPreferences = context.getSharedPreferences(
-				SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
-
-		List<NotificationInfo> notificationInfos = new ArrayList<NotificationInfo>();
-
-		try {
-			JSONArray notificationIds = new JSONArray(
-					sharedPreferences.getString(AccountManager.getAccount()
-							+ KEY_NOTIFICATIONS, ""));
-			for (int i = 0; i < notificationIds.length(); i++) {
-				String notificationId = notificationIds.getString(i);
-				JSONObject notification = new JSONObject(
-						sharedPreferences.getString(notificationId
-								+ KEY_NOTIFICATION, ""));
-				if (NotificationInfo.isNotificationInfo(notification)) {
-					notificationInfos.add(NotificationInfo.parse(notification));
-				}
-			}
-		} catch (JSONException e) {
-			e.printStackTrace();
-		}
+	public static List<NotificationInfo> getNotificationInfos(Context context,
+			int offset, int count) {
+		return NotificationStore.getInstance(context).query(
+				AccountManager.getAccount(), offset, count);
+	}
+
+	/**
+	 * Get the add time of current account's newest {@link NotificationInfo}.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @return The add time, or null if there is no {@link NotificationInfo}.
+	 * @author Luo Yinzhuo
+	 */
+	public static String getLatestAddTime(Context context) {
+		return NotificationStore.getInstance(context).queryLatestAddTime(
+				AccountManager.getAccount());
+	}
 
-		return notificationInfos;
+	/**
+	 * Get current account's {@link NotificationInfo} list, the newest first.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @return The current account's {@link NotificationInfo} list.
+	 * @author Luo Yinzhuo
+	 */
+	public static List<NotificationInfo> getNotificationInfos(Context context) {
+		return getNotificationInfos(context, 0,
+				NotificationStore.MAX_NOTIFICATIONS);
 	}
 }
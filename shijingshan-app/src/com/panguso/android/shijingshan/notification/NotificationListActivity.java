@@ -4,15 +4,16 @@ import java.util.List;
 
 import com.panguso.android.shijingshan.R;
 import com.panguso.android.shijingshan.notification.NotificationButton.OnNotificationButtonListener;
+import com.panguso.android.shijingshan.notification.NotificationInfoManager.OnNotificationChangeListener;
 import com.panguso.android.shijingshan.widget.BlueTitleBar;
 import com.panguso.android.shijingshan.widget.BlueTitleBar.OnBackListener;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.os.Bundle;
-import android.widget.LinearLayout;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
+import android.widget.ListView;
 
 /**
  * The notification list activity.
@@ -21,12 +22,14 @@ import android.widget.LinearLayout;
  */
 public class NotificationListActivity extends Activity implements
 		OnBackListener, OnNotificationButtonListener,
-		OnSharedPreferenceChangeListener {
+		OnNotificationChangeListener, OnScrollListener {
 
 	/** The title bar. */
 	private BlueTitleBar mTitleBar;
-	/** The notification layout. */
-	private LinearLayout mNotification;
+	/** The notification list. */
+	private ListView mNotification;
+	/** The notification list adapter. */
+	private NotificationListAdapter mAdapter;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -37,14 +40,16 @@ public class NotificationListActivity extends Activity implements
 		mTitleBar.setTitle(getString(R.string.notification_list_title));
 		mTitleBar.setOnBackListener(this);
 
-		mNotification = (LinearLayout) findViewById(R.id.notification_layout);
-		NotificationInfoManager.registerListener(this, this);
-		refreshNotification();
+		mAdapter = new NotificationListAdapter(this, this);
+		mNotification = (ListView) findViewById(R.id.notification_list);
+		mNotification.setAdapter(mAdapter);
+		mNotification.setOnScrollListener(this);
+		NotificationInfoManager.registerListener(this);
 	}
 
 	@Override
 	protected void onDestroy() {
-		NotificationInfoManager.unregisterListener(this, this);
+		NotificationInfoManager.unregisterListener(this);
 		super.onDestroy();
 	}
 
@@ -54,26 +59,27 @@ public class NotificationListActivity extends Activity implements
 	}
 
 	@Override
-	public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
-			String key) {
-		refreshNotification();
+	public void onNotificationChanged(
+			final List<NotificationInfo> insertedNotificationInfos,
+			final List<String> removedIds) {
+		runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				mAdapter.onNotificationChanged(insertedNotificationInfos,
+						removedIds);
+			}
+		});
 	}
 
-	/**
-	 * Refresh notification list.
-	 * 
-	 * @author Luo Yinzhuo
-	 */
-	private void refreshNotification() {
-		mNotification.removeAllViews();
+	@Override
+	public void onScrollStateChanged(AbsListView view, int scrollState) {
+	}
 
-		List<NotificationInfo> notificationInfos = NotificationInfoManager
-				.getNotificationInfos(this);
-		for (NotificationInfo notificationInfo : notificationInfos) {
-			NotificationButton button = notificationInfo
-					.getNotificationButton(this);
-			button.setOnNotificationButtonListener(this);
-			mNotification.addView(button);
+	@Override
+	public void onScroll(AbsListView view, int firstVisibleItem,
+			int visibleItemCount, int totalItemCount) {
+		if (mAdapter.shouldLoadMore(firstVisibleItem + visibleItemCount - 1)) {
+			mAdapter.loadMore();
 		}
 	}
 
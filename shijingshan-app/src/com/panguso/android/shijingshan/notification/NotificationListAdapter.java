@@ -0,0 +1,229 @@
+package com.panguso.android.shijingshan.notification;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+
+import com.panguso.android.shijingshan.notification.NotificationButton.OnNotificationButtonListener;
+
+/**
+ * The adapter of the notification list. The {@link NotificationInfo}s are
+ * loaded page by page from the {@link NotificationInfoManager} off the UI
+ * thread, and the {@link NotificationButton}s are recycled.
+ * 
+ * @author Luo Yinzhuo
+ */
+class NotificationListAdapter extends BaseAdapter {
+	/** The {@link NotificationInfo} count of each page. */
+	private static final int PAGE_SIZE = 30;
+
+	/** The context. */
+	private final Context mContext;
+	/** The listener set to the {@link NotificationButton}s. */
+	private final OnNotificationButtonListener mListener;
+	/** The loaded {@link NotificationInfo}s, the newest first. */
+	private final List<NotificationInfo> mNotificationInfos = new ArrayList<NotificationInfo>();
+	/** The flag to indicate if there are more stored notifications. */
+	private boolean mHasMore = true;
+
+	/** The executor to query the pages. */
+	private static final ExecutorService EXECUTOR = Executors
+			.newSingleThreadExecutor();
+	/** The UI thread handler. */
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	/** The flag to indicate a page is being loaded. */
+	private boolean mLoading = false;
+	/**
+	 * The version of the loaded list, changed by every applied change, to
+	 * load a page again if the rows moved while it was queried.
+	 */
+	private int mVersion = 0;
+
+	/**
+	 * Construct a new instance and start to load the first page.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @param listener
+	 *            The listener set to the {@link NotificationButton}s.
+	 */
+	NotificationListAdapter(Context context,
+			OnNotificationButtonListener listener) {
+		mContext = context;
+		mListener = listener;
+		loadMore();
+	}
+
+	/**
+	 * Start to load the next page of the {@link NotificationInfo}s on the
+	 * {@link #EXECUTOR} if there is any and none is being loaded. Must be
+	 * invoked on the UI thread.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	void loadMore() {
+		if (!mHasMore || mLoading) {
+			return;
+		}
+
+		mLoading = true;
+		final int offset = mNotificationInfos.size();
+		final int version = mVersion;
+		EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				final List<NotificationInfo> notificationInfos = NotificationInfoManager
+						.getNotificationInfos(mContext, offset, PAGE_SIZE);
+				mHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						onPageLoaded(notificationInfos, version);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Invoked on the UI thread when a page is loaded.
+	 * 
+	 * @param notificationInfos
+	 *            The {@link NotificationInfo} list of the page.
+	 * @param version
+	 *            The version of the loaded list the page was queried at.
+	 * @author Luo Yinzhuo
+	 */
+	private void onPageLoaded(List<NotificationInfo> notificationInfos,
+			int version) {
+		mLoading = false;
+		if (version != mVersion) {
+			// The offset no longer matches the loaded rows, query it again.
+			loadMore();
+			return;
+		}
+
+		mHasMore = notificationInfos.size() == PAGE_SIZE;
+		if (!notificationInfos.isEmpty()) {
+			mNotificationInfos.addAll(notificationInfos);
+			notifyDataSetChanged();
+		}
+	}
+
+	/**
+	 * Check if more {@link NotificationInfo}s should be loaded for the
+	 * visible rows.
+	 * 
+	 * @param lastVisiblePosition
+	 *            The last visible position.
+	 * @return True if more {@link NotificationInfo}s should be loaded,
+	 *         otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	boolean shouldLoadMore(int lastVisiblePosition) {
+		return mHasMore
+				&& lastVisiblePosition >= mNotificationInfos.size() - PAGE_SIZE
+						/ 2;
+	}
+
+	/**
+	 * Apply a change of the stored {@link NotificationInfo}s. The removed ones
+	 * are dropped and the inserted ones are placed by their add time, so only
+	 * the affected rows need to be bound again.
+	 * 
+	 * @param insertedNotificationInfos
+	 *            The newly stored {@link NotificationInfo} list.
+	 * @param removedIds
+	 *            The ids of the notifications no longer stored.
+	 * @author Luo Yinzhuo
+	 */
+	void onNotificationChanged(
+			List<NotificationInfo> insertedNotificationInfos,
+			List<String> removedIds) {
+		boolean changed = false;
+		if (!removedIds.isEmpty()) {
+			Set<String> ids = new HashSet<String>(removedIds);
+			for (int i = mNotificationInfos.size() - 1; i >= 0; i--) {
+				if (ids.contains(mNotificationInfos.get(i).getId())) {
+					mNotificationInfos.remove(i);
+					changed = true;
+				}
+			}
+		}
+
+		for (NotificationInfo notificationInfo : insertedNotificationInfos) {
+			final int index = indexOf(notificationInfo.getAddTime());
+			// The older ones beyond the loaded pages come with the next page.
+			if (index < mNotificationInfos.size() || !mHasMore) {
+				mNotificationInfos.add(index, notificationInfo);
+				changed = true;
+			}
+		}
+
+		if (changed || mLoading) {
+			// The page being loaded might miss the change, so it's loaded again.
+			mVersion++;
+		}
+		if (changed) {
+			notifyDataSetChanged();
+		}
+	}
+
+	/**
+	 * Get the index to insert a {@link NotificationInfo} with the add time
+	 * while keeping the newest first order.
+	 * 
+	 * @param addTime
+	 *            The add time.
+	 * @return The index to insert.
+	 * @author Luo Yinzhuo
+	 */
+	private int indexOf(String addTime) {
+		int low = 0;
+		int high = mNotificationInfos.size();
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (mNotificationInfos.get(middle).getAddTime().compareTo(addTime) >= 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	@Override
+	public int getCount() {
+		return mNotificationInfos.size();
+	}
+
+	@Override
+	public NotificationInfo getItem(int position) {
+		return mNotificationInfos.get(position);
+	}
+
+	@Override
+	public long getItemId(int position) {
+		return position;
+	}
+
+	@Override
+	public View getView(int position, View convertView, ViewGroup parent) {
+		NotificationButton button = (NotificationButton) convertView;
+		if (button == null) {
+			button = new NotificationButton(mContext);
+			button.setOnNotificationButtonListener(mListener);
+		}
+		button.bind(mNotificationInfos.get(position));
+		return button;
+	}
+}
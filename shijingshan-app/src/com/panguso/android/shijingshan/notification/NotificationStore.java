@@ -0,0 +1,459 @@
+package com.panguso.android.shijingshan.notification;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+/**
+ * The local store of the received {@link NotificationInfo}s. The
+ * notifications are kept in a table keyed by account and id, and indexed by
+ * account and add time, so the lookups and the paged queries never scan the
+ * whole history. The newest add time and id trimmed from an account are kept
+ * as its trim mark, so the trimmed notifications the server sends again are
+ * not taken as new. The notifications of the same add time are ordered by id,
+ * so a new one sharing the add time of the mark is still taken.
+ * 
+ * @author Luo Yinzhuo
+ */
+final class NotificationStore extends SQLiteOpenHelper {
+	/** The database name. */
+	private static final String DATABASE_NAME = "notification.db";
+	/** The database version. */
+	private static final int DATABASE_VERSION = 3;
+
+	/** The notification table. */
+	private static final String TABLE = "notification";
+	/** The account column. */
+	private static final String COLUMN_ACCOUNT = "account";
+	/** The id column. */
+	private static final String COLUMN_ID = "id";
+	/** The title column. */
+	private static final String COLUMN_TITLE = "title";
+	/** The add time column. */
+	private static final String COLUMN_ADD_TIME = "addtime";
+	/** The summary column. */
+	private static final String COLUMN_SUMMARY = "summary";
+	/** The URL column. */
+	private static final String COLUMN_URL = "url";
+	/** The trim mark table, the newest add time and id trimmed by account. */
+	private static final String TABLE_TRIM_MARK = "trim_mark";
+
+	/** The maximum notification count retained for each account. */
+	static final int MAX_NOTIFICATIONS = 200;
+
+	/** The legacy shared preferences name. */
+	private static final String LEGACY_SHARED_PREFERENCES_NAME = "NotificationInfoManager";
+	/** The legacy key suffix to get notifications data. */
+	private static final String KEY_LEGACY_NOTIFICATIONS = "_notifications";
+	/** The legacy key suffix to get notification data. */
+	private static final String KEY_LEGACY_NOTIFICATION = "_notification";
+
+	/** The single instance. */
+	private static NotificationStore SINGLE_INSTANCE;
+
+	/**
+	 * Get the single {@link NotificationStore} instance.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @return The single {@link NotificationStore} instance.
+	 * @author Luo Yinzhuo
+	 */
+	static synchronized NotificationStore getInstance(Context context) {
+		if (SINGLE_INSTANCE == null) {
+			SINGLE_INSTANCE = new NotificationStore(
+					context.getApplicationContext());
+		}
+		return SINGLE_INSTANCE;
+	}
+
+	/** The application context. */
+	private final Context mContext;
+
+	/**
+	 * Construct a new instance.
+	 * 
+	 * @param context
+	 *            The application context.
+	 */
+	private NotificationStore(Context context) {
+		super(context, DATABASE_NAME, null, DATABASE_VERSION);
+		mContext = context;
+	}
+
+	@Override
+	public void onCreate(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + TABLE + " (" + COLUMN_ACCOUNT
+				+ " TEXT NOT NULL, " + COLUMN_ID + " TEXT NOT NULL, "
+				+ COLUMN_TITLE + " TEXT, " + COLUMN_ADD_TIME + " TEXT, "
+				+ COLUMN_SUMMARY + " TEXT, " + COLUMN_URL + " TEXT, "
+				+ "PRIMARY KEY (" + COLUMN_ACCOUNT + ", " + COLUMN_ID + "))");
+		db.execSQL("CREATE INDEX " + TABLE + "_" + COLUMN_ADD_TIME + " ON "
+				+ TABLE + " (" + COLUMN_ACCOUNT + ", " + COLUMN_ADD_TIME + ")");
+		createTrimMarkTable(db);
+		migrate(db);
+	}
+
+	@Override
+	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		if (oldVersion < 2) {
+			createTrimMarkTable(db);
+		} else if (oldVersion < 3) {
+			// The marks without an id still skip their whole add time.
+			db.execSQL("ALTER TABLE " + TABLE_TRIM_MARK + " ADD COLUMN "
+					+ COLUMN_ID + " TEXT");
+		}
+	}
+
+	/**
+	 * Create the trim mark table.
+	 * 
+	 * @param db
+	 *            The database.
+	 * @author Luo Yinzhuo
+	 */
+	private static void createTrimMarkTable(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE " + TABLE_TRIM_MARK + " (" + COLUMN_ACCOUNT
+				+ " TEXT PRIMARY KEY, " + COLUMN_ADD_TIME + " TEXT NOT NULL, "
+				+ COLUMN_ID + " TEXT)");
+	}
+
+	/**
+	 * Insert the {@link NotificationInfo}s in a single transaction, skipping
+	 * the ones already stored and the ones not after the account's trim
+	 * mark, and trim the account to {@link #MAX_NOTIFICATIONS}.
+	 * 
+	 * @param account
+	 *            The account.
+	 * @param notificationInfos
+	 *            The {@link NotificationInfo} list.
+	 * @param removedIds
+	 *            The list to receive the ids trimmed from the account.
+	 * @return The newly inserted {@link NotificationInfo} list.
+	 * @author Luo Yinzhuo
+	 */
+	List<NotificationInfo> insert(String account,
+			List<NotificationInfo> notificationInfos, List<String> removedIds) {
+		List<NotificationInfo> newNotificationInfos = new ArrayList<NotificationInfo>();
+		if (notificationInfos.isEmpty()) {
+			return newNotificationInfos;
+		}
+
+		SQLiteDatabase db = getWritableDatabase();
+		db.beginTransaction();
+		try {
+			Set<String> existIds = queryExistIds(db, account);
+			String[] trimMark = queryTrimMark(db, account);
+			SQLiteStatement statement = compileInsert(db);
+			try {
+				for (NotificationInfo notificationInfo : notificationInfos) {
+					if (trimMark != null
+							&& !isAfterTrimMark(notificationInfo, trimMark)) {
+						// Trimmed before, or older than all the ones kept.
+						continue;
+					}
+
+					if (existIds.add(notificationInfo.getId())) {
+						bindInsert(statement, account, notificationInfo);
+						statement.executeInsert();
+						newNotificationInfos.add(notificationInfo);
+					}
+				}
+			} finally {
+				statement.close();
+			}
+
+			if (!newNotificationInfos.isEmpty()) {
+				removedIds.addAll(trim(db, account));
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		return newNotificationInfos;
+	}
+
+	/**
+	 * Query a page of the account's {@link NotificationInfo}s, the newest
+	 * first.
+	 * 
+	 * @param account
+	 *            The account.
+	 * @param offset
+	 *            The offset of the first {@link NotificationInfo}.
+	 * @param count
+	 *            The maximum {@link NotificationInfo} count.
+	 * @return The {@link NotificationInfo} list.
+	 * @author Luo Yinzhuo
+	 */
+	List<NotificationInfo> query(String account, int offset, int count) {
+		List<NotificationInfo> notificationInfos = new ArrayList<NotificationInfo>();
+		Cursor cursor = getReadableDatabase().query(
+				TABLE,
+				new String[] { COLUMN_ID, COLUMN_TITLE, COLUMN_ADD_TIME,
+						COLUMN_SUMMARY, COLUMN_URL },
+				COLUMN_ACCOUNT + " = ?", new String[] { account }, null, null,
+				COLUMN_ADD_TIME + " DESC", offset + ", " + count);
+		try {
+			while (cursor.moveToNext()) {
+				notificationInfos.add(new NotificationInfo(cursor.getString(0),
+						cursor.getString(1), cursor.getString(2), cursor
+								.getString(3), cursor.getString(4)));
+			}
+		} finally {
+			cursor.close();
+		}
+		return notificationInfos;
+	}
+
+	/**
+	 * Query the add time of the account's newest {@link NotificationInfo}.
+	 * 
+	 * @param account
+	 *            The account.
+	 * @return The add time, or null if the account has no
+	 *         {@link NotificationInfo}.
+	 * @author Luo Yinzhuo
+	 */
+	String queryLatestAddTime(String account) {
+		Cursor cursor = getReadableDatabase().query(TABLE,
+				new String[] { COLUMN_ADD_TIME }, COLUMN_ACCOUNT + " = ?",
+				new String[] { account }, null, null,
+				COLUMN_ADD_TIME + " DESC", "1");
+		try {
+			return cursor.moveToFirst() ? cursor.getString(0) : null;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Query the ids stored for the account, which are at most
+	 * {@link #MAX_NOTIFICATIONS}, through the primary key index.
+	 * 
+	 * @param db
+	 *            The database.
+	 * @param account
+	 *            The account.
+	 * @return The ids already stored.
+	 * @author Luo Yinzhuo
+	 */
+	private static Set<String> queryExistIds(SQLiteDatabase db,
+			String account) {
+		Set<String> existIds = new HashSet<String>();
+		Cursor cursor = db.query(TABLE, new String[] { COLUMN_ID },
+				COLUMN_ACCOUNT + " = ?", new String[] { account }, null, null,
+				null);
+		try {
+			while (cursor.moveToNext()) {
+				existIds.add(cursor.getString(0));
+			}
+		} finally {
+			cursor.close();
+		}
+		return existIds;
+	}
+
+	/**
+	 * Query the account's trim mark.
+	 * 
+	 * @param db
+	 *            The database.
+	 * @param account
+	 *            The account.
+	 * @return The newest add time trimmed and its id, which is null for a
+	 *         mark from before the ids are kept, or null if nothing is
+	 *         trimmed.
+	 * @author Luo Yinzhuo
+	 */
+	private static String[] queryTrimMark(SQLiteDatabase db, String account) {
+		Cursor cursor = db.query(TABLE_TRIM_MARK, new String[] {
+				COLUMN_ADD_TIME, COLUMN_ID }, COLUMN_ACCOUNT + " = ?",
+				new String[] { account }, null, null, null);
+		try {
+			return cursor.moveToFirst() ? new String[] { cursor.getString(0),
+					cursor.getString(1) } : null;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Check if a {@link NotificationInfo} comes after the trim mark, in the
+	 * order of the add time and then the id, which is the order of the trim.
+	 * 
+	 * @param notificationInfo
+	 *            The {@link NotificationInfo}.
+	 * @param trimMark
+	 *            The trim mark.
+	 * @return True if it comes after the trim mark, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	private static boolean isAfterTrimMark(NotificationInfo notificationInfo,
+			String[] trimMark) {
+		final int result = notificationInfo.getAddTime().compareTo(
+				trimMark[0]);
+		if (result != 0) {
+			return result > 0;
+		}
+		return trimMark[1] != null
+				&& notificationInfo.getId().compareTo(trimMark[1]) > 0;
+	}
+
+	/**
+	 * Delete the account's oldest notifications beyond
+	 * {@link #MAX_NOTIFICATIONS}, and raise the trim mark to the newest add
+	 * time and id deleted.
+	 * 
+	 * @param db
+	 *            The database.
+	 * @param account
+	 *            The account.
+	 * @return The deleted ids.
+	 * @author Luo Yinzhuo
+	 */
+	private static List<String> trim(SQLiteDatabase db, String account) {
+		List<String> removedIds = new ArrayList<String>();
+		String trimMark = null;
+		Cursor cursor = db.rawQuery("SELECT " + COLUMN_ID + ", "
+				+ COLUMN_ADD_TIME + " FROM " + TABLE + " WHERE "
+				+ COLUMN_ACCOUNT + " = ? ORDER BY " + COLUMN_ADD_TIME
+				+ " DESC, " + COLUMN_ID + " DESC LIMIT -1 OFFSET "
+				+ MAX_NOTIFICATIONS, new String[] { account });
+		try {
+			while (cursor.moveToNext()) {
+				if (trimMark == null) {
+					trimMark = cursor.getString(1);
+				}
+				removedIds.add(cursor.getString(0));
+			}
+		} finally {
+			cursor.close();
+		}
+
+		for (String id : removedIds) {
+			db.delete(TABLE, COLUMN_ACCOUNT + " = ? AND " + COLUMN_ID + " = ?",
+					new String[] { account, id });
+		}
+
+		if (trimMark != null) {
+			// The kept ones are not older, so the mark only moves forward.
+			ContentValues values = new ContentValues();
+			values.put(COLUMN_ACCOUNT, account);
+			values.put(COLUMN_ADD_TIME, trimMark);
+			values.put(COLUMN_ID, removedIds.get(0));
+			db.replace(TABLE_TRIM_MARK, null, values);
+		}
+		return removedIds;
+	}
+
+	/**
+	 * Compile the insert statement.
+	 * 
+	 * @param db
+	 *            The database.
+	 * @return The insert statement.
+	 * @author Luo Yinzhuo
+	 */
+	private static SQLiteStatement compileInsert(SQLiteDatabase db) {
+		return db.compileStatement("INSERT OR IGNORE INTO " + TABLE + " ("
+				+ COLUMN_ACCOUNT + ", " + COLUMN_ID + ", " + COLUMN_TITLE
+				+ ", " + COLUMN_ADD_TIME + ", " + COLUMN_SUMMARY + ", "
+				+ COLUMN_URL + ") VALUES (?, ?, ?, ?, ?, ?)");
+	}
+
+	/**
+	 * Bind a {@link NotificationInfo} to the insert statement.
+	 * 
+	 * @param statement
+	 *            The insert statement.
+	 * @param account
+	 *            The account.
+	 * @param notificationInfo
+	 *            The {@link NotificationInfo}.
+	 * @author Luo Yinzhuo
+	 */
+	private static void bindInsert(SQLiteStatement statement, String account,
+			NotificationInfo notificationInfo) {
+		statement.bindString(1, account);
+		statement.bindString(2, notificationInfo.getId());
+		statement.bindString(3, notificationInfo.getTitle());
+		statement.bindString(4, notificationInfo.getAddTime());
+		statement.bindString(5, notificationInfo.getSummary());
+		statement.bindString(6, notificationInfo.getURL());
+	}
+
+	/**
+	 * Migrate the notifications stored as JSON in the legacy shared
+	 * preferences, and clear them.
+	 * 
+	 * @param db
+	 *            The database being created.
+	 * @author Luo Yinzhuo
+	 */
+	private void migrate(SQLiteDatabase db) {
+		SharedPreferences sharedPreferences = mContext.getSharedPreferences(
+				LEGACY_SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
+		Map<String, ?> all = sharedPreferences.getAll();
+		if (all.isEmpty()) {
+			return;
+		}
+
+		SQLiteStatement statement = compileInsert(db);
+		try {
+			for (Map.Entry<String, ?> entry : all.entrySet()) {
+				final String key = entry.getKey();
+				if (!key.endsWith(KEY_LEGACY_NOTIFICATIONS)) {
+					continue;
+				}
+
+				final String account = key.substring(0, key.length()
+						- KEY_LEGACY_NOTIFICATIONS.length());
+				try {
+					JSONArray notificationIds = new JSONArray(
+							(String) entry.getValue());
+					for (int i = 0; i < notificationIds.length(); i++) {
+						Object notification = all.get(notificationIds
+								.getString(i) + KEY_LEGACY_NOTIFICATION);
+						if (notification == null) {
+							continue;
+						}
+
+						JSONObject json = new JSONObject((String) notification);
+						if (NotificationInfo.isNotificationInfo(json)) {
+							bindInsert(statement, account,
+									NotificationInfo.parse(json));
+							statement.executeInsert();
+						}
+					}
+				} catch (JSONException e) {
+					e.printStackTrace();
+				}
+				trim(db, account);
+			}
+		} finally {
+			statement.close();
+		}
+		SharedPreferences.Editor editor = sharedPreferences.edit().clear();
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+			editor.apply();
+		} else {
+			editor.commit();
+		}
+	}
+}
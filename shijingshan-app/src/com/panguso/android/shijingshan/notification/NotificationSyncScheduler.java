@@ -0,0 +1,282 @@
+package com.panguso.android.shijingshan.notification;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.panguso.android.shijingshan.Application;
+import com.panguso.android.shijingshan.KeyValueStore;
+import com.panguso.android.shijingshan.account.AccountManager;
+import com.panguso.android.shijingshan.net.NetworkService;
+import com.panguso.android.shijingshan.net.NetworkService.NotificationInfoListRequestListener;
+
+/**
+ * Schedule the notification synchronization. The alarm is inexact so the
+ * system could batch it with other wake ups, and its interval doubles while
+ * there's nothing new, and falls back to the minimum as soon as a new
+ * notification arrives. A run is skipped when there's no network, or when the
+ * application is foreground and has synchronized recently. The device is only
+ * kept awake while the notifications are fetched.
+ * 
+ * @author Luo Yinzhuo
+ */
+public final class NotificationSyncScheduler {
+	/** The request code for {@link NotificationBroadcastReceiver}. */
+	private static final int REQUEST_CODE_NOTIFICATION_BROADCAST_RECEIVER = 0;
+
+	/** The minimum synchronization interval. */
+	private static final long MIN_INTERVAL = AlarmManager.INTERVAL_FIFTEEN_MINUTES;
+	/** The maximum synchronization interval. */
+	private static final long MAX_INTERVAL = 4 * AlarmManager.INTERVAL_HOUR;
+	/** The time a synchronization stays fresh. */
+	private static final long FRESH_TIME = MIN_INTERVAL;
+	/** The maximum time to hold the wake lock. */
+	private static final long WAKE_LOCK_TIMEOUT = 60 * 1000;
+
+	/** The log tag. */
+	private static final String TAG = "NotificationSyncScheduler";
+	/** The {@link KeyValueStore} name. */
+	private static final String STORE_NAME = "notification_sync";
+	/** The legacy shared preferences name. */
+	private static final String LEGACY_PREFERENCES_NAME = "NotificationSyncScheduler";
+	/** The key to get the current interval. */
+	private static final String KEY_INTERVAL = "interval";
+	/** The key to get the last synchronization time. */
+	private static final String KEY_LAST_SYNC_TIME = "last_sync_time";
+	/** The key to get the executed run count. */
+	private static final String KEY_RUN_COUNT = "run_count";
+	/** The key to get the skipped run count. */
+	private static final String KEY_SKIP_COUNT = "skip_count";
+	/** The key to get the failed run count. */
+	private static final String KEY_FAIL_COUNT = "fail_count";
+	/** The key to get the total duration of the runs. */
+	private static final String KEY_TOTAL_DURATION = "total_duration";
+	/** The key to get the total response content length of the runs. */
+	private static final String KEY_TOTAL_CONTENT_LENGTH = "total_content_length";
+	/** The key to get the duration of the last run. */
+	private static final String KEY_LAST_DURATION = "last_duration";
+	/** The key to get the response content length of the last run. */
+	private static final String KEY_LAST_CONTENT_LENGTH = "last_content_length";
+
+	/** The wake lock held while fetching. */
+	private static PowerManager.WakeLock WAKE_LOCK;
+	/** The flag to indicate if a synchronization is running. */
+	private static boolean SYNCING = false;
+
+	/**
+	 * Start the synchronization for the account just logged in. The first run
+	 * is executed at once with the minimum interval.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @author Luo Yinzhuo
+	 */
+	public static void start(Context context) {
+		getKeyValueStore(context).edit().putLong(KEY_INTERVAL, MIN_INTERVAL)
+				.putLong(KEY_LAST_SYNC_TIME, 0).apply();
+		schedule(context, 0, MIN_INTERVAL);
+	}
+
+	/**
+	 * Stop the synchronization because the account logs out.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @author Luo Yinzhuo
+	 */
+	public static void stop(Context context) {
+		AlarmManager alarmManager = (AlarmManager) context
+				.getSystemService(Context.ALARM_SERVICE);
+		alarmManager.cancel(getPendingIntent(context));
+	}
+
+	/**
+	 * Called on the worker thread of {@link NotificationSyncService} when
+	 * {@link NotificationBroadcastReceiver} receives the alarm.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @author Luo Yinzhuo
+	 */
+	static synchronized void onAlarm(Context context) {
+		if (SYNCING) {
+			return;
+		}
+
+		KeyValueStore store = getKeyValueStore(context);
+		final long lastSyncTime = store.getLong(KEY_LAST_SYNC_TIME, 0);
+		if (!AccountManager.isLogin()
+				|| !NetworkService.isOnline(context)
+				|| (Application.isForeground(context) && System
+						.currentTimeMillis() - lastSyncTime < FRESH_TIME)) {
+			store.edit()
+					.putInt(KEY_SKIP_COUNT, store.getInt(KEY_SKIP_COUNT, 0) + 1)
+					.apply();
+			return;
+		}
+
+		if (WAKE_LOCK == null) {
+			PowerManager powerManager = (PowerManager) context
+					.getSystemService(Context.POWER_SERVICE);
+			WAKE_LOCK = powerManager.newWakeLock(
+					PowerManager.PARTIAL_WAKE_LOCK, "NotificationSyncScheduler");
+			WAKE_LOCK.setReferenceCounted(false);
+		}
+		WAKE_LOCK.acquire(WAKE_LOCK_TIMEOUT);
+		SYNCING = true;
+
+		SyncListener listener = new SyncListener(
+				context.getApplicationContext());
+		try {
+			NetworkService.getNotificationInfoList(context,
+					NotificationInfoManager.getLatestAddTime(context),
+					listener);
+		} catch (RejectedExecutionException e) {
+			e.printStackTrace();
+			listener.onNotificationInfoListResponseFailed();
+		}
+	}
+
+	/**
+	 * Called when a synchronization run finishes, to record its cost and
+	 * adjust the interval.
+	 * 
+	 * @param context
+	 *            The application context.
+	 * @param success
+	 *            True if the run is successful, otherwise false.
+	 * @param newCount
+	 *            The count of the new notifications.
+	 * @param contentLength
+	 *            The length of the response content.
+	 * @param duration
+	 *            The duration of the run in milliseconds.
+	 * @author Luo Yinzhuo
+	 */
+	private static synchronized void onSyncFinished(Context context,
+			boolean success, int newCount, int contentLength, long duration) {
+		KeyValueStore store = getKeyValueStore(context);
+		final long interval = store.getLong(KEY_INTERVAL, MIN_INTERVAL);
+		final long nextInterval = newCount > 0 ? MIN_INTERVAL : Math.min(
+				interval * 2, MAX_INTERVAL);
+
+		KeyValueStore.Editor editor = store.edit();
+		editor.putLong(KEY_INTERVAL, nextInterval);
+		if (success) {
+			editor.putLong(KEY_LAST_SYNC_TIME, System.currentTimeMillis());
+		} else {
+			editor.putInt(KEY_FAIL_COUNT,
+					store.getInt(KEY_FAIL_COUNT, 0) + 1);
+		}
+		editor.putInt(KEY_RUN_COUNT, store.getInt(KEY_RUN_COUNT, 0) + 1);
+		editor.putLong(KEY_TOTAL_DURATION,
+				store.getLong(KEY_TOTAL_DURATION, 0) + duration);
+		editor.putLong(KEY_TOTAL_CONTENT_LENGTH,
+				store.getLong(KEY_TOTAL_CONTENT_LENGTH, 0) + contentLength);
+		editor.putLong(KEY_LAST_DURATION, duration);
+		editor.putInt(KEY_LAST_CONTENT_LENGTH, contentLength);
+		editor.apply();
+		if (Log.isLoggable(TAG, Log.DEBUG)) {
+			Log.d(TAG, "success=" + success + ", new=" + newCount
+					+ ", length=" + contentLength + ", duration=" + duration
+					+ "ms, next interval=" + nextInterval + "ms");
+		}
+
+		if (nextInterval != interval && AccountManager.isLogin()) {
+			schedule(context, nextInterval, nextInterval);
+		}
+
+		SYNCING = false;
+		WAKE_LOCK.release();
+	}
+
+	/**
+	 * Schedule the inexact repeating alarm.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @param delay
+	 *            The delay of the first alarm.
+	 * @param interval
+	 *            The interval between the alarms.
+	 * @author Luo Yinzhuo
+	 */
+	private static void schedule(Context context, long delay, long interval) {
+		AlarmManager alarmManager = (AlarmManager) context
+				.getSystemService(Context.ALARM_SERVICE);
+		alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME_WAKEUP,
+				SystemClock.elapsedRealtime() + delay, interval,
+				getPendingIntent(context));
+	}
+
+	/**
+	 * Get the {@link PendingIntent} to start
+	 * {@link NotificationBroadcastReceiver}.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @return The {@link PendingIntent}.
+	 * @author Luo Yinzhuo
+	 */
+	private static PendingIntent getPendingIntent(Context context) {
+		return PendingIntent.getBroadcast(context,
+				REQUEST_CODE_NOTIFICATION_BROADCAST_RECEIVER, new Intent(
+						context, NotificationBroadcastReceiver.class),
+				PendingIntent.FLAG_UPDATE_CURRENT);
+	}
+
+	/**
+	 * Get the {@link KeyValueStore} of the scheduler.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @return The {@link KeyValueStore}.
+	 * @author Luo Yinzhuo
+	 */
+	private static KeyValueStore getKeyValueStore(Context context) {
+		return KeyValueStore.getInstance(context, STORE_NAME,
+				LEGACY_PREFERENCES_NAME);
+	}
+
+	/**
+	 * Record the cost of a synchronization run.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private static class SyncListener implements
+			NotificationInfoListRequestListener {
+		/** The application context. */
+		private final Context mContext;
+		/** The start time of the run. */
+		private final long mStartTime = SystemClock.elapsedRealtime();
+
+		/**
+		 * Construct a new instance.
+		 * 
+		 * @param context
+		 *            The application context.
+		 */
+		private SyncListener(Context context) {
+			mContext = context;
+		}
+
+		@Override
+		public void onNotificationInfoListResponseSuccess(int newCount,
+				int contentLength) {
+			onSyncFinished(mContext, true, newCount, contentLength,
+					SystemClock.elapsedRealtime() - mStartTime);
+		}
+
+		@Override
+		public void onNotificationInfoListResponseFailed() {
+			onSyncFinished(mContext, false, 0, 0,
+					SystemClock.elapsedRealtime() - mStartTime);
+		}
+	}
+}
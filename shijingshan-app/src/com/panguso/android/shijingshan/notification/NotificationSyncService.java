@@ -0,0 +1,30 @@
+package com.panguso.android.shijingshan.notification;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.support.v4.content.WakefulBroadcastReceiver;
+
+/**
+ * Run the notification synchronization alarm off the main thread. The
+ * {@link NotificationBroadcastReceiver} starts it with a wake lock, which is
+ * released once the {@link NotificationSyncScheduler} holds its own for the
+ * fetch.
+ * 
+ * @author Luo Yinzhuo
+ */
+public class NotificationSyncService extends IntentService {
+
+	/** Construct a new instance. */
+	public NotificationSyncService() {
+		super("NotificationSyncService");
+	}
+
+	@Override
+	protected void onHandleIntent(Intent intent) {
+		try {
+			NotificationSyncScheduler.onAlarm(this);
+		} finally {
+			WakefulBroadcastReceiver.completeWakefulIntent(intent);
+		}
+	}
+}
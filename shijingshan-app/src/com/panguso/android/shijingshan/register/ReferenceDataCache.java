@@ -0,0 +1,739 @@
+package com.panguso.android.shijingshan.register;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.panguso.android.shijingshan.R;
+import com.panguso.android.shijingshan.net.NetworkService;
+import com.panguso.android.shijingshan.net.NetworkService.BusinessInfoListRequestListener;
+import com.panguso.android.shijingshan.net.NetworkService.EnterpriseInfoListRequestListener;
+import com.panguso.android.shijingshan.net.NetworkService.UserTypeInfoListRequestListener;
+import com.panguso.android.shijingshan.register.business.BusinessInfo;
+import com.panguso.android.shijingshan.register.enterprise.EnterpriseInfo;
+import com.panguso.android.shijingshan.register.usertype.UserTypeInfo;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
+
+/**
+ * Cache the reference data of the registration, which are the business list,
+ * the enterprise list of every business and the user type list. The lists are
+ * persisted with the time they are fetched, and a cached list is returned at
+ * once even if it has expired, while a fresh one is fetched in the background
+ * for the next time. All the methods must be invoked on the UI thread, and the
+ * listeners are called on the UI thread too.
+ * 
+ * @author Luo Yinzhuo
+ */
+public final class ReferenceDataCache {
+
+	/**
+	 * Interface definition for a callback to be invoked when the reference
+	 * data which is not cached is loaded.
+	 * 
+	 * @param <T>
+	 *            The reference data type.
+	 * @author Luo Yinzhuo
+	 */
+	public interface OnReferenceDataListener<T> {
+		/**
+		 * Called when the reference data is loaded.
+		 * 
+		 * @param key
+		 *            The business id for the enterprise list, otherwise
+		 *            {@link ReferenceDataCache#KEY_NONE}.
+		 * @param data
+		 *            The reference data.
+		 * @author Luo Yinzhuo
+		 */
+		public void onReferenceDataLoaded(int key, List<T> data);
+
+		/**
+		 * Called when the reference data failed to load.
+		 * 
+		 * @param key
+		 *            The business id for the enterprise list, otherwise
+		 *            {@link ReferenceDataCache#KEY_NONE}.
+		 * @author Luo Yinzhuo
+		 */
+		public void onReferenceDataFailed(int key);
+	}
+
+	/** The key of the lists which don't belong to a business. */
+	public static final int KEY_NONE = 0;
+
+	/** The file format version, the files of other versions are discarded. */
+	private static final int VERSION = 1;
+	/** The time a cached list stays fresh. */
+	private static final long TTL = 24 * 60 * 60 * 1000;
+
+	/** The cache directory name. */
+	private static final String DIRECTORY_NAME = "reference_data";
+	/** The cache file suffix. */
+	private static final String FILE_SUFFIX = ".json";
+	/** The business list file name. */
+	private static final String NAME_BUSINESS = "business";
+	/** The enterprise list file name prefix. */
+	private static final String NAME_ENTERPRISE_PREFIX = "enterprise_";
+	/** The user type list file name. */
+	private static final String NAME_USER_TYPE = "user_type";
+
+	/** The key to store the file format version. */
+	private static final String KEY_VERSION = "version";
+	/** The key to store the fetch time. */
+	private static final String KEY_TIME = "time";
+	/** The key to store the data. */
+	private static final String KEY_DATA = "data";
+
+	/** The executor to run all the file operations in order. */
+	private static final ExecutorService EXECUTOR = Executors
+			.newSingleThreadExecutor();
+
+	/** The single instance. */
+	private static ReferenceDataCache SINGLE_INSTANCE;
+
+	/**
+	 * Get the single {@link ReferenceDataCache} instance.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @return The single {@link ReferenceDataCache} instance.
+	 * @author Luo Yinzhuo
+	 */
+	public static ReferenceDataCache getInstance(Context context) {
+		if (SINGLE_INSTANCE == null) {
+			SINGLE_INSTANCE = new ReferenceDataCache(
+					context.getApplicationContext());
+		}
+		return SINGLE_INSTANCE;
+	}
+
+	/** The application context. */
+	private final Context mContext;
+	/** The cache directory. */
+	private final File mDirectory;
+	/** The UI thread handler. */
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+	/** The business list. */
+	private final Table<BusinessInfo> mBusinessInfos;
+	/** The enterprise lists indexed by business id. */
+	private final SparseArray<Table<EnterpriseInfo>> mEnterpriseInfos = new SparseArray<Table<EnterpriseInfo>>();
+	/** The user type list. */
+	private final Table<UserTypeInfo> mUserTypeInfos;
+
+	/**
+	 * Construct a new instance.
+	 * 
+	 * @param context
+	 *            The application context.
+	 */
+	private ReferenceDataCache(Context context) {
+		mContext = context;
+		mDirectory = new File(context.getFilesDir(), DIRECTORY_NAME);
+
+		mBusinessInfos = new Table<BusinessInfo>(NAME_BUSINESS, KEY_NONE) {
+			@Override
+			boolean isInfo(JSONObject json) {
+				return BusinessInfo.isBusinessInfo(json);
+			}
+
+			@Override
+			BusinessInfo parse(JSONObject json) throws JSONException {
+				return BusinessInfo.parse(json);
+			}
+
+			@Override
+			JSONObject toJson(BusinessInfo info) throws JSONException {
+				return info.toJson();
+			}
+
+			@Override
+			void request() {
+				NetworkService.getBusinessInfoList(getServerURL(),
+						new BusinessInfoListRequestListener() {
+							@Override
+							public void onBusinessInfoListRequestFailed() {
+								onFetchFailed();
+							}
+
+							@Override
+							public void onBusinessInfoListResponseSuccess(
+									List<BusinessInfo> businessInfos) {
+								onFetched(businessInfos);
+							}
+
+							@Override
+							public void onBusinessInfoListResponseFailed() {
+								onFetchFailed();
+							}
+						});
+			}
+		};
+
+		mUserTypeInfos = new Table<UserTypeInfo>(NAME_USER_TYPE, KEY_NONE) {
+			@Override
+			boolean isInfo(JSONObject json) {
+				return UserTypeInfo.isUserTypeInfo(json);
+			}
+
+			@Override
+			UserTypeInfo parse(JSONObject json) throws JSONException {
+				return UserTypeInfo.parse(json);
+			}
+
+			@Override
+			JSONObject toJson(UserTypeInfo info) throws JSONException {
+				return info.toJson();
+			}
+
+			@Override
+			void request() {
+				NetworkService.getUserTypeInfoList(getServerURL(),
+						new UserTypeInfoListRequestListener() {
+							@Override
+							public void onUserTypeInfoListRequestFailed() {
+								onFetchFailed();
+							}
+
+							@Override
+							public void onUserTypeInfoListResponseSuccess(
+									List<UserTypeInfo> userTypeInfos) {
+								onFetched(userTypeInfos);
+							}
+
+							@Override
+							public void onUserTypeInfoListResponseFailed() {
+								onFetchFailed();
+							}
+						});
+			}
+		};
+	}
+
+	/**
+	 * Preload the cached lists from the files, and refresh the business list
+	 * and the user type list in the background if they're missing or
+	 * expired. The expired enterprise lists are refreshed when they're used.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	public void preload() {
+		mBusinessInfos.preload();
+		mUserTypeInfos.preload();
+
+		String[] names = mDirectory.list();
+		if (names == null) {
+			return;
+		}
+		for (String name : names) {
+			if (name.startsWith(NAME_ENTERPRISE_PREFIX)
+					&& name.endsWith(FILE_SUFFIX)) {
+				try {
+					getEnterpriseTable(
+							Integer.parseInt(name.substring(
+									NAME_ENTERPRISE_PREFIX.length(),
+									name.length() - FILE_SUFFIX.length())))
+							.read();
+				} catch (NumberFormatException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the business list.
+	 * 
+	 * @param listener
+	 *            The listener to receive the list if it's not cached.
+	 * @return The cached list, or null if it's not cached.
+	 * @author Luo Yinzhuo
+	 */
+	public List<BusinessInfo> getBusinessInfoList(
+			OnReferenceDataListener<BusinessInfo> listener) {
+		return mBusinessInfos.get(listener);
+	}
+
+	/**
+	 * Get the enterprise list of a business.
+	 * 
+	 * @param businessId
+	 *            The business id.
+	 * @param listener
+	 *            The listener to receive the list if it's not cached.
+	 * @return The cached list, or null if it's not cached.
+	 * @author Luo Yinzhuo
+	 */
+	public List<EnterpriseInfo> getEnterpriseInfoList(int businessId,
+			OnReferenceDataListener<EnterpriseInfo> listener) {
+		return getEnterpriseTable(businessId).get(listener);
+	}
+
+	/**
+	 * Get the user type list.
+	 * 
+	 * @param listener
+	 *            The listener to receive the list if it's not cached.
+	 * @return The cached list, or null if it's not cached.
+	 * @author Luo Yinzhuo
+	 */
+	public List<UserTypeInfo> getUserTypeInfoList(
+			OnReferenceDataListener<UserTypeInfo> listener) {
+		return mUserTypeInfos.get(listener);
+	}
+
+	/**
+	 * Get the enterprise list {@link Table} of a business.
+	 * 
+	 * @param businessId
+	 *            The business id.
+	 * @return The {@link Table}.
+	 * @author Luo Yinzhuo
+	 */
+	private Table<EnterpriseInfo> getEnterpriseTable(final int businessId) {
+		Table<EnterpriseInfo> table = mEnterpriseInfos.get(businessId);
+		if (table == null) {
+			table = new Table<EnterpriseInfo>(NAME_ENTERPRISE_PREFIX
+					+ businessId, businessId) {
+				@Override
+				boolean isInfo(JSONObject json) {
+					return EnterpriseInfo.isEnterpriseInfo(json);
+				}
+
+				@Override
+				EnterpriseInfo parse(JSONObject json) throws JSONException {
+					return EnterpriseInfo.parse(json);
+				}
+
+				@Override
+				JSONObject toJson(EnterpriseInfo info) throws JSONException {
+					return info.toJson();
+				}
+
+				@Override
+				void request() {
+					NetworkService.getEnterpriseInfoList(getServerURL(),
+							businessId, new EnterpriseInfoListRequestListener() {
+								@Override
+								public void onEnterpriseInfoListRequestFailed() {
+									onFetchFailed();
+								}
+
+								@Override
+								public void onEnterpriseInfoListResponseSuccess(
+										int businessId,
+										List<EnterpriseInfo> enterpriseInfos) {
+									onFetched(enterpriseInfos);
+								}
+
+								@Override
+								public void onEnterpriseInfoListResponseFailed() {
+									onFetchFailed();
+								}
+							});
+				}
+			};
+			mEnterpriseInfos.put(businessId, table);
+		}
+		return table;
+	}
+
+	/**
+	 * Get the server URL.
+	 * 
+	 * @return The server URL.
+	 * @author Luo Yinzhuo
+	 */
+	private String getServerURL() {
+		return mContext.getString(R.string.server_url);
+	}
+
+	/**
+	 * A cached reference data list and its file. The state is only accessed on
+	 * the UI thread, the file is read and written on the
+	 * {@link ReferenceDataCache#EXECUTOR}.
+	 * 
+	 * @param <T>
+	 *            The reference data type.
+	 * @author Luo Yinzhuo
+	 */
+	private abstract class Table<T> {
+		/** The file. */
+		private final File mFile;
+		/** The key passed to the listeners. */
+		private final int mKey;
+		/** The listeners waiting for the list. */
+		private final List<OnReferenceDataListener<T>> mListeners = new ArrayList<OnReferenceDataListener<T>>();
+
+		/** The cached list, or null if there is none. */
+		private List<T> mData;
+		/** The time the cached list is fetched. */
+		private long mTime;
+		/** The flag to identify the file has been read. */
+		private boolean mRead = false;
+		/** The flag to identify the file is being read. */
+		private boolean mReading = false;
+		/** The flag to identify the list is being fetched. */
+		private boolean mFetching = false;
+
+		/**
+		 * Construct a new instance.
+		 * 
+		 * @param name
+		 *            The file name.
+		 * @param key
+		 *            The key passed to the listeners.
+		 */
+		private Table(String name, int key) {
+			mFile = new File(mDirectory, name + FILE_SUFFIX);
+			mKey = key;
+		}
+
+		/**
+		 * Check if the JSON object is a valid reference data.
+		 * 
+		 * @param json
+		 *            The JSON object.
+		 * @return True if it's valid, otherwise false.
+		 * @author Luo Yinzhuo
+		 */
+		abstract boolean isInfo(JSONObject json);
+
+		/**
+		 * Parse a reference data from its JSON object.
+		 * 
+		 * @param json
+		 *            The JSON object.
+		 * @return The reference data.
+		 * @throws JSONException
+		 *             If the reference data has error.
+		 * @author Luo Yinzhuo
+		 */
+		abstract T parse(JSONObject json) throws JSONException;
+
+		/**
+		 * Convert a reference data to its JSON object.
+		 * 
+		 * @param info
+		 *            The reference data.
+		 * @return The JSON object.
+		 * @throws JSONException
+		 *             If the reference data has error.
+		 * @author Luo Yinzhuo
+		 */
+		abstract JSONObject toJson(T info) throws JSONException;
+
+		/**
+		 * Request the list from the server, which must end with
+		 * {@link #onFetched(List)} or {@link #onFetchFailed()}.
+		 * 
+		 * @author Luo Yinzhuo
+		 */
+		abstract void request();
+
+		/**
+		 * Get the cached list, and refresh it in the background if expired.
+		 * 
+		 * @param listener
+		 *            The listener to receive the list if it's not cached.
+		 * @return The cached list, or null if it's not cached.
+		 * @author Luo Yinzhuo
+		 */
+		List<T> get(OnReferenceDataListener<T> listener) {
+			if (mData != null) {
+				if (isExpired()) {
+					fetch();
+				}
+				return mData;
+			}
+
+			if (!mListeners.contains(listener)) {
+				mListeners.add(listener);
+			}
+			if (mRead) {
+				fetch();
+			} else {
+				read();
+			}
+			return null;
+		}
+
+		/**
+		 * Read the file, and fetch the list if it's missing or expired.
+		 * 
+		 * @author Luo Yinzhuo
+		 */
+		void preload() {
+			if (mRead) {
+				if (mData == null || isExpired()) {
+					fetch();
+				}
+			} else {
+				read();
+			}
+		}
+
+		/**
+		 * Read the file in the background. The list is fetched afterwards if
+		 * it's missing or expired.
+		 * 
+		 * @author Luo Yinzhuo
+		 */
+		void read() {
+			if (mRead || mReading) {
+				return;
+			}
+			mReading = true;
+
+			EXECUTOR.execute(new Runnable() {
+				@Override
+				public void run() {
+					long time = 0;
+					List<T> data = null;
+					try {
+						JSONObject json = new JSONObject(readFile(mFile));
+						if (json.getInt(KEY_VERSION) == VERSION) {
+							time = json.getLong(KEY_TIME);
+							data = parseData(json.getJSONArray(KEY_DATA));
+						}
+					} catch (IOException e) {
+						// Not cached yet.
+					} catch (JSONException e) {
+						e.printStackTrace();
+					}
+
+					final long readTime = time;
+					final List<T> readData = data;
+					mHandler.post(new Runnable() {
+						@Override
+						public void run() {
+							onRead(readData, readTime);
+						}
+					});
+				}
+			});
+		}
+
+		/**
+		 * Called when the file is read.
+		 * 
+		 * @param data
+		 *            The list, or null if there is none.
+		 * @param time
+		 *            The time the list is fetched.
+		 * @author Luo Yinzhuo
+		 */
+		private void onRead(List<T> data, long time) {
+			mReading = false;
+			mRead = true;
+			if (data != null && mData == null) {
+				mData = data;
+				mTime = time;
+				notifyLoaded();
+			}
+
+			if (mData == null || isExpired()) {
+				fetch();
+			}
+		}
+
+		/**
+		 * Fetch the list from the server unless it's being fetched.
+		 * 
+		 * @author Luo Yinzhuo
+		 */
+		private void fetch() {
+			if (mFetching) {
+				return;
+			}
+			mFetching = true;
+
+			try {
+				request();
+			} catch (RejectedExecutionException e) {
+				e.printStackTrace();
+				onFetchFailed();
+			}
+		}
+
+		/**
+		 * Called on the network thread when the list is fetched.
+		 * 
+		 * @param data
+		 *            The list.
+		 * @author Luo Yinzhuo
+		 */
+		void onFetched(final List<T> data) {
+			final long time = System.currentTimeMillis();
+			EXECUTOR.execute(new Runnable() {
+				@Override
+				public void run() {
+					write(data, time);
+				}
+			});
+
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					mFetching = false;
+					mData = data;
+					mTime = time;
+					notifyLoaded();
+				}
+			});
+		}
+
+		/**
+		 * Called when the list failed to fetch. The listeners are only told if
+		 * there's no cached list.
+		 * 
+		 * @author Luo Yinzhuo
+		 */
+		void onFetchFailed() {
+			mHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					mFetching = false;
+					if (mData != null) {
+						return;
+					}
+
+					List<OnReferenceDataListener<T>> listeners = new ArrayList<OnReferenceDataListener<T>>(
+							mListeners);
+					mListeners.clear();
+					for (OnReferenceDataListener<T> listener : listeners) {
+						listener.onReferenceDataFailed(mKey);
+					}
+				}
+			});
+		}
+
+		/**
+		 * Notify the waiting listeners of the cached list.
+		 * 
+		 * @author Luo Yinzhuo
+		 */
+		private void notifyLoaded() {
+			List<OnReferenceDataListener<T>> listeners = new ArrayList<OnReferenceDataListener<T>>(
+					mListeners);
+			mListeners.clear();
+			for (OnReferenceDataListener<T> listener : listeners) {
+				listener.onReferenceDataLoaded(mKey, mData);
+			}
+		}
+
+		/**
+		 * Check if the cached list has expired.
+		 * 
+		 * @return True if it has expired, otherwise false.
+		 * @author Luo Yinzhuo
+		 */
+		private boolean isExpired() {
+			final long age = System.currentTimeMillis() - mTime;
+			return age < 0 || age > TTL;
+		}
+
+		/**
+		 * Parse the list from its JSON array.
+		 * 
+		 * @param json
+		 *            The JSON array.
+		 * @return The list.
+		 * @throws JSONException
+		 *             If the list has error.
+		 * @author Luo Yinzhuo
+		 */
+		private List<T> parseData(JSONArray json) throws JSONException {
+			List<T> data = new ArrayList<T>(json.length());
+			for (int i = 0; i < json.length(); i++) {
+				JSONObject info = json.getJSONObject(i);
+				if (isInfo(info)) {
+					data.add(parse(info));
+				}
+			}
+			return data;
+		}
+
+		/**
+		 * Write the list to the file. It's written to a temporary file first,
+		 * so a crash never leaves a torn file.
+		 * 
+		 * @param data
+		 *            The list.
+		 * @param time
+		 *            The time the list is fetched.
+		 * @author Luo Yinzhuo
+		 */
+		private void write(List<T> data, long time) {
+			File temp = new File(mFile.getPath() + ".tmp");
+			try {
+				JSONArray array = new JSONArray();
+				for (T info : data) {
+					array.put(toJson(info));
+				}
+				JSONObject json = new JSONObject();
+				json.put(KEY_VERSION, VERSION);
+				json.put(KEY_TIME, time);
+				json.put(KEY_DATA, array);
+
+				mDirectory.mkdirs();
+				OutputStream out = new FileOutputStream(temp);
+				try {
+					out.write(json.toString().getBytes("UTF-8"));
+				} finally {
+					out.close();
+				}
+				if (!temp.renameTo(mFile)) {
+					temp.delete();
+				}
+			} catch (JSONException e) {
+				e.printStackTrace();
+			} catch (IOException e) {
+				e.printStackTrace();
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Read the whole file as a UTF-8 string.
+	 * 
+	 * @param file
+	 *            The file.
+	 * @return The content.
+	 * @throws IOException
+	 *             If error occurs when reading the file.
+	 * @author Luo Yinzhuo
+	 */
+	private static String readFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				out.write(buffer, 0, count);
+			}
+			return out.toString("UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+}
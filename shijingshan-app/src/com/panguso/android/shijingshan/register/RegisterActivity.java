@@ -84,6 +84,8 @@ public class RegisterActivity extends Activity implements OnBackListener,
 	/** The retry type user type. */
 	private static final int RETRY_TYPE_USER_TYPE = 3;
 
+	/** The waiting dialog. */
+	private WaitingDialog mWaitingDialog;
 	/** The business dialog. */
 	private BusinessDialog mBusinessDialog;
 	/** The enterprise dialog. */
@@ -95,7 +97,8 @@ public class RegisterActivity extends Activity implements OnBackListener,
 	protected Dialog onCreateDialog(int id) {
 		switch (id) {
 		case DIALOG_WAITING:
-			return new WaitingDialog(this);
+			mWaitingDialog = new WaitingDialog(this);
+			return mWaitingDialog;
 		case DIALOG_RETRY:
 			return new MessageDialog(this, DIALOG_RETRY,
 					getString(R.string.retry_title),
@@ -234,6 +237,21 @@ public class RegisterActivity extends Activity implements OnBackListener,
 
 		mRegister = (Button) findViewById(R.id.register);
 		mRegister.setOnClickListener(this);
+
+		ReferenceDataCache.getInstance(this).preload();
+	}
+
+	/**
+	 * Dismiss the waiting dialog if it's showing. The reference data dialogs
+	 * could be closed without waiting since their lists are cached.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	@SuppressWarnings("deprecation")
+	private void dismissWaitingDialog() {
+		if (mWaitingDialog != null && mWaitingDialog.isShowing()) {
+			dismissDialog(DIALOG_WAITING);
+		}
 	}
 
 	@Override
@@ -387,7 +405,7 @@ public class RegisterActivity extends Activity implements OnBackListener,
 	@SuppressWarnings("deprecation")
 	@Override
 	public void onBusinessDialogBack() {
-		dismissDialog(DIALOG_WAITING);
+		dismissWaitingDialog();
 		dismissDialog(DIALOG_BUSINESS);
 	}
 
@@ -444,7 +462,7 @@ public class RegisterActivity extends Activity implements OnBackListener,
 	@SuppressWarnings("deprecation")
 	@Override
 	public void onEnterpriseDialogBack() {
-		dismissDialog(DIALOG_WAITING);
+		dismissWaitingDialog();
 		dismissDialog(DIALOG_ENTERPRISE);
 		if (!mBusinessDialog.isShowing()) {
 			showDialog(DIALOG_BUSINESS);
@@ -489,7 +507,7 @@ public class RegisterActivity extends Activity implements OnBackListener,
 	@SuppressWarnings("deprecation")
 	@Override
 	public void onUserTypeDialogBack() {
-		dismissDialog(DIALOG_WAITING);
+		dismissWaitingDialog();
 		dismissDialog(DIALOG_USER_TYPE);
 	}
 
@@ -3,8 +3,8 @@ package com.panguso.android.shijingshan.register.business;
 import java.util.List;
 
 import com.panguso.android.shijingshan.R;
-import com.panguso.android.shijingshan.net.NetworkService;
-import com.panguso.android.shijingshan.net.NetworkService.BusinessInfoListRequestListener;
+import com.panguso.android.shijingshan.register.ReferenceDataCache;
+import com.panguso.android.shijingshan.register.ReferenceDataCache.OnReferenceDataListener;
 import com.panguso.android.shijingshan.register.business.BusinessButton.OnBusinessButtonListener;
 import com.panguso.android.shijingshan.widget.BlueTitleBar;
 import com.panguso.android.shijingshan.widget.UnderlineButton;
@@ -27,7 +27,7 @@ import android.widget.LinearLayout;
  * 
  */
 public class BusinessDialog extends Dialog implements OnBackListener,
-		BusinessInfoListRequestListener, OnBusinessButtonListener,
+		OnReferenceDataListener<BusinessInfo>, OnBusinessButtonListener,
 		OnClickListener {
 
 	/**
@@ -128,8 +128,28 @@ public class BusinessDialog extends Dialog implements OnBackListener,
 		window.setBackgroundDrawable(new ColorDrawable(Color.WHITE));
 
 		mListener = listener;
-		NetworkService.getBusinessInfoList(
-				context.getString(R.string.server_url), this);
+		List<BusinessInfo> businessInfos = ReferenceDataCache.getInstance(
+				context).getBusinessInfoList(this);
+		if (businessInfos != null) {
+			addBusinessButtons(businessInfos);
+			mInitialized = true;
+		}
+	}
+
+	/**
+	 * Add the {@link BusinessButton}s.
+	 * 
+	 * @param businessInfos
+	 *            The list of {@link BusinessInfo}.
+	 * @author Luo Yinzhuo
+	 */
+	private void addBusinessButtons(List<BusinessInfo> businessInfos) {
+		for (BusinessInfo businessInfo : businessInfos) {
+			BusinessButton button = businessInfo
+					.getBusinessButton(getContext());
+			button.setOnBusinessButtonListener(this);
+			mBusiness.addView(button);
+		}
 	}
 
 	@Override
@@ -157,29 +177,14 @@ public class BusinessDialog extends Dialog implements OnBackListener,
 	}
 
 	@Override
-	public void onBusinessInfoListRequestFailed() {
-	}
+	public void onReferenceDataLoaded(int key, List<BusinessInfo> businessInfos) {
+		addBusinessButtons(businessInfos);
 
-	@Override
-	public void onBusinessInfoListResponseSuccess(
-			final List<BusinessInfo> businessInfos) {
-		getOwnerActivity().runOnUiThread(new Runnable() {
-			@Override
-			public void run() {
-				for (BusinessInfo businessInfo : businessInfos) {
-					BusinessButton button = businessInfo
-							.getBusinessButton(getContext());
-					button.setOnBusinessButtonListener(BusinessDialog.this);
-					mBusiness.addView(button);
-				}
-
-				if (mListener != null) {
-					mListener.onBusinessDialogInitialized();
-				}
-
-				mInitialized = true;
-			}
-		});
+		if (mListener != null) {
+			mListener.onBusinessDialogInitialized();
+		}
+
+		mInitialized = true;
 	}
 
 	/**
@@ -188,23 +193,21 @@ public class BusinessDialog extends Dialog implements OnBackListener,
 	 * @author Luo Yinzhuo
 	 */
 	public void retry() {
-		NetworkService.getBusinessInfoList(
-				getContext().getString(R.string.server_url), this);
+		List<BusinessInfo> businessInfos = ReferenceDataCache.getInstance(
+				getContext()).getBusinessInfoList(this);
 		mRetry = false;
+		if (businessInfos != null) {
+			onReferenceDataLoaded(ReferenceDataCache.KEY_NONE, businessInfos);
+		}
 	}
 
 	@Override
-	public void onBusinessInfoListResponseFailed() {
-		getOwnerActivity().runOnUiThread(new Runnable() {
-			@Override
-			public void run() {
-				mRetry = true;
-				
-				if (mListener != null) {
-					mListener.onBusinessDialogInitializeFailed();
-				}
-			}
-		});
+	public void onReferenceDataFailed(int key) {
+		mRetry = true;
+
+		if (mListener != null) {
+			mListener.onBusinessDialogInitializeFailed();
+		}
 	}
 
 	@Override
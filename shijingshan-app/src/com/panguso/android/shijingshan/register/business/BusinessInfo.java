@@ -69,6 +69,22 @@ public class BusinessInfo {
 		return new BusinessInfo(json.getInt(KEY_BUSINESS_ID), json.getString(KEY_BUSINESS_NAME));
 	}
 
+	/**
+	 * Convert the business info to its JSON object, which could be parsed by
+	 * {@link #parse(JSONObject)}.
+	 * 
+	 * @return The business info JSON object.
+	 * @throws JSONException
+	 *             If the business info has error.
+	 * @author Luo Yinzhuo
+	 */
+	public JSONObject toJson() throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put(KEY_BUSINESS_ID, mId);
+		json.put(KEY_BUSINESS_NAME, mName);
+		return json;
+	}
+
 	@Override
     public String toString() {
 	    return "BusinessInfo [mId=" + mId + ", mName=" + mName + "]";
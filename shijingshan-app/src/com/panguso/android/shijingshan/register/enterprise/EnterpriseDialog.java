@@ -5,10 +5,15 @@ package com.panguso.android.shijingshan.register.enterprise;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import com.panguso.android.shijingshan.MemoryCoordinator;
+import com.panguso.android.shijingshan.MemoryCoordinator.TrimPolicy;
+import com.panguso.android.shijingshan.MemoryCoordinator.Trimmable;
 import com.panguso.android.shijingshan.R;
-import com.panguso.android.shijingshan.net.NetworkService;
-import com.panguso.android.shijingshan.net.NetworkService.EnterpriseInfoListRequestListener;
+import com.panguso.android.shijingshan.register.ReferenceDataCache;
+import com.panguso.android.shijingshan.register.ReferenceDataCache.OnReferenceDataListener;
 import com.panguso.android.shijingshan.register.enterprise.EnterpriseButton.OnEnterpriseButtonListener;
 import com.panguso.android.shijingshan.widget.BlueTitleBar;
 import com.panguso.android.shijingshan.widget.BlueTitleBar.OnBackListener;
@@ -17,10 +22,15 @@ import android.app.Dialog;
 import android.content.Context;
 import android.graphics.Color;
 import android.graphics.drawable.ColorDrawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.SparseArray;
 import android.view.Window;
 import android.view.WindowManager.LayoutParams;
-import android.widget.LinearLayout;
+import android.widget.EditText;
+import android.widget.ListView;
 
 /**
  * Specific for the enterprise select dialog.
@@ -29,7 +39,8 @@ import android.widget.LinearLayout;
  * 
  */
 public class EnterpriseDialog extends Dialog implements OnBackListener,
-		EnterpriseInfoListRequestListener, OnEnterpriseButtonListener {
+		OnReferenceDataListener<EnterpriseInfo>, OnEnterpriseButtonListener,
+		TextWatcher, Trimmable {
 
 	/**
 	 * Interface definition for a callback to be invoked during the request for
@@ -81,17 +92,31 @@ public class EnterpriseDialog extends Dialog implements OnBackListener,
 		public void onEnterpriseSelected(int id, String name);
 	}
 
-	/** The array to store business enterprise info. */
-	private final SparseArray<List<EnterpriseInfo>> mBusinessEnterpriseArray = new SparseArray<List<EnterpriseInfo>>();
-	/** The enterprise button cache. */
-	private final List<EnterpriseButton> mEnterpriseButtonCache = new ArrayList<EnterpriseButton>();
+	/** The executor to build the {@link EnterpriseSearchIndex}es. */
+	private static final ExecutorService EXECUTOR = Executors
+			.newSingleThreadExecutor();
+
+	/** The UI thread handler. */
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	/** The built search indexes by business id. */
+	private final SparseArray<EnterpriseSearchIndex> mSearchIndexes = new SparseArray<EnterpriseSearchIndex>();
+	/** The search index of the shown list, or null if it's being built. */
+	private EnterpriseSearchIndex mSearchIndex;
+	/** The estimated byte count of an enterprise in a search index. */
+	private static final int ESTIMATED_INDEX_SIZE_PER_ENTERPRISE = 256;
 
 	/** The title bar. */
 	private final BlueTitleBar mTitleBar;
-	/** The enterprise layout. */
-	private final LinearLayout mEnterprise;
+	/** The search box. */
+	private final EditText mSearch;
+	/** The enterprise list. */
+	private final ListView mEnterprise;
+	/** The enterprise list adapter. */
+	private final EnterpriseListAdapter mAdapter;
 	/** The business id. */
 	private int mBusinessId;
+	/** The initialize flag. */
+	private boolean mInitialized = false;
 	/** The listener. */
 	private final OnEnterpriseDialogListener mListener;
 
@@ -116,16 +141,52 @@ public class EnterpriseDialog extends Dialog implements OnBackListener,
 		mTitleBar.setTitle(context.getString(R.string.enterprise_title));
 		mTitleBar.setOnBackListener(this);
 
-		mEnterprise = (LinearLayout) findViewById(R.id.enterprise_layout);
+		mSearch = (EditText) findViewById(R.id.enterprise_search);
+		mSearch.addTextChangedListener(this);
+
+		mAdapter = new EnterpriseListAdapter(context, this);
+		mEnterprise = (ListView) findViewById(R.id.enterprise_list);
+		mEnterprise.setAdapter(mAdapter);
 
 		Window window = getWindow();
 		window.setLayout(LayoutParams.FILL_PARENT, LayoutParams.FILL_PARENT);
 		window.setBackgroundDrawable(new ColorDrawable(Color.WHITE));
 
 		mListener = listener;
-		mBusinessId = businessId;
-		NetworkService.getEnterpriseInfoList(
-				context.getString(R.string.server_url), businessId, this);
+		setBusinessId(businessId);
+	}
+
+	@Override
+	protected void onStart() {
+		super.onStart();
+		MemoryCoordinator.getInstance().register("enterprise search indexes",
+				this, TrimPolicy.CACHE);
+	}
+
+	@Override
+	protected void onStop() {
+		MemoryCoordinator.getInstance().unregister(this);
+		super.onStop();
+	}
+
+	@Override
+	public long trim(float retain) {
+		// Only the indexes of the businesses not shown are dropped.
+		final List<Integer> hidden = new ArrayList<Integer>();
+		for (int i = 0; i < mSearchIndexes.size(); i++) {
+			if (mSearchIndexes.keyAt(i) != mBusinessId) {
+				hidden.add(mSearchIndexes.keyAt(i));
+			}
+		}
+
+		long reclaimed = 0;
+		for (int businessId : hidden.subList((int) (hidden.size() * retain),
+				hidden.size())) {
+			reclaimed += mSearchIndexes.get(businessId).getEnterpriseInfos()
+					.size() * ESTIMATED_INDEX_SIZE_PER_ENTERPRISE;
+			mSearchIndexes.delete(businessId);
+		}
+		return reclaimed;
 	}
 
 	/**
@@ -137,32 +198,87 @@ public class EnterpriseDialog extends Dialog implements OnBackListener,
 	 */
 	public void setBusinessId(int businessId) {
 		mBusinessId = businessId;
-		mEnterprise.removeAllViews();
-
-		List<EnterpriseInfo> enterpriseInfos = mBusinessEnterpriseArray
-				.get(mBusinessId);
-		if (enterpriseInfos == null) {
-			NetworkService.getEnterpriseInfoList(
-					getContext().getString(R.string.server_url), businessId,
-					this);
-		} else {
-			int buttonSize = mEnterpriseButtonCache.size();
-
-			for (int i = 0; i < enterpriseInfos.size(); i++) {
-				EnterpriseInfo enterpriseInfo = enterpriseInfos.get(i);
-
-				EnterpriseButton button;
-				if (i < buttonSize) {
-					button = mEnterpriseButtonCache.get(i);
-					button = enterpriseInfo.getEnterpriseButton(button);
-				} else {
-					button = enterpriseInfo.getEnterpriseButton(getContext());
-					button.setOnEnterpriseButtonListener(EnterpriseDialog.this);
-					mEnterpriseButtonCache.add(button);
-				}
-				mEnterprise.addView(button);
+		mSearch.setText("");
+
+		List<EnterpriseInfo> enterpriseInfos = ReferenceDataCache.getInstance(
+				getContext()).getEnterpriseInfoList(businessId, this);
+		mInitialized = enterpriseInfos != null;
+		setEnterpriseInfos(mInitialized ? enterpriseInfos
+				: new ArrayList<EnterpriseInfo>());
+	}
+
+	/**
+	 * Show the {@link EnterpriseInfo}s of the current business, and build
+	 * their {@link EnterpriseSearchIndex} in the background unless it's built
+	 * already. The search is applied once the index is ready.
+	 * 
+	 * @param enterpriseInfos
+	 *            The list of {@link EnterpriseInfo}.
+	 * @author Luo Yinzhuo
+	 */
+	private void setEnterpriseInfos(
+			final List<EnterpriseInfo> enterpriseInfos) {
+		mAdapter.setEnterpriseInfos(enterpriseInfos);
+
+		final int businessId = mBusinessId;
+		mSearchIndex = mSearchIndexes.get(businessId);
+		if (mSearchIndex != null
+				&& mSearchIndex.getEnterpriseInfos() == enterpriseInfos) {
+			search();
+			return;
+		}
+
+		mSearchIndex = null;
+		if (enterpriseInfos.isEmpty()) {
+			return;
+		}
+		EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				final EnterpriseSearchIndex searchIndex = new EnterpriseSearchIndex(
+						enterpriseInfos);
+				mHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						mSearchIndexes.put(businessId, searchIndex);
+						if (mAdapter.getEnterpriseInfos() == enterpriseInfos) {
+							mSearchIndex = searchIndex;
+							search();
+						}
+					}
+				});
 			}
+		});
+	}
+
+	/**
+	 * Filter the shown {@link EnterpriseInfo}s by the search box.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void search() {
+		if (mSearchIndex == null) {
+			return;
 		}
+
+		final String query = mSearch.getText().toString().trim();
+		mAdapter.setFilter(query.length() == 0 ? null : mSearchIndex
+				.search(query));
+		mEnterprise.setSelection(0);
+	}
+
+	@Override
+	public void beforeTextChanged(CharSequence s, int start, int count,
+			int after) {
+	}
+
+	@Override
+	public void onTextChanged(CharSequence s, int start, int before, int count) {
+		search();
+	}
+
+	@Override
+	public void afterTextChanged(Editable s) {
 	}
 
 	@Override
@@ -180,49 +296,24 @@ public class EnterpriseDialog extends Dialog implements OnBackListener,
 	@Override
 	public void show() {
 		super.show();
-		if (mBusinessEnterpriseArray.get(mBusinessId) == null
-				&& mListener != null) {
+		if (!mInitialized && mListener != null) {
 			mListener.onEnterpriseDialogInitializing();
 		}
 	}
 
 	@Override
-	public void onEnterpriseInfoListRequestFailed() {
-	}
-
-	@Override
-	public void onEnterpriseInfoListResponseSuccess(final int businessId,
-			final List<EnterpriseInfo> enterpriseInfos) {
-		mBusinessEnterpriseArray.put(businessId, enterpriseInfos);
-
-		getOwnerActivity().runOnUiThread(new Runnable() {
-			@Override
-			public void run() {
-				mEnterprise.removeAllViews();
-
-				int buttonSize = mEnterpriseButtonCache.size();
-
-				for (int i = 0; i < enterpriseInfos.size(); i++) {
-					EnterpriseInfo enterpriseInfo = enterpriseInfos.get(i);
-
-					EnterpriseButton button;
-					if (i < buttonSize) {
-						button = mEnterpriseButtonCache.get(i);
-						button = enterpriseInfo.getEnterpriseButton(button);
-					} else {
-						button = enterpriseInfo
-								.getEnterpriseButton(getContext());
-						button.setOnEnterpriseButtonListener(EnterpriseDialog.this);
-						mEnterpriseButtonCache.add(button);
-					}
-					mEnterprise.addView(button);
-				}
+	public void onReferenceDataLoaded(int businessId,
+			List<EnterpriseInfo> enterpriseInfos) {
+		// Ignore the list of the business selected before.
+		if (businessId != mBusinessId) {
+			return;
+		}
+		setEnterpriseInfos(enterpriseInfos);
+		mInitialized = true;
 
-				if (mListener != null) {
-					mListener.onEnterpriseDialogInitialized();
-				}
-			}
-		});
+		if (mListener != null) {
+			mListener.onEnterpriseDialogInitialized();
+		}
 	}
 
 	/**
@@ -231,20 +322,18 @@ public class EnterpriseDialog extends Dialog implements OnBackListener,
 	 * @author Luo Yinzhuo
 	 */
 	public void retry() {
-		NetworkService.getEnterpriseInfoList(
-				getContext().getString(R.string.server_url), mBusinessId, this);
+		List<EnterpriseInfo> enterpriseInfos = ReferenceDataCache.getInstance(
+				getContext()).getEnterpriseInfoList(mBusinessId, this);
+		if (enterpriseInfos != null) {
+			onReferenceDataLoaded(mBusinessId, enterpriseInfos);
+		}
 	}
 
 	@Override
-	public void onEnterpriseInfoListResponseFailed() {
-		getOwnerActivity().runOnUiThread(new Runnable() {
-			@Override
-			public void run() {
-				if (mListener != null) {
-					mListener.onEnterpriseDialogInitializeFailed();
-				}
-			}
-		});
+	public void onReferenceDataFailed(int businessId) {
+		if (businessId == mBusinessId && mListener != null) {
+			mListener.onEnterpriseDialogInitializeFailed();
+		}
 	}
 
 	@Override
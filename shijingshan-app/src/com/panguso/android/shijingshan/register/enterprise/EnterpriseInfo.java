@@ -32,6 +32,16 @@ public class EnterpriseInfo {
 		mName = name;
 	}
 
+	/**
+	 * Get the enterprise name.
+	 * 
+	 * @return The enterprise name.
+	 * @author Luo Yinzhuo
+	 */
+	String getName() {
+		return mName;
+	}
+
 	/**
 	 * Get the {@link EnterpriseButton} based on the {@link EnterpriseInfo}.
 	 * 
@@ -93,6 +103,22 @@ public class EnterpriseInfo {
 				json.getString(KEY_ENTERPRISE_NAME));
 	}
 
+	/**
+	 * Convert the enterprise info to its JSON object, which could be parsed by
+	 * {@link #parse(JSONObject)}.
+	 * 
+	 * @return The enterprise info JSON object.
+	 * @throws JSONException
+	 *             If the enterprise info has error.
+	 * @author Luo Yinzhuo
+	 */
+	public JSONObject toJson() throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put(KEY_ENTERPRISE_ID, mId);
+		json.put(KEY_ENTERPRISE_NAME, mName);
+		return json;
+	}
+
 	@Override
 	public String toString() {
 		return "EnterpriseInfo [mId=" + mId + ", mName=" + mName + "]";
@@ -0,0 +1,106 @@
+package com.panguso.android.shijingshan.register.enterprise;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.panguso.android.shijingshan.register.enterprise.EnterpriseButton.OnEnterpriseButtonListener;
+
+import android.content.Context;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+
+/**
+ * The adapter of the enterprise list. It shows either all the
+ * {@link EnterpriseInfo}s or the ones matched by the
+ * {@link EnterpriseSearchIndex}, and the {@link EnterpriseButton}s are
+ * recycled.
+ * 
+ * @author Luo Yinzhuo
+ */
+class EnterpriseListAdapter extends BaseAdapter {
+	/** The context. */
+	private final Context mContext;
+	/** The listener set to the {@link EnterpriseButton}s. */
+	private final OnEnterpriseButtonListener mListener;
+	/** The {@link EnterpriseInfo}s. */
+	private List<EnterpriseInfo> mEnterpriseInfos = new ArrayList<EnterpriseInfo>();
+	/** The indexes of the matched {@link EnterpriseInfo}s, or null for all. */
+	private int[] mFilter;
+
+	/**
+	 * Construct a new instance.
+	 * 
+	 * @param context
+	 *            The context.
+	 * @param listener
+	 *            The listener set to the {@link EnterpriseButton}s.
+	 */
+	EnterpriseListAdapter(Context context, OnEnterpriseButtonListener listener) {
+		mContext = context;
+		mListener = listener;
+	}
+
+	/**
+	 * Get the {@link EnterpriseInfo}s.
+	 * 
+	 * @return The {@link EnterpriseInfo}s.
+	 * @author Luo Yinzhuo
+	 */
+	List<EnterpriseInfo> getEnterpriseInfos() {
+		return mEnterpriseInfos;
+	}
+
+	/**
+	 * Show all the {@link EnterpriseInfo}s of a new list.
+	 * 
+	 * @param enterpriseInfos
+	 *            The {@link EnterpriseInfo}s.
+	 * @author Luo Yinzhuo
+	 */
+	void setEnterpriseInfos(List<EnterpriseInfo> enterpriseInfos) {
+		mEnterpriseInfos = enterpriseInfos;
+		mFilter = null;
+		notifyDataSetChanged();
+	}
+
+	/**
+	 * Show the matched {@link EnterpriseInfo}s only.
+	 * 
+	 * @param filter
+	 *            The sorted indexes of the matched {@link EnterpriseInfo}s,
+	 *            or null to show all.
+	 * @author Luo Yinzhuo
+	 */
+	void setFilter(int[] filter) {
+		mFilter = filter;
+		notifyDataSetChanged();
+	}
+
+	@Override
+	public int getCount() {
+		return mFilter == null ? mEnterpriseInfos.size() : mFilter.length;
+	}
+
+	@Override
+	public EnterpriseInfo getItem(int position) {
+		return mEnterpriseInfos.get(mFilter == null ? position
+				: mFilter[position]);
+	}
+
+	@Override
+	public long getItemId(int position) {
+		return position;
+	}
+
+	@Override
+	public View getView(int position, View convertView, ViewGroup parent) {
+		EnterpriseButton button = (EnterpriseButton) convertView;
+		if (button == null) {
+			button = getItem(position).getEnterpriseButton(mContext);
+			button.setOnEnterpriseButtonListener(mListener);
+			return button;
+		}
+		return getItem(position).getEnterpriseButton(button);
+	}
+}
@@ -0,0 +1,270 @@
+package com.panguso.android.shijingshan.register.enterprise;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The in-memory search index over the {@link EnterpriseInfo} names. Every name
+ * is put into a prefix trie twice, once as it is and once as the pinyin
+ * initials of its Chinese characters, and every trie node keeps the indexes of
+ * all the names under it. So a search only walks down the query and never
+ * visits the names. The index is immutable once built, and building it takes
+ * a while, so it should be built off the UI thread.
+ * 
+ * @author Luo Yinzhuo
+ */
+final class EnterpriseSearchIndex {
+	/** The empty search result. */
+	private static final int[] EMPTY = new int[0];
+
+	/** The charset whose level 1 Chinese characters are sorted by pinyin. */
+	private static final String CHARSET_GB2312 = "GB2312";
+	/**
+	 * The GB2312 area-position code of the first character of every pinyin
+	 * initial, followed by the end of the level 1 characters.
+	 */
+	private static final int[] INITIAL_CODES = { 1601, 1637, 1833, 2078, 2274,
+			2302, 2433, 2594, 2787, 3106, 3212, 3472, 3635, 3722, 3730, 3858,
+			4027, 4086, 4390, 4558, 4684, 4925, 5249, 5590 };
+	/** The pinyin initials matching {@link #INITIAL_CODES}. */
+	private static final char[] INITIALS = { 'a', 'b', 'c', 'd', 'e', 'f',
+			'g', 'h', 'j', 'k', 'l', 'm', 'n', 'o', 'p', 'q', 'r', 's', 't',
+			'w', 'x', 'y', 'z' };
+
+	/**
+	 * A trie node.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private static final class Node {
+		/** The sorted keys of the children. */
+		private char[] mKeys = new char[0];
+		/** The children matching {@link #mKeys}. */
+		private Node[] mChildren = new Node[0];
+		/** The sorted indexes of the names under this node. */
+		private int[] mIndexes = new int[4];
+		/** The count of {@link #mIndexes}. */
+		private int mCount;
+
+		/**
+		 * Get the child of a key.
+		 * 
+		 * @param key
+		 *            The key.
+		 * @return The child, or null if there is none.
+		 * @author Luo Yinzhuo
+		 */
+		private Node getChild(char key) {
+			final int position = Arrays.binarySearch(mKeys, key);
+			return position < 0 ? null : mChildren[position];
+		}
+
+		/**
+		 * Get the child of a key, or add it if there is none.
+		 * 
+		 * @param key
+		 *            The key.
+		 * @return The child.
+		 * @author Luo Yinzhuo
+		 */
+		private Node putChild(char key) {
+			int position = Arrays.binarySearch(mKeys, key);
+			if (position >= 0) {
+				return mChildren[position];
+			}
+
+			position = -position - 1;
+			final int size = mKeys.length;
+			char[] keys = new char[size + 1];
+			Node[] children = new Node[size + 1];
+			System.arraycopy(mKeys, 0, keys, 0, position);
+			System.arraycopy(mChildren, 0, children, 0, position);
+			System.arraycopy(mKeys, position, keys, position + 1, size
+					- position);
+			System.arraycopy(mChildren, position, children, position + 1,
+					size - position);
+			keys[position] = key;
+			children[position] = new Node();
+			mKeys = keys;
+			mChildren = children;
+			return children[position];
+		}
+
+		/**
+		 * Add the index of a name. The names are added in the index order, so
+		 * the same name reaching the node by both keys is only the last one.
+		 * 
+		 * @param index
+		 *            The index.
+		 * @author Luo Yinzhuo
+		 */
+		private void addIndex(int index) {
+			if (mCount > 0 && mIndexes[mCount - 1] == index) {
+				return;
+			}
+			if (mCount == mIndexes.length) {
+				int[] indexes = new int[mCount * 2];
+				System.arraycopy(mIndexes, 0, indexes, 0, mCount);
+				mIndexes = indexes;
+			}
+			mIndexes[mCount++] = index;
+		}
+
+		/**
+		 * Trim the index arrays of the subtree to their counts.
+		 * 
+		 * @author Luo Yinzhuo
+		 */
+		private void trim() {
+			if (mIndexes.length != mCount) {
+				int[] indexes = new int[mCount];
+				System.arraycopy(mIndexes, 0, indexes, 0, mCount);
+				mIndexes = indexes;
+			}
+			for (Node child : mChildren) {
+				child.trim();
+			}
+		}
+	}
+
+	/** The indexed {@link EnterpriseInfo} list. */
+	private final List<EnterpriseInfo> mEnterpriseInfos;
+	/** The trie root. */
+	private final Node mRoot = new Node();
+
+	/**
+	 * Build the index of a {@link EnterpriseInfo} list.
+	 * 
+	 * @param enterpriseInfos
+	 *            The {@link EnterpriseInfo} list, which must not be changed
+	 *            afterwards.
+	 */
+	EnterpriseSearchIndex(List<EnterpriseInfo> enterpriseInfos) {
+		mEnterpriseInfos = enterpriseInfos;
+		for (int i = 0; i < enterpriseInfos.size(); i++) {
+			final String name = enterpriseInfos.get(i).getName();
+			put(normalize(name), i);
+			put(getInitials(name), i);
+		}
+		mRoot.trim();
+	}
+
+	/**
+	 * Get the indexed {@link EnterpriseInfo} list.
+	 * 
+	 * @return The {@link EnterpriseInfo} list.
+	 * @author Luo Yinzhuo
+	 */
+	List<EnterpriseInfo> getEnterpriseInfos() {
+		return mEnterpriseInfos;
+	}
+
+	/**
+	 * Search the names which start with the query, or whose pinyin initials
+	 * start with it.
+	 * 
+	 * @param query
+	 *            The query.
+	 * @return The sorted indexes of the matched {@link EnterpriseInfo}s,
+	 *         which must not be changed.
+	 * @author Luo Yinzhuo
+	 */
+	int[] search(CharSequence query) {
+		final String key = normalize(query.toString().trim());
+		Node node = mRoot;
+		for (int i = 0; i < key.length() && node != null; i++) {
+			node = node.getChild(key.charAt(i));
+		}
+		return node == null ? EMPTY : node.mIndexes;
+	}
+
+	/**
+	 * Put a key into the trie.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @param index
+	 *            The index of the name.
+	 * @author Luo Yinzhuo
+	 */
+	private void put(String key, int index) {
+		Node node = mRoot;
+		node.addIndex(index);
+		for (int i = 0; i < key.length(); i++) {
+			node = node.putChild(key.charAt(i));
+			node.addIndex(index);
+		}
+	}
+
+	/**
+	 * Normalize a name or a query so the letters match in any case.
+	 * 
+	 * @param text
+	 *            The name or the query.
+	 * @return The normalized text.
+	 * @author Luo Yinzhuo
+	 */
+	private static String normalize(String text) {
+		return text.toLowerCase();
+	}
+
+	/**
+	 * Get the pinyin initials of a name. The characters which are not level 1
+	 * Chinese characters are kept as they are, except the blanks.
+	 * 
+	 * @param name
+	 *            The name.
+	 * @return The pinyin initials.
+	 * @author Luo Yinzhuo
+	 */
+	private static String getInitials(String name) {
+		StringBuilder initials = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			final char c = name.charAt(i);
+			if (Character.isWhitespace(c)) {
+				continue;
+			}
+			initials.append(Character.toLowerCase(getInitial(c)));
+		}
+		return initials.toString();
+	}
+
+	/**
+	 * Get the pinyin initial of a character.
+	 * 
+	 * @param c
+	 *            The character.
+	 * @return The pinyin initial, or the character itself if it's not a level
+	 *         1 Chinese character.
+	 * @author Luo Yinzhuo
+	 */
+	private static char getInitial(char c) {
+		if (c < 0x80) {
+			return c;
+		}
+
+		byte[] bytes;
+		try {
+			bytes = String.valueOf(c).getBytes(CHARSET_GB2312);
+		} catch (UnsupportedEncodingException e) {
+			return c;
+		}
+		if (bytes.length != 2) {
+			return c;
+		}
+
+		final int code = ((bytes[0] & 0xFF) - 0xA0) * 100
+				+ ((bytes[1] & 0xFF) - 0xA0);
+		if (code < INITIAL_CODES[0]
+				|| code >= INITIAL_CODES[INITIAL_CODES.length - 1]) {
+			return c;
+		}
+		for (int i = INITIALS.length - 1; i >= 0; i--) {
+			if (code >= INITIAL_CODES[i]) {
+				return INITIALS[i];
+			}
+		}
+		return c;
+	}
+}
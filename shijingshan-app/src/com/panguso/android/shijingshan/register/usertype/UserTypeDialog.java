@@ -3,8 +3,8 @@ package com.panguso.android.shijingshan.register.usertype;
 import java.util.List;
 
 import com.panguso.android.shijingshan.R;
-import com.panguso.android.shijingshan.net.NetworkService;
-import com.panguso.android.shijingshan.net.NetworkService.UserTypeInfoListRequestListener;
+import com.panguso.android.shijingshan.register.ReferenceDataCache;
+import com.panguso.android.shijingshan.register.ReferenceDataCache.OnReferenceDataListener;
 import com.panguso.android.shijingshan.register.usertype.UserTypeButton.OnUserTypeButtonListener;
 import com.panguso.android.shijingshan.widget.BlueTitleBar;
 import com.panguso.android.shijingshan.widget.BlueTitleBar.OnBackListener;
@@ -24,7 +24,7 @@ import android.widget.LinearLayout;
  * 
  */
 public final class UserTypeDialog extends Dialog implements OnBackListener,
-		UserTypeInfoListRequestListener, OnUserTypeButtonListener {
+		OnReferenceDataListener<UserTypeInfo>, OnUserTypeButtonListener {
 
 	/**
 	 * Interface definition for a callback to be invoked during the request for
@@ -110,8 +110,28 @@ public final class UserTypeDialog extends Dialog implements OnBackListener,
 		window.setBackgroundDrawable(new ColorDrawable(Color.WHITE));
 
 		mListener = listener;
-		NetworkService.getUserTypeInfoList(
-				context.getString(R.string.server_url), this);
+		List<UserTypeInfo> userTypeInfos = ReferenceDataCache.getInstance(
+				context).getUserTypeInfoList(this);
+		if (userTypeInfos != null) {
+			addUserTypeButtons(userTypeInfos);
+			mInitialized = true;
+		}
+	}
+
+	/**
+	 * Add the {@link UserTypeButton}s.
+	 * 
+	 * @param userTypeInfos
+	 *            The list of {@link UserTypeInfo}.
+	 * @author Luo Yinzhuo
+	 */
+	private void addUserTypeButtons(List<UserTypeInfo> userTypeInfos) {
+		for (UserTypeInfo userTypeInfo : userTypeInfos) {
+			UserTypeButton button = userTypeInfo
+					.getUserTypeButton(getContext());
+			button.setOnUserTypeButtonListener(this);
+			mUserType.addView(button);
+		}
 	}
 
 	@Override
@@ -138,29 +158,14 @@ public final class UserTypeDialog extends Dialog implements OnBackListener,
 	}
 
 	@Override
-	public void onUserTypeInfoListRequestFailed() {
-	}
+	public void onReferenceDataLoaded(int key, List<UserTypeInfo> userTypeInfos) {
+		addUserTypeButtons(userTypeInfos);
 
-	@Override
-	public void onUserTypeInfoListResponseSuccess(
-			final List<UserTypeInfo> userTypeInfos) {
-		getOwnerActivity().runOnUiThread(new Runnable() {
-			@Override
-			public void run() {
-				for (UserTypeInfo userTypeInfo : userTypeInfos) {
-					UserTypeButton button = userTypeInfo
-							.getUserTypeButton(getContext());
-					button.setOnUserTypeButtonListener(UserTypeDialog.this);
-					mUserType.addView(button);
-				}
-
-				if (mListener != null) {
-					mListener.onUserTypeDialogInitialized();
-				}
-
-				mInitialized = true;
-			}
-		});
+		if (mListener != null) {
+			mListener.onUserTypeDialogInitialized();
+		}
+
+		mInitialized = true;
 	}
 
 	/**
@@ -169,22 +174,20 @@ public final class UserTypeDialog extends Dialog implements OnBackListener,
 	 * @author Luo Yinzhuo
 	 */
 	public void retry() {
-		NetworkService.getUserTypeInfoList(
-				getContext().getString(R.string.server_url), this);
+		List<UserTypeInfo> userTypeInfos = ReferenceDataCache.getInstance(
+				getContext()).getUserTypeInfoList(this);
 		mRetry = false;
+		if (userTypeInfos != null) {
+			onReferenceDataLoaded(ReferenceDataCache.KEY_NONE, userTypeInfos);
+		}
 	}
 
 	@Override
-	public void onUserTypeInfoListResponseFailed() {
-		getOwnerActivity().runOnUiThread(new Runnable() {
-			@Override
-			public void run() {
-				mRetry = true;
-				if (mListener != null) {
-					mListener.onUserTypeDialogInitializeFailed();
-				}
-			}
-		});
+	public void onReferenceDataFailed(int key) {
+		mRetry = true;
+		if (mListener != null) {
+			mListener.onUserTypeDialogInitializeFailed();
+		}
 	}
 
 	@Override
@@ -80,6 +80,22 @@ public final class UserTypeInfo {
 				json.getString(KEY_USER_TYPE_NAME));
 	}
 
+	/**
+	 * Convert the user type info to its JSON object, which could be parsed by
+	 * {@link #parse(JSONObject)}.
+	 * 
+	 * @return The user type info JSON object.
+	 * @throws JSONException
+	 *             If the user type info has error.
+	 * @author Luo Yinzhuo
+	 */
+	public JSONObject toJson() throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put(KEY_USER_TYPE_ID, mId);
+		json.put(KEY_USER_TYPE_NAME, mName);
+		return json;
+	}
+
 	@Override
 	public String toString() {
 		return "UserTypeInfo [mId=" + mId + ", mName=" + mName + "]";
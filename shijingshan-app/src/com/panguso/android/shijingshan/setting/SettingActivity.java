@@ -1,11 +1,15 @@
 package com.panguso.android.shijingshan.setting;
 
+import com.panguso.android.shijingshan.MainThreadMonitor;
 import com.panguso.android.shijingshan.R;
 import com.panguso.android.shijingshan.account.AccountManager;
+import com.panguso.android.shijingshan.net.NetworkPolicy;
+import com.panguso.android.shijingshan.net.NetworkPolicy.Mode;
 import com.panguso.android.shijingshan.net.NetworkService;
 import com.panguso.android.shijingshan.setting.SettingButton.OnSettingButtonListener;
 import com.panguso.android.shijingshan.setting.about.AboutActivity;
 import com.panguso.android.shijingshan.setting.changepassword.ChangePasswordActivity;
+import com.panguso.android.shijingshan.setting.mainthread.MainThreadReportActivity;
 import com.panguso.android.shijingshan.setting.suggestion.SuggestionActivity;
 import com.panguso.android.shijingshan.widget.BlueTitleBar;
 import com.panguso.android.shijingshan.widget.BlueTitleBar.OnBackListener;
@@ -31,10 +35,16 @@ public class SettingActivity extends Activity implements OnBackListener,
 	private SettingButton mClearCache;
 	/** The clear cache text. */
 	private TextView mClearCacheText;
+	/** The network mode button. */
+	private SettingButton mNetworkMode;
+	/** The network mode text. */
+	private TextView mNetworkModeText;
 	/** The suggestion button. */
 	private SettingButton mSuggestion;
 	/** The about button. */
 	private SettingButton mAbout;
+	/** The main thread report button, only in a debug build. */
+	private SettingButton mMainThreadReport;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -56,6 +66,13 @@ public class SettingActivity extends Activity implements OnBackListener,
 		mClearCacheText = (TextView) findViewById(R.id.clear_cache_text);
 		updateClearCacheText();
 
+		mNetworkMode = (SettingButton) findViewById(R.id.network_mode);
+		mNetworkMode.setText(getString(R.string.network_mode));
+		mNetworkMode.setOnSettingButtonListener(this);
+
+		mNetworkModeText = (TextView) findViewById(R.id.network_mode_text);
+		updateNetworkModeText();
+
 		mSuggestion = (SettingButton) findViewById(R.id.suggestion);
 		mSuggestion.setText(getString(R.string.suggestion));
 		mSuggestion.setOnSettingButtonListener(this);
@@ -64,6 +81,14 @@ public class SettingActivity extends Activity implements OnBackListener,
 		mAbout.setText(getString(R.string.about));
 		mAbout.setOnSettingButtonListener(this);
 
+		mMainThreadReport = (SettingButton) findViewById(
+				R.id.main_thread_report);
+		mMainThreadReport.setText(getString(R.string.main_thread_report));
+		mMainThreadReport.setOnSettingButtonListener(this);
+		if (!MainThreadMonitor.isEnabled()) {
+			mMainThreadReport.setVisibility(View.GONE);
+		}
+
 		if (!AccountManager.isLogin()) {
 			mChangePassword.setVisibility(View.GONE);
 			mSuggestion.setVisibility(View.GONE);
@@ -85,12 +110,40 @@ public class SettingActivity extends Activity implements OnBackListener,
 			NetworkService.clearExternalStorage();
 			updateClearCacheText();
 			break;
+		case R.id.network_mode:
+			final Mode[] modes = Mode.values();
+			NetworkPolicy.setMode(this, modes[(NetworkPolicy.getMode(this)
+					.ordinal() + 1) % modes.length]);
+			updateNetworkModeText();
+			break;
 		case R.id.suggestion:
 			startActivity(new Intent(this, SuggestionActivity.class));
 			break;
 		case R.id.about:
 			startActivity(new Intent(this, AboutActivity.class));
 			break;
+		case R.id.main_thread_report:
+			startActivity(new Intent(this, MainThreadReportActivity.class));
+			break;
+		}
+	}
+
+	/**
+	 * Update the network mode text.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void updateNetworkModeText() {
+		switch (NetworkPolicy.getMode(this)) {
+		case ECONOMY:
+			mNetworkModeText.setText(getString(R.string.network_mode_economy));
+			break;
+		case FULL:
+			mNetworkModeText.setText(getString(R.string.network_mode_full));
+			break;
+		default:
+			mNetworkModeText.setText(getString(R.string.network_mode_auto));
+			break;
 		}
 	}
 
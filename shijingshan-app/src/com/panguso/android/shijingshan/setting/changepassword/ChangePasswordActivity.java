@@ -2,6 +2,7 @@ package com.panguso.android.shijingshan.setting.changepassword;
 
 import org.json.JSONException;
 
+import com.panguso.android.shijingshan.KeyValueStore.Editor;
 import com.panguso.android.shijingshan.R;
 import com.panguso.android.shijingshan.account.AccountManager;
 import com.panguso.android.shijingshan.column.ColumnPageActivity;
@@ -17,7 +18,6 @@ import com.panguso.android.shijingshan.widget.BlueTitleBar.OnBackListener;
 
 import android.app.Activity;
 import android.app.Dialog;
-import android.content.SharedPreferences.Editor;
 import android.content.res.Resources;
 import android.os.Bundle;
 import android.text.InputType;
@@ -202,17 +202,15 @@ public class ChangePasswordActivity extends Activity implements OnBackListener,
 			public void run() {
 				AccountManager.changePassword(mNewPassword.getText());
 
-				// TODO: Maybe there's a better way to do this by invoking
-				// ColumnPageActivity's method.
-				Editor editor = getSharedPreferences(
-						"column.ColumnPageActivity", MODE_PRIVATE).edit();
+				Editor editor = ColumnPageActivity.getKeyValueStore(
+						ChangePasswordActivity.this).edit();
 				try {
 					editor.putString(ColumnPageActivity.KEY_LAST_ACCOUNT,
 							AccountManager.getJson());
 				} catch (JSONException e) {
 					e.printStackTrace();
 				}
-				editor.commit();
+				editor.apply();
 
 				finish();
 			}
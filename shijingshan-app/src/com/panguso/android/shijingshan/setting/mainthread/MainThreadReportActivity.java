@@ -0,0 +1,76 @@
+package com.panguso.android.shijingshan.setting.mainthread;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import com.panguso.android.shijingshan.MainThreadMonitor;
+import com.panguso.android.shijingshan.MainThreadMonitor.Violation;
+import com.panguso.android.shijingshan.R;
+import com.panguso.android.shijingshan.widget.BlueTitleBar;
+import com.panguso.android.shijingshan.widget.BlueTitleBar.OnBackListener;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.widget.TextView;
+
+/**
+ * The activity to report the violations detected by the
+ * {@link MainThreadMonitor}, from the latest, in a debug build.
+ * 
+ * @author Luo Yinzhuo
+ */
+public class MainThreadReportActivity extends Activity implements
+		OnBackListener {
+	/** The title bar. */
+	private BlueTitleBar mTitleBar;
+	/** The report text. */
+	private TextView mReport;
+
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.main_thread_report_activity);
+
+		mTitleBar = (BlueTitleBar) findViewById(R.id.title_bar);
+		mTitleBar.setTitle(getResources().getString(
+				R.string.main_thread_report_title));
+		mTitleBar.setOnBackListener(this);
+
+		mReport = (TextView) findViewById(R.id.report);
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+		updateReport();
+	}
+
+	@Override
+	public void onBack() {
+		finish();
+	}
+
+	/**
+	 * Update the report text.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private void updateReport() {
+		final List<Violation> violations = MainThreadMonitor.getViolations();
+		if (violations.isEmpty()) {
+			mReport.setText(getString(R.string.main_thread_report_empty));
+			return;
+		}
+
+		final SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS",
+				Locale.US);
+		final StringBuilder builder = new StringBuilder();
+		for (Violation violation : violations) {
+			builder.append(format.format(new Date(violation.getTime())))
+					.append(' ').append(violation).append("\n\n");
+		}
+		mReport.setText(builder);
+	}
+}
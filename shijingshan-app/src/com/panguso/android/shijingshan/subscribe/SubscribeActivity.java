@@ -3,15 +3,18 @@ package com.panguso.android.shijingshan.subscribe;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.panguso.android.shijingshan.MemoryCoordinator;
+import com.panguso.android.shijingshan.MemoryCoordinator.TrimPolicy;
+import com.panguso.android.shijingshan.MemoryCoordinator.Trimmable;
 import com.panguso.android.shijingshan.R;
 import com.panguso.android.shijingshan.account.AccountManager;
 import com.panguso.android.shijingshan.dialog.MessageDialog;
 import com.panguso.android.shijingshan.dialog.MessageDialog.OnMessageDialogListener;
 import com.panguso.android.shijingshan.dialog.WaitingDialog;
 import com.panguso.android.shijingshan.net.NetworkService;
-import com.panguso.android.shijingshan.net.NetworkService.SaveSubscribeInfoListRequestListener;
 import com.panguso.android.shijingshan.net.NetworkService.SearchSubscribeInfoListRequestListener;
 import com.panguso.android.shijingshan.subscribe.SubscribeButton.OnSubscribeButtonListener;
+import com.panguso.android.shijingshan.subscribe.SubscriptionEditor.OnSubscriptionChangeListener;
 import com.panguso.android.shijingshan.widget.BlueTitleBar;
 import com.panguso.android.shijingshan.widget.BlueTitleBar.OnBackListener;
 
@@ -27,24 +30,13 @@ import android.widget.LinearLayout;
  */
 public class SubscribeActivity extends Activity implements OnBackListener,
 		SearchSubscribeInfoListRequestListener, OnSubscribeButtonListener,
-		OnMessageDialogListener, SaveSubscribeInfoListRequestListener {
+		OnMessageDialogListener, OnSubscriptionChangeListener, Trimmable {
 
 	/** The waiting dialog ID. */
 	private static final int DIALOG_WAITING = 0;
 	/** The retry dialog ID. */
 	private static final int DIALOG_RETRY = 1;
 
-	/** The retry data. */
-	private final Bundle mRetryData = new Bundle();
-	/** The retry type key. */
-	private static final String KEY_RETRY_TYPE = "retry_type";
-	/** The retry type search. */
-	private static final int RETRY_TYPE_SEARCH = 0;
-	/** The retry type add. */
-	private static final int RETRY_TYPE_SAVE = 1;
-	/** The retry subscribe id key. */
-	private static final String KEY_SUBSCRIBE_IDS = "subscribe_ids";
-
 	@Override
 	protected Dialog onCreateDialog(int id) {
 		switch (id) {
@@ -66,6 +58,10 @@ public class SubscribeActivity extends Activity implements OnBackListener,
 	private LinearLayout mSubscribe;
 	/** The subscribe button cache. */
 	private final List<SubscribeButton> mSubscribeButtonCache = new ArrayList<SubscribeButton>();
+	/** The estimated byte count of a {@link SubscribeButton}. */
+	private static final int ESTIMATED_BUTTON_SIZE = 2 * 1024;
+	/** The subscription editor. */
+	private SubscriptionEditor mEditor;
 
 	@SuppressWarnings("deprecation")
 	@Override
@@ -81,10 +77,40 @@ public class SubscribeActivity extends Activity implements OnBackListener,
 
 		mSubscribe = (LinearLayout) findViewById(R.id.subscribe_layout);
 
+		mEditor = SubscriptionEditor.getInstance(this);
+		mEditor.registerListener(this);
+		MemoryCoordinator.getInstance().register("subscribe buttons", this,
+				TrimPolicy.CACHE);
 		NetworkService.searchSubscribeInfoList(getString(R.string.server_url),
 				AccountManager.getAccount(), this);
 	}
 
+	@Override
+	protected void onPause() {
+		mEditor.flush();
+		super.onPause();
+	}
+
+	@Override
+	protected void onDestroy() {
+		mEditor.unregisterListener(this);
+		MemoryCoordinator.getInstance().unregister(this);
+		super.onDestroy();
+	}
+
+	@Override
+	public long trim(float retain) {
+		// Only the buttons not shown are dropped, the shown ones come first.
+		final int shown = Math.min(mSubscribe.getChildCount(),
+				mSubscribeButtonCache.size());
+		final int hidden = mSubscribeButtonCache.size() - shown;
+		final List<SubscribeButton> dropped = mSubscribeButtonCache.subList(
+				shown + (int) (hidden * retain), mSubscribeButtonCache.size());
+		final long reclaimed = (long) dropped.size() * ESTIMATED_BUTTON_SIZE;
+		dropped.clear();
+		return reclaimed;
+	}
+
 	@Override
 	public void onBack() {
 		finish();
@@ -101,6 +127,8 @@ public class SubscribeActivity extends Activity implements OnBackListener,
 			@SuppressWarnings("deprecation")
 			@Override
 			public void run() {
+				mEditor.setSubscribeInfos(AccountManager.getAccount(),
+						subscribeInfos);
 				mSubscribe.removeAllViews();
 				int buttonSize = mSubscribeButtonCache.size();
 
@@ -117,6 +145,8 @@ public class SubscribeActivity extends Activity implements OnBackListener,
 						button.setOnSubscribeButtonListener(SubscribeActivity.this);
 						mSubscribeButtonCache.add(button);
 					}
+					button.setCheckBox(mEditor.isSubscribed(subscribeInfo
+							.getId()));
 					mSubscribe.addView(button);
 				}
 				dismissDialog(DIALOG_WAITING);
@@ -131,31 +161,21 @@ public class SubscribeActivity extends Activity implements OnBackListener,
 			@Override
 			public void run() {
 				showDialog(DIALOG_RETRY);
-				mRetryData.putInt(KEY_RETRY_TYPE, RETRY_TYPE_SEARCH);
 				dismissDialog(DIALOG_WAITING);
 			}
 		});
 	}
 
-	@SuppressWarnings("deprecation")
 	@Override
 	public void onClicked(int id, boolean check) {
-		List<Integer> subscribeIds = new ArrayList<Integer>();
-		for (SubscribeButton button : mSubscribeButtonCache) {
-			if (button.isChecked()) {
-				subscribeIds.add(button.getSubscribeId());
-			}
-		}
+		mEditor.toggle(id, !check);
+	}
 
-		if (check) {
-			subscribeIds.remove(Integer.valueOf(id));
-		} else {
-			subscribeIds.add(id);
+	@Override
+	public void onSubscriptionChanged(List<SubscribeInfo> subscribeInfos) {
+		for (SubscribeButton button : mSubscribeButtonCache) {
+			button.setCheckBox(mEditor.isSubscribed(button.getSubscribeId()));
 		}
-
-		NetworkService.saveSubscribeInfoList(getString(R.string.server_url),
-				AccountManager.getAccount(), subscribeIds, this);
-		showDialog(DIALOG_WAITING);
 	}
 
 	@SuppressWarnings("deprecation")
@@ -164,10 +184,7 @@ public class SubscribeActivity extends Activity implements OnBackListener,
 		switch (id) {
 		case DIALOG_RETRY:
 			dismissDialog(DIALOG_RETRY);
-			int retryType = mRetryData.getInt(KEY_RETRY_TYPE);
-			if (retryType == RETRY_TYPE_SEARCH) {
-				finish();
-			}
+			finish();
 			break;
 		}
 	}
@@ -179,59 +196,10 @@ public class SubscribeActivity extends Activity implements OnBackListener,
 		case DIALOG_RETRY:
 			dismissDialog(DIALOG_RETRY);
 			showDialog(DIALOG_WAITING);
-			int retryType = mRetryData.getInt(KEY_RETRY_TYPE);
-			switch (retryType) {
-			case RETRY_TYPE_SEARCH:
-				NetworkService.searchSubscribeInfoList(
-						getString(R.string.server_url),
-						AccountManager.getAccount(), this);
-				break;
-			case RETRY_TYPE_SAVE:
-				NetworkService
-						.saveSubscribeInfoList(
-								getString(R.string.server_url),
-								AccountManager.getAccount(),
-								mRetryData
-										.getIntegerArrayList(KEY_SUBSCRIBE_IDS),
-								this);
-				break;
-			}
+			NetworkService.searchSubscribeInfoList(
+					getString(R.string.server_url),
+					AccountManager.getAccount(), this);
+			break;
 		}
 	}
-
-	@Override
-	public void onSaveSubscribeInfoListRequestFailed() {
-	}
-
-	@Override
-	public void onSaveSubscribeInfoListResponseSuccess(
-			final List<Integer> subscribeIds) {
-		runOnUiThread(new Runnable() {
-			@SuppressWarnings("deprecation")
-			@Override
-			public void run() {
-				for (SubscribeButton button : mSubscribeButtonCache) {
-					button.setCheckBox(subscribeIds.contains(button
-							.getSubscribeId()));
-				}
-				dismissDialog(DIALOG_WAITING);
-			}
-		});
-	}
-
-	@Override
-	public void onSaveSubscribeInfoListResponseFailed(
-			final List<Integer> subscribeIds) {
-		runOnUiThread(new Runnable() {
-			@SuppressWarnings("deprecation")
-			@Override
-			public void run() {
-				showDialog(DIALOG_RETRY);
-				mRetryData.putInt(KEY_RETRY_TYPE, RETRY_TYPE_SAVE);
-				mRetryData.putIntegerArrayList(KEY_SUBSCRIBE_IDS,
-						(ArrayList<Integer>) subscribeIds);
-				dismissDialog(DIALOG_WAITING);
-			}
-		});
-	}
 }
@@ -29,7 +29,7 @@ public final class SubscribeInfo {
 	 * @param subscribe
 	 *            The column is subscribed or not.
 	 */
-	private SubscribeInfo(int id, String name, boolean subscribe) {
+	SubscribeInfo(int id, String name, boolean subscribe) {
 		mId = id;
 		mName = name;
 		mSubscribe = subscribe;
@@ -44,6 +44,26 @@ public final class SubscribeInfo {
 		return mId;
 	}
 
+	/**
+	 * Get the subscribe name.
+	 * 
+	 * @return The subscribe name.
+	 * @author Luo Yinzhuo
+	 */
+	public String getName() {
+		return mName;
+	}
+
+	/**
+	 * Check if the column is subscribed.
+	 * 
+	 * @return True if the column is subscribed, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	public boolean isSubscribe() {
+		return mSubscribe;
+	}
+
 	/**
 	 * Get the {@link SubscribeButton} based on the {@link SubscribeInfo}.
 	 * 
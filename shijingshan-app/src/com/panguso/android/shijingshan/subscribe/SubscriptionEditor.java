@@ -0,0 +1,322 @@
+package com.panguso.android.shijingshan.subscribe;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.panguso.android.shijingshan.R;
+import com.panguso.android.shijingshan.net.NetworkService;
+import com.panguso.android.shijingshan.net.NetworkService.SaveSubscribeInfoListRequestListener;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Edit the account's subscriptions optimistically. A toggle is applied to the
+ * local state at once, and the toggles made within {@link #DEBOUNCE_DELAY} are
+ * coalesced into one save request. When a save fails, the columns not toggled
+ * again since the request was sent are rolled back to the last saved state.
+ * All the methods must be invoked on the UI thread.
+ *
+ * @author Luo Yinzhuo
+ */
+public final class SubscriptionEditor implements
+		SaveSubscribeInfoListRequestListener {
+
+	/**
+	 * Interface definition for a callback to be invoked when the local
+	 * subscription state changes.
+	 *
+	 * @author Luo Yinzhuo
+	 */
+	public interface OnSubscriptionChangeListener {
+		/**
+		 * Called when the local subscription state changes.
+		 *
+		 * @param subscribeInfos
+		 *            The {@link SubscribeInfo} list with the local
+		 *            subscription state.
+		 * @author Luo Yinzhuo
+		 */
+		public void onSubscriptionChanged(List<SubscribeInfo> subscribeInfos);
+	}
+
+	/** The delay to coalesce the toggles into one save request. */
+	private static final long DEBOUNCE_DELAY = 1000;
+
+	/** The single instance. */
+	private static SubscriptionEditor SINGLE_INSTANCE;
+
+	/**
+	 * Get the single {@link SubscriptionEditor} instance.
+	 *
+	 * @param context
+	 *            The context.
+	 * @return The single {@link SubscriptionEditor} instance.
+	 * @author Luo Yinzhuo
+	 */
+	public static SubscriptionEditor getInstance(Context context) {
+		if (SINGLE_INSTANCE == null) {
+			SINGLE_INSTANCE = new SubscriptionEditor(
+					context.getApplicationContext());
+		}
+		return SINGLE_INSTANCE;
+	}
+
+	/** The application context. */
+	private final Context mContext;
+	/** The UI thread handler. */
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	/** The listeners. */
+	private final List<OnSubscriptionChangeListener> mListeners = new ArrayList<OnSubscriptionChangeListener>();
+
+	/** The account. */
+	private String mAccount = "";
+	/** The subscribe infos from the server. */
+	private List<SubscribeInfo> mSubscribeInfos = new ArrayList<SubscribeInfo>();
+	/** The subscribe ids saved on the server. */
+	private final Set<Integer> mSavedIds = new HashSet<Integer>();
+	/** The subscribe ids of the local state. */
+	private final Set<Integer> mLocalIds = new HashSet<Integer>();
+	/** The subscribe ids being saved, or null if no save is running. */
+	private List<Integer> mSavingIds;
+
+	/** Save the local state. */
+	private final Runnable mSave = new Runnable() {
+		@Override
+		public void run() {
+			save();
+		}
+	};
+
+	/**
+	 * Construct a new instance.
+	 *
+	 * @param context
+	 *            The application context.
+	 */
+	private SubscriptionEditor(Context context) {
+		mContext = context;
+	}
+
+	/**
+	 * Register a listener to detect the local subscription state changes.
+	 *
+	 * @param listener
+	 *            The listener.
+	 * @author Luo Yinzhuo
+	 */
+	public void registerListener(OnSubscriptionChangeListener listener) {
+		mListeners.add(listener);
+	}
+
+	/**
+	 * Unregister the listener from detecting the local subscription state
+	 * changes.
+	 *
+	 * @param listener
+	 *            The listener.
+	 * @author Luo Yinzhuo
+	 */
+	public void unregisterListener(OnSubscriptionChangeListener listener) {
+		mListeners.remove(listener);
+	}
+
+	/**
+	 * Set the subscribe infos from the server. The pending toggles of the same
+	 * account are kept.
+	 *
+	 * @param account
+	 *            The account.
+	 * @param subscribeInfos
+	 *            The {@link SubscribeInfo} list.
+	 * @author Luo Yinzhuo
+	 */
+	void setSubscribeInfos(String account, List<SubscribeInfo> subscribeInfos) {
+		final boolean pending = mSavingIds != null
+				|| !mLocalIds.equals(mSavedIds);
+		mSubscribeInfos = new ArrayList<SubscribeInfo>(subscribeInfos);
+		mSavedIds.clear();
+		for (SubscribeInfo subscribeInfo : subscribeInfos) {
+			if (subscribeInfo.isSubscribe()) {
+				mSavedIds.add(subscribeInfo.getId());
+			}
+		}
+
+		if (!account.equals(mAccount) || !pending) {
+			mAccount = account;
+			mSavingIds = null;
+			mHandler.removeCallbacks(mSave);
+			mLocalIds.clear();
+			mLocalIds.addAll(mSavedIds);
+		}
+	}
+
+	/**
+	 * Check if the column is subscribed in the local state.
+	 *
+	 * @param id
+	 *            The subscribe id.
+	 * @return True if the column is subscribed, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	boolean isSubscribed(int id) {
+		return mLocalIds.contains(id);
+	}
+
+	/**
+	 * Subscribe or unsubscribe a column. The local state changes at once, and
+	 * the save request is sent after {@link #DEBOUNCE_DELAY} without another
+	 * toggle.
+	 *
+	 * @param id
+	 *            The subscribe id.
+	 * @param subscribe
+	 *            True to subscribe, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	void toggle(int id, boolean subscribe) {
+		if (subscribe) {
+			mLocalIds.add(id);
+		} else {
+			mLocalIds.remove(id);
+		}
+		notifyListeners();
+
+		mHandler.removeCallbacks(mSave);
+		mHandler.postDelayed(mSave, DEBOUNCE_DELAY);
+	}
+
+	/**
+	 * Send the pending toggles at once.
+	 *
+	 * @author Luo Yinzhuo
+	 */
+	void flush() {
+		mHandler.removeCallbacks(mSave);
+		save();
+	}
+
+	/**
+	 * Save the local state if it differs from the saved one. Only one save
+	 * request runs at a time; the toggles made meanwhile are saved when it
+	 * returns.
+	 *
+	 * @author Luo Yinzhuo
+	 */
+	private void save() {
+		if (mSavingIds != null || mLocalIds.equals(mSavedIds)) {
+			return;
+		}
+
+		mSavingIds = new ArrayList<Integer>(mLocalIds);
+		NetworkService.saveSubscribeInfoList(
+				mContext.getString(R.string.server_url), mAccount, mSavingIds,
+				this);
+	}
+
+	/**
+	 * Notify the listeners of the local subscription state.
+	 *
+	 * @author Luo Yinzhuo
+	 */
+	private void notifyListeners() {
+		List<SubscribeInfo> subscribeInfos = new ArrayList<SubscribeInfo>();
+		for (SubscribeInfo subscribeInfo : mSubscribeInfos) {
+			final int id = subscribeInfo.getId();
+			subscribeInfos.add(new SubscribeInfo(id, subscribeInfo.getName(),
+					mLocalIds.contains(id)));
+		}
+
+		for (OnSubscriptionChangeListener listener : new ArrayList<OnSubscriptionChangeListener>(
+				mListeners)) {
+			listener.onSubscriptionChanged(subscribeInfos);
+		}
+	}
+
+	/**
+	 * Called when the save request returns.
+	 *
+	 * @param subscribeIds
+	 *            The subscribe ids sent by the request.
+	 * @param success
+	 *            True if the server saved them, otherwise false.
+	 * @author Luo Yinzhuo
+	 */
+	private void onSaved(List<Integer> subscribeIds, boolean success) {
+		// Ignore the request sent before the account changed.
+		if (!subscribeIds.equals(mSavingIds)) {
+			return;
+		}
+		mSavingIds = null;
+
+		if (success) {
+			mSavedIds.clear();
+			mSavedIds.addAll(subscribeIds);
+			save();
+			return;
+		}
+
+		// Roll back the columns whose local state is still the one sent.
+		Set<Integer> ids = new HashSet<Integer>(subscribeIds);
+		ids.addAll(mSavedIds);
+		ids.addAll(mLocalIds);
+		boolean changed = false;
+		for (Integer id : ids) {
+			final boolean sent = subscribeIds.contains(id);
+			if (mLocalIds.contains(id) == sent
+					&& mSavedIds.contains(id) != sent) {
+				if (sent) {
+					mLocalIds.remove(id);
+				} else {
+					mLocalIds.add(id);
+				}
+				changed = true;
+			}
+		}
+
+		if (changed) {
+			notifyListeners();
+		}
+		if (!mLocalIds.equals(mSavedIds)) {
+			mHandler.removeCallbacks(mSave);
+			mHandler.postDelayed(mSave, DEBOUNCE_DELAY);
+		}
+	}
+
+	@Override
+	public void onSaveSubscribeInfoListRequestFailed() {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (mSavingIds != null) {
+					onSaved(mSavingIds, false);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void onSaveSubscribeInfoListResponseSuccess(
+			final List<Integer> subscribeIds) {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				onSaved(subscribeIds, true);
+			}
+		});
+	}
+
+	@Override
+	public void onSaveSubscribeInfoListResponseFailed(
+			final List<Integer> subscribeIds) {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				onSaved(subscribeIds, false);
+			}
+		});
+	}
+}
@@ -8,6 +8,21 @@ public class ApplicationTest extends ApplicationTestCase<Application> {
 		super(Application.class);
 	}
 
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		MonitoredTestCase.startMonitoring();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		try {
+			MonitoredTestCase.finishMonitoring();
+		} finally {
+			super.tearDown();
+		}
+	}
+
 	/**
 	 * Test {@link Application#getUUID()}.
 	 * 
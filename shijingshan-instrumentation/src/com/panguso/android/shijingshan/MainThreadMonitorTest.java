@@ -0,0 +1,126 @@
+package com.panguso.android.shijingshan;
+
+import com.panguso.android.shijingshan.MainThreadMonitor.Type;
+import com.panguso.android.shijingshan.MainThreadMonitor.Violation;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * To test {@link MainThreadMonitor} in the test mode. It records violations on
+ * purpose, so it doesn't extend {@link MonitoredTestCase}.
+ * 
+ * @author Luo Yinzhuo
+ */
+public class MainThreadMonitorTest extends AndroidTestCase {
+	/** The time to wait for the UI thread in milliseconds. */
+	private static final long TIMEOUT = 5000;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		MainThreadMonitor.setTestMode(true);
+		MainThreadMonitor.clearViolations();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		MainThreadMonitor.setTestMode(false);
+		MainThreadMonitor.clearViolations();
+		super.tearDown();
+	}
+
+	/**
+	 * Test the work on a background thread is not a violation.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	@SmallTest
+	public void testBackgroundThread() {
+		final long start = MainThreadMonitor.start();
+		assertEquals(-1, start);
+		MainThreadMonitor.finish(Type.DISK_READ, "read", start);
+		assertTrue(MainThreadMonitor.getViolations().isEmpty());
+	}
+
+	/**
+	 * Test the work on the UI thread is recorded without throwing, which
+	 * would kill the process.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	@SmallTest
+	public void testMainThread() throws InterruptedException {
+		final Object lock = new Object();
+		final RuntimeException[] thrown = new RuntimeException[1];
+		final boolean[] done = new boolean[1];
+		new Handler(Looper.getMainLooper()).post(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					MainThreadMonitor.finish(Type.NETWORK, "get",
+							MainThreadMonitor.start());
+				} catch (RuntimeException e) {
+					thrown[0] = e;
+				}
+				synchronized (lock) {
+					done[0] = true;
+					lock.notifyAll();
+				}
+			}
+		});
+
+		synchronized (lock) {
+			final long deadline = System.currentTimeMillis() + TIMEOUT;
+			while (!done[0] && System.currentTimeMillis() < deadline) {
+				lock.wait(TIMEOUT);
+			}
+		}
+		assertTrue(done[0]);
+		assertNull(thrown[0]);
+		assertEquals(1, MainThreadMonitor.getViolations().size());
+		final Violation violation = MainThreadMonitor.getViolations().get(0);
+		assertEquals(Type.NETWORK, violation.getType());
+		assertTrue(violation.toString().contains(
+				MainThreadMonitorTest.class.getName()));
+	}
+
+	/**
+	 * Test the violations are listed from the latest.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	@SmallTest
+	public void testViolationOrder() throws InterruptedException {
+		final Object lock = new Object();
+		final boolean[] done = new boolean[1];
+		new Handler(Looper.getMainLooper()).post(new Runnable() {
+			@Override
+			public void run() {
+				for (Type type : new Type[] { Type.DISK_READ, Type.DISK_WRITE }) {
+					MainThreadMonitor.finish(type, type.name(),
+							MainThreadMonitor.start());
+				}
+				synchronized (lock) {
+					done[0] = true;
+					lock.notifyAll();
+				}
+			}
+		});
+
+		synchronized (lock) {
+			final long deadline = System.currentTimeMillis() + TIMEOUT;
+			while (!done[0] && System.currentTimeMillis() < deadline) {
+				lock.wait(TIMEOUT);
+			}
+		}
+		assertTrue(done[0]);
+		assertEquals(2, MainThreadMonitor.getViolations().size());
+		assertEquals(Type.DISK_WRITE, MainThreadMonitor.getViolations().get(0)
+				.getType());
+		assertEquals(Type.DISK_READ, MainThreadMonitor.getViolations().get(1)
+				.getType());
+	}
+}
@@ -0,0 +1,161 @@
+package com.panguso.android.shijingshan;
+
+import com.panguso.android.shijingshan.MemoryCoordinator.TrimPolicy;
+import com.panguso.android.shijingshan.MemoryCoordinator.Trimmable;
+
+import android.content.ComponentCallbacks2;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * To test {@link MemoryCoordinator} at each trim level.
+ * 
+ * @author Luo Yinzhuo
+ */
+public class MemoryCoordinatorTest extends MonitoredTestCase {
+	/** The byte count of a fake cache. */
+	private static final long CACHE_SIZE = 1000;
+
+	/** The trim levels from the mildest to the most severe. */
+	private static final int[] LEVELS = {
+			MemoryCoordinator.TRIM_MEMORY_RUNNING_MODERATE,
+			MemoryCoordinator.TRIM_MEMORY_RUNNING_LOW,
+			MemoryCoordinator.TRIM_MEMORY_RUNNING_CRITICAL,
+			ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN,
+			ComponentCallbacks2.TRIM_MEMORY_BACKGROUND,
+			ComponentCallbacks2.TRIM_MEMORY_MODERATE,
+			ComponentCallbacks2.TRIM_MEMORY_COMPLETE };
+	/** The fractions a pool keeps by the level. */
+	private static final float[] POOL_RETAINS = { 0.5f, 0f, 0f, 0f, 0f, 0f,
+			0f };
+	/** The fractions a cache keeps by the level. */
+	private static final float[] CACHE_RETAINS = { 1f, 0.5f, 0.25f, 0.5f,
+			0.25f, 0f, 0f };
+	/** The fractions a screen keeps by the level. */
+	private static final float[] SCREEN_RETAINS = { 1f, 1f, 0.5f, 1f, 0.5f,
+			0f, 0f };
+
+	/**
+	 * A fake cache which records the trims.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	private static final class FakeCache implements Trimmable {
+		/** The byte count. */
+		private long mSize = CACHE_SIZE;
+		/** The trim count. */
+		private int mTrimCount = 0;
+		/** The fraction of the last trim, 1 if never trimmed. */
+		private float mRetain = 1f;
+
+		@Override
+		public long trim(float retain) {
+			final long size = (long) (mSize * retain);
+			final long reclaimed = mSize - size;
+			mSize = size;
+			mTrimCount++;
+			mRetain = retain;
+			return reclaimed;
+		}
+	}
+
+	/**
+	 * Assert a cache is trimmed as its policy tells.
+	 * 
+	 * @param coordinator
+	 *            The coordinator.
+	 * @param name
+	 *            The cache name.
+	 * @param cache
+	 *            The cache.
+	 * @param retain
+	 *            The fraction to keep.
+	 * @author Luo Yinzhuo
+	 */
+	private static void assertTrimmed(MemoryCoordinator coordinator,
+			String name, FakeCache cache, float retain) {
+		final long reclaimed = CACHE_SIZE - (long) (CACHE_SIZE * retain);
+		assertEquals(name, retain < 1f ? 1 : 0, cache.mTrimCount);
+		assertEquals(name, retain, cache.mRetain, 0f);
+		assertEquals(name, CACHE_SIZE - reclaimed, cache.mSize);
+		assertEquals(name, reclaimed, coordinator.getReclaimedBytes(name));
+	}
+
+	/**
+	 * Test {@link MemoryCoordinator#onTrimMemory(int)} at each trim level.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	@SmallTest
+	public void testTrimLevels() {
+		for (int i = 0; i < LEVELS.length; i++) {
+			final MemoryCoordinator coordinator = new MemoryCoordinator();
+			final FakeCache pool = new FakeCache();
+			final FakeCache cache = new FakeCache();
+			final FakeCache screen = new FakeCache();
+			coordinator.register("pool", pool, TrimPolicy.POOL);
+			coordinator.register("cache", cache, TrimPolicy.CACHE);
+			coordinator.register("screen", screen, TrimPolicy.SCREEN);
+
+			final long reclaimed = coordinator.onTrimMemory(LEVELS[i]);
+			assertTrimmed(coordinator, "pool", pool, POOL_RETAINS[i]);
+			assertTrimmed(coordinator, "cache", cache, CACHE_RETAINS[i]);
+			assertTrimmed(coordinator, "screen", screen, SCREEN_RETAINS[i]);
+			assertEquals(CACHE_SIZE * 3 - pool.mSize - cache.mSize
+					- screen.mSize, reclaimed);
+			assertEquals(reclaimed, coordinator.getReclaimedBytes());
+		}
+	}
+
+	/**
+	 * Test a level milder than
+	 * {@link MemoryCoordinator#TRIM_MEMORY_RUNNING_MODERATE} trims nothing.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	@SmallTest
+	public void testMildLevel() {
+		final MemoryCoordinator coordinator = new MemoryCoordinator();
+		final FakeCache pool = new FakeCache();
+		coordinator.register("pool", pool, TrimPolicy.POOL);
+
+		assertEquals(0, coordinator.onTrimMemory(0));
+		assertEquals(0, pool.mTrimCount);
+	}
+
+	/**
+	 * Test {@link MemoryCoordinator#onLowMemory()} trims as the most severe
+	 * level, and the reclaimed bytes add up over the trims.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	@SmallTest
+	public void testLowMemory() {
+		final MemoryCoordinator coordinator = new MemoryCoordinator();
+		final FakeCache cache = new FakeCache();
+		coordinator.register("cache", cache, TrimPolicy.CACHE);
+
+		coordinator.onTrimMemory(MemoryCoordinator.TRIM_MEMORY_RUNNING_LOW);
+		assertEquals(CACHE_SIZE / 2, coordinator.getReclaimedBytes("cache"));
+		coordinator.onLowMemory();
+		assertEquals(0, cache.mSize);
+		assertEquals(CACHE_SIZE, coordinator.getReclaimedBytes("cache"));
+		assertEquals(CACHE_SIZE, coordinator.getReclaimedBytes());
+	}
+
+	/**
+	 * Test {@link MemoryCoordinator#unregister(Trimmable)}.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	@SmallTest
+	public void testUnregister() {
+		final MemoryCoordinator coordinator = new MemoryCoordinator();
+		final FakeCache cache = new FakeCache();
+		coordinator.register("cache", cache, TrimPolicy.CACHE);
+		coordinator.unregister(cache);
+
+		assertEquals(0, coordinator.onLowMemory());
+		assertEquals(0, cache.mTrimCount);
+		assertEquals(CACHE_SIZE, cache.mSize);
+	}
+}
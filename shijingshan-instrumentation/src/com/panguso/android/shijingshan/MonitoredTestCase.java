@@ -0,0 +1,66 @@
+package com.panguso.android.shijingshan;
+
+import java.util.List;
+
+import com.panguso.android.shijingshan.MainThreadMonitor.Type;
+import com.panguso.android.shijingshan.MainThreadMonitor.Violation;
+
+import android.test.AndroidTestCase;
+
+/**
+ * The base of the instrumentation tests, which runs each test in the
+ * {@link MainThreadMonitor} test mode and fails it if any work is reported on
+ * the UI thread meanwhile. A test not extending it calls
+ * {@link #startMonitoring()} and {@link #finishMonitoring()} from its own set
+ * up and tear down.
+ * 
+ * @author Luo Yinzhuo
+ */
+public abstract class MonitoredTestCase extends AndroidTestCase {
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		startMonitoring();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		try {
+			finishMonitoring();
+		} finally {
+			super.tearDown();
+		}
+	}
+
+	/**
+	 * Turn on the test mode and forget the violations before a test.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	public static void startMonitoring() {
+		MainThreadMonitor.setTestMode(true);
+		MainThreadMonitor.clearViolations();
+	}
+
+	/**
+	 * Turn off the test mode after a test, and fail it if any work is
+	 * reported on the UI thread. The slow UI thread messages are left to the
+	 * report screen, since they depend on the load of the device.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	public static void finishMonitoring() {
+		final List<Violation> violations = MainThreadMonitor.getViolations();
+		MainThreadMonitor.setTestMode(false);
+		MainThreadMonitor.clearViolations();
+
+		final StringBuilder builder = new StringBuilder();
+		for (Violation violation : violations) {
+			if (violation.getType() != Type.SLOW_OPERATION) {
+				builder.append('\n').append(violation);
+			}
+		}
+		assertTrue("Work on the UI thread:" + builder, builder.length() == 0);
+	}
+}
@@ -0,0 +1,210 @@
+package com.panguso.android.shijingshan.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.http.HttpStatus;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+
+/**
+ * A local HTTP server of a generated image for the news image tests. It
+ * pauses after the first part of the image, as a slow link does, so the
+ * preview is decoded before the rest arrives. It may answer a request with a
+ * query by an error, as a server rejecting the variant parameters does.
+ * 
+ * @author Luo Yinzhuo
+ */
+final class ImageServer implements Runnable {
+	/** The image size in pixels on each side. */
+	private static final int IMAGE_SIZE = 512;
+	/** The size sent before the pause, enough for a preview. */
+	private static final int FIRST_PART_SIZE = 32 * 1024;
+	/** The pause after the first part in milliseconds. */
+	private static final long PAUSE = 1000;
+
+	/** The server socket. */
+	private final ServerSocket mServerSocket;
+	/** The image data. */
+	private final byte[] mImage;
+	/** The status code to answer a request with a query. */
+	private final int mVariantStatusCode;
+	/** The paths requested, from the first. */
+	private final List<String> mRequests = new ArrayList<String>();
+
+	/**
+	 * Construct a new instance serving every request with the image, and start
+	 * serving.
+	 * 
+	 * @throws IOException
+	 *             If the server socket can't be opened.
+	 * @author Luo Yinzhuo
+	 */
+	ImageServer() throws IOException {
+		this(HttpStatus.SC_OK);
+	}
+
+	/**
+	 * Construct a new instance and start serving.
+	 * 
+	 * @param variantStatusCode
+	 *            The status code to answer a request with a query.
+	 * @throws IOException
+	 *             If the server socket can't be opened.
+	 * @author Luo Yinzhuo
+	 */
+	ImageServer(int variantStatusCode) throws IOException {
+		mVariantStatusCode = variantStatusCode;
+		mServerSocket = new ServerSocket(0, 0,
+				InetAddress.getByName("127.0.0.1"));
+
+		// Noise doesn't compress, so the image is far beyond a preview.
+		final int[] pixels = new int[IMAGE_SIZE * IMAGE_SIZE];
+		final Random random = new Random(IMAGE_SIZE);
+		for (int i = 0; i < pixels.length; i++) {
+			pixels[i] = random.nextInt() | 0xFF000000;
+		}
+		final Bitmap bitmap = Bitmap.createBitmap(pixels, IMAGE_SIZE,
+				IMAGE_SIZE, Bitmap.Config.ARGB_8888);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		bitmap.compress(CompressFormat.JPEG, 90, out);
+		bitmap.recycle();
+		mImage = out.toByteArray();
+
+		new Thread(this, "ImageServer").start();
+	}
+
+	/**
+	 * Get the URL of an image on this server.
+	 * 
+	 * @param name
+	 *            The image name, unique to keep it out of the caches.
+	 * @return The image URL.
+	 * @author Luo Yinzhuo
+	 */
+	String getImageURL(String name) {
+		return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/" + name
+				+ ".jpg";
+	}
+
+	/**
+	 * Get the paths requested so far.
+	 * 
+	 * @return The paths with their queries, from the first.
+	 * @author Luo Yinzhuo
+	 */
+	List<String> getRequests() {
+		synchronized (mRequests) {
+			return new ArrayList<String>(mRequests);
+		}
+	}
+
+	/**
+	 * Stop serving.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	void close() {
+		try {
+			mServerSocket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void run() {
+		while (!mServerSocket.isClosed()) {
+			Socket socket = null;
+			try {
+				socket = mServerSocket.accept();
+				serve(socket);
+			} catch (IOException e) {
+				// Closed.
+			} finally {
+				if (socket != null) {
+					try {
+						socket.close();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Serve a request with the image, or the error for a rejected variant.
+	 * 
+	 * @param socket
+	 *            The accepted socket.
+	 * @throws IOException
+	 *             If the connection fails.
+	 * @author Luo Yinzhuo
+	 */
+	private void serve(Socket socket) throws IOException {
+		final InputStream in = socket.getInputStream();
+		final String requestLine = readLine(in);
+		for (String line = readLine(in); line.length() > 0; line = readLine(in)) {
+			// Skip the headers.
+		}
+		final String path = requestLine.split(" ")[1];
+		synchronized (mRequests) {
+			mRequests.add(path);
+		}
+
+		final OutputStream out = socket.getOutputStream();
+		if (path.indexOf('?') != -1 && mVariantStatusCode != HttpStatus.SC_OK) {
+			out.write(("HTTP/1.1 " + mVariantStatusCode
+					+ " Rejected\r\nContent-Length: 0\r\n"
+					+ "Connection: close\r\n\r\n").getBytes("US-ASCII"));
+			out.flush();
+			return;
+		}
+
+		out.write(("HTTP/1.1 200 OK\r\nContent-Type: image/jpeg\r\n"
+				+ "Content-Length: " + mImage.length
+				+ "\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+		out.write(mImage, 0, FIRST_PART_SIZE);
+		out.flush();
+		try {
+			Thread.sleep(PAUSE);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		out.write(mImage, FIRST_PART_SIZE, mImage.length - FIRST_PART_SIZE);
+		out.flush();
+	}
+
+	/**
+	 * Read a line of the request.
+	 * 
+	 * @param in
+	 *            The request stream.
+	 * @return The line without the line break.
+	 * @throws IOException
+	 *             If the connection fails or ends.
+	 * @author Luo Yinzhuo
+	 */
+	private static String readLine(InputStream in) throws IOException {
+		final StringBuilder builder = new StringBuilder();
+		for (int c = in.read(); c != '\n'; c = in.read()) {
+			if (c == -1) {
+				throw new IOException("The request ends.");
+			}
+			if (c != '\r') {
+				builder.append((char) c);
+			}
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,73 @@
+package com.panguso.android.shijingshan.net;
+
+import com.panguso.android.shijingshan.MonitoredTestCase;
+
+import android.net.Uri;
+import android.os.Build;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * To test {@link ImageVariant}. Each test uses its own host, because the
+ * hosts rejecting the variant parameters are remembered for the process.
+ * 
+ * @author Luo Yinzhuo
+ */
+public class ImageVariantTest extends MonitoredTestCase {
+
+	/**
+	 * Test the request URL of a sized variant asks the size and the format.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	@SmallTest
+	public void testRequestURL() {
+		final String imageURL = "http://sized.example.com/news/1.jpg";
+		final ImageVariant variant = new ImageVariant(imageURL, 240, 160);
+		final Uri uri = Uri.parse(variant.getRequestURL());
+		assertEquals("/news/1.jpg", uri.getPath());
+		assertEquals("240", uri.getQueryParameter("width"));
+		assertEquals("160", uri.getQueryParameter("height"));
+
+		final boolean webP = Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH;
+		assertEquals(webP ? "webp" : null, uri.getQueryParameter("format"));
+		assertEquals(imageURL + "#240x160" + (webP ? ".webp" : ""),
+				variant.getKey());
+	}
+
+	/**
+	 * Test the variant of an unknown size is the original image.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	@SmallTest
+	public void testUnknownSize() {
+		final String imageURL = "http://unknown.example.com/news/1.jpg";
+		final ImageVariant variant = new ImageVariant(imageURL, 0, 160);
+		assertEquals(imageURL, variant.getRequestURL());
+		assertEquals(imageURL, variant.getKey());
+	}
+
+	/**
+	 * Test a host rejecting the variant parameters is asked the original
+	 * images from then on, under the same keys.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	@SmallTest
+	public void testRejected() {
+		final String imageURL = "http://rejected.example.com/news/1.jpg";
+		final ImageVariant variant = new ImageVariant(imageURL, 240, 160);
+		final String key = variant.getKey();
+		assertFalse(imageURL.equals(variant.getRequestURL()));
+
+		variant.onRejected();
+		assertEquals(imageURL, variant.getRequestURL());
+		assertEquals(key, variant.getKey());
+		final String otherURL = "http://rejected.example.com/news/2.jpg";
+		assertEquals(otherURL,
+				new ImageVariant(otherURL, 120, 80).getRequestURL());
+		assertFalse("http://sized.example.com/news/2.jpg"
+				.equals(new ImageVariant("http://sized.example.com/news/2.jpg",
+						120, 80).getRequestURL()));
+	}
+}
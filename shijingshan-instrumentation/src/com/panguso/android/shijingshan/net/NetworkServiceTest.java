@@ -1,8 +1,11 @@
 package com.panguso.android.shijingshan.net;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import com.panguso.android.shijingshan.MonitoredTestCase;
 import com.panguso.android.shijingshan.column.ColumnInfo;
 import com.panguso.android.shijingshan.net.NetworkService.ChangePasswordRequestListener;
 import com.panguso.android.shijingshan.net.NetworkService.NewsImageRequestListener;
@@ -21,13 +24,16 @@ import com.panguso.android.shijingshan.register.enterprise.EnterpriseInfo;
 import com.panguso.android.shijingshan.register.usertype.UserTypeInfo;
 import com.panguso.android.shijingshan.subscribe.SubscribeInfo;
 
-import android.test.AndroidTestCase;
+import org.apache.http.HttpStatus;
+
 import android.test.suitebuilder.annotation.LargeTest;
 import android.test.suitebuilder.annotation.SmallTest;
 
-public class NetworkServiceTest extends AndroidTestCase {
+public class NetworkServiceTest extends MonitoredTestCase {
 	/** The server url. */
 	private static final String SERVER_URL = "http://s-94379.gotocdn.com/sjs/JsonAction";
+	/** The time to wait for an image in milliseconds. */
+	private static final long IMAGE_TIMEOUT = 10000;
 
 	/**
 	 * Test
@@ -868,8 +874,9 @@ public class NetworkServiceTest extends AndroidTestCase {
 		}
 	}
 
-/**
-	 * Test {@link NetworkService#getNewsImage(String, NewsImageRequestListener)
+	/**
+	 * Test
+	 * {@link NetworkService#getNewsImage(int, String, int, int, NewsImageRequestListener)}
 	 * 
 	 * @author Luo Yinzhuo
 	 */
@@ -879,9 +886,13 @@ public class NetworkServiceTest extends AndroidTestCase {
 		final String IMAGE_URL = "http://s-94379.gotocdn.com/sjs//html/100/2013/11/2013_11_9228.jpg";
 		/** The page index. */
 		final int PAGE = 0;
+		/** The width the image is drawn in. */
+		final int WIDTH = 240;
+		/** The height the image is drawn in. */
+		final int HEIGHT = 160;
 		/** The lock to synchronize. */
 		final Object LOCK = new Object();
-		NetworkService.getNewsImage(PAGE, IMAGE_URL,
+		NetworkService.getNewsImage(PAGE, IMAGE_URL, WIDTH, HEIGHT,
 				new NewsImageRequestListener() {
 
 					@Override
@@ -893,6 +904,11 @@ public class NetworkServiceTest extends AndroidTestCase {
 						}
 					}
 
+					@Override
+					public void onNewsImagePreviewSuccess(int page) {
+						assertEquals("Page index not match!", page, PAGE);
+					}
+
 					@Override
 					public void onNewsImageResponseFailed(int page,
 							String imageURL) {
@@ -914,6 +930,135 @@ public class NetworkServiceTest extends AndroidTestCase {
 		}
 	}
 
+	/**
+	 * Test the preview of a large image is called back before the image, and
+	 * is returned while the image is loading.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	@LargeTest
+	public void testGetNewsImagePreview() throws IOException,
+			InterruptedException {
+		/** The page index. */
+		final int PAGE = 1;
+		/** The lock to synchronize. */
+		final Object LOCK = new Object();
+		final ImageServer server = new ImageServer();
+		final String imageURL = server.getImageURL("preview"
+				+ System.currentTimeMillis());
+		final List<String> callbacks = new ArrayList<String>();
+		try {
+			assertNull(NetworkService.getNewsImage(PAGE, imageURL, 0, 0,
+					new NewsImageRequestListener() {
+
+						@Override
+						public void onNewsImageResponseSuccess(int page) {
+							synchronized (LOCK) {
+								callbacks.add("image " + page);
+								LOCK.notify();
+							}
+						}
+
+						@Override
+						public void onNewsImagePreviewSuccess(int page) {
+							final boolean shown = NetworkService.getNewsImage(
+									page, imageURL, 0, 0, this) != null;
+							synchronized (LOCK) {
+								callbacks.add("preview " + page + " " + shown);
+							}
+						}
+
+						@Override
+						public void onNewsImageResponseFailed(int page,
+								String imageURL) {
+							synchronized (LOCK) {
+								callbacks.add("failed " + page);
+								LOCK.notify();
+							}
+						}
+					}));
+
+			synchronized (LOCK) {
+				final long deadline = System.currentTimeMillis()
+						+ IMAGE_TIMEOUT;
+				while (callbacks.size() < 2
+						&& System.currentTimeMillis() < deadline) {
+					LOCK.wait(IMAGE_TIMEOUT);
+				}
+			}
+		} finally {
+			server.close();
+		}
+		assertEquals(Arrays.asList("preview " + PAGE + " true", "image "
+				+ PAGE), callbacks);
+	}
+
+	/**
+	 * Test the original image is downloaded when the server rejects the
+	 * variant parameters, and the host is asked the original images from then
+	 * on.
+	 * 
+	 * @author Luo Yinzhuo
+	 */
+	@LargeTest
+	public void testGetNewsImageFallback() throws IOException,
+			InterruptedException {
+		/** The page index. */
+		final int PAGE = 2;
+		/** The lock to synchronize. */
+		final Object LOCK = new Object();
+		final ImageServer server = new ImageServer(HttpStatus.SC_NOT_FOUND);
+		final String imageURL = server.getImageURL("fallback"
+				+ System.currentTimeMillis());
+		final String path = imageURL.substring(imageURL.indexOf('/', 7));
+		final List<String> callbacks = new ArrayList<String>();
+		try {
+			NetworkService.getNewsImage(PAGE, imageURL, 240, 160,
+					new NewsImageRequestListener() {
+
+						@Override
+						public void onNewsImageResponseSuccess(int page) {
+							synchronized (LOCK) {
+								callbacks.add("image " + page);
+								LOCK.notify();
+							}
+						}
+
+						@Override
+						public void onNewsImagePreviewSuccess(int page) {
+						}
+
+						@Override
+						public void onNewsImageResponseFailed(int page,
+								String imageURL) {
+							synchronized (LOCK) {
+								callbacks.add("failed " + page);
+								LOCK.notify();
+							}
+						}
+					});
+
+			synchronized (LOCK) {
+				final long deadline = System.currentTimeMillis()
+						+ IMAGE_TIMEOUT;
+				while (callbacks.isEmpty()
+						&& System.currentTimeMillis() < deadline) {
+					LOCK.wait(IMAGE_TIMEOUT);
+				}
+			}
+		} finally {
+			server.close();
+		}
+		assertEquals(Arrays.asList("image " + PAGE), callbacks);
+
+		final List<String> requests = server.getRequests();
+		assertEquals(2, requests.size());
+		assertTrue(requests.get(0).startsWith(path + "?"));
+		assertEquals(path, requests.get(1));
+		assertEquals(imageURL,
+				new ImageVariant(imageURL, 240, 160).getRequestURL());
+	}
+
 	/**
 	 * Test {@link NetworkService#getExternalStorageUsedSpace()}.
 	 * 
@@ -12,7 +12,7 @@ import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.HttpPost;
 import org.json.JSONException;
 
-import android.test.AndroidTestCase;
+import com.panguso.android.shijingshan.MonitoredTestCase;
 
 /**
  * To test original web request.
@@ -20,7 +20,7 @@ import android.test.AndroidTestCase;
  * @author Luo Yinzhuo
  * 
  */
-public class RequestFactoryTest extends AndroidTestCase {
+public class RequestFactoryTest extends MonitoredTestCase {
 	/** The server url. */
 	private static final String SERVER_URL = "http://s-94379.gotocdn.com/sjs/JsonAction";
 	/** The no user. */